@@ -16,6 +16,9 @@ public class AttributeSchema {
 
     private int constraints;
 
+    // Value of the attribute in records stored before it was added, null if none was given.
+    private Object defaultValue;
+
     /**
      *
      * @param name         : name of attribute
@@ -70,6 +73,25 @@ public class AttributeSchema {
         return type;
     }
 
+    /**
+     * Returns the value records stored before the attribute was added to its
+     * table read as.
+     *
+     * @return the default value, null if none was given.
+     */
+    public Object getDefaultValue() {
+        return defaultValue;
+    }
+
+    /**
+     * Sets the value records stored before the attribute was added read as.
+     *
+     * @param defaultValue : Integer, Double, Boolean or String value, or null.
+     */
+    public void setDefaultValue(Object defaultValue) {
+        this.defaultValue = defaultValue;
+    }
+
     /**
      * Returns the size in bytes of attribute.
      * 
@@ -1,331 +1,433 @@
 package src.BPlusTree;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
+/**
+ * One node of a B+ tree, held in a single page of the tree's file.
+ *
+ * An inner node has one more child than it has keys: child i holds the keys
+ * less than key i, and the last child the keys greater than or equal to the
+ * last key. A leaf holds, for each of its keys, where the key's record is in
+ * the table (page location and index of the record in the page), and the
+ * location of the next leaf so the leaves can be walked in key order.
+ *
+ * Keys and pointers are kept in arrays sized for one key more than a node may
+ * hold, so a node can overfill by one key before it is split. Integer and
+ * double keys are kept in an int[] or double[], so finding a key is a binary
+ * search over primitives, other keys in an Object[] searched by compareTo.
+ *
+ * On disk a node is:
+ * - header: 1 for a leaf or 0 for an inner node, number of keys, next leaf
+ * (-1 for the last leaf and for inner nodes)
+ * - the keys, each taking the same number of bytes
+ * - inner node: the children's node indexes, leaf: a page location and a
+ * record index per key
+ * The rest of the page is unused.
+ */
 public class BPlusNode {
-    public Object value;
-    public final boolean isInner; //TODO this will be replaced by a function
-    public final int type;
-    public BPlusNode less = null; //the leftmost node of this nodes LEFT child cluster
-    public BPlusNode greaterOrEqual = null; //the leftmost node of this nodes RIGHT child cluster
-    public BPlusNode parent = null; //
-    public BPlusNode leftSib = null;
-    public BPlusNode rightSib = null;
-    public boolean hasLeft = false;
-    public boolean hasRight = false;
-
-    public int pageIndex; // location of the page that the search key is in
-    public int recordIndex; // the index within the page that the search key's record is in
-
-    public BPlusNode( Object value, boolean isInner, int type, int page, int recordIndex ) {
-        this.value = value;     // the Search Key value for this node
-        this.isInner = isInner; //
-        this.type = type;       // data type int
-        this.pageIndex = page;
-        this.recordIndex = recordIndex;
-    }
+
+    // leaf flag, number of keys, next leaf
+    public static final int HEADER_SIZE = Integer.BYTES * 3;
+
+    private final int nodeIndex;
+    private final boolean isLeaf;
+    private final int keyType;
+    private int keyCount = 0;
+    // only the array for the tree's key type is used
+    private int[] intKeys;
+    private double[] doubleKeys;
+    private Object[] objectKeys;
+    // inner nodes only
+    private int[] children;
+    // leaves only, where the record of each key is
+    private int[] pageIndexes;
+    private int[] recordIndexes;
+    private int nextLeaf = -1;
 
     /**
-     * This method will take a byte array containing the data for a node from the BPlusTree file
-     * and convert it into a BPlusNode object
-     * @param tree The corresponding BPlusTree object that this node belongs to
-     * @param nodeInBytes A byte array that was read from disk and contains the data for the node object
-     * @return The BPlusNode object created from the binary data
+     * BPlusNode Constructor, for an empty node
+     *
+     * @param nodeIndex location of the node in the tree's file, in pages
+     * @param isLeaf    whether the node is a leaf
+     * @param keyType   type of the tree's keys
+     * @param limit     the most keys a node of the tree holds
      */
-    public static BPlusNode parseBytes(BPlusTree tree, byte[] nodeInBytes) {
-        /*
-        The structure of the byte array is as follows:
-        (Obj)   searchKeyValue      the value of the Node, being an int, double, bool, char(x), or varchar(x)
-        (int)   pageIndex           the index of the table's page where the stored Search Key's record is
-        (int)   recordIndex         the index of the record within the table's page that the record is in
-        (int)   parentIndex         the location of the parent on file (-1 if root)
-        (int)   leftSiblingIndex    the location of the left sibling on file (-1 if leftmost)
-        (int)   rightSiblingIndex   the location of the right sibling on file (-1 if rightmost)
-        (int)   lessIndex    the location of the child node where the key is less than this node (-1 if leaf)
-        (int)   greaterOrEqualIndex   the location of the child node where the key is greater than this node (-1 if leaf)
-         */
-        ByteBuffer byteBuffer = ByteBuffer.wrap(nodeInBytes);
-        Object value;
-        switch (tree.dataType) {
-            case 1 -> //Integer
-                    value = byteBuffer.getInt();
-            case 2 -> //Double
-                    value = byteBuffer.getDouble();
-            case 3 -> { //Boolean
-                char boolChar = byteBuffer.getChar(); // A Boolean is either 't' or 'f' on disk
-                if (boolChar == 't')
-                    value = true;
-                else
-                    value = false;
-            }
-            case 4, 5 -> { //Char(x) and Varchar(x)
-                // Char(x) standard string fixed array of len x
-                int numCharXChars = byteBuffer.getInt();
-                StringBuilder chars = new StringBuilder();
-                for (int ch = 0; ch < numCharXChars; ch++) {
-                    chars.append(byteBuffer.getChar()); // get next 2 BYTES
-                }
-                value = chars.toString();
-            }
-            default -> {
-                System.err.println("Unexpected type int found (" + tree.dataType + "), returning null");
-                return null;
-            }
+    public BPlusNode(int nodeIndex, boolean isLeaf, int keyType, int limit) {
+        this.nodeIndex = nodeIndex;
+        this.isLeaf = isLeaf;
+        this.keyType = keyType;
+        int capacity = limit + 1;
+        switch (keyType) {
+            case 1 -> intKeys = new int[capacity];
+            case 2 -> doubleKeys = new double[capacity];
+            default -> objectKeys = new Object[capacity];
+        }
+        if (isLeaf) {
+            pageIndexes = new int[capacity];
+            recordIndexes = new int[capacity];
+        } else {
+            children = new int[capacity + 1];
         }
-        int pageIndex = byteBuffer.getInt();
-        int recordIndex = byteBuffer.getInt();
-        int parentIndex = byteBuffer.getInt();
-        int leftSiblingIndex = byteBuffer.getInt();
-        int rightSiblingIndex = byteBuffer.getInt();
-        int lessIndex = byteBuffer.getInt();
-        int greaterOrEqualIndex = byteBuffer.getInt();
-        boolean isInner = lessIndex != -1 && greaterOrEqualIndex != -1;
-        BPlusNode node = new BPlusNode(value, isInner, tree.dataType, pageIndex, recordIndex);
-        //TODO uncomment when File I/O becomes the method for accessing nodes
-//        node.parent = parentIndex;
-//        node.leftSib = leftSiblingIndex;
-//        node.rightSib = rightSiblingIndex;
-//        node.less = lessIndex;
-//        node.greaterOrEqual = greaterOrEqualIndex;
-        return node;
+    }
+
+    public int getNodeIndex() {
+        return nodeIndex;
+    }
+
+    public boolean isLeaf() {
+        return isLeaf;
+    }
+
+    public int getKeyCount() {
+        return keyCount;
+    }
+
+    public Object getKey(int index) {
+        return switch (keyType) {
+            case 1 -> intKeys[index];
+            case 2 -> doubleKeys[index];
+            default -> objectKeys[index];
+        };
+    }
+
+    public int getChild(int index) {
+        return children[index];
+    }
+
+    public int getPageIndex(int index) {
+        return pageIndexes[index];
+    }
+
+    public int getRecordIndex(int index) {
+        return recordIndexes[index];
+    }
+
+    public int getNextLeaf() {
+        return nextLeaf;
+    }
+
+    void setNextLeaf(int nextLeaf) {
+        this.nextLeaf = nextLeaf;
     }
 
     /**
-     * Given a BPlusNode, serialize it into a byte array that can be written to disk
-     * @param node  The node to convert into binary
-     * @return A byte array containing the data within the node that can be written to disk
+     * Binary search for a key in the node
+     *
+     * @param key search key, of the tree's key type
+     * @return position of the key if it is in the node, otherwise
+     *         (-(position it would be inserted at) - 1), as Arrays.binarySearch
      */
-    public static byte[] parseNode(BPlusNode node) {
-        byte[] byteArray = new byte[node.size()];
-        ByteBuffer byteBuffer = ByteBuffer.wrap(byteArray);
-        switch (node.type) {
-            case 1 -> //Integer
-                    byteBuffer.putInt((Integer) node.value);
-            case 2 -> //Double
-                    byteBuffer.putDouble((Double) node.value);
-            case 3 -> { // Boolean
-                boolean val = (boolean) node.value;
-                if (val) // A Boolean is either 't' or 'f' on disk
-                    byteBuffer.putChar('t');
-                else
-                    byteBuffer.putChar('f');
-            }
-            case 4, 5 -> { // Char(x) standard string fixed array of len x
-                String chars = (String) node.value;
-                byteBuffer.putInt(chars.length());
-                for (int j = 0; j < chars.length(); ++j) {
-                    byteBuffer.putChar(chars.charAt(j));
-                }
-            }
-        }
-        byteBuffer.putInt(node.pageIndex);
-        byteBuffer.putInt(node.recordIndex);
-        //TODO uncomment when File I/O becomes the method for accessing nodes
-//        byteBuffer.putInt(node.parent);
-//        byteBuffer.putInt(node.leftSib);
-//        byteBuffer.putInt(node.rightSib);
-//        byteBuffer.putInt(node.less);
-//        byteBuffer.putInt(node.greaterOrEqual);
-        return byteArray;
+    public int search(Object key) {
+        return switch (keyType) {
+            case 1 -> Arrays.binarySearch(intKeys, 0, keyCount, (Integer) key);
+            case 2 -> Arrays.binarySearch(doubleKeys, 0, keyCount, (Double) key);
+            default -> Arrays.binarySearch(objectKeys, 0, keyCount, key);
+        };
     }
 
     /**
-     * Calculates the size of the Node in bytes
-     * A node contains the search key and seven indexes
-     * @return the size of the node in bytes
+     * @param key search key, of the tree's key type
+     * @return position of the first key greater than key, in an inner node the
+     *         child that holds key
      */
-    public int size(){
-        int size = 0;
-        // The size of the search key
-        if (value instanceof Integer) {
-            size += Integer.BYTES;
-        } else if (value instanceof Double) {
-            size += Double.BYTES;
-        } else if (value instanceof Boolean) {
-            size += Character.BYTES;
-        }
-        // case for char(x) and varchar(x), add 2 bytes for each char
-        else if (value instanceof String) {
-            size += Integer.BYTES; // 4 bytes for each int that comes
-            int numCharsInString = value.toString().length(); // before char or varchar
-            int charBytes = numCharsInString * Character.BYTES;
-            size += charBytes;
-        }
-        size += Integer.BYTES * 7; // Nodes have 7 indexes to store
-        return size;
+    public int childFor(Object key) {
+        int position = search(key);
+        return position >= 0 ? position + 1 : -(position + 1);
+    }
+
+    void setChild(int index, int child) {
+        children[index] = child;
     }
 
     /**
-     * This function compares the value of two different nodes
-     *
-     * @param Bval The value of a node being compared to the current node
-     * @return negative if A > B, 0 for A == B, and positive for A < B
+     * @param child location of a child of this inner node
+     * @return position of the child, -1 if it is not a child of this node
      */
-    public int compare( Object Bval ) {
-        switch (this.type) {
-            case 1 -> {
-                int AIn = (int) this.value;
-                int BIn = (int) Bval;
-                return Integer.compare( AIn, BIn );
-            }
-            case 2 -> {
-                double ADb = (double) this.value;
-                double BDb = (double) Bval;
-                return Double.compare( ADb, BDb );
-            }
-            case 3 -> {
-                boolean ABo = (boolean) this.value;
-                boolean BBo = (boolean) Bval;
-                return Boolean.compare( ABo, BBo );
-            }
-            case 4, 5 -> {
-                String ASt = (String) this.value;
-                String BSt = (String) Bval;
-                return ASt.compareTo( BSt );
-            }
-            default -> {
-                System.out.println( "Didn't recognize data type." );
-                return 0;
+    int indexOfChild(int child) {
+        for (int i = 0; i <= keyCount; i++) {
+            if (children[i] == child) {
+                return i;
             }
         }
+        return -1;
     }
 
+    void setKey(int index, Object key) {
+        switch (keyType) {
+            case 1 -> intKeys[index] = (Integer) key;
+            case 2 -> doubleKeys[index] = (Double) key;
+            default -> objectKeys[index] = key;
+        }
+    }
 
     /**
-     * Recursively prints the tree
-     *
-     * @return string for current node and all children
+     * Copies keys from one node to another (or within one node), as System.arraycopy
      */
-    public String printTree() {
-        StringBuilder stringBuilder = new StringBuilder();
-        stringBuilder.append( this.value.toString() ).append( "\t" );
-
-        BPlusNode current = this;
-        if ( this.less != null ) {
-            stringBuilder.append( this.getLess().printTree() );
-            stringBuilder.append( this.getGreaterOrEqual().printTree() );
-        }
-        while (current.hasRight) {
-            current = current.rightSib;
-            stringBuilder.append( current.getValue().toString() ).append( "\t" );
-            if ( current.less != null ) {
-                stringBuilder.append( current.getGreaterOrEqual().printTree() );
-            }
+    private static void copyKeys(BPlusNode from, int fromIndex, BPlusNode to, int toIndex, int length) {
+        switch (from.keyType) {
+            case 1 -> System.arraycopy(from.intKeys, fromIndex, to.intKeys, toIndex, length);
+            case 2 -> System.arraycopy(from.doubleKeys, fromIndex, to.doubleKeys, toIndex, length);
+            default -> System.arraycopy(from.objectKeys, fromIndex, to.objectKeys, toIndex, length);
         }
+    }
 
-        return stringBuilder.toString();
-
+    /**
+     * Drops the keys (and pointers) from position keyCount on, so an Object[]
+     * does not keep them alive
+     */
+    private void truncate(int keyCount) {
+        if (objectKeys != null) {
+            Arrays.fill(objectKeys, keyCount, this.keyCount, null);
+        }
+        this.keyCount = keyCount;
     }
 
     /**
-     * Prints the value of the current node
+     * Adds a key and where its record is to a leaf
      *
-     * @return String of the value
+     * @param index       position of the key in the leaf
+     * @param key         the key
+     * @param pageIndex   location of the page holding the key's record
+     * @param recordIndex index of the record in the page
      */
-    public String toString() {
-        return this.value.toString();
+    void insertEntry(int index, Object key, int pageIndex, int recordIndex) {
+        int moved = keyCount - index;
+        copyKeys(this, index, this, index + 1, moved);
+        System.arraycopy(pageIndexes, index, pageIndexes, index + 1, moved);
+        System.arraycopy(recordIndexes, index, recordIndexes, index + 1, moved);
+        setKey(index, key);
+        pageIndexes[index] = pageIndex;
+        recordIndexes[index] = recordIndex;
+        keyCount++;
     }
 
     /**
-     * This function checks if two nodes are equal
+     * Removes a key and where its record is from a leaf
      *
-     * @param B The object being compared against this
-     * @return True if they're equal, false if not
+     * @param index position of the key in the leaf
      */
-    public boolean equals( Object B ) {
-        if ( B.getClass() != this.getClass() ) {
-            return false;
-        }
-        BPlusNode BNode = (BPlusNode) B;
+    void removeEntry(int index) {
+        int moved = keyCount - index - 1;
+        copyKeys(this, index + 1, this, index, moved);
+        System.arraycopy(pageIndexes, index + 1, pageIndexes, index, moved);
+        System.arraycopy(recordIndexes, index + 1, recordIndexes, index, moved);
+        truncate(keyCount - 1);
+    }
 
-        if ( this.isInner != BNode.isInner ) {
-            return false;
-        }
+    void setRecordLocation(int index, int pageIndex, int recordIndex) {
+        pageIndexes[index] = pageIndex;
+        recordIndexes[index] = recordIndex;
+    }
 
-        return this.compare( BNode.getValue() ) == 0;
+    /**
+     * Adds a key and a child to an inner node
+     *
+     * @param keyIndex   position of the key
+     * @param key        the key
+     * @param childIndex position of the child, keyIndex for a child holding
+     *                   keys less than key, keyIndex + 1 for one holding the
+     *                   keys from key on
+     * @param child      location of the child
+     */
+    void insertKeyAndChild(int keyIndex, Object key, int childIndex, int child) {
+        System.arraycopy(children, childIndex, children, childIndex + 1, keyCount + 1 - childIndex);
+        children[childIndex] = child;
+        copyKeys(this, keyIndex, this, keyIndex + 1, keyCount - keyIndex);
+        setKey(keyIndex, key);
+        keyCount++;
     }
 
     /**
-     * Moves left until it reaches the last node
+     * Removes a key and a child from an inner node
      *
-     * @return The left most Node
+     * @param keyIndex   position of the key
+     * @param childIndex position of the child
      */
-    public BPlusNode getLeftMostSibling() {
-        BPlusNode current = this;
-        while (current.hasLeft) {
-            current = current.leftSib;
-        }
-        return current;
+    void removeKeyAndChild(int keyIndex, int childIndex) {
+        System.arraycopy(children, childIndex + 1, children, childIndex, keyCount - childIndex);
+        copyKeys(this, keyIndex + 1, this, keyIndex, keyCount - keyIndex - 1);
+        truncate(keyCount - 1);
     }
 
     /**
-     * Moves right until it reaches the last node
+     * Splits an overfull node, moving its upper half into an empty node.
+     * A leaf keeps its keys before position from and the right node gets the
+     * rest. An inner node keeps its keys before from and the children left of
+     * them, the key at from is dropped (the caller moves it up to the parent),
+     * and the right node gets the keys after it and the children right of it.
      *
-     * @return The right most Node
+     * @param from  position the upper half starts at
+     * @param right the empty node
      */
-    public BPlusNode getRightMostSibling() {
-        BPlusNode current = this;
-        while (current.hasRight) {
-            current = current.rightSib;
+    void moveUpperHalf(int from, BPlusNode right) {
+        if (isLeaf) {
+            int moved = keyCount - from;
+            copyKeys(this, from, right, 0, moved);
+            System.arraycopy(pageIndexes, from, right.pageIndexes, 0, moved);
+            System.arraycopy(recordIndexes, from, right.recordIndexes, 0, moved);
+            right.keyCount = moved;
+        } else {
+            int moved = keyCount - from - 1;
+            copyKeys(this, from + 1, right, 0, moved);
+            System.arraycopy(children, from + 1, right.children, 0, moved + 1);
+            right.keyCount = moved;
         }
-        return current;
+        truncate(from);
     }
 
-    public int getNumOfSiblings(){
-        BPlusNode start = this.getLeftMostSibling();
-        int counter = 0;
-        while(start.hasRight){
-            start = start.rightSib;
-            counter++;
+    /**
+     * Moves everything in the node's right sibling onto the end of this node
+     *
+     * @param right     the right sibling, emptied
+     * @param separator the key separating the two in their parent, brought down
+     *                  between them when they are inner nodes
+     */
+    void mergeFrom(BPlusNode right, Object separator) {
+        if (isLeaf) {
+            copyKeys(right, 0, this, keyCount, right.keyCount);
+            System.arraycopy(right.pageIndexes, 0, pageIndexes, keyCount, right.keyCount);
+            System.arraycopy(right.recordIndexes, 0, recordIndexes, keyCount, right.keyCount);
+            keyCount += right.keyCount;
+            nextLeaf = right.nextLeaf;
+        } else {
+            setKey(keyCount, separator);
+            copyKeys(right, 0, this, keyCount + 1, right.keyCount);
+            System.arraycopy(right.children, 0, children, keyCount + 1, right.keyCount + 1);
+            keyCount += right.keyCount + 1;
         }
-        return counter;
+        right.truncate(0);
     }
 
-    //Getters and Setters
-
-    public boolean hasSiblings() {
-        return this.hasLeft || this.hasRight;
+    /**
+     * Reads a node from the bytes of its page
+     *
+     * @param nodeIndex   location of the node in the tree's file, in pages
+     * @param nodeInBytes the page
+     * @param keyType     type of the tree's keys
+     * @param keySize     bytes each key takes
+     * @param limit       the most keys a node of the tree holds
+     * @return the node
+     */
+    public static BPlusNode parseBytes(int nodeIndex, ByteBuffer nodeInBytes, int keyType, int keySize, int limit) {
+        BPlusNode node = new BPlusNode(nodeIndex, nodeInBytes.getInt(0) == 1, keyType, limit);
+        int numKeys = nodeInBytes.getInt(Integer.BYTES);
+        node.nextLeaf = nodeInBytes.getInt(Integer.BYTES * 2);
+        for (int i = 0; i < numKeys; i++) {
+            int position = HEADER_SIZE + i * keySize;
+            switch (keyType) {
+                case 1 -> node.intKeys[i] = nodeInBytes.getInt(position);
+                case 2 -> node.doubleKeys[i] = nodeInBytes.getDouble(position);
+                default -> node.objectKeys[i] = readKey(nodeInBytes, position, keyType);
+            }
+        }
+        node.keyCount = numKeys;
+        int position = HEADER_SIZE + numKeys * keySize;
+        if (node.isLeaf) {
+            for (int i = 0; i < numKeys; i++) {
+                node.pageIndexes[i] = nodeInBytes.getInt(position);
+                node.recordIndexes[i] = nodeInBytes.getInt(position + Integer.BYTES);
+                position += Integer.BYTES * 2;
+            }
+        } else {
+            for (int i = 0; i <= numKeys; i++) {
+                node.children[i] = nodeInBytes.getInt(position);
+                position += Integer.BYTES;
+            }
+        }
+        return node;
     }
 
-    public Object getValue() {
-        return this.value;
+    /**
+     * Writes the node into the bytes of a page
+     *
+     * @param nodeSize bytes in a page of the tree's file
+     * @param keySize  bytes each key takes
+     * @return the page
+     */
+    public byte[] parseNode(int nodeSize, int keySize) {
+        byte[] nodeInBytes = new byte[nodeSize];
+        ByteBuffer byteBuffer = ByteBuffer.wrap(nodeInBytes);
+        byteBuffer.putInt(0, isLeaf ? 1 : 0);
+        byteBuffer.putInt(Integer.BYTES, keyCount);
+        byteBuffer.putInt(Integer.BYTES * 2, nextLeaf);
+        for (int i = 0; i < keyCount; i++) {
+            int position = HEADER_SIZE + i * keySize;
+            switch (keyType) {
+                case 1 -> byteBuffer.putInt(position, intKeys[i]);
+                case 2 -> byteBuffer.putDouble(position, doubleKeys[i]);
+                default -> writeKey(byteBuffer, position, keyType, objectKeys[i]);
+            }
+        }
+        int position = HEADER_SIZE + keyCount * keySize;
+        if (isLeaf) {
+            for (int i = 0; i < keyCount; i++) {
+                byteBuffer.putInt(position, pageIndexes[i]);
+                byteBuffer.putInt(position + Integer.BYTES, recordIndexes[i]);
+                position += Integer.BYTES * 2;
+            }
+        } else {
+            for (int i = 0; i <= keyCount; i++) {
+                byteBuffer.putInt(position, children[i]);
+                position += Integer.BYTES;
+            }
+        }
+        return nodeInBytes;
     }
 
-    public BPlusNode getLess() {
-        return less;
+    /**
+     * Bytes a key of the given type takes in a node
+     *
+     * @param keyType type of the key
+     * @param size    number of characters for char and varchar, unused otherwise
+     * @return the key size in bytes
+     */
+    public static int keySize(int keyType, int size) {
+        return switch (keyType) {
+            case 1 -> Integer.BYTES;
+            case 2 -> Double.BYTES;
+            case 3 -> Character.BYTES; // 't' or 'f'
+            default -> Integer.BYTES + size * Character.BYTES; // length, then the characters
+        };
     }
 
-    public void setLess( BPlusNode less ) {
-        this.less = less;
+    private static Object readKey(ByteBuffer byteBuffer, int position, int keyType) {
+        if (keyType == 3) {
+            return byteBuffer.getChar(position) == 't';
+        }
+        int numChars = byteBuffer.getInt(position);
+        StringBuilder chars = new StringBuilder(numChars);
+        for (int ch = 0; ch < numChars; ch++) {
+            chars.append(byteBuffer.getChar(position + Integer.BYTES + ch * Character.BYTES));
+        }
+        return chars.toString();
     }
 
-    public BPlusNode getGreaterOrEqual() {
-        return greaterOrEqual;
+    private static void writeKey(ByteBuffer byteBuffer, int position, int keyType, Object key) {
+        if (keyType == 3) {
+            byteBuffer.putChar(position, (Boolean) key ? 't' : 'f');
+            return;
+        }
+        String chars = (String) key;
+        byteBuffer.putInt(position, chars.length());
+        for (int ch = 0; ch < chars.length(); ch++) {
+            byteBuffer.putChar(position + Integer.BYTES + ch * Character.BYTES, chars.charAt(ch));
+        }
     }
 
-    public void setGreaterOrEqual( BPlusNode greaterOrEqual ) {
-        this.greaterOrEqual = greaterOrEqual;
+    /**
+     * @return the node's keys, as "[key, key, ...]"
+     */
+    public String keysToString() {
+        StringBuilder keys = new StringBuilder("[");
+        for (int i = 0; i < keyCount; i++) {
+            keys.append(i > 0 ? ", " : "").append(getKey(i));
+        }
+        return keys.append(']').toString();
     }
 
-    public void setParent( BPlusNode parent ) {
-        this.parent = parent;
+    @Override
+    public String toString() {
+        return (isLeaf ? "leaf " : "inner ") + nodeIndex + " " + keysToString();
     }
-
-    public void setPageIndex( int pageIndex ) { this.pageIndex = pageIndex; }
-    public void setRecordIndex( int recordIndex ) { this.recordIndex = recordIndex; }
-    public int getPageIndex() { return this.pageIndex; }
-    public int getRecordIndex() { return this.recordIndex; }
-
-    //TODO uncomment this when the variable by the same name is removed
-
-    /**
-     * Determines if the node is an internal node or not
-     * @return true if the node is internal, false if not
-     */
-//    public boolean isInner() {
-//        if (less != -1 && greaterOrEqual != -1) {
-//            return true;
-//        }
-//        return false;
-//    }
-}
\ No newline at end of file
+}
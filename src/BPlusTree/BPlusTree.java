@@ -1,972 +1,573 @@
 package src.BPlusTree;
 
-import src.AttributeSchema;
 import src.Catalog;
 import src.Main;
+import src.StorageManager;
 import src.TableSchema;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Arrays;
 
+/**
+ * B+ tree over the primary key of a table, mapping each key to where its
+ * record is in the table (page location and index of the record in the page).
+ *
+ * The tree is kept in its own file in the database's bPlusTrees folder, one
+ * node per page (see BPlusNode), and its nodes are read and written through the
+ * Storage Manager's buffer like the pages of the tables. Where the root is and
+ * the next unused node location are kept in the table's schema, so they are
+ * saved with the catalog.
+ *
+ * A node holds at most limit keys, the most that fit in a page (see
+ * TableSchema.setBPlusTreeMetaData), which has to be at least 2. A node that
+ * grows past limit keys is split in two. Every node but the root is kept at
+ * least half full: one that drops below that takes a key from a sibling, or is
+ * merged with it when the sibling has none to spare. Nodes emptied by a merge
+ * are left unused in the file.
+ *
+ * Because a node read from the buffer can be evicted while the tree reads
+ * others, every node is written back (see writeNode) once the tree is done
+ * changing it, and is read again by its location before it is changed again.
+ */
 public class BPlusTree {
-    private final int limit;
-    public BPlusNode root = null;
-    public int dataType;    // The type int corresponding to this tree's search keys
-    public int dataSize;    // The size of the data. # of characters if a String, -1 otherwise
-    public int tableId; // The table ID corresponding to this tree
+    private final int limit; // the most keys a node holds
+    private final int tableId; // The table ID corresponding to this tree
 
-    public BPlusTree( int limit, int tableId ) {
+    public BPlusTree(int limit, int tableId) {
         this.limit = limit;
         this.tableId = tableId;
     }
 
     /**
-     * Creates A bPlusTree Folder to store bPlusTree files in if its doesn't exist then creates a bPlusTree
-     * file of a given table ID. Creates a bPlusTree object and returns that.
-     * Writes the following to file:
-     * Offset index for root, -1 indicates there is no root set yet
-     * Integer Data Type
-     * Size of Data Type
-     * Next available free index
-     * The N of the bPlusTree
-     *
-     * @param tableId
-     * @return
+     * @param tableId table the tree belongs to
+     * @return path of the table's B+ tree file
      */
-    public static void createBPlusTreeFile(int tableId) {
-        try {
-        String bPlusTreeFolderPath = Main.db_loc + File.separatorChar + "bPlusTrees";
-        File bPlusTrees = new File(bPlusTreeFolderPath);
-        if (!bPlusTrees.exists()) {
-            bPlusTrees.mkdirs();
-        }
-        String bPlusTreePath = bPlusTreeFolderPath + File.separatorChar + tableId + ".bPlusTree";
-        File bPlusTreeFile = new File(bPlusTreePath);
-        bPlusTreeFile.createNewFile();
-
-        /*
-        double pageSize = Catalog.instance.getPageSize();
-        TableSchema table = Catalog.instance.getTableSchemaById(tableId);
-        ArrayList<AttributeSchema> tableAttributes = table.getAttributes();
-        int indexOfSearchKeyColumn = Catalog.instance.getTablePKIndex(tableId);
-        int dataType = tableAttributes.get(indexOfSearchKeyColumn).getType();
-        int dataTypeSize = tableAttributes.get(indexOfSearchKeyColumn).getSize(); //gets size of attribute
-        double searchKeyPagePointerPairSize = dataTypeSize + 4; // +4 for page pointer size being int
-        int N = ( (int) Math.floor((pageSize / searchKeyPagePointerPairSize)) ) - 1;
-        RandomAccessFile byteProcessor = new RandomAccessFile(bPlusTreeFile, "w");
-        // Offset index for root, -1 indicates there is no root set yet
-        byteProcessor.writeInt(-1);
-        // Integer Data Type
-        byteProcessor.writeInt(dataType);
-        // Size of Data Type
-        byteProcessor.writeInt(dataTypeSize);
-        //if (dataType == 4 || dataType == 5) {
-        //    byteProcessor.writeInt(dataTypeSize);
-        //}
-        // Next available free index
-        byteProcessor.writeInt(0);
-        // The N of the bPlusTree
-        byteProcessor.writeInt(N);
-        byteProcessor.close();
-         */
-        //BPlusTree bPlusTree = new BPlusTree(N);
-
-
-        //return bPlusTree;
-        } catch (Exception e) {
-            System.out.println("Error in creating BPlusTree file and object.");
-            e.printStackTrace();
-            return;
-        }
+    public static String getFilePath(int tableId) {
+        return Main.db_loc + File.separatorChar + "bPlusTrees" + File.separatorChar + tableId + ".bPlusTree";
     }
 
     /**
-     * Reads in the data for the node at the given index, turns it into a BPlusNode object, and returns it
-     * @param nodeIndex The index where the node is located on file
-     * @return          The BPlusNode created from the data on file
-     */
-    public BPlusNode readNode(int nodeIndex) {
-        String bPlusTreeFolderPath = Main.db_loc + File.separatorChar + "bPlusTrees";
-        String bPlusTreePath = bPlusTreeFolderPath + File.separatorChar + tableId + ".bPlusTree";
-        File bPlusTreeFile = new File(bPlusTreePath);
-        int sizeOfNode = calcNodeSize(dataType, dataSize); // The size of the node in bytes
-        long amountToSeek = Integer.BYTES * 5 + (long) sizeOfNode * nodeIndex;
-        try {
-            RandomAccessFile byteProcessor = new RandomAccessFile(bPlusTreeFile, "r");
-            // Seek ahead past the metadata and all the other nodes to the spot where we'll read
-            byteProcessor.seek(amountToSeek);
-            byte[] nodeBytes = new byte[sizeOfNode];
-            byteProcessor.read(nodeBytes, 0, sizeOfNode);
-            byteProcessor.close();
-            return BPlusNode.parseBytes(this, nodeBytes);
-        } catch (FileNotFoundException e) {
-            System.err.println("ERROR: BPlusTree file not found. File name: " + bPlusTreePath);
-            e.printStackTrace();
-            return null;
-        } catch (IOException e) {
-            System.err.println("ERROR: Couldn't seek in file. Seek distance (in bytes): " + amountToSeek);
-            e.printStackTrace();
-        }
-        return null;
-    }
-
-    /**
-     * Writes the data for the given node to the given index in the BPlusTree file
-     * Will overwrite anything that was already in the given index
-     * @param node      The node to write to file
-     * @param nodeIndex The index to write the node to
+     * Creates the bPlusTrees folder if it doesn't exist, then an empty B+ tree
+     * file for the given table. The tree starts with no nodes (its root
+     * location in the table's schema is -1).
+     *
+     * @param tableId table the tree belongs to
      */
-    public void writeNode(BPlusNode node, int nodeIndex) {
-        String bPlusTreeFolderPath = Main.db_loc + File.separatorChar + "bPlusTrees";
-        String bPlusTreePath = bPlusTreeFolderPath + File.separatorChar + tableId + ".bPlusTree";
-        File bPlusTreeFile = new File(bPlusTreePath);
-        long amountToSeek = Integer.BYTES * 5 + (long) calcNodeSize(dataType, dataSize) * nodeIndex;
+    public static void createBPlusTreeFile(int tableId) {
         try {
-            RandomAccessFile byteProcessor = new RandomAccessFile(bPlusTreeFile, "w");
-            // Seek ahead past the metadata and all the other nodes to the spot where we'll read
-            byteProcessor.seek(amountToSeek);
-            byte[] nodeBytes = BPlusNode.parseNode(node);
-            byteProcessor.write(nodeBytes, 0, node.size()); // Might not need to specify length here, doing so in case
-            byteProcessor.close();
-        } catch (FileNotFoundException e) {
-            System.err.println("ERROR: BPlusTree file not found. File name: " + bPlusTreePath);
-            e.printStackTrace();
-        } catch (IOException e) {
-            System.err.println("ERROR: Couldn't seek in file. Seek distance (in bytes): " + amountToSeek);
+            File bPlusTreeFile = new File(getFilePath(tableId));
+            bPlusTreeFile.getParentFile().mkdirs();
+            bPlusTreeFile.createNewFile();
+        } catch (Exception e) {
+            System.out.println("Error in creating BPlusTree file.");
             e.printStackTrace();
         }
     }
 
     /**
-     * Calculates the size of a node with the given search key typeInt and sizeInt
-     * @param typeInt   The type int of the search key. A number 1-5
-     * @param sizeInt   The size int of the search key. For strings this is the # or chars, otherwise it's -1
-     * @return          The size of the node in bytes
+     * Builds a table's tree from all of its keys, writing the nodes straight to
+     * the tree's file instead of through the buffer, for when the Storage
+     * Manager does not exist yet (see PageFormatConverter). The tree is built
+     * bottom up, each level spread evenly over as few nodes as hold it, so
+     * every node but the root is at least half full.
+     *
+     * @param table     the table, whose B+ tree metadata must be set and empty
+     * @param keys      the table's primary keys in ascending order
+     * @param locations page location and record index of each key's record
+     * @throws IOException if the tree's file cannot be written
      */
-    public static int calcNodeSize(int typeInt, int sizeInt) {
-        int sizeOfNode = 0;
-        // Find the size of the contained Search Key value
-        switch (typeInt) {
-            case 1 -> //Integer
-                    sizeOfNode += Integer.BYTES;
-            case 2 -> //Double
-                    sizeOfNode += Double.BYTES;
-            case 3 -> { // Boolean
-                sizeOfNode += Character.BYTES;
+    public static void buildFile(TableSchema table, ArrayList<Object> keys, ArrayList<int[]> locations)
+            throws IOException {
+        int limit = table.getN();
+        int keyType = table.getPkDataType();
+        Path path = Paths.get(getFilePath(table.getTableId()));
+        Files.createDirectories(path.getParent());
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (keys.isEmpty()) {
+                return;
+            }
+            ArrayList<BPlusNode> level = new ArrayList<>();
+            ArrayList<Object> smallestKeys = new ArrayList<>(); // smallest key under each node of the level
+            int numLeaves = (keys.size() + limit - 1) / limit;
+            for (int i = 0; i < numLeaves; i++) {
+                int start = (int) ((long) keys.size() * i / numLeaves);
+                int end = (int) ((long) keys.size() * (i + 1) / numLeaves);
+                BPlusNode leaf = new BPlusNode(table.allocateNodeIndex(), true, keyType, limit);
+                for (int k = start; k < end; k++) {
+                    leaf.insertEntry(k - start, keys.get(k), locations.get(k)[0], locations.get(k)[1]);
+                }
+                if (!level.isEmpty()) {
+                    level.get(level.size() - 1).setNextLeaf(leaf.getNodeIndex());
+                }
+                level.add(leaf);
+                smallestKeys.add(keys.get(start));
             }
-            case 4, 5 -> { // Char(x) standard string fixed array of len x
-                if (sizeInt == -1) {
-                    System.err.println("ERROR: received string but given length is -1, exiting function...");
-                    return -1;
+            while (true) {
+                for (BPlusNode node : level) {
+                    writeNodeToFile(file, node, table.getPkDataTypeSize());
+                }
+                if (level.size() == 1) {
+                    break;
+                }
+                ArrayList<BPlusNode> parents = new ArrayList<>();
+                ArrayList<Object> parentKeys = new ArrayList<>();
+                int numParents = (level.size() + limit) / (limit + 1); // a node has one more child than keys
+                for (int i = 0; i < numParents; i++) {
+                    int start = (int) ((long) level.size() * i / numParents);
+                    int end = (int) ((long) level.size() * (i + 1) / numParents);
+                    BPlusNode parent = new BPlusNode(table.allocateNodeIndex(), false, keyType, limit);
+                    parent.setChild(0, level.get(start).getNodeIndex());
+                    for (int c = start + 1; c < end; c++) {
+                        parent.insertKeyAndChild(c - start - 1, smallestKeys.get(c), c - start,
+                                level.get(c).getNodeIndex());
+                    }
+                    parents.add(parent);
+                    parentKeys.add(smallestKeys.get(start));
                 }
-                sizeOfNode += Integer.BYTES + sizeInt * Character.BYTES; // int to store length, then the string itself
+                level = parents;
+                smallestKeys = parentKeys;
             }
+            file.force(false);
+            table.setRootOffset(level.get(0).getNodeIndex());
         }
-        // add on the size of all the connected node's indices, and the page and record locations for the contained key
-        sizeOfNode += Integer.BYTES * 7;
-        return sizeOfNode;
     }
 
-/*
-    public int[] getIndex(Object pkValue, int tableID) {
-        try {
-            String bPlusTreePath = Main.db_loc + File.separatorChar + tableID + ".bPlusTree";
-            File bPlusTreeFile = new File(bPlusTreePath);
-            RandomAccessFile byteProcessor = new RandomAccessFile(bPlusTreeFile, "rw");
-            int rootOffset = byteProcessor.readInt();
-            int dataType = byteProcessor.readInt();
-            int dataTypeSize = byteProcessor.readInt();
-            int nextAvailableNodeIndex = byteProcessor.readInt();
-
-            if (rootOffset == -1) {
-                BPlusNode root = new BPlusNode(pkValue, false, dataType, 0, )
-            }
-
-            return null;
-        } catch (Exception e) {
-            return null;
+    private static void writeNodeToFile(FileChannel file, BPlusNode node, int keySize) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(node.parseNode(Main.pageSize, keySize));
+        long position = (long) node.getNodeIndex() * Main.pageSize;
+        while (bytes.hasRemaining()) {
+            file.write(bytes, position + bytes.position());
         }
     }
-*/
 
-    public boolean addKey(int type, Object value, int pageIndex, int recordIndex){
-        return addNode( new BPlusNode( value, false, type,  pageIndex, recordIndex ) );
+    public int getTableId() {
+        return tableId;
+    }
+
+    public int getLimit() {
+        return limit;
     }
 
     /**
-     * This is where the logic of adding a node to a tree is
-     *
-     * @param newNode The new Node being added to this tree
-     * @return True if success and False if failed
+     * @return type of the tree's keys, the type of the table's primary key
      */
-    public boolean addNode( BPlusNode newNode ) {
-        if ( root == null ) {
-            root = newNode;
-            return true;
-        } else {
-            if ( newNode.type != root.type ) {
-                System.out.println( "ERROR: new node must have this type code: " + root.type );
-                return false;
-            }
-            if ( !root.isInner ) {
-                // One layer tree, just add to leaf Node. Split if needed
-                if ( !root.hasSiblings() ) {
-                    int comparison = root.compare( newNode.getValue() );
-                    if ( comparison == 0 ) {
-                        System.out.println( "Error, cannot have duplicate keys in B+ Tree." );
-                        return false;
-                    } else if ( comparison > 0 ) { //newNode/value belongs as left sibling of root
-                        addSibling( newNode, root );
-                        this.root = newNode; // our root, leftmost value is now newNode
-                        return true;
-                    } else {
-                        addSibling( root, newNode ); //newNode/value belongs as right sibling of root
-                        return true;
-                    }
-                } else { // Root has Siblings
-                    insertSibling( root, newNode ); //root is leftmost node of this 'root row', newNode is node being added to row
-                    BPlusNode start = newNode.getLeftMostSibling();
-                    if ( checkDegree( start ) ) {
-                        this.root = split( start );
-                    }
-                    return true;
-                }
-            } else {
-                //Need to traverse tree
-                BPlusNode current = root;
-
-                while (current.isInner) {
-                    int comparison = current.compare( newNode.getValue() );
-                    if ( comparison > 0 ) {
-                        current = current.less;
-                    } else {
-                        if ( current.hasRight ) {
-                            current = current.rightSib;
-                        } else {
-                            current = current.greaterOrEqual;
-                        }
-                    }
-                }
-
-                //figure out where in the row of children to insert the node
-                insertSibling( current, newNode );
-                BPlusNode start = newNode.getLeftMostSibling();
-                while (checkDegree( start )) {
-                    start = split( start ).getLeftMostSibling();
-                }
-                this.root = findRoot( start.getLeftMostSibling() );
-                return true;
-            }
-        }
+    public int getKeyType() {
+        return getTable().getPkDataType();
     }
 
-
     /**
-     * This function balances the tree after a delete and merge. It tries to
-     *      borrow a node from the other side before reducing the num of layers
+     * @return bytes each key takes in a node
      */
-    public void balanceTree(){
-        if(!root.isInner){
-            return;
-        }
-
-        //if the last node in less or greater is deleted then it will be null
-        //  So we just make the tree the other side and reset the root.
-        if(root.getLess() == null){
-            root = root.getGreaterOrEqual();
-            BPlusNode current = root;
-            while(current.hasRight){
-                current.setParent( null );
-                current = current.rightSib;
-            }
-            current.setParent( null );
-            return;
-        } else if (root.getGreaterOrEqual() == null){
-            root = root.getLess();
-            BPlusNode current = root;
-            while(current.hasRight){
-                current.setParent( null );
-                current = current.rightSib;
-            }
-            current.setParent( null );
-            return;
-        }
-
-        //check if the tree is less than 3 layers
-        if(root.getLess().getLess() == null){
-            //2 layers becomes one
-            addSibling( root.getLess().getRightMostSibling(), root.getGreaterOrEqual().getLeftMostSibling() );
-            root = root.getLess();
-            BPlusNode current = root;
-            while(current.hasRight){
-                current.setParent( null );
-                current = current.rightSib;
-            }
-            current.setParent( null );
-            return;
-        }
-
-        //check which side of the tree is unbalanced
-        if( root.getLess().getNumOfSiblings()  <  Math.ceil( this.limit / 2.0 ) - 1){
-            //try to borrow from greater side
-            if( root.getGreaterOrEqual().getNumOfSiblings() >=  Math.ceil( this.limit / 2.0 ) - 1){
-                //greater than becomes root, root becomes rightmost sib on left side
-                // less than greater than becomes greater than root
-                BPlusNode G1 = root.getGreaterOrEqual();
-                BPlusNode G2 = G1.rightSib;
-                BPlusNode L = root.getLess().getRightMostSibling();
-
-                //shift the value of the root to the left
-                Object newRootValue = G1.value;
-                G1.value = root.getValue();
-                root.value = newRootValue;
-
-                root.setGreaterOrEqual( G2 );
-
-                removeSibling( G1, G2 );
-                addSibling( root.getLess().getRightMostSibling(), G1 );
-
-
-                BPlusNode current = G2.getLess();
-                while(current.hasRight){
-                    current.setParent( G2 );
-                    current = current.rightSib;
-                }
-                current.setParent( G2 );
-
-                //move the overlapping leaf node to follow the root
-                G1.setGreaterOrEqual( G1.getLess() );
-                G1.setLess( L.getGreaterOrEqual() );
-                return;
-            }
-        } else if (root.getGreaterOrEqual().getNumOfSiblings() <  Math.ceil( this.limit / 2.0 ) - 1){
-            if( root.getGreaterOrEqual().getNumOfSiblings() >=  Math.ceil( this.limit / 2.0 ) - 1) {
-                //less than right most sib becomes root, root becomes greater than
-                //greater than less becomes less than root
-                BPlusNode G = root.getGreaterOrEqual();
-                BPlusNode L1 = root.getLess().getRightMostSibling();
-                BPlusNode L2 = L1.leftSib;
-
-                //shift the value of the root to the right
-                Object newRootValue = L1.getValue();
-                L1.value = root.getValue();
-                root.value = newRootValue;
-
-                root.setGreaterOrEqual( L1 );
-
-                removeSibling( L2, L1 );
-                addSibling( L1, G );
-
-                BPlusNode current = G.getLess();
-                while(current.hasRight){
-                    current.setParent( L1 );
-                    current = current.rightSib;
-                }
-                current.setParent( L1 );
-
-                //move the overlapping leaf node to follow the root
-                L1.setLess( L1.getGreaterOrEqual() );
-                L1.setGreaterOrEqual( G.getLess() );
-                return;
-            }
-        }
-
-        //delete root and move down a layer
-        BPlusNode L = root.getLess();
-        BPlusNode G = root.getGreaterOrEqual();
-
-        addSibling( L, root );
-        addSibling( root, G );
-        root.setGreaterOrEqual( G.getLess() );
-        root.setLess( L.getGreaterOrEqual() );
-        root = L.getLeftMostSibling();
-        BPlusNode current = root;
-        while(current.hasRight){
-            current.setParent( null );
-            current = current.rightSib;
-        }
-        current.setParent( null );
+    public int getKeySize() {
+        return getTable().getPkDataTypeSize();
     }
 
     /**
-     * This function removes a node from the tree, balances as needed
-     * @param type The data type of the node being removed
-     * @param value The value of the node being removed
-     * @return True if it worked, false if it failed
+     * @return location of the root node, -1 if the tree is empty
      */
-    public boolean deleteNode(int type, Object value){
-        if(root.type != type){
-            System.out.println("ERROR: Must enter the correct data type.");
-            return false;
-        }
-
-        BPlusNode nodeToDelete = this.findNode( type, value );
+    public int getRootIndex() {
+        return getTable().getRootOffset();
+    }
 
-        if(nodeToDelete == null){
-            System.out.println("ERROR: could not find leaf node with " + value.toString() + " as a key.");
-            return false;
-        }
+    private TableSchema getTable() {
+        return Catalog.instance.getTableSchemaById(tableId);
+    }
 
-        if(nodeToDelete.getNumOfSiblings() < this.limit / 2 && nodeToDelete.parent != null){
-            //need to merge
-            if(!removeAndMerge( nodeToDelete )){
-                //must be rebalanced
-                balanceTree();
-            }
-        } else{
-            if(nodeToDelete.parent != null){
-                removeFromFamily( nodeToDelete );
-            } else{
-                if(nodeToDelete.hasLeft){
-                    if(nodeToDelete.hasRight){
-                        addSibling( nodeToDelete.leftSib, nodeToDelete.rightSib );
-                    } else{
-                        removeSibling( nodeToDelete.leftSib, nodeToDelete );
-                    }
-                } else{
-                    if(nodeToDelete.hasRight){
-                        this.root = nodeToDelete.rightSib;
-                        removeSibling( nodeToDelete, nodeToDelete.rightSib );
-                    } else{
-                        this.root = null;
-                    }
-                }
-            }
+    /**
+     * Gets a node of the tree through the buffer
+     *
+     * @param nodeIndex location of the node in the tree's file
+     * @return the node
+     */
+    public BPlusNode readNode(int nodeIndex) {
+        if (nodeIndex < 0 || nodeIndex >= getTable().getNextAvailableNodeIndex()) {
+            throw new IllegalStateException("B+ tree of table " + tableId + " refers to node " + nodeIndex
+                    + ", which it never allocated");
         }
-        return true;
+        return StorageManager.instance.getIndexNode(this, nodeIndex);
     }
 
     /**
-     * This is called when a node cannot just be deleted and a merge needs to happen
-     *      it first checks if a node can be borrowed, if not it will merge with
-     *      a neighboring node.
-     * @param nodeToDelete The node being deleted
-     * @return True if the tree stayed balanced, false if it needs to be balanced
+     * Reads the child an inner node points to at the given position. A child
+     * that is the node itself means the tree's file is corrupt, following it
+     * would never reach a leaf.
      */
-    public boolean removeAndMerge(BPlusNode nodeToDelete){
-        BPlusNode parent = nodeToDelete.parent;
-        boolean isLess = parent.getLess().equals( nodeToDelete.getLeftMostSibling() );
-
-        //First check if a node can be borrowed from the other side of their parent
-        if(isLess){
-            if(parent.getGreaterOrEqual().getNumOfSiblings() >= this.limit / 2){
-                //move key from greater than to less than
-                addSibling(nodeToDelete.getRightMostSibling(), parent.getGreaterOrEqual());
-
-                //shifting the pointer to the correct node
-                parent.setGreaterOrEqual( parent.getGreaterOrEqual().rightSib );
-                parent.value = parent.getGreaterOrEqual().getValue();
-
-                //disconnecting the node that was borrowed
-                removeSibling( parent.getGreaterOrEqual().leftSib, parent.getGreaterOrEqual() );
-
-                //removing the deleted node and re-connecting the siblings
-                if(nodeToDelete.hasLeft && nodeToDelete.hasRight){
-                    addSibling( nodeToDelete.leftSib, nodeToDelete.rightSib );
-                } else if (!nodeToDelete.hasLeft) {
-                    parent.setLess( nodeToDelete.rightSib );
-                    if ( nodeToDelete.hasRight ) {
-                        removeSibling( nodeToDelete, nodeToDelete.rightSib );
-                    }
-                }
-                return true;
-            }
-        } else{
-            if(parent.getLess().getNumOfSiblings() >= this.limit / 2){
-                //move key from less than to greater than
-                addSibling( parent.getLess().getRightMostSibling(), parent.getGreaterOrEqual() );
-
-                //shifting the pointer to the correct node
-                parent.setGreaterOrEqual( parent.getGreaterOrEqual().leftSib );
-                parent.value = parent.getGreaterOrEqual().getValue();
-
-                //disconnecting the node that was borrowed
-                removeSibling( parent.getGreaterOrEqual().leftSib, parent.getGreaterOrEqual() );
-
-                //removing the node from the row and re-connecting the siblings
-                if(nodeToDelete.hasLeft && nodeToDelete.hasRight){
-                    addSibling( nodeToDelete.leftSib, nodeToDelete.rightSib );
-                } else if (!nodeToDelete.hasLeft) {
-                    parent.setLess( nodeToDelete.rightSib );
-                    if ( nodeToDelete.hasRight ) {
-                        removeSibling( nodeToDelete, nodeToDelete.rightSib );
-                    }
-                }
-                return true;
-            }
+    private BPlusNode readChild(BPlusNode node, int position) {
+        int child = node.getChild(position);
+        if (child == node.getNodeIndex()) {
+            throw new IllegalStateException("B+ tree node " + child + " of table " + tableId
+                    + " is its own child");
         }
+        return readNode(child);
+    }
 
+    /**
+     * Hands a changed (or new) node back to the buffer, to be written to the
+     * tree's file when it is evicted or the buffer is written out
+     */
+    private void writeNode(BPlusNode node) {
+        StorageManager.instance.writeIndexNode(this, node);
+    }
 
-        //must merge
-        if(isLess){
-            if( parent.hasLeft ) {
-                //adding sibling from row to the left to current row
-                if ( nodeToDelete.hasLeft ) {
-                    addSibling( parent.leftSib.getLess().getRightMostSibling(), nodeToDelete.getLeftMostSibling() );
-                    removeSibling( nodeToDelete.leftSib, nodeToDelete );
-                    if ( nodeToDelete.hasRight ) {
-                        removeSibling( nodeToDelete, nodeToDelete.rightSib );
-                    }
-                } else {
-                    if ( nodeToDelete.hasRight ) {
-                        addSibling( parent.leftSib.getLess().getRightMostSibling(), nodeToDelete.rightSib );
-                    }
-                }
-
-                //fix the pointer to the parent if it is leftMost sibling
-                if ( parent.leftSib.equals( parent.getLeftMostSibling() ) && parent.parent != null ) {
-                    //connect upwards
-                    if ( parent.parent.getGreaterOrEqual().equals( parent.leftSib ) ) {
-                        parent.parent.setGreaterOrEqual( parent );
-                    } else {
-                        parent.parent.setLess( parent );
-                    }
-                }
-
-                //set the correct parents for the moved nodes
-                BPlusNode current = parent.leftSib.getLess().getLeftMostSibling();
-                current.setParent( parent.leftSib );
-                while (current.hasLeft) {
-                    current = current.leftSib;
-                    current.setParent( parent );
-                }
-
-                //remove the parent node that was deleted through merging
-                removeSibling( parent.leftSib, parent );
-                return false;
-            } else{
-                if( parent.hasRight ){
-                    if(nodeToDelete.getRightMostSibling().equals( nodeToDelete )){
-                        if(nodeToDelete.hasLeft){
-                            addSibling( nodeToDelete.leftSib,  parent.rightSib.getLess());
-                        }
-                    } else{
-                        addSibling( nodeToDelete.getRightMostSibling(), parent.rightSib.getLess() );
-                        removeSibling( nodeToDelete, nodeToDelete.rightSib );
-                    }
-
-                    //fix the pointer to the parent if it is leftMost sibling
-                    if(parent.getLeftMostSibling().equals( parent ) && parent.parent != null){
-                        if(parent.parent.getLess().equals( parent )){
-                            parent.parent.setLess( parent.rightSib );
-                        } else{
-                            parent.parent.setGreaterOrEqual( parent.rightSib );
-                        }
-                    }
-                    parent.rightSib.setLess( parent.rightSib.less.getLeftMostSibling() );
-
-                    //set the correct parents for the moved nodes
-                    BPlusNode current = parent.rightSib.getLess().getLeftMostSibling();
-                    current.setParent( parent.rightSib );
-                    while(current.hasRight){
-                        current.setParent( parent.rightSib );
-                        current = current.rightSib;
-                    }
-
-                    //remove the parent node that was deleted through merging
-                    removeSibling( parent, parent.rightSib );
-                    return false;
-                }
-            }
-        } else{
-            if(parent.hasRight){
-                //merge with parent's right sibling greater than
-                if(nodeToDelete.getRightMostSibling().equals( nodeToDelete )){
-                    if(nodeToDelete.hasLeft){
-                        addSibling( nodeToDelete.leftSib, parent.rightSib.getGreaterOrEqual() );
-                    }
-                } else{
-                    addSibling( nodeToDelete.getRightMostSibling(), parent.rightSib.getGreaterOrEqual() );
-                    removeSibling( nodeToDelete, nodeToDelete.rightSib );
-                }
-
-                //set the correct parents for the moved nodes
-                BPlusNode current = parent.rightSib.getGreaterOrEqual().getLeftMostSibling();
-                while(current.hasRight){
-                    current.setParent( parent.rightSib );
-                    current = current.rightSib;
-                }
-                current.setParent( parent.rightSib );
-
-                //remove the parent node that was deleted through merging
-                removeSibling( parent, parent.rightSib );
-                return false;
-            } else{
-                //merge with parents less than side
-                if( parent.hasLeft ){
-                    if(nodeToDelete.getLeftMostSibling().equals( nodeToDelete )){
-                        if(nodeToDelete.hasRight){
-                            addSibling( parent.getLess().getRightMostSibling(), nodeToDelete.rightSib );
-                        }
-                    } else{
-                        addSibling( parent.getLess().getRightMostSibling(), nodeToDelete.getLeftMostSibling() );
-                        removeSibling( nodeToDelete.leftSib, nodeToDelete );
-                    }
+    private BPlusNode newNode(boolean isLeaf) {
+        return new BPlusNode(getTable().allocateNodeIndex(), isLeaf, getKeyType(), limit);
+    }
 
-                    //fix the pointer to the parent if it is leftMost sibling
-                    if(parent.getLeftMostSibling().equals( parent ) && parent.parent != null){
-                        if(parent.parent.getLess().equals( parent )){
-                            parent.parent.setLess( parent.rightSib );
-                        } else{
-                            parent.parent.setGreaterOrEqual( parent.rightSib );
-                        }
-                    }
+    /**
+     * Compares two keys of the same type, in the order the tree keeps them
+     */
+    @SuppressWarnings("unchecked")
+    public static int compare(Object key, Object otherKey) {
+        return ((Comparable<Object>) key).compareTo(otherKey);
+    }
 
-                    //set the correct parents for the moved nodes
-                    BPlusNode current = parent.getLess().getLeftMostSibling();
-                    while(current.hasRight){
-                        current.setParent( parent.leftSib );
-                        current = current.rightSib;
-                    }
-                    current.setParent( parent.leftSib );
+    private int minKeys(BPlusNode node) {
+        return node.isLeaf() ? (limit + 1) / 2 : limit / 2;
+    }
 
-                    //remove the parent node that was deleted through merging
-                    removeSibling( parent.leftSib, parent );
-                    return false;
-                }
-            }
+    /**
+     * Finds the leaf that holds the key, or would hold it if it were in the tree
+     *
+     * @param key search key
+     * @return the leaf, null if the tree is empty
+     */
+    public BPlusNode findNode(Object key) {
+        int rootIndex = getRootIndex();
+        if (rootIndex == -1) {
+            return null;
         }
-
-        //delete node and then delete parent when re-balancing
-
-        if(nodeToDelete.hasRight && nodeToDelete.hasLeft){
-            addSibling( nodeToDelete.leftSib, nodeToDelete.rightSib );
-        } else if (nodeToDelete.hasLeft){
-            removeSibling( nodeToDelete.leftSib, nodeToDelete );
-        } else if(nodeToDelete.hasRight){
-            if(isLess){
-                parent.setLess( nodeToDelete.rightSib );
-            } else{
-                parent.setGreaterOrEqual( nodeToDelete.rightSib );
-            }
-            removeSibling( nodeToDelete, nodeToDelete.rightSib );
-        } else{
-            if(isLess){
-                parent.setLess( null );
-            } else{
-                parent.setGreaterOrEqual( null );
-            }
+        BPlusNode node = readNode(rootIndex);
+        while (!node.isLeaf()) {
+            node = readChild(node, node.childFor(key));
         }
-
-        return false;
+        return node;
     }
 
     /**
-     * This function removes all ties to it when being deleted
-     * @param child The child being removed
+     * Finds the leaf holding the smallest keys, the start of the leaf chain
+     *
+     * @return the leaf, null if the tree is empty
      */
-    public void removeFromFamily(BPlusNode child){
-        if(child.hasLeft){
-            addSibling( child.leftSib, child.rightSib );
-        } else{
-            boolean isLess = child.parent.getLess().equals( child );
-            if(isLess){
-                child.parent.setLess( child.rightSib );
-            } else{
-                child.parent.setGreaterOrEqual( child.rightSib );
-            }
-            removeSibling( child, child.rightSib );
+    public BPlusNode findFirstLeaf() {
+        int rootIndex = getRootIndex();
+        if (rootIndex == -1) {
+            return null;
         }
+        BPlusNode node = readNode(rootIndex);
+        while (!node.isLeaf()) {
+            node = readChild(node, 0);
+        }
+        return node;
     }
 
     /**
-     * Goes left and up the tree until it finds the highest node
-     *
-     * @param current starting node
-     * @return Root of the tree
+     * @return locations of the nodes from the root down to the leaf that holds
+     *         the key, the tree must not be empty
      */
-    public BPlusNode findRoot( BPlusNode current ) {
-        while (current.parent != null) {
-            current = current.parent.getLeftMostSibling();
-        }
-        return current.getLeftMostSibling();
+    private ArrayList<Integer> findPath(Object key) {
+        ArrayList<Integer> path = new ArrayList<>();
+        BPlusNode node = readNode(getRootIndex());
+        path.add(node.getNodeIndex());
+        while (!node.isLeaf()) {
+            node = readChild(node, node.childFor(key));
+            path.add(node.getNodeIndex());
+        }
+        return path;
     }
 
     /**
-     * This function finds a node in the tree using binary search
+     * Looks up where the record with the given key is
      *
-     * @param type   The data type code for the object you're searching for
-     * @param target The key that is being looked for
-     * @return The BPlusLeafNode with the key given, null otherwise
+     * @param key search key
+     * @return page location and record index of the key's record, null if the
+     *         key is not in the tree
      */
-    public BPlusNode findNode( int type, Object target ) {
-        if ( root == null ) {
-            System.out.println( "The tree is empty." );
+    public int[] find(Object key) {
+        BPlusNode leaf = findNode(key);
+        if (leaf == null) {
             return null;
         }
-
-        if ( type != root.type ) {
-            System.out.println( "ERROR: search target must be same type as" );
+        int index = leaf.search(key);
+        if (index < 0) {
             return null;
         }
+        return new int[] { leaf.getPageIndex(index), leaf.getRecordIndex(index) };
+    }
 
-        BPlusNode current = root;
-
-        //must traverse the tree
-        while (current.isInner) {
-            int comparison = current.compare( target );
-            if ( comparison > 0 ) {
-                current = current.less; // move to left child
-            } else {
-                if ( current.hasRight ) {
-                    current = current.rightSib;
-                } else {
-                    current = current.greaterOrEqual; //move to right child
-                }
-            }
+    /**
+     * Finds where a record with the given key should be inserted into the
+     * table to keep it in key order: where the record with the next greater
+     * key is, or just after the record with the greatest key if there is none
+     *
+     * @param key search key of the record to insert
+     * @return page location and record index to insert the record at, null if
+     *         the tree is empty
+     */
+    public int[] searchForOpening(Object key) {
+        BPlusNode leaf = findNode(key);
+        if (leaf == null) {
+            return null;
         }
-
-        //Move right through the siblings (we have reached leftmost node of leaf cluster to perform action on)
-        while (current.compare( target ) != 0 && current.hasRight) {
-            current = current.rightSib;
+        int index = leaf.childFor(key);
+        if (index < leaf.getKeyCount()) {
+            return new int[] { leaf.getPageIndex(index), leaf.getRecordIndex(index) };
         }
-
-        if ( current.compare( target ) == 0 ) {
-            return current;
-        } else {
-            return null;
+        if (leaf.getNextLeaf() != -1) {
+            BPlusNode nextLeaf = readNode(leaf.getNextLeaf());
+            return new int[] { nextLeaf.getPageIndex(0), nextLeaf.getRecordIndex(0) };
         }
+        int last = leaf.getKeyCount() - 1;
+        return new int[] { leaf.getPageIndex(last), leaf.getRecordIndex(last) + 1 };
     }
 
     /**
-     * This function finds where a node will be inserted into, used by the
-     *      storage manager when inserting new record
-     * @param type The type of the object being searched
-     * @param target The value of the new record to be inserted
-     * @return 3 objects in an array to represent the closest node to the target.
-     *      First object (int) is the page index,
-     *      second object (int) is the record index,
-     *      third object (boolean) is true if the target is greater
-     *          than the closest node, else false
+     * Adds a key to the tree, splitting the nodes it overfills
+     *
+     * @param key         search key
+     * @param pageIndex   location of the page holding the key's record
+     * @param recordIndex index of the record in the page
+     * @return false if the key was already in the tree
      */
-    public ArrayList<Object> searchForOpening(int type, Object target ){
-        if ( root == null ) {
-//            System.out.println( "The tree is empty." );
-            return null;
-        }
-
-        if ( type != root.type ) {
-            System.out.println( "ERROR: search target must be same type as" );
-            return null;
+    public boolean addKey(Object key, int pageIndex, int recordIndex) {
+        TableSchema table = getTable();
+        if (table.getRootOffset() == -1) {
+            BPlusNode root = newNode(true);
+            root.insertEntry(0, key, pageIndex, recordIndex);
+            writeNode(root);
+            table.setRootOffset(root.getNodeIndex());
+            return true;
         }
-
-        BPlusNode current = root;
-
-        //must traverse the tree
-        while (current.isInner) {
-            int comparison = current.compare( target );
-            if ( comparison > 0 ) {
-                current = current.less; // move to left child
-            } else {
-                if ( current.hasRight ) {
-                    current = current.rightSib;
-                } else {
-                    current = current.greaterOrEqual; //move to right child
-                }
-            }
+        ArrayList<Integer> path = findPath(key);
+        BPlusNode leaf = readNode(path.remove(path.size() - 1));
+        int position = leaf.search(key);
+        if (position >= 0) {
+            return false;
         }
-
-        //Move right through the siblings (we have reached leftmost node of leaf cluster to perform action on)
-        while (current.compare( target ) < 0 && current.hasRight) {
-            current = current.rightSib;
+        leaf.insertEntry(-(position + 1), key, pageIndex, recordIndex);
+        if (leaf.getKeyCount() <= limit) {
+            writeNode(leaf);
+            return true;
         }
+        // split the leaf, the right half's first key separates the two in the parent
+        BPlusNode right = newNode(true);
+        leaf.moveUpperHalf(leaf.getKeyCount() / 2, right);
+        right.setNextLeaf(leaf.getNextLeaf());
+        leaf.setNextLeaf(right.getNodeIndex());
+        writeNode(leaf);
+        writeNode(right);
+        insertIntoParents(path, right.getKey(0), leaf.getNodeIndex(), right.getNodeIndex());
+        return true;
+    }
 
-        return new ArrayList<>( Arrays.asList(current.pageIndex, current.recordIndex, current.compare( target ) < 0 ));
+    /**
+     * Adds the key separating a node that was just split from its new right
+     * half to the node's parent, splitting parents in turn as they overfill,
+     * up to a new root if the root itself splits
+     *
+     * @param path       locations of the nodes from the root to the split
+     *                   node's parent
+     * @param separator  smallest key of the right half
+     * @param leftIndex  location of the split node
+     * @param rightIndex location of the new right half
+     */
+    private void insertIntoParents(ArrayList<Integer> path, Object separator, int leftIndex, int rightIndex) {
+        for (int level = path.size() - 1; level >= 0; level--) {
+            BPlusNode parent = readNode(path.get(level));
+            int position = parent.indexOfChild(leftIndex);
+            parent.insertKeyAndChild(position, separator, position + 1, rightIndex);
+            if (parent.getKeyCount() <= limit) {
+                writeNode(parent);
+                return;
+            }
+            // split the inner node, its middle key moves up to separate the halves
+            BPlusNode right = newNode(false);
+            int middle = parent.getKeyCount() / 2;
+            separator = parent.getKey(middle);
+            parent.moveUpperHalf(middle, right);
+            writeNode(parent);
+            writeNode(right);
+            leftIndex = parent.getNodeIndex();
+            rightIndex = right.getNodeIndex();
+        }
+        BPlusNode root = newNode(false);
+        root.setChild(0, leftIndex);
+        root.insertKeyAndChild(0, separator, 1, rightIndex);
+        writeNode(root);
+        getTable().setRootOffset(root.getNodeIndex());
     }
 
     /**
-     * This functions splits the cluster of nodes that start is apart of
+     * Removes a key from the tree, refilling or merging the nodes it leaves
+     * less than half full
      *
-     * @param start The left-most sibling of this cluster
-     * @return The new parent node that resulted from the split
+     * @param key search key
+     * @return false if the key was not in the tree
      */
-    public BPlusNode split( BPlusNode start ) {
-        int middle = this.limit / 2;
-        int counter = 0;
-        ArrayList<BPlusNode> left = new ArrayList<>(); //left cluster/row
-        ArrayList<BPlusNode> right = new ArrayList<>(); //right cluster/row
-        BPlusNode current = start;
-        //split siblings in half, initializing left and right clusters
-        while (counter < middle) {
-            left.add( current );
-            current = current.rightSib;
-            counter++;
+    public boolean deleteNode(Object key) {
+        if (getRootIndex() == -1) {
+            return false;
         }
-        while (current.hasRight) {
-            right.add( current );
-            current = current.rightSib;
-            counter++;
+        ArrayList<Integer> path = findPath(key);
+        BPlusNode node = readNode(path.remove(path.size() - 1));
+        int position = node.search(key);
+        if (position < 0) {
+            return false;
         }
-        right.add( current );
-
-        //The leftmost node in each side of siblings
-        BPlusNode L = left.get( 0 );
-        BPlusNode R1 = right.get( 0 );
-
-        //TODO change 0 to mem location
-        BPlusNode newRoot = new BPlusNode( R1.getValue(), true, current.type, 0, 0 );
-        if ( !start.isInner ) {
-            //if leaf nodes splitting then middle node is kept
-            newRoot.setLess( L );
-            newRoot.setGreaterOrEqual( R1 );
-            if ( L.parent != null  && L.parent.compare( newRoot.getValue() ) < 0) {
-                addSibling( L.parent, newRoot );
+        node.removeEntry(position);
+        writeNode(node);
+        if (path.isEmpty()) { // the leaf is the root
+            if (node.getKeyCount() == 0) {
+                getTable().setRootOffset(-1);
             }
-            if ( R1.parent != null && R1.parent.compare( newRoot.getValue() ) > 0 ) {
-                addSibling( newRoot, R1.parent );
-            }
-            L.setParent( newRoot );
-            R1.setParent( newRoot );
-
-            removeSibling( left.get( left.size() - 1 ), R1 );
-            for(BPlusNode c : left){
-                if(c.parent == null) {
-                    c.setParent( newRoot );
+            return true;
+        }
+        int nodeIndex = node.getNodeIndex();
+        boolean underfull = node.getKeyCount() < minKeys(node);
+        for (int level = path.size() - 1; level >= 0 && underfull; level--) {
+            BPlusNode parent = readNode(path.get(level));
+            int childPosition = parent.indexOfChild(nodeIndex);
+            if (childPosition > 0) {
+                BPlusNode left = readNode(parent.getChild(childPosition - 1));
+                if (left.getKeyCount() > minKeys(left)) {
+                    borrowFromLeft(parent, childPosition, left, readNode(nodeIndex));
+                    return true;
                 }
             }
-            for(BPlusNode c : right){
-                if(c.parent == null) {
-                    c.setParent( newRoot );
+            if (childPosition < parent.getKeyCount()) {
+                BPlusNode right = readNode(parent.getChild(childPosition + 1));
+                if (right.getKeyCount() > minKeys(right)) {
+                    borrowFromRight(parent, childPosition, readNode(nodeIndex), right);
+                    return true;
                 }
             }
-        } else {
-            //If inner then middle node is removed and set up a level (we split an internal node)
-            BPlusNode R2 = right.get( 1 );
-            newRoot.setLess( L );
-            newRoot.setGreaterOrEqual( R2 );
-            if ( L.parent != null  && L.parent.compare( newRoot.getValue() ) < 0) {
-                addSibling( L.parent, newRoot );
-            }
-            if ( R2.parent != null && R2.parent.compare( newRoot.getValue() ) > 0 ) {
-                addSibling( newRoot, R2.parent );
-            }
-            L.setParent( newRoot );
-            R2.setParent( newRoot );
-            //separating nodes that split
-            removeSibling( left.get( left.size() - 1 ), R1 );
-            removeSibling( R1, R2 );
-
-            BPlusNode leftChild =  left.get( left.size() - 1 ).getGreaterOrEqual();
-            leftChild.setParent( left.get( left.size() - 1 ) );
-            while(leftChild.hasRight){
-                leftChild = leftChild.rightSib;
-                leftChild.setParent( left.get( left.size() - 1 ) );
-            }
-
-            BPlusNode rightChild = R2.getLess();
-            rightChild.setParent( R2 );
-            while(rightChild.hasRight){
-                rightChild = rightChild.rightSib;
-                rightChild.setParent( R2 );
-            }
-
-            for(BPlusNode c : left){
-                c.setParent( newRoot );
+            if (childPosition > 0) {
+                merge(parent, childPosition - 1, readNode(parent.getChild(childPosition - 1)), readNode(nodeIndex));
+            } else {
+                merge(parent, childPosition, readNode(nodeIndex), readNode(parent.getChild(childPosition + 1)));
             }
-            for(BPlusNode c : right){
-                c.setParent( newRoot );
+            if (level == 0 && parent.getKeyCount() == 0) {
+                // the root's last two children were merged, the merged node is the new root
+                getTable().setRootOffset(parent.getChild(0));
+                return true;
             }
+            writeNode(parent);
+            nodeIndex = parent.getNodeIndex();
+            underfull = level > 0 && parent.getKeyCount() < minKeys(parent);
         }
-        return newRoot;
+        return true;
     }
 
     /**
-     * This function inserts a node between siblings by comparing each one
-     *
-     * @param start    The left most node in the row being inserted into
-     * @param addition The new node being added to the siblings
+     * Moves the last key of a node's left sibling to the front of the node
      */
-    public void insertSibling( BPlusNode start, BPlusNode addition ) {
-        BPlusNode current = start;
-        while (current.hasRight && ( current.compare( addition.getValue() ) < 0 )) {
-            current = current.rightSib;
-        }
-        if ( current.compare( addition.getValue() ) > 0 || current.hasRight ) {
-            if(current.hasLeft){
-                addSibling( current.leftSib, addition );
-            }
-            addSibling( addition, current );
+    private void borrowFromLeft(BPlusNode parent, int childPosition, BPlusNode left, BPlusNode node) {
+        int last = left.getKeyCount() - 1;
+        if (node.isLeaf()) {
+            node.insertEntry(0, left.getKey(last), left.getPageIndex(last), left.getRecordIndex(last));
+            left.removeEntry(last);
+            parent.setKey(childPosition - 1, node.getKey(0));
         } else {
-            addSibling( current, addition );
-        }
-        if(current.parent != null){
-            addition.setParent( current.parent );
-        }
+            // the separator comes down in front of the node, the sibling's last key replaces it
+            node.insertKeyAndChild(0, parent.getKey(childPosition - 1), 0, left.getChild(last + 1));
+            parent.setKey(childPosition - 1, left.getKey(last));
+            left.removeKeyAndChild(last, last + 1);
+        }
+        writeNode(left);
+        writeNode(node);
+        writeNode(parent);
     }
 
     /**
-     * This functions counts the number of siblings in a row
-     * to check if a row needs to split
-     *
-     * @param start The left most sibling in the row
-     * @return True the row needs to split, False if not
+     * Moves the first key of a node's right sibling to the end of the node
      */
-    public boolean checkDegree( BPlusNode start ) {
-        int counter = 1;
-        start = start.getLeftMostSibling();
-        while (start.hasRight) {
-            start = start.rightSib;
-            counter++;
-        }
-        return counter >= this.limit;
+    private void borrowFromRight(BPlusNode parent, int childPosition, BPlusNode node, BPlusNode right) {
+        if (node.isLeaf()) {
+            node.insertEntry(node.getKeyCount(), right.getKey(0), right.getPageIndex(0), right.getRecordIndex(0));
+            right.removeEntry(0);
+            parent.setKey(childPosition, right.getKey(0));
+        } else {
+            // the separator comes down at the end of the node, the sibling's first key replaces it
+            node.insertKeyAndChild(node.getKeyCount(), parent.getKey(childPosition), node.getKeyCount() + 1,
+                    right.getChild(0));
+            parent.setKey(childPosition, right.getKey(0));
+            right.removeKeyAndChild(0, 0);
+        }
+        writeNode(right);
+        writeNode(node);
+        writeNode(parent);
     }
 
     /**
-     * Removes the Left and Right nodes as siblings
+     * Moves everything in a node into its left sibling and removes the key
+     * separating them from their parent. The parent is not written back.
      *
-     * @param L Left node
-     * @param R Right node
+     * @param parent         parent of both nodes
+     * @param separatorIndex position of the key separating them in the parent
+     * @param left           the node that is kept
+     * @param right          the node that is emptied
      */
-    public void removeSibling( BPlusNode L, BPlusNode R ) {
-        L.rightSib = null;
-        R.leftSib = null;
-        L.hasRight = false;
-        R.hasLeft = false;
+    private void merge(BPlusNode parent, int separatorIndex, BPlusNode left, BPlusNode right) {
+        left.mergeFrom(right, parent.getKey(separatorIndex));
+        parent.removeKeyAndChild(separatorIndex, separatorIndex + 1);
+        writeNode(left);
     }
 
     /**
-     * adds the left and right nodes as their respective siblings
+     * Changes where the record of a key is, after the record moved within its
+     * page or to another page
      *
-     * @param L Left node
-     * @param R Right node
+     * @param key         search key
+     * @param pageIndex   location of the page now holding the key's record
+     * @param recordIndex index of the record in the page
+     * @return false if the key is not in the tree
      */
-    public void addSibling( BPlusNode L, BPlusNode R ) {
-        L.rightSib = R;
-        R.leftSib = L;
-        L.hasRight = true;
-        R.hasLeft = true;
-    }
-
-
-    public String toString() {
-        if(root == null){
-            return "Empty Tree";
+    public boolean updatePointer(Object key, int pageIndex, int recordIndex) {
+        BPlusNode leaf = findNode(key);
+        if (leaf == null) {
+            return false;
         }
-        return root.printTree();
-    }
-
-    public int getTableId() {
-        return this.tableId;
+        int index = leaf.search(key);
+        if (index < 0) {
+            return false;
+        }
+        leaf.setRecordLocation(index, pageIndex, recordIndex);
+        writeNode(leaf);
+        return true;
     }
 
     /**
-     * After changes to the b+tree are made, being inserts, deletes, or updates in the case
-     * of primaryKey values, a number of pointers within the tree need updates to their record
-     * pointer being the pageIndex, recordIndex pair.
-     * This method will be called repeatedly - this method finds a singular node that requires
-     * an update to the pointer, and makes that update.
-     * @param searchKeyType indicating data type of search key
-     * @param searchKey the search key value identifying node to update
-     * @param newPageIndex what page on disk the record of this node to update exists at
-     * @param newRecordIndex where the record of this node to update exists among the records of a page on disk
+     * @return the keys of every node, one level of the tree per line
      */
-    public void updatePointer(int searchKeyType, Object searchKey, int newPageIndex, int newRecordIndex) {
-        BPlusNode nodeToUpdate = findNode(searchKeyType, searchKey);
-        nodeToUpdate.setPageIndex(newPageIndex);
-        nodeToUpdate.setRecordIndex(newRecordIndex);
+    @Override
+    public String toString() {
+        if (getRootIndex() == -1) {
+            return "(empty)";
+        }
+        StringBuilder tree = new StringBuilder();
+        ArrayList<Integer> level = new ArrayList<>();
+        level.add(getRootIndex());
+        while (!level.isEmpty()) {
+            ArrayList<Integer> nextLevel = new ArrayList<>();
+            for (int nodeIndex : level) {
+                BPlusNode node = readNode(nodeIndex);
+                tree.append(node.keysToString()).append(' ');
+                if (!node.isLeaf()) {
+                    for (int c = 0; c <= node.getKeyCount(); c++) {
+                        nextLevel.add(node.getChild(c));
+                    }
+                }
+            }
+            tree.append('\n');
+            level = nextLevel;
+        }
+        return tree.toString();
     }
 }
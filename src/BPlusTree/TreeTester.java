@@ -1,99 +1,252 @@
 package src.BPlusTree;
 
-import java.util.Arrays;
+import src.Catalog;
+import src.Main;
+import src.StorageManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Randomized consistency test of the B+ trees.
+ *
+ * Builds a throwaway database with indexing turned on and three tables, keyed
+ * by an integer, a double and a varchar, then adds, deletes and moves random
+ * keys in their trees while keeping the same keys in a TreeMap. Every so often
+ * each tree is checked against its TreeMap (see checkTree), and the database is
+ * shut down and started again from disk (see restart) so the trees are read
+ * back from their files. Small pages and a small buffer keep the trees several
+ * levels deep and their nodes going in and out of the buffer.
+ *
+ * Run with: java -cp out src.BPlusTree.TreeTester [seed [operations [page size [buffer size]]]]
+ */
 public class TreeTester {
 
-
-    public static void main( String[] args ) {
-
-        /*
-        // BEGIN CODE TO CALCULATE N for this tree (N = number of pointers for a given node)
-        this code will move to where actual b+ tree created.
-
-        double pageSize = Catalog.instance.getPageSize();
-        TableSchema table = Catalog.instance.getTableSchemaById();
-        ArrayList<AttributeSchema> tableAttributes = table.getAttributes();
-        int indexOfSearchKeyColumn = 0; // SET VALUE ACCORDINGLY
-        int dataTypeSize = tableAttributes.get(indexOfSearchKeyColumn).getSize(); //gets size of attribute
-        double searchKeyPagePointerPairSize = dataTypeSize + 4; // +4 for page pointer size being int
-        int N = ( (int) Math.floor((pageSize / searchKeyPagePointerPairSize)) ) - 1;
-         */
-
-        int limit = 5;
-
-        BPlusTree tree = new BPlusTree( limit, 1 );
-
-        /*
-        for ( int i = 1; i < 6; i++ ) {
-            //System.out.println(Integer.toString( i )  + ": " + tree.addNode( new BPlusLeafNode(  i, limit, 1 ))); //Debugging insert
-            tree.addNode( new BPlusNode( i, false, 1, 0,0 ) );
+    private static final int CHECK_EVERY = 500;
+    private static final int RESTART_EVERY = 4000;
+    private static final int NUM_KEYS = 3000; // keys are drawn from this many values per table
+
+    private static final String[] TABLE_NAMES = { "ints", "doubles", "strings" };
+
+    public static void main( String[] args ) throws IOException {
+        long seed = args.length > 0 ? Long.parseLong( args[0] ) : 1;
+        int operations = args.length > 1 ? Integer.parseInt( args[1] ) : 40000;
+        Main.pageSize = args.length > 2 ? Integer.parseInt( args[2] ) : 128;
+        Main.bufferSizeLimit = args.length > 3 ? Integer.parseInt( args[3] ) : 8;
+        Main.indexing = "true";
+
+        File dbLoc = Files.createTempDirectory( "treetester" ).toFile();
+        Main.db_loc = dbLoc.getPath();
+        Catalog.instance = new Catalog( Main.pageSize, Main.db_loc, 't' );
+        StorageManager.instance = new StorageManager( Main.db_loc );
+        Catalog.instance.addTableSchema( 1, TABLE_NAMES[0], new ArrayList<>( Arrays.asList( "id", 1, 32, true, 3 ) ) );
+        Catalog.instance.addTableSchema( 2, TABLE_NAMES[1], new ArrayList<>( Arrays.asList( "id", 2, 64, true, 3 ) ) );
+        Catalog.instance.addTableSchema( 3, TABLE_NAMES[2], new ArrayList<>( Arrays.asList( "id", 5, 6, true, 3 ) ) );
+
+        ArrayList<TreeMap<Object, int[]>> models = new ArrayList<>();
+        for ( int table = 0; table < TABLE_NAMES.length; table++ ) {
+            models.add( new TreeMap<>() );
         }
-
-        System.out.println( tree.toString() );
-
-        System.out.println(tree.deleteNode(1, 2));
-
-        System.out.println( tree.toString() );
-
-        System.out.println(tree.deleteNode(1, 1));
-
-        System.out.println( tree.toString() );
-
-        */
-
-        //CODE FOR TESTING ALONG WITH EXAMPLE FROM CLASS ACTIVITY
-
-        ArrayList<Integer> testcase = new ArrayList<>( Arrays.asList(1,4,7,10,17,19,20,22,45,50,70,73,75,80));
-        for(int i : testcase){
-            tree.addNode( new BPlusNode( i, false, 1, 0, 0 ) );
-            System.out.println(tree.toString());
+        Random random = new Random( seed );
+        int restarts = 0;
+        for ( int op = 1; op <= operations; op++ ) {
+            int table = random.nextInt( TABLE_NAMES.length );
+            BPlusTree tree = Catalog.instance.getBPlusTreeByTableID( table + 1 );
+            TreeMap<Object, int[]> model = models.get( table );
+            Object key = randomKey( table, random );
+            int[] location = { random.nextInt( 1000 ), random.nextInt( 100 ) };
+            // insert more than delete while the first half runs, then the other way around
+            int insertPercent = op <= operations / 2 ? 65 : 35;
+            int choice = random.nextInt( 100 );
+            boolean expected;
+            boolean actual;
+            String operation;
+            if ( choice < insertPercent ) {
+                operation = "add";
+                expected = !model.containsKey( key );
+                actual = tree.addKey( key, location[0], location[1] );
+                model.putIfAbsent( key, location );
+            } else if ( choice < 90 ) {
+                operation = "delete";
+                expected = model.remove( key ) != null;
+                actual = tree.deleteNode( key );
+            } else {
+                operation = "move";
+                expected = model.containsKey( key );
+                actual = tree.updatePointer( key, location[0], location[1] );
+                if ( expected ) {
+                    model.put( key, location );
+                }
+            }
+            if ( expected != actual ) {
+                fail( "operation " + op + ": " + operation + " " + key + " in " + TABLE_NAMES[table] + " returned " + actual );
+            }
+            if ( op % CHECK_EVERY == 0 ) {
+                checkTrees( models );
+            }
+            if ( op % RESTART_EVERY == 0 ) {
+                restart();
+                restarts++;
+                checkTrees( models );
+            }
         }
+        checkTrees( models );
+        restart();
+        restarts++;
+        checkTrees( models );
+
+        for ( int table = 0; table < TABLE_NAMES.length; table++ ) {
+            BPlusTree tree = Catalog.instance.getBPlusTreeByTableID( table + 1 );
+            System.out.println( TABLE_NAMES[table] + ": " + models.get( table ).size() + " keys, " + tree.getLimit()
+                    + " keys per node, height " + height( tree ) );
+        }
+        System.out.println( "OK: " + operations + " operations, " + restarts + " restarts, seed " + seed );
+        StorageManager.instance.writeOutBuffer();
+        deleteRecursively( dbLoc );
+    }
 
-        tree.addNode( new BPlusNode( 18, false, 1, 0,0 ) );
-
-        System.out.println(tree.toString());
-        tree.deleteNode(1, 17);
-
-        System.out.println( tree.toString() );
-
-        /*
-        tree.deleteNode(1, 1);
-
-        System.out.println( tree.toString() );
-
-        tree.addNode( new BPlusNode( 3, false, 1, 0,0 ) );
-        tree.addNode( new BPlusNode( 5, false, 1, 0,0 ) );
-
-        System.out.println( tree.toString() );
-
-        tree.deleteNode(1, 70);
-        tree.addNode( new BPlusNode( 70, false, 1, 0,0 ) );
-
-        System.out.println( tree.toString() );
-
-        tree.addNode( new BPlusNode( 12, false, 1, 0,0 ) );
-        tree.addNode( new BPlusNode( 15, false, 1, 0,0 ) );
-        tree.deleteNode(1, 5);
+    private static Object randomKey( int table, Random random ) {
+        int value = random.nextInt( NUM_KEYS );
+        return switch ( table ) {
+            case 0 -> value;
+            case 1 -> value / 4.0 - 100;
+            default -> "k" + value;
+        };
+    }
 
-        System.out.println( tree.toString() );
+    /**
+     * Shuts the database down the way quit does, then starts it again from the
+     * catalog and the files on disk
+     */
+    private static void restart() {
+        StorageManager.instance.checkpoint();
+        StorageManager.instance.writeOutBuffer();
+        Catalog.instance = Catalog.readCatalogFromFile( Main.db_loc );
+        StorageManager.instance = new StorageManager( Main.db_loc );
+    }
 
-        tree.addNode( new BPlusNode( 49, false, 1, 0,0 ) );
-        tree.addNode( new BPlusNode( 48, false, 1, 0,0 ) );
-        tree.deleteNode(1, 22);
+    private static void checkTrees( ArrayList<TreeMap<Object, int[]>> models ) {
+        for ( int table = 0; table < TABLE_NAMES.length; table++ ) {
+            checkTree( TABLE_NAMES[table], Catalog.instance.getBPlusTreeByTableID( table + 1 ), models.get( table ) );
+        }
+    }
 
-        System.out.println( tree.toString() );
+    /**
+     * Checks that the tree holds exactly the keys and locations of the model:
+     * every node within its size limits with its keys in order and between the
+     * keys around it in its parent, every leaf at the same depth, the leaf chain
+     * going through every leaf in key order, and find agreeing with the model
+     */
+    private static void checkTree( String name, BPlusTree tree, TreeMap<Object, int[]> model ) {
+        ArrayList<BPlusNode> leaves = new ArrayList<>();
+        if ( tree.getRootIndex() == -1 ) {
+            if ( !model.isEmpty() ) {
+                fail( name + ": tree is empty, " + model.size() + " keys expected" );
+            }
+            return;
+        }
+        checkNode( name, tree, tree.getRootIndex(), null, null, true, leaves );
+        Iterator<Map.Entry<Object, int[]>> expected = model.entrySet().iterator();
+        for ( int i = 0; i < leaves.size(); i++ ) {
+            BPlusNode leaf = leaves.get( i );
+            int nextLeaf = i + 1 < leaves.size() ? leaves.get( i + 1 ).getNodeIndex() : -1;
+            if ( leaf.getNextLeaf() != nextLeaf ) {
+                fail( name + ": " + leaf + " links to " + leaf.getNextLeaf() + " instead of " + nextLeaf );
+            }
+            for ( int k = 0; k < leaf.getKeyCount(); k++ ) {
+                if ( !expected.hasNext() ) {
+                    fail( name + ": " + leaf.getKey( k ) + " is in the tree but not the model" );
+                }
+                Map.Entry<Object, int[]> entry = expected.next();
+                if ( !entry.getKey().equals( leaf.getKey( k ) ) || entry.getValue()[0] != leaf.getPageIndex( k )
+                        || entry.getValue()[1] != leaf.getRecordIndex( k ) ) {
+                    fail( name + ": found " + leaf.getKey( k ) + " at " + leaf.getPageIndex( k ) + ","
+                            + leaf.getRecordIndex( k ) + ", expected " + entry.getKey() + " at "
+                            + Arrays.toString( entry.getValue() ) );
+                }
+            }
+        }
+        if ( expected.hasNext() ) {
+            fail( name + ": " + expected.next().getKey() + " is in the model but not the tree" );
+        }
+        for ( Map.Entry<Object, int[]> entry : model.entrySet() ) {
+            if ( !Arrays.equals( tree.find( entry.getKey() ), entry.getValue() ) ) {
+                fail( name + ": find " + entry.getKey() + " returned " + Arrays.toString( tree.find( entry.getKey() ) ) );
+            }
+        }
+    }
 
-        tree.addNode( new BPlusNode( 90, false, 1, 0,0 ) );
-        tree.addNode( new BPlusNode( 95, false, 1, 0,0 ) );
-        tree.addNode( new BPlusNode( 78, false, 1, 0,0 ) );
-        tree.addNode( new BPlusNode( 85, false, 1, 0,0 ) );
-        tree.addNode( new BPlusNode( 100, false, 1, 0,0 ) );
-        tree.deleteNode(1, 20);
+    /**
+     * Checks a node and everything below it, adding its leaves to leaves in
+     * key order
+     *
+     * @param low  every key must be at least this, null for no bound
+     * @param high every key must be less than this, null for no bound
+     * @return depth of the leaves below the node, 1 for a leaf
+     */
+    private static int checkNode( String name, BPlusTree tree, int nodeIndex, Object low, Object high, boolean isRoot,
+            ArrayList<BPlusNode> leaves ) {
+        BPlusNode node = tree.readNode( nodeIndex );
+        int minKeys = isRoot ? 1 : node.isLeaf() ? ( tree.getLimit() + 1 ) / 2 : tree.getLimit() / 2;
+        if ( node.getKeyCount() > tree.getLimit() || node.getKeyCount() < minKeys ) {
+            fail( name + ": " + node + " has " + node.getKeyCount() + " keys, limit " + tree.getLimit() );
+        }
+        for ( int k = 0; k < node.getKeyCount(); k++ ) {
+            Object key = node.getKey( k );
+            if ( k > 0 && BPlusTree.compare( node.getKey( k - 1 ), key ) >= 0
+                    || low != null && BPlusTree.compare( key, low ) < 0
+                    || high != null && BPlusTree.compare( key, high ) >= 0 ) {
+                fail( name + ": " + node + " is out of order, bounds " + low + " and " + high );
+            }
+        }
+        if ( node.isLeaf() ) {
+            leaves.add( node );
+            return 1;
+        }
+        int depth = -1;
+        for ( int c = 0; c <= node.getKeyCount(); c++ ) {
+            Object childLow = c == 0 ? low : node.getKey( c - 1 );
+            Object childHigh = c == node.getKeyCount() ? high : node.getKey( c );
+            int childDepth = checkNode( name, tree, node.getChild( c ), childLow, childHigh, false, leaves );
+            if ( depth != -1 && childDepth != depth ) {
+                fail( name + ": leaves below " + node + " are at different depths" );
+            }
+            depth = childDepth;
+        }
+        return depth + 1;
+    }
 
-        System.out.println( tree.toString() );
+    private static int height( BPlusTree tree ) {
+        if ( tree.getRootIndex() == -1 ) {
+            return 0;
+        }
+        int height = 1;
+        BPlusNode node = tree.readNode( tree.getRootIndex() );
+        while ( !node.isLeaf() ) {
+            node = tree.readNode( node.getChild( 0 ) );
+            height++;
+        }
+        return height;
+    }
 
-         */
+    private static void fail( String message ) {
+        throw new IllegalStateException( message );
+    }
 
+    private static void deleteRecursively( File file ) {
+        File[] children = file.listFiles();
+        if ( children != null ) {
+            for ( File child : children ) {
+                deleteRecursively( child );
+            }
+        }
+        file.delete();
     }
 }
@@ -0,0 +1,151 @@
+package src;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Randomized test of the buffer under a write-heavy load.
+ *
+ * Runs a database with a tiny buffer and the given replacement policy, and
+ * sends it random inserts (single and multi-row), updates that grow and
+ * shrink records, and deletes, keeping the same rows in a TreeMap. With the
+ * log on, every page they modify is held in the buffer until the next
+ * checkpoint, so single changes take the buffer past its size and the held
+ * pages all go back to the replacement policy at once. Every so often the
+ * table is selected and checked against the TreeMap, and the database is
+ * shut down and started again.
+ *
+ * Run with: java -cp out src.BufferTester [seed [commands [policy [buffer size [indexing]]]]]
+ */
+public class BufferTester {
+
+    private static final int CHECK_EVERY = 50;
+    private static final int RESTART_EVERY = 200;
+    private static final int NUM_KEYS = 2000; // keys are drawn from this many values
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+        int commands = args.length > 1 ? Integer.parseInt(args[1]) : 600;
+        String policy = args.length > 2 ? args[2] : "clock";
+        String bufferSize = args.length > 3 ? args[3] : "4";
+        String indexing = args.length > 4 ? args[4] : "false";
+
+        File dbLoc = Files.createTempDirectory("buffertester").toFile();
+        String[] dbArgs = { dbLoc.getPath(), "256", bufferSize, indexing, policy };
+        TestDatabase db = new TestDatabase(dbArgs);
+        expectSuccess(db, "create table t( id integer primarykey, x integer, s varchar(40));");
+
+        // x and s of each row, by id
+        TreeMap<Integer, String[]> model = new TreeMap<>();
+        Random random = new Random(seed);
+        int restarts = 0;
+        for (int command = 1; command <= commands; command++) {
+            int choice = random.nextInt(100);
+            int low = random.nextInt(NUM_KEYS);
+            int high = low + random.nextInt(NUM_KEYS / 4);
+            String where = " where id > " + low + " and id <= " + high;
+            if (choice < 40) {
+                expectSuccess(db, insert(model, random, 1 + random.nextInt(choice < 10 ? 60 : 1)));
+            } else if (choice < 70) {
+                // a long or an empty string, so records grow and shrink in place
+                String s = "s".repeat(random.nextBoolean() ? 40 : random.nextInt(3));
+                expectSuccess(db, "update t set s = \"" + s + "\"" + where + ";");
+                for (String[] row : model.subMap(low, false, high, true).values()) {
+                    row[1] = s;
+                }
+            } else if (choice < 85) {
+                int x = random.nextInt(100);
+                expectSuccess(db, "update t set x = " + x + where + ";");
+                for (String[] row : model.subMap(low, false, high, true).values()) {
+                    row[0] = String.valueOf(x);
+                }
+            } else {
+                expectSuccess(db, "delete from t" + where + ";");
+                model.subMap(low, false, high, true).clear();
+            }
+            if (command % CHECK_EVERY == 0) {
+                checkTable(db, model, command);
+            }
+            if (command % RESTART_EVERY == 0) {
+                db.quit();
+                db = new TestDatabase(dbArgs);
+                restarts++;
+                checkTable(db, model, command);
+            }
+        }
+        checkTable(db, model, commands);
+        db.quit();
+        System.out.println("OK: " + commands + " commands, " + model.size() + " rows, " + restarts + " restarts, "
+                + policy + " with " + bufferSize + " pages, seed " + seed);
+        TestDatabase.deleteRecursively(dbLoc);
+    }
+
+    /**
+     * @return an insert of rows with keys not in the model, added to it
+     */
+    private static String insert(TreeMap<Integer, String[]> model, Random random, int numRows) {
+        StringBuilder insert = new StringBuilder("insert into t values ");
+        for (int row = 0; row < numRows; row++) {
+            int id = random.nextInt(NUM_KEYS);
+            while (model.containsKey(id)) {
+                id = (id + 1) % NUM_KEYS;
+            }
+            String[] values = { String.valueOf(random.nextInt(100)), "r".repeat(random.nextInt(20)) };
+            model.put(id, values);
+            insert.append(row == 0 ? "(" : ", (").append(id).append(" ").append(values[0])
+                    .append(" \"").append(values[1]).append("\")");
+        }
+        return insert.append(";").toString();
+    }
+
+    private static void expectSuccess(TestDatabase db, String command) throws IOException {
+        String printed = db.run(command);
+        if (!printed.contains("SUCCESS") || printed.contains("ERROR") || printed.contains("Exception")) {
+            fail(command + " printed:\n" + printed);
+        }
+    }
+
+    /**
+     * Selects the whole table and compares it, row by row, with the model
+     */
+    private static void checkTable(TestDatabase db, TreeMap<Integer, String[]> model, int command)
+            throws IOException {
+        String printed = db.run("select * from t;");
+        ArrayList<String[]> rows = new ArrayList<>();
+        boolean header = true;
+        for (String line : printed.split("\n")) {
+            if (!line.trim().startsWith("|")) {
+                continue;
+            }
+            if (header) { // the column names
+                header = false;
+                continue;
+            }
+            String[] cells = line.split("\\|", -1);
+            rows.add(new String[] { cells[1].trim(), cells[2].trim(), cells[3].trim() });
+        }
+        if (rows.size() != model.size()) {
+            fail("after command " + command + ": " + rows.size() + " rows selected, expected " + model.size());
+        }
+        int i = 0;
+        for (Map.Entry<Integer, String[]> entry : model.entrySet()) {
+            String[] row = rows.get(i++);
+            String[] expected = { String.valueOf(entry.getKey()), entry.getValue()[0], entry.getValue()[1] };
+            for (int column = 0; column < expected.length; column++) {
+                if (!row[column].equals(expected[column])) {
+                    fail("after command " + command + ": row " + i + " is " + String.join(" ", row)
+                            + ", expected " + String.join(" ", expected));
+                }
+            }
+        }
+    }
+
+    private static void fail(String message) {
+        throw new IllegalStateException(message);
+    }
+}
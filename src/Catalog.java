@@ -9,8 +9,11 @@ import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 
 public class Catalog {
@@ -29,6 +32,36 @@ public class Catalog {
 
     private ArrayList<BPlusTree> bPlusTrees;
 
+    // Written after the table schemas, followed by the format version. Catalogs
+    // written before the version existed end right after the table schemas.
+    private static final int FORMAT_TRAILER_MARKER = 0x4A6F7474;
+    // Added to the catalog file's name for the file a new catalog is written to
+    private static final String TEMP_SUFFIX = ".tmp";
+    // Table pages are a size int, a record count and the records back to back
+    public static final int LEGACY_FORMAT_VERSION = 1;
+    // Table pages are slotted, see Page
+    public static final int SLOTTED_PAGE_FORMAT_VERSION = 2;
+    // The format version is followed by the record format of each table, in
+    // table order. Tables of older catalogs use Record.LEGACY_RECORD_FORMAT.
+    public static final int RECORD_FORMAT_VERSION = 3;
+    // Each table's record format is followed by its page fences: a count, then
+    // per page its location and its smallest and largest primary key
+    public static final int PAGE_FENCES_FORMAT_VERSION = 4;
+    // Each table's page fences are followed by its schema versions: the current
+    // version, the default value of each attribute, the older versions still
+    // in use and the pages stored in them, see SchemaVersion
+    public static final int SCHEMA_VERSIONS_FORMAT_VERSION = 5;
+    // The tables are followed by the LSN of the checkpoint that wrote the
+    // catalog, see WriteAheadLog
+    public static final int CHECKPOINT_LSN_FORMAT_VERSION = 6;
+    public static final int CURRENT_FORMAT_VERSION = CHECKPOINT_LSN_FORMAT_VERSION;
+
+    // On disk format version of the database's table files.
+    private int formatVersion;
+
+    // LSN of the checkpoint the catalog was last written by, -1 if none was.
+    private long checkpointLsn = -1;
+
     /**
      * Creates an instance of the Catalog object.
      * 
@@ -42,6 +75,40 @@ public class Catalog {
         this.pageSize = pageSize;
         this.rootPath = rootPath;
         this.indexing = indexing;
+        this.formatVersion = CURRENT_FORMAT_VERSION;
+    }
+
+    /**
+     * Returns the on disk format version of the database's table files.
+     * @return one of the *_FORMAT_VERSION constants
+     */
+    public int getFormatVersion() {
+        return formatVersion;
+    }
+
+    /**
+     * Returns the LSN of the checkpoint that last wrote the catalog. Every
+     * change logged before it is in the table files.
+     * @return the LSN, -1 if no checkpoint has written the catalog
+     */
+    public long getCheckpointLsn() {
+        return checkpointLsn;
+    }
+
+    /**
+     * Sets the checkpoint LSN, called by a checkpoint before it writes the catalog.
+     * @param checkpointLsn : the checkpoint's LSN
+     */
+    public void setCheckpointLsn(long checkpointLsn) {
+        this.checkpointLsn = checkpointLsn;
+    }
+
+    /**
+     * Sets the format version, called once the table files have been converted.
+     * @param formatVersion : one of the *_FORMAT_VERSION constants
+     */
+    public void setFormatVersion(int formatVersion) {
+        this.formatVersion = formatVersion;
     }
 
     /**
@@ -77,13 +144,22 @@ public class Catalog {
                     (int) attributeInfo.get(i + 2), (boolean) attributeInfo.get(i + 3), (int) attributeInfo.get(i + 4));
         }
         tableSchemas.add(tableSchema);
-        if (Catalog.instance.indexing == 't') {
-            Catalog.instance.getTableSchemaById(tableId).setBPlusTreeMetaData(0,
-                    0, Catalog.instance.getPageSize(), Catalog.instance.getTablePKIndex(tableId));
-            this.bPlusTrees.add(new BPlusTree(tableSchema.getN(), tableSchema.getTableId()));
+        if (indexing == 't') {
+            addBPlusTree(tableSchema);
         }
     }
 
+    /**
+     * Sets up an empty B+ tree over the primary key of a new table and creates
+     * the tree's file, for databases with indexing turned on.
+     * @param tableSchema : the new table, already in the catalog
+     */
+    private void addBPlusTree(TableSchema tableSchema) {
+        tableSchema.setBPlusTreeMetaData(-1, 0, pageSize, getTablePKIndex(tableSchema.getTableId()));
+        BPlusTree.createBPlusTreeFile(tableSchema.getTableId());
+        bPlusTrees.add(new BPlusTree(tableSchema.getN(), tableSchema.getTableId()));
+    }
+
     /**
      *
      * @param tableID
@@ -131,69 +207,51 @@ public class Catalog {
     }
 
     /**
-     * Creates a new table that is a copy of the given tableSchema with the given attribute dropped.
-     * Table is added to array of tableSchemas and a new table file is created.
+     * Drops the given attribute from a table. The table keeps its id and its
+     * pages, only a new schema version is started, see SchemaVersion.
      * @param tableId : Given tableId
      * @param attrName : Given attribute name to drop
+     * @return the altered tableSchema
      */
     public TableSchema updateTableDropColumn(int tableId, String attrName) {
-        int nextTableId = getNextAvailableId();
-        TableSchema originTable = getTableSchemaById(tableId);
-        TableSchema newTable = new TableSchema("temp", nextTableId, new ArrayList<>());
-        ArrayList<AttributeSchema> attributes = originTable.getAttributes();
+        TableSchema table = getTableSchemaById(tableId);
+        ArrayList<AttributeSchema> attributes = table.getAttributes();
         for (int i = 0; i < attributes.size(); i++) {
-            if (!attributes.get(i).getName().equals(attrName)) {
-                AttributeSchema attribute = attributes.get(i);
-                newTable.addAttribute(attribute.getName(), attribute.getType(), attribute.getSize(),
-                        attribute.isPrimaryKey(), attribute.getConstraints());
+            if (attributes.get(i).getName().equals(attrName)) {
+                table.archiveSchemaVersion();
+                table.dropAttribute(i);
+                break;
             }
         }
-        ArrayList<String> columnNames = new ArrayList<>();
-        ArrayList<Integer> dataTypes = new ArrayList<>();
-        for (AttributeSchema attributeSchema: newTable.getAttributes()) {
-            columnNames.add(attributeSchema.getName());
-            dataTypes.add(attributeSchema.getType());
-        }
-        StorageManager.instance.createTable(nextTableId, newTable.getTableName(), columnNames, dataTypes);
-        tableSchemas.add(newTable);
-        return newTable;
+        return table;
     }
 
     /**
-     * Creates a copy of a given tableSchema and adds a given attribute. Adds table to array of tableSchema.
-     * A new table file is created.
+     * Adds the given attribute to the end of a table. The table keeps its id
+     * and its pages, only a new schema version is started, see SchemaVersion.
      * @param tableId : Given tableId
      * @param attrInfo : given attribute info
+     * @param defaultValue : value of the attribute for the records already in
+     *                     the table, null if none was given
+     * @return the altered tableSchema
      */
-    public TableSchema updateTableAddColumn(int tableId, ArrayList attrInfo) {
-        int nextTableId = getNextAvailableId();
-        TableSchema originTable = getTableSchemaById(tableId);
-        TableSchema newTable = new TableSchema("temp", nextTableId, new ArrayList<>());
-        ArrayList<AttributeSchema> attributes = originTable.getAttributes();
-        for (int i = 0; i < attributes.size(); i++) {
-            AttributeSchema attribute = attributes.get(i);
-            newTable.addAttribute(attribute.getName(), attribute.getType(), attribute.getSize(),
-                    attribute.isPrimaryKey(), attribute.getConstraints());
-        }
-        newTable.addAttribute((String) attrInfo.get(0), (int) attrInfo.get(1), (int) attrInfo.get(2),
+    public TableSchema updateTableAddColumn(int tableId, ArrayList attrInfo, Object defaultValue) {
+        TableSchema table = getTableSchemaById(tableId);
+        table.archiveSchemaVersion();
+        table.addAttribute((String) attrInfo.get(0), (int) attrInfo.get(1), (int) attrInfo.get(2),
                 (boolean) attrInfo.get(3), (int) attrInfo.get(4));
-        ArrayList<String> columnNames = new ArrayList<>();
-        ArrayList<Integer> dataTypes = new ArrayList<>();
-        for (AttributeSchema attributeSchema: newTable.getAttributes()) {
-            columnNames.add(attributeSchema.getName());
-            dataTypes.add(attributeSchema.getType());
-        }
-        StorageManager.instance.createTable(nextTableId, newTable.getTableName(), columnNames, dataTypes);
-        tableSchemas.add(newTable);
-        return newTable;
+        ArrayList<AttributeSchema> attributes = table.getAttributes();
+        attributes.get(attributes.size() - 1).setDefaultValue(defaultValue);
+        return table;
     }
 
     /**
-     * Drops a table with the given table id from list of tableSchemas.
+     * Drops a table with the given table id from list of tableSchemas, along with its B+ tree.
      * @param tableId : Given table id
      */
     public void dropTableSchema(int tableId) {
         tableSchemas.remove(getTableSchemaById(tableId));
+        bPlusTrees.remove(getBPlusTreeByTableID(tableId));
     }
 
 
@@ -434,9 +492,97 @@ public class Catalog {
         for (TableSchema tableSchema : tableSchemas) {
             size += tableSchema.getSizeInBytes();
         }
+        size += Integer.BYTES * 2; // format trailer
+        for (TableSchema tableSchema : tableSchemas) {
+            size += Integer.BYTES * 2; // record format, number of fenced pages
+            for (int pageLocation : tableSchema.getPageOrder()) {
+                if (tableSchema.getPageMinKey(pageLocation) != null) {
+                    size += Integer.BYTES + getKeySizeInBytes(tableSchema.getPageMinKey(pageLocation))
+                            + getKeySizeInBytes(tableSchema.getPageMaxKey(pageLocation));
+                }
+            }
+            size += Integer.BYTES; // schema version
+            for (AttributeSchema attribute : tableSchema.getAttributes()) {
+                size += Character.BYTES; // has a default value
+                if (attribute.getDefaultValue() != null) {
+                    size += getKeySizeInBytes(attribute.getDefaultValue());
+                }
+            }
+            size += Integer.BYTES; // number of older schema versions
+            for (SchemaVersion storedSchema : tableSchema.getOldSchemaVersions().values()) {
+                size += Integer.BYTES * 2 + storedSchema.getTypes().size() * Integer.BYTES * 2;
+            }
+            size += Integer.BYTES + tableSchema.getOldSchemaPages().size() * Integer.BYTES * 2;
+        }
+        size += Long.BYTES; // checkpoint LSN
         return size;
     }
 
+    /**
+     * Calculates the number of bytes a primary key value (or default value)
+     * takes up in the catalog.
+     *
+     * @param key : Integer, Double, Boolean or String primary key value
+     * @return Integer representing the number of bytes.
+     */
+    private static int getKeySizeInBytes(Object key) {
+        if (key instanceof Integer) {
+            return Integer.BYTES;
+        } else if (key instanceof Double) {
+            return Double.BYTES;
+        } else if (key instanceof Boolean) {
+            return Character.BYTES;
+        }
+        return Integer.BYTES + ((String) key).length() * Character.BYTES;
+    }
+
+    /**
+     * Writes a primary key value, booleans as a t/f character and strings as
+     * their length and characters, like the rest of the catalog.
+     *
+     * @param buffer : buffer holding the catalog's bytes
+     * @param key    : Integer, Double, Boolean or String primary key value
+     */
+    private static void putKey(ByteBuffer buffer, Object key) {
+        if (key instanceof Integer) {
+            buffer.putInt((Integer) key);
+        } else if (key instanceof Double) {
+            buffer.putDouble((Double) key);
+        } else if (key instanceof Boolean) {
+            buffer.putChar((Boolean) key ? 't' : 'f');
+        } else {
+            String string = (String) key;
+            buffer.putInt(string.length());
+            for (int i = 0; i < string.length(); i++) {
+                buffer.putChar(string.charAt(i));
+            }
+        }
+    }
+
+    /**
+     * Reads a primary key value written by putKey.
+     *
+     * @param byteProcessor : catalog file
+     * @param type          : type of the primary key attribute
+     * @return the key value
+     * @throws IOException .
+     */
+    private static Object readKey(RandomAccessFile byteProcessor, int type) throws IOException {
+        return switch (type) {
+            case 1 -> byteProcessor.readInt();
+            case 2 -> byteProcessor.readDouble();
+            case 3 -> byteProcessor.readChar() == 't';
+            default -> {
+                int length = byteProcessor.readInt();
+                StringBuilder key = new StringBuilder();
+                for (int i = 0; i < length; i++) {
+                    key.append(byteProcessor.readChar());
+                }
+                yield key.toString();
+            }
+        };
+    }
+
     /**
      * Reads in a catalog file and converts it into its representative objects.
      * Converts catalog file into a catalog, then reads in TableSchemas and then
@@ -503,9 +649,65 @@ public class Catalog {
                 }
                 if (indexChar == 't') {
                     tableSchema.setBPlusTreeMetaData(rootOffset, nextAvailableNodeIndex, pageSize, pkIndex);
+                    catalog.bPlusTrees.add(new BPlusTree(tableSchema.getN(), tableId));
                 }
                 catalog.tableSchemas.add(tableSchema);
             }
+            // Reads in the format version, if the catalog has one
+            catalog.formatVersion = LEGACY_FORMAT_VERSION;
+            if (byteProcessor.length() - byteProcessor.getFilePointer() >= Integer.BYTES * 2
+                    && byteProcessor.readInt() == FORMAT_TRAILER_MARKER) {
+                catalog.formatVersion = byteProcessor.readInt();
+            }
+            for (TableSchema tableSchema : catalog.tableSchemas) {
+                if (catalog.formatVersion >= RECORD_FORMAT_VERSION) {
+                    tableSchema.setRecordFormat(byteProcessor.readInt());
+                } else {
+                    tableSchema.setRecordFormat(Record.LEGACY_RECORD_FORMAT);
+                }
+                // pages without fences (older catalogs) have them filled in when the table is next changed
+                if (catalog.formatVersion >= PAGE_FENCES_FORMAT_VERSION) {
+                    int pkType = tableSchema.getAttributes().get(catalog.getTablePKIndex(tableSchema.getTableId())).getType();
+                    int numFences = byteProcessor.readInt();
+                    for (int i = 0; i < numFences; i++) {
+                        int pageLocation = byteProcessor.readInt();
+                        Object minKey = readKey(byteProcessor, pkType);
+                        Object maxKey = readKey(byteProcessor, pkType);
+                        tableSchema.setPageFences(pageLocation, minKey, maxKey);
+                    }
+                }
+                // tables of older catalogs are in their first schema version
+                if (catalog.formatVersion >= SCHEMA_VERSIONS_FORMAT_VERSION) {
+                    tableSchema.setSchemaVersion(byteProcessor.readInt());
+                    for (AttributeSchema attribute : tableSchema.getAttributes()) {
+                        if (byteProcessor.readChar() == 't') {
+                            attribute.setDefaultValue(readKey(byteProcessor, attribute.getType()));
+                        }
+                    }
+                    int numOldVersions = byteProcessor.readInt();
+                    for (int i = 0; i < numOldVersions; i++) {
+                        int version = byteProcessor.readInt();
+                        int numAttributes = byteProcessor.readInt();
+                        ArrayList<Integer> types = new ArrayList<>();
+                        int[] columns = new int[numAttributes];
+                        for (int j = 0; j < numAttributes; j++) {
+                            types.add(byteProcessor.readInt());
+                            columns[j] = byteProcessor.readInt();
+                        }
+                        tableSchema.getOldSchemaVersions().put(version, new SchemaVersion(version, types, columns));
+                    }
+                    int numOldPages = byteProcessor.readInt();
+                    for (int i = 0; i < numOldPages; i++) {
+                        int pageLocation = byteProcessor.readInt();
+                        tableSchema.setStoredSchema(pageLocation,
+                                tableSchema.getOldSchemaVersions().get(byteProcessor.readInt()));
+                    }
+                }
+            }
+            if (catalog.formatVersion >= CHECKPOINT_LSN_FORMAT_VERSION) {
+                catalog.checkpointLsn = byteProcessor.readLong();
+            }
+            byteProcessor.close();
             return catalog;
         } catch (Exception e) {
             e.printStackTrace();
@@ -515,15 +717,64 @@ public class Catalog {
 
     /**
      * Writes the catalog, table schemas, and attribute schemas to a catalog file.
+     */
+    public void writeCatalogToFile() {
+        try {
+            writeCatalogBytes(rootPath, toBytes());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes catalog bytes made by toBytes to the database's catalog file and
+     * forces them to disk. They are written to a temporary file that is then
+     * moved over the catalog file, so the catalog file is always either the
+     * old catalog or the new one, never part of each.
+     *
+     * @param rootPath : Path to database folder
+     * @param bytes    : the catalog
+     * @throws IOException .
+     */
+    static void writeCatalogBytes(String rootPath, byte[] bytes) throws IOException {
+        Path catalogPath = Path.of(rootPath, "db-catalog.catalog");
+        Path tempPath = Path.of(rootPath, "db-catalog.catalog" + TEMP_SUFFIX);
+        try (FileChannel channel = FileChannel.open(tempPath,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(tempPath, catalogPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // the move is only durable once the folder is, not every platform can open a folder to force it
+        try (FileChannel folder = FileChannel.open(Path.of(rootPath), StandardOpenOption.READ)) {
+            folder.force(true);
+        } catch (IOException e) {
+            // the move still happened, it is just not forced yet
+        }
+    }
+
+    /**
+     * Returns the catalog, table schemas, and attribute schemas as they are
+     * stored in the catalog file.
      * Stores in order page size, number of table schemas, then the table schemas.
      * Table schema byte structure is table id, table name length, table name,
      * number of pages, order of pages,
      * number of attributes, and attribute schemas. Attribute schemas consist of
      * attribute name length,
      * attribute name, type, size, and character representing true or false.
+     * The table schemas are followed by a marker, the format version, the
+     * record format, page fences and schema versions of each table, and the
+     * checkpoint LSN.
+     *
+     * @return the bytes of the catalog file
      */
-    public void writeCatalogToFile() {
-        File catalog = new File(rootPath, "db-catalog.catalog");
+    byte[] toBytes() {
+        for (TableSchema tableSchema : tableSchemas) {
+            tableSchema.pruneSchemaVersions();
+        }
         byte[] bytes = new byte[instance.getSizeInBytes()];
         ByteBuffer buffer = ByteBuffer.wrap(bytes);
         // Writes page size and number of table schemas
@@ -567,10 +818,48 @@ public class Catalog {
                 buffer.putInt(attribute.getConstraints());
             }
         }
-        try {
-            Files.write(Path.of(catalog.getAbsolutePath()), buffer.array());
-        } catch (IOException e) {
-            e.printStackTrace();
+        buffer.putInt(FORMAT_TRAILER_MARKER);
+        buffer.putInt(formatVersion);
+        for (TableSchema tableSchema : tableSchemas) {
+            buffer.putInt(tableSchema.getRecordFormat());
+            int numFences = 0;
+            for (int pageLocation : tableSchema.getPageOrder()) {
+                if (tableSchema.getPageMinKey(pageLocation) != null) {
+                    numFences++;
+                }
+            }
+            buffer.putInt(numFences);
+            for (int pageLocation : tableSchema.getPageOrder()) {
+                if (tableSchema.getPageMinKey(pageLocation) != null) {
+                    buffer.putInt(pageLocation);
+                    putKey(buffer, tableSchema.getPageMinKey(pageLocation));
+                    putKey(buffer, tableSchema.getPageMaxKey(pageLocation));
+                }
+            }
+            buffer.putInt(tableSchema.getSchemaVersion());
+            for (AttributeSchema attribute : tableSchema.getAttributes()) {
+                buffer.putChar(attribute.getDefaultValue() != null ? 't' : 'f');
+                if (attribute.getDefaultValue() != null) {
+                    putKey(buffer, attribute.getDefaultValue());
+                }
+            }
+            buffer.putInt(tableSchema.getOldSchemaVersions().size());
+            for (SchemaVersion storedSchema : tableSchema.getOldSchemaVersions().values()) {
+                buffer.putInt(storedSchema.getVersion());
+                buffer.putInt(storedSchema.getTypes().size());
+                for (int i = 0; i < storedSchema.getTypes().size(); i++) {
+                    buffer.putInt(storedSchema.getTypes().get(i));
+                    buffer.putInt(storedSchema.getColumn(i));
+                }
+            }
+            ArrayList<Integer> oldSchemaPages = tableSchema.getOldSchemaPages();
+            buffer.putInt(oldSchemaPages.size());
+            for (int pageLocation : oldSchemaPages) {
+                buffer.putInt(pageLocation);
+                buffer.putInt(tableSchema.getStoredSchema(pageLocation).getVersion());
+            }
         }
+        buffer.putLong(checkpointLsn);
+        return bytes;
     }
 }
@@ -3,6 +3,8 @@ package src.ConditionalTreeNodes;
 import src.Record;
 import src.ResultSet;
 
+import java.util.function.Predicate;
+
 public class AndNode extends ConditionTree {
 
     private final ConditionTree leftChild;
@@ -21,8 +23,23 @@ public class AndNode extends ConditionTree {
                 && rightChild.validateTree(record, resultSet);
     }
 
+    @Override
+    public Predicate<Record> compile(ResultSet resultSet) {
+        Predicate<Record> left = leftChild.compile(resultSet);
+        Predicate<Record> right = rightChild.compile(resultSet);
+        return record -> left.test(record) && right.test(record);
+    }
+
     @Override
     public String getToken() {
         return this.token;
     }
+
+    public ConditionTree getLeftChild() {
+        return this.leftChild;
+    }
+
+    public ConditionTree getRightChild() {
+        return this.rightChild;
+    }
 }
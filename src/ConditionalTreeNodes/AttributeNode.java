@@ -6,6 +6,8 @@ package src.ConditionalTreeNodes;
 import src.Record;
 import src.ResultSet;
 
+import java.util.function.Function;
+
 public class AttributeNode extends ValueNode {
 
     private final String token;//the name of the attribute from the record/table
@@ -29,14 +31,7 @@ public class AttributeNode extends ValueNode {
     @Override
     public Object getValue(Record record, ResultSet resultSet) {
         //Finds where token is within the record using the schema and returns it
-        int index = -1;
-        for (int i = 0; i < resultSet.getColumnNames().size(); ++i) {
-            if (resultSet.getColumnNames().get(i).equals(token)
-                    || resultSet.getQualifiedColumnNames().get(i).equals(token)) {
-                index = i;
-                break;
-            }
-        }
+        int index = findColumn(resultSet);
         if (index == -1)
             return null;
         return record.getRecordContents().get(index);
@@ -45,17 +40,33 @@ public class AttributeNode extends ValueNode {
     @Override
     public int getType(Record record, ResultSet resultSet) {
         //Using the "schema", find out the corresponding type int for the attribute and return it
-        int index = -1;
+        int index = findColumn(resultSet);
+        if (index == -1)
+            return -1;
+        return resultSet.getColumnTypes().get(index);
+    }
+
+    @Override
+    public Function<Record, Object> compileValue(ResultSet resultSet) {
+        int index = findColumn(resultSet);
+        if (index == -1)
+            return record -> null;
+        return record -> record.getRecordContents().get(index);
+    }
+
+    /**
+     * Finds the column the attribute name refers to, by its name or its name qualified with its table
+     * @param resultSet The result set to look in
+     * @return index of the column, -1 if there is no such column
+     */
+    int findColumn(ResultSet resultSet) {
         for (int i = 0; i < resultSet.getColumnNames().size(); ++i) {
             if (resultSet.getColumnNames().get(i).equals(token)
                     || resultSet.getQualifiedColumnNames().get(i).equals(token)) {
-                index = i;
-                break;
+                return i;
             }
         }
-        if (index == -1)
-            return -1;
-        return resultSet.getColumnTypes().get(index);
+        return -1;
     }
 
     @Override
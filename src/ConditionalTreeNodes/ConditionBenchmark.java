@@ -0,0 +1,85 @@
+package src.ConditionalTreeNodes;
+
+import src.Record;
+import src.ResultSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.Predicate;
+
+/**
+ * Compares the time per record of checking where conditions with validateTree against checking them with the
+ * predicates compile makes, over records shaped like a six column table.
+ * Run with: java -cp out src.ConditionalTreeNodes.ConditionBenchmark [number of records]
+ */
+public class ConditionBenchmark {
+
+    private static final int ROUNDS = 10;
+
+    public static void main( String[] args ) {
+        int numRecords = args.length > 0 ? Integer.parseInt( args[0] ) : 1_000_000;
+
+        ArrayList<String> names = new ArrayList<>( Arrays.asList( "id", "a", "b", "x", "s", "d" ) );
+        ArrayList<Integer> types = new ArrayList<>( Arrays.asList( 1, 1, 1, 1, 5, 2 ) );
+        ArrayList<String> tables = new ArrayList<>( Arrays.asList( "t", "t", "t", "t", "t", "t" ) );
+        ResultSet columns = new ResultSet( new ArrayList<>(), names, types, tables );
+
+        Random random = new Random( 1 );
+        ArrayList<Record> records = new ArrayList<>();
+        for ( int i = 0; i < numRecords; i++ ) {
+            Record record = new Record();
+            record.setRecordContents( new ArrayList<>( Arrays.asList( i, random.nextInt( 100 ), random.nextInt( 100 ),
+                    random.nextInt( 1000 ), "s" + random.nextInt( 50 ), random.nextInt( 100 ) / 4.0 ) ) );
+            records.add( record );
+        }
+
+        // x > 500
+        ConditionTree intGreater = new OperationNode( new AttributeNode( "x" ), ">", new ConstantNode( 500, 1 ) );
+        // s = "s7"
+        ConditionTree stringEquals = new OperationNode( new AttributeNode( "s" ), "=", new ConstantNode( "s7", 0 ) );
+        // x > 500 and d < 10.5 or a = b
+        ConditionTree mixed = new OrNode( new AndNode( intGreater, "and",
+                new OperationNode( new AttributeNode( "d" ), "<", new ConstantNode( 10.5, 2 ) ) ), "or",
+                new OperationNode( new AttributeNode( "a" ), "=", new AttributeNode( "b" ) ) );
+
+        run( "x > 500", intGreater, records, columns );
+        run( "s = \"s7\"", stringEquals, records, columns );
+        run( "x > 500 and d < 10.5 or a = b", mixed, records, columns );
+    }
+
+    private static void run( String name, ConditionTree condition, ArrayList<Record> records, ResultSet columns ) {
+        Predicate<Record> compiled = condition.compile( columns );
+        long bestInterpreted = Long.MAX_VALUE;
+        long bestCompiled = Long.MAX_VALUE;
+        int interpretedMatches = 0;
+        int compiledMatches = 0;
+        // the first rounds also warm up the JIT, so only the best round of each counts
+        for ( int round = 0; round < ROUNDS; round++ ) {
+            long start = System.nanoTime();
+            interpretedMatches = 0;
+            for ( Record record : records ) {
+                if ( condition.validateTree( record, columns ) ) {
+                    interpretedMatches++;
+                }
+            }
+            bestInterpreted = Math.min( bestInterpreted, System.nanoTime() - start );
+
+            start = System.nanoTime();
+            compiledMatches = 0;
+            for ( Record record : records ) {
+                if ( compiled.test( record ) ) {
+                    compiledMatches++;
+                }
+            }
+            bestCompiled = Math.min( bestCompiled, System.nanoTime() - start );
+        }
+        if ( interpretedMatches != compiledMatches ) {
+            System.out.println( name + ": compiled condition matched " + compiledMatches + " records, validateTree matched "
+                    + interpretedMatches );
+            return;
+        }
+        System.out.printf( "%-32s validateTree %6.1f ns/record, compiled %6.1f ns/record, %d matches%n", name,
+                (double) bestInterpreted / records.size(), (double) bestCompiled / records.size(), compiledMatches );
+    }
+}
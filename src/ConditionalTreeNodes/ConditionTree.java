@@ -3,6 +3,8 @@ package src.ConditionalTreeNodes;
 import src.Record;
 import src.ResultSet;
 
+import java.util.function.Predicate;
+
 public abstract class ConditionTree  {
 
     /**
@@ -11,5 +13,13 @@ public abstract class ConditionTree  {
      */
     public abstract boolean validateTree(Record record, ResultSet resultSet);
 
+    /**
+     * Binds the condition to the columns of a result set, looking up each attribute's column and type once
+     * instead of for every record
+     * @param resultSet The result set the records that will be checked correspond to
+     * @return a predicate giving the same answer validateTree would for those records
+     */
+    public abstract Predicate<Record> compile(ResultSet resultSet);
+
     public abstract String getToken();
 }
@@ -3,6 +3,8 @@ package src.ConditionalTreeNodes;
 import src.Record;
 import src.ResultSet;
 
+import java.util.function.Function;
+
 public class ConstantNode extends ValueNode{
 
     private final Object token;
@@ -31,6 +33,11 @@ public class ConstantNode extends ValueNode{
         return type;
     }
 
+    @Override
+    public Function<Record, Object> compileValue(ResultSet resultSet) {
+        return record -> token;
+    }
+
     @Override
     public String getToken() {
         return this.token.toString();
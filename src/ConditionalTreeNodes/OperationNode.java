@@ -3,6 +3,11 @@ package src.ConditionalTreeNodes;
 import src.Record;
 import src.ResultSet;
 
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
 public class OperationNode extends ConditionTree {
 
     private final ValueNode leftChild;
@@ -83,8 +88,91 @@ public class OperationNode extends ConditionTree {
         return false;
     }
 
+    /**
+     * Compiles the comparison once its types are known. An attribute compared to an integer or double
+     * constant, the most common case, gets a predicate made for its operator that reads the column directly.
+     * Anything validateTree would report an error for, or could fail on, is still left to validateTree
+     * record by record, so the same errors come out.
+     *
+     * @param resultSet The result set the records that will be checked correspond to
+     * @return a predicate giving the same answer validateTree would for those records
+     */
+    @Override
+    public Predicate<Record> compile(ResultSet resultSet) {
+        int leftType = leftChild.getType(null, resultSet);
+        int rightType = rightChild.getType(null, resultSet);
+        boolean typesMatch = switch (leftType) {
+            case 1, 2, 3 -> rightType == leftType;
+            case 4, 5 -> rightType == leftType || rightType == 0; //0 is a string constant
+            default -> false;
+        };
+        if (!typesMatch || !List.of("=", ">", "<", ">=", "<=", "!=").contains(token)) {
+            return record -> validateTree(record, resultSet);
+        }
+        if (leftChild instanceof AttributeNode && rightChild instanceof ConstantNode) {
+            int column = ((AttributeNode) leftChild).findColumn(resultSet);
+            if (leftType == 1) {
+                return compareIntColumn(column, (Integer) rightChild.getValue(null, resultSet));
+            }
+            if (leftType == 2) {
+                return compareDoubleColumn(column, (Double) rightChild.getValue(null, resultSet));
+            }
+        }
+        ToIntFunction<Record> comparison = compileComparison(leftType, resultSet);
+        return switch (token) {
+            case "=" -> record -> comparison.applyAsInt(record) == 0;
+            case ">" -> record -> comparison.applyAsInt(record) > 0;
+            case "<" -> record -> comparison.applyAsInt(record) < 0;
+            case ">=" -> record -> comparison.applyAsInt(record) >= 0;
+            case "<=" -> record -> comparison.applyAsInt(record) <= 0;
+            default -> record -> comparison.applyAsInt(record) != 0;
+        };
+    }
+
+    private Predicate<Record> compareIntColumn(int column, int constant) {
+        return switch (token) {
+            case "=" -> record -> (Integer) record.getRecordContents().get(column) == constant;
+            case ">" -> record -> (Integer) record.getRecordContents().get(column) > constant;
+            case "<" -> record -> (Integer) record.getRecordContents().get(column) < constant;
+            case ">=" -> record -> (Integer) record.getRecordContents().get(column) >= constant;
+            case "<=" -> record -> (Integer) record.getRecordContents().get(column) <= constant;
+            default -> record -> (Integer) record.getRecordContents().get(column) != constant;
+        };
+    }
+
+    //Double.compare rather than the operators, so NaN and -0.0 compare the way validateTree compares them
+    private Predicate<Record> compareDoubleColumn(int column, double constant) {
+        return switch (token) {
+            case "=" -> record -> Double.compare((Double) record.getRecordContents().get(column), constant) == 0;
+            case ">" -> record -> Double.compare((Double) record.getRecordContents().get(column), constant) > 0;
+            case "<" -> record -> Double.compare((Double) record.getRecordContents().get(column), constant) < 0;
+            case ">=" -> record -> Double.compare((Double) record.getRecordContents().get(column), constant) >= 0;
+            case "<=" -> record -> Double.compare((Double) record.getRecordContents().get(column), constant) <= 0;
+            default -> record -> Double.compare((Double) record.getRecordContents().get(column), constant) != 0;
+        };
+    }
+
+    private ToIntFunction<Record> compileComparison(int type, ResultSet resultSet) {
+        Function<Record, Object> left = leftChild.compileValue(resultSet);
+        Function<Record, Object> right = rightChild.compileValue(resultSet);
+        return switch (type) {
+            case 1 -> record -> Integer.compare((Integer) left.apply(record), (Integer) right.apply(record));
+            case 2 -> record -> Double.compare((Double) left.apply(record), (Double) right.apply(record));
+            case 3 -> record -> Boolean.compare((Boolean) left.apply(record), (Boolean) right.apply(record));
+            default -> record -> ((String) left.apply(record)).compareTo((String) right.apply(record));
+        };
+    }
+
     @Override
     public String getToken() {
         return this.token;
     }
+
+    public ValueNode getLeftChild() {
+        return this.leftChild;
+    }
+
+    public ValueNode getRightChild() {
+        return this.rightChild;
+    }
 }
@@ -4,6 +4,9 @@ package src.ConditionalTreeNodes;
 import src.Record;
 import src.ResultSet;
 
+import java.util.function.Function;
+import java.util.function.Predicate;
+
 /**
  * REPRESENTATIVE OF EITHER An ATTRIBUTE NODE OR A CONSTANT NODE
  */
@@ -27,4 +30,18 @@ public abstract class ValueNode extends ConditionTree{
      * @return the integer corresponding to the type that this node represents
      */
     public abstract int getType(Record record, ResultSet resultSet);
+
+    /**
+     * Binds the node to the columns of a result set
+     *
+     * @param resultSet The result set the records that will be read correspond to
+     * @return a function giving the same object getValue would for those records
+     */
+    public abstract Function<Record, Object> compileValue(ResultSet resultSet);
+
+    //A value on its own never validates, same as validateTree
+    @Override
+    public Predicate<Record> compile(ResultSet resultSet) {
+        return record -> false;
+    }
 }
@@ -0,0 +1,94 @@
+package src;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Crash test of the log with commits not grouped (commit_ms 0).
+ *
+ * Inserts random rows, and in every round kills the database, as kill -9
+ * would, the moment it prints SUCCESS for the last insert. A command reported
+ * done must be on disk by then, so after the database starts again every row
+ * it acknowledged is selected, and no other.
+ *
+ * Run with: java -cp out src.CrashTester [seed [rounds]]
+ */
+public class CrashTester {
+
+    private static final int INSERTS_PER_ROUND = 10;
+    private static final int NUM_KEYS = 100000; // keys are drawn from this many values
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+
+        File dbLoc = Files.createTempDirectory("crashtester").toFile();
+        // page size, buffer, indexing, policy, io mode, fill factor, query memory, commit_ms, checkpoint_ms
+        String[] dbArgs = { dbLoc.getPath(), "256", "6", "false", "2q", "channel", "0.9", "16384", "0", "50" };
+        TestDatabase db = new TestDatabase(dbArgs);
+        expectSuccess(db.run("create table t( id integer primarykey, s varchar(20));"), "create");
+
+        TreeSet<Integer> acknowledged = new TreeSet<>();
+        Random random = new Random(seed);
+        for (int round = 1; round <= rounds; round++) {
+            for (int i = 1; i <= INSERTS_PER_ROUND; i++) {
+                int id = random.nextInt(NUM_KEYS);
+                while (acknowledged.contains(id)) {
+                    id = (id + 1) % NUM_KEYS;
+                }
+                String insert = "insert into t values (" + id + " \"" + "r".repeat(random.nextInt(20)) + "\");";
+                if (i < INSERTS_PER_ROUND) {
+                    expectSuccess(db.run(insert), insert);
+                } else {
+                    expectSuccess(db.runUntil(insert, "SUCCESS\n"), insert);
+                    db.kill();
+                }
+                acknowledged.add(id);
+            }
+            db = new TestDatabase(dbArgs);
+            checkTable(db, acknowledged, round);
+        }
+        db.quit();
+        System.out.println("OK: " + rounds + " kills, " + acknowledged.size() + " rows, seed " + seed);
+        TestDatabase.deleteRecursively(dbLoc);
+    }
+
+    private static void expectSuccess(String printed, String command) {
+        if (!printed.contains("SUCCESS") || printed.contains("ERROR") || printed.contains("Exception")) {
+            fail(command + " printed:\n" + printed);
+        }
+    }
+
+    /**
+     * Selects the ids of the whole table and compares them with the rows acknowledged
+     */
+    private static void checkTable(TestDatabase db, TreeSet<Integer> acknowledged, int round) throws IOException {
+        String printed = db.run("select id from t;");
+        TreeSet<Integer> selected = new TreeSet<>();
+        boolean header = true;
+        for (String line : printed.split("\n")) {
+            if (!line.trim().startsWith("|")) {
+                continue;
+            }
+            if (header) { // the column names
+                header = false;
+                continue;
+            }
+            selected.add(Integer.parseInt(line.split("\\|", -1)[1].trim()));
+        }
+        if (!selected.equals(acknowledged)) {
+            TreeSet<Integer> lost = new TreeSet<>(acknowledged);
+            lost.removeAll(selected);
+            TreeSet<Integer> extra = new TreeSet<>(selected);
+            extra.removeAll(acknowledged);
+            fail("after kill " + round + ": lost " + lost + ", never inserted " + extra);
+        }
+    }
+
+    private static void fail(String message) {
+        throw new IllegalStateException(message);
+    }
+}
@@ -0,0 +1,164 @@
+package src;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps FileChannels for table and B+ tree files open between page reads and
+ * writes, so a page access costs one positional read or write instead of an
+ * open/seek/close per page.
+ * Positional I/O means callers never share (or race on) a seek position.
+ * At most maxOpenFiles channels are held open; the least recently used one is
+ * closed when another file has to be opened.
+ */
+public class FileChannelPool {
+
+    public static final int DEFAULT_MAX_OPEN_FILES = 32;
+
+    private final int maxOpenFiles;
+
+    // access ordered, so the first entry is always the least recently used channel
+    private final LinkedHashMap<String, FileChannel> openChannels;
+    // files written since they were last forced to disk
+    private final HashSet<String> unforcedFiles = new HashSet<>();
+
+    /**
+     * FileChannelPool Constructor
+     *
+     * @param maxOpenFiles how many files may be open at once
+     */
+    public FileChannelPool(int maxOpenFiles) {
+        this.maxOpenFiles = maxOpenFiles;
+        this.openChannels = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Returns the open channel for the file, opening it (and closing the least
+     * recently used channel if the pool is full) when needed.
+     *
+     * @param filePath path of the file
+     * @param create   whether the file is created if it does not exist, only
+     *                 when writing, where the file may be new
+     * @return a channel open for reading and writing
+     * @throws IOException if the file cannot be opened, NoSuchFileException if
+     *                     it does not exist and create is false
+     */
+    public FileChannel getChannel(String filePath, boolean create) throws IOException {
+        FileChannel channel = openChannels.get(filePath);
+        if (channel != null && channel.isOpen()) {
+            return channel;
+        }
+        if (openChannels.size() >= maxOpenFiles) {
+            Iterator<Map.Entry<String, FileChannel>> eldest = openChannels.entrySet().iterator();
+            Map.Entry<String, FileChannel> entry = eldest.next();
+            if (unforcedFiles.remove(entry.getKey())) {
+                entry.getValue().force(false); // a later force() can no longer reach it
+            }
+            entry.getValue().close();
+            eldest.remove();
+        }
+        channel = create
+                ? FileChannel.open(Paths.get(filePath), StandardOpenOption.READ, StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE)
+                : FileChannel.open(Paths.get(filePath), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        openChannels.put(filePath, channel);
+        return channel;
+    }
+
+    /**
+     * Reads from the file at the given position until the buffer is full or the
+     * end of the file is reached. Anything past the end of the file is left as is.
+     * The file has to exist, a missing file is never created by a read.
+     *
+     * @param filePath    path of the file
+     * @param position    byte offset in the file to start reading at
+     * @param destination buffer to fill
+     * @return number of bytes read
+     * @throws IOException .
+     */
+    public int read(String filePath, long position, ByteBuffer destination) throws IOException {
+        FileChannel channel = getChannel(filePath, false);
+        int total = 0;
+        while (destination.hasRemaining()) {
+            int read = channel.read(destination, position + total);
+            if (read < 0) {
+                break; // end of file
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * Writes the whole buffer to the file at the given position, creating the
+     * file if it does not exist
+     *
+     * @param filePath path of the file
+     * @param position byte offset in the file to start writing at
+     * @param source   bytes to write
+     * @throws IOException .
+     */
+    public void write(String filePath, long position, ByteBuffer source) throws IOException {
+        FileChannel channel = getChannel(filePath, true);
+        unforcedFiles.add(filePath);
+        long offset = position;
+        while (source.hasRemaining()) {
+            offset += channel.write(source, offset);
+        }
+    }
+
+    /**
+     * Forces everything written to the files since the last force to disk,
+     * called by a checkpoint before it goes on to its next step
+     *
+     * @throws IOException .
+     */
+    public void force() throws IOException {
+        for (String filePath : unforcedFiles) {
+            FileChannel channel = openChannels.get(filePath);
+            if (channel != null && channel.isOpen()) {
+                channel.force(false);
+            }
+        }
+        unforcedFiles.clear();
+    }
+
+    /**
+     * Closes the channel for the file if it is open, called before a file is deleted
+     *
+     * @param filePath path of the file
+     */
+    public void close(String filePath) {
+        unforcedFiles.remove(filePath);
+        FileChannel channel = openChannels.remove(filePath);
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Closes every open channel, called when the database shuts down
+     */
+    public void closeAll() {
+        for (FileChannel channel : openChannels.values()) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+        openChannels.clear();
+        unforcedFiles.clear();
+    }
+}
@@ -17,11 +17,20 @@ public class Main {
     public static int bufferSizeLimit;
     public static String db_loc;
     public static String indexing;
-
-    // java Main <db loc> <page size> <buffer size>
+    public static String replacementPolicy = "2q";
+    public static String ioMode = "channel"; // channel or mmap, how table files are read and written
+    public static double bulkFillFactor = 0.9; // how full bulk inserts pack the pages they build
+    public static long queryMemoryBudget = 16L * 1024 * 1024; // bytes a join or sort holds before spilling to disk
+    public static int schemaCompactionPages = 8; // pages of altered tables rewritten in the current schema per command
+    public static long groupCommitMillis = 10; // how often the write-ahead log is forced, 0 forces it every command
+    public static long checkpointMillis = 5000; // how often modified pages are checkpointed in the background, 0 never
+
+    // java Main <db loc> <page size> <buffer size> <indexing>
+    //         [<replacement policy> [<io mode> [<fill factor> [<memory kb> [<commit ms> [<checkpoint ms>]]]]]]
     public static void main(String[] args) {
-        if (args.length != 4) {
-            System.out.println("Usage is java Main <db loc> <page size> <buffer size> <indexing>");
+        if (args.length < 4 || args.length > 10) {
+            System.out.println("Usage is java Main <db loc> <page size> <buffer size> <indexing> " +
+                    "[<replacement policy> [<io mode> [<fill factor> [<memory kb> [<commit ms> [<checkpoint ms>]]]]]]");
             System.out.println(args.length);
             return;
         }
@@ -32,11 +41,81 @@ public class Main {
         pageSize = Integer.parseInt(args[1]);
         bufferSizeLimit = Integer.parseInt(args[2]);
         indexing = args[3];
+        if (args.length >= 5) {
+            replacementPolicy = args[4];
+        }
+        if (args.length >= 6) {
+            ioMode = args[5];
+        }
+        if (args.length >= 7) {
+            try {
+                bulkFillFactor = Double.parseDouble(args[6]);
+            } catch (NumberFormatException e) {
+                bulkFillFactor = -1;
+            }
+        }
+        if (args.length >= 8) {
+            try {
+                queryMemoryBudget = Long.parseLong(args[7]) * 1024;
+            } catch (NumberFormatException e) {
+                queryMemoryBudget = -1;
+            }
+        }
+        if (args.length >= 9) {
+            try {
+                groupCommitMillis = Long.parseLong(args[8]);
+            } catch (NumberFormatException e) {
+                groupCommitMillis = -1;
+            }
+        }
+        if (args.length == 10) {
+            try {
+                checkpointMillis = Long.parseLong(args[9]);
+            } catch (NumberFormatException e) {
+                checkpointMillis = -1;
+            }
+        }
+        if (ReplacementPolicy.forName(replacementPolicy, bufferSizeLimit) == null) {
+            System.out.println("Error: Unknown replacement policy " + replacementPolicy +
+                    ". Must be lru, clock or 2q.");
+            return;
+        }
+        if (!ioMode.equals("channel") && !ioMode.equals("mmap")) {
+            System.out.println("Error: Unknown io mode " + ioMode + ". Must be channel or mmap.");
+            return;
+        }
+        if (bulkFillFactor <= 0 || bulkFillFactor > 1) {
+            System.out.println("Error: Fill factor must be a number greater than 0 and at most 1.");
+            return;
+        }
+        if (queryMemoryBudget <= 0) {
+            System.out.println("Error: Memory budget must be a whole number of kilobytes greater than 0.");
+            return;
+        }
+        if (groupCommitMillis < 0) {
+            System.out.println("Error: Group commit interval must be a whole number of milliseconds, at least 0.");
+            return;
+        }
+        if (checkpointMillis < 0) {
+            System.out.println("Error: Checkpoint interval must be a whole number of milliseconds, at least 0.");
+            return;
+        }
 
         System.out.println("Looking at " + db_loc + " for existing db...");
 
+        WriteAheadLog log;
+        try {
+            // finishes a checkpoint that was cut short, which can write the catalog
+            log = new WriteAheadLog(db_loc, groupCommitMillis);
+        } catch (IOException e) {
+            System.out.println("Error: Could not read the write-ahead log.");
+            e.printStackTrace();
+            return;
+        }
+
         File catalog = new File(db_loc, "db-catalog.catalog");
-        if (!catalog.isFile()) {
+        // the catalog is empty when the db was created but never checkpointed
+        if (!catalog.isFile() || catalog.length() == 0) {
             try {
                 System.out.println("No existing db found");
                 System.out.println("Creating new db at " + db_loc);
@@ -81,10 +160,26 @@ public class Main {
          * }
          */
 
+        try {
+            PageFormatConverter.convertIfNeeded(db_loc);
+        } catch (IOException e) {
+            System.out.println("Error: Could not convert the db's table files to the current format.");
+            e.printStackTrace();
+            return;
+        }
+
         src.StorageManager.instance = new StorageManager(db_loc);
+        StorageManager.instance.recover(log);
+        SpillFile.clearTempFolder(db_loc);
 
         System.out.println("Page size: " + pageSize);
         System.out.println("Buffer size: " + bufferSizeLimit);
+        System.out.println("Replacement policy: " + replacementPolicy);
+        System.out.println("IO mode: " + ioMode);
+        System.out.println("Bulk insert fill factor: " + bulkFillFactor);
+        System.out.println("Query memory budget: " + queryMemoryBudget / 1024 + " KB");
+        System.out.println("Group commit interval: " + groupCommitMillis + " ms");
+        System.out.println("Checkpoint interval: " + checkpointMillis + " ms");
 
         System.out.println("\nPlease enter commands, enter <quit> to shutdown the db.\n");
 
@@ -102,23 +197,29 @@ public class Main {
 
             if (input.trim().equals("<quit>")) {
                 System.out.println("Exiting the database...");
-                Catalog.instance.writeCatalogToFile();
+                // writes the pages and the catalog, leaving nothing in the log
+                StorageManager.instance.checkpoint();
                 StorageManager.instance.writeOutBuffer();
 
                 break;
             }
 
-            Query query = parser.CommandParse(input);
+            // held for the whole command, the background checkpointer waits for it
+            synchronized (StorageManager.instance) {
+                Query query = parser.CommandParse(input);
 
-            if (query != null) {
-                // Individual query objects all have an execute method that defines what steps
-                // should be taken to execute
-                // that query. Having that logic here (switched on the query type) would be a
-                // code smell.
-                query.execute(); // where all the magic happens!
+                if (query != null) {
+                    // Individual query objects all have an execute method that defines what steps
+                    // should be taken to execute
+                    // that query. Having that logic here (switched on the query type) would be a
+                    // code smell.
+                    query.execute(); // where all the magic happens!
+                    StorageManager.instance.compactSchemaVersions(schemaCompactionPages);
+                    StorageManager.instance.commit();
 
-            } else {
-                System.out.println("ERROR\n");
+                } else {
+                    System.out.println("ERROR\n");
+                }
             }
 
         }
@@ -0,0 +1,139 @@
+package src;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * Memory mapped access to table files, used by the Buffer Manager when the
+ * database is started with the mmap io mode.
+ * Each table file is mapped as one read/write region. Reading a page hands
+ * back a view of the mapped region so Page.parseBytes decodes straight from
+ * it, and writing a page copies its bytes into the region. The OS writes
+ * mapped pages out on its own; flush() forces the pages written since the
+ * last flush to disk.
+ */
+class MappedTableFiles {
+
+    // smallest mapping, in pages, so a growing table does not remap on every new page
+    private static final int MIN_MAPPED_PAGES = 16;
+
+    private final int pageSize;
+    private final HashMap<String, MappedByteBuffer> mappings = new HashMap<>();
+    // pages written into each mapping since it was last flushed
+    private final HashMap<String, BitSet> dirtyPages = new HashMap<>();
+
+    public MappedTableFiles(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Returns the mapping for the file, mapping it again with room to spare
+     * if the page at pageNum lies beyond the current mapping.
+     * Mapping past the end of the file grows the file to the mapped size.
+     * The file is only created if create is set, reads never create one.
+     */
+    private MappedByteBuffer mappingFor(String filePath, int pageNum, boolean create) throws IOException {
+        long needed = ((long) pageNum + 1) * pageSize;
+        MappedByteBuffer mapping = mappings.get(filePath);
+        if (mapping != null && mapping.capacity() >= needed) {
+            return mapping;
+        }
+        long current = mapping == null ? 0 : mapping.capacity();
+        try (FileChannel channel = create
+                ? FileChannel.open(Paths.get(filePath), StandardOpenOption.READ, StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE)
+                : FileChannel.open(Paths.get(filePath), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = Math.max(Math.max(needed, current * 2), channel.size());
+            size = Math.max(size, (long) MIN_MAPPED_PAGES * pageSize);
+            size = ((size + pageSize - 1) / pageSize) * pageSize; // whole pages only
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Table file " + filePath + " is too large to memory map");
+            }
+            if (mapping != null) {
+                // pages written to the old mapping must reach the file before it is replaced
+                mapping.force();
+            }
+            // the mapping stays valid after the channel is closed
+            mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        mappings.put(filePath, mapping);
+        return mapping;
+    }
+
+    /**
+     * @param filePath table file
+     * @param pageNum  location of the page on disk
+     * @return a page size view of the mapped file at the page, no bytes are copied
+     * @throws IOException if the file cannot be mapped, NoSuchFileException if it does not exist
+     */
+    public ByteBuffer readPage(String filePath, int pageNum) throws IOException {
+        MappedByteBuffer mapping = mappingFor(filePath, pageNum, false);
+        return mapping.slice(pageNum * pageSize, pageSize);
+    }
+
+    /**
+     * Copies a page's bytes into the mapped file at its location and remembers
+     * that the page has to be forced to disk on the next flush
+     *
+     * @param filePath  table file
+     * @param pageNum   location of the page on disk
+     * @param pageBytes page size worth of bytes, as produced by Page.parsePage
+     * @throws IOException if the file cannot be mapped
+     */
+    public void writePage(String filePath, int pageNum, byte[] pageBytes) throws IOException {
+        MappedByteBuffer mapping = mappingFor(filePath, pageNum, true);
+        mapping.put(pageNum * pageSize, pageBytes, 0, pageSize);
+        dirtyPages.computeIfAbsent(filePath, path -> new BitSet()).set(pageNum);
+    }
+
+    /**
+     * Forces every page written since the last flush out to disk,
+     * one force call per run of consecutive written pages
+     */
+    public void flush() {
+        for (String filePath : dirtyPages.keySet()) {
+            flush(filePath);
+        }
+        dirtyPages.clear();
+    }
+
+    private void flush(String filePath) {
+        MappedByteBuffer mapping = mappings.get(filePath);
+        BitSet written = dirtyPages.get(filePath);
+        if (mapping == null || written == null) {
+            return;
+        }
+        int start = written.nextSetBit(0);
+        while (start >= 0) {
+            int end = written.nextClearBit(start); // run is pages [start, end)
+            mapping.force(start * pageSize, (end - start) * pageSize);
+            start = written.nextSetBit(end);
+        }
+        written.clear();
+    }
+
+    /**
+     * Flushes and forgets the mapping for one file, called before the file is deleted
+     *
+     * @param filePath table file
+     */
+    public void close(String filePath) {
+        flush(filePath);
+        dirtyPages.remove(filePath);
+        mappings.remove(filePath);
+    }
+
+    /**
+     * Flushes and forgets every mapping, called when the database shuts down
+     */
+    public void closeAll() {
+        flush();
+        mappings.clear();
+    }
+}
@@ -0,0 +1,1110 @@
+package src;
+
+import src.BPlusTree.BPlusNode;
+import src.BPlusTree.BPlusTree;
+import src.ConditionalTreeNodes.ConditionTree;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+import java.util.function.Predicate;
+
+/**
+ * A step in the plan that runs a query. Operators are pulled from: open()
+ * readies the operator and its inputs, each next() returns the following
+ * record or null once there are no more, and close() lets go of whatever the
+ * operator holds. Records pass through a plan one at a time, so only an
+ * operator that needs all of its input at once, like Sort, holds more than a
+ * record or two in memory, and a select can print its first rows before the
+ * tables have been read to the end.
+ *
+ * getColumns() describes the records an operator returns, as a ResultSet with
+ * no records, which is what a where ConditionTree checks records against.
+ */
+abstract class Operator {
+
+    abstract void open();
+
+    /**
+     * @return the next record, null when there are no more
+     */
+    abstract Record next();
+
+    abstract void close();
+
+    /**
+     * @return names, types and tables of the columns of the records returned
+     */
+    abstract ResultSet getColumns();
+
+    /**
+     * Runs the operator to the end
+     *
+     * @return every record it returns, in order
+     */
+    ArrayList<Record> drain() {
+        ArrayList<Record> records = new ArrayList<>();
+        open();
+        for (Record record = next(); record != null; record = next()) {
+            records.add(record);
+        }
+        close();
+        return records;
+    }
+
+    /**
+     * Rough count of the bytes a record takes in memory, for operators that hold
+     * records up to Main.queryMemoryBudget
+     */
+    static long estimateSize(Record record) {
+        // object headers and the contents list, then each boxed value
+        long size = 64;
+        for (Object value : record.getRecordContents()) {
+            size += 8;
+            if (value instanceof String) {
+                size += 40 + ((String) value).length();
+            } else if (value != null) {
+                size += 16;
+            }
+        }
+        return size;
+    }
+
+    static ResultSet describeColumns(ArrayList<String> columnNames, ArrayList<Integer> columnTypes,
+            ArrayList<String> tableNamesForColumns) {
+        return new ResultSet(new ArrayList<>(), columnNames, columnTypes, tableNamesForColumns);
+    }
+}
+
+/**
+ * Reads every record of a table in page order, through the buffer. Only the
+ * page being read is held, records are copied off it one at a time, and only
+ * the columns asked for are copied.
+ */
+class TableScan extends Operator {
+    private final int tableID;
+    private final int[] columnIndexes;
+    private final ResultSet columns;
+
+    private int pageIndex;
+    private Page page;
+    private int slot;
+    private int numRecordsInPage;
+
+    TableScan(int tableID) {
+        this(tableID, null);
+    }
+
+    /**
+     * @param tableID       table to read
+     * @param columnIndexes index in the table of each column to read, null for
+     *                      every column
+     */
+    TableScan(int tableID, int[] columnIndexes) {
+        this.tableID = tableID;
+        this.columnIndexes = everyColumn(tableID, columnIndexes) ? null : columnIndexes;
+        this.columns = describeTable(tableID, columnIndexes);
+    }
+
+    /**
+     * @param tableID       table read
+     * @param columnIndexes index in the table of each column read, null for
+     *                      every column
+     * @return true if the columns are all of the table's columns in table order,
+     *         so whole records can be decoded instead of one column at a time
+     */
+    static boolean everyColumn(int tableID, int[] columnIndexes) {
+        if (columnIndexes == null) {
+            return true;
+        }
+        if (columnIndexes.length != Catalog.instance.getTableSchemaById(tableID).getAttributes().size()) {
+            return false;
+        }
+        for (int i = 0; i < columnIndexes.length; i++) {
+            if (columnIndexes[i] != i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param tableID       table read
+     * @param columnIndexes index in the table of each column read, null for
+     *                      every column
+     * @return the columns read from the table
+     */
+    static ResultSet describeTable(int tableID, int[] columnIndexes) {
+        TableSchema table = Catalog.instance.getTableSchemaById(tableID);
+        ArrayList<String> tableColumnNames = Catalog.instance.getAttributeNames(table.getTableName());
+        ArrayList<Integer> tableColumnTypes = Catalog.instance.getSolelyTableAttributeTypes(tableID);
+        ArrayList<String> columnNames = new ArrayList<>();
+        ArrayList<Integer> columnTypes = new ArrayList<>();
+        ArrayList<String> tableNamesForColumns = new ArrayList<>();
+        int numColumns = columnIndexes == null ? tableColumnNames.size() : columnIndexes.length;
+        for (int i = 0; i < numColumns; i++) {
+            int idx = columnIndexes == null ? i : columnIndexes[i];
+            columnNames.add(tableColumnNames.get(idx));
+            columnTypes.add(tableColumnTypes.get(idx));
+            tableNamesForColumns.add(table.getTableName());
+        }
+        return describeColumns(columnNames, columnTypes, tableNamesForColumns);
+    }
+
+    @Override
+    void open() {
+        pageIndex = 0;
+        page = null;
+        slot = 0;
+        numRecordsInPage = 0;
+    }
+
+    @Override
+    Record next() {
+        ArrayList<Integer> pageOrder = Catalog.instance.getTableSchemaById(tableID).getPageOrder();
+        while (slot == numRecordsInPage) {
+            if (pageIndex >= pageOrder.size()) {
+                return null;
+            }
+            try {
+                page = StorageManager.instance.getPage(tableID, pageOrder.get(pageIndex++));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            numRecordsInPage = page.getRecordCount();
+            slot = 0;
+        }
+        return copyRecord(page, slot++, columnIndexes);
+    }
+
+    /**
+     * Copies a record off a page, so nothing done to the record later can
+     * reach the page
+     *
+     * @param page          page holding the record
+     * @param slot          index of the record in the page
+     * @param columnIndexes index in the table of each column to copy, null for
+     *                      every column
+     * @return the copy
+     */
+    static Record copyRecord(Page page, int slot, int[] columnIndexes) {
+        ArrayList<Object> contents;
+        if (columnIndexes == null) {
+            contents = new ArrayList<>(page.getRecord(slot).getRecordContents());
+        } else {
+            // only the columns asked for are decoded, straight from the page
+            contents = new ArrayList<>(columnIndexes.length);
+            for (int idx : columnIndexes) {
+                contents.add(page.getAttribute(slot, idx));
+            }
+        }
+        Record record = new Record();
+        record.setRecordContents(contents);
+        return record;
+    }
+
+    @Override
+    void close() {
+        page = null;
+    }
+
+    @Override
+    ResultSet getColumns() {
+        return columns;
+    }
+}
+
+/**
+ * Reads the records of a table whose primary keys are in a range, in key
+ * order, through the table's B+ tree. The leaf that holds the low end of the
+ * range is found with findNode and the leaf chain is walked from there until a
+ * key passes the high end, reading each record from the page and index the
+ * leaf gives for it. Only the pages holding records in the range are read.
+ */
+class IndexScan extends Operator {
+    private final int tableID;
+    private final int[] columnIndexes;
+    private final Object low; // null for no low end
+    private final boolean lowInclusive;
+    private final Object high; // null for no high end
+    private final boolean highInclusive;
+    private final ResultSet columns;
+
+    private BPlusTree tree;
+    private BPlusNode leaf; // null once the range is read
+    private int slot;
+    private Page page;
+
+    /**
+     * @param tableID       table to read, which must have a B+ tree
+     * @param columnIndexes index in the table of each column to read, null for
+     *                      every column
+     * @param low           smallest key to read, null for no low end
+     * @param lowInclusive  false if the key low itself is left out
+     * @param high          greatest key to read, null for no high end
+     * @param highInclusive false if the key high itself is left out
+     */
+    IndexScan(int tableID, int[] columnIndexes, Object low, boolean lowInclusive, Object high,
+            boolean highInclusive) {
+        this.tableID = tableID;
+        this.columnIndexes = TableScan.everyColumn(tableID, columnIndexes) ? null : columnIndexes;
+        this.low = low;
+        this.lowInclusive = lowInclusive;
+        this.high = high;
+        this.highInclusive = highInclusive;
+        this.columns = TableScan.describeTable(tableID, columnIndexes);
+    }
+
+    @Override
+    void open() {
+        tree = Catalog.instance.getBPlusTreeByTableID(tableID);
+        page = null;
+        slot = 0;
+        if (low == null) {
+            leaf = tree.findFirstLeaf();
+            return;
+        }
+        leaf = tree.findNode(low);
+        if (leaf != null) {
+            int position = leaf.search(low);
+            slot = position < 0 ? -(position + 1) : lowInclusive ? position : position + 1;
+        }
+    }
+
+    @Override
+    Record next() {
+        while (leaf != null && slot == leaf.getKeyCount()) {
+            leaf = leaf.getNextLeaf() == -1 ? null : tree.readNode(leaf.getNextLeaf());
+            slot = 0;
+        }
+        if (leaf == null) {
+            return null;
+        }
+        if (high != null) {
+            int comparison = BPlusTree.compare(leaf.getKey(slot), high);
+            if (comparison > 0 || comparison == 0 && !highInclusive) {
+                leaf = null;
+                return null;
+            }
+        }
+        int pageLocation = leaf.getPageIndex(slot);
+        int recordIndex = leaf.getRecordIndex(slot++);
+        if (page == null || page.getPageNumberOnDisk() != pageLocation) {
+            try {
+                page = StorageManager.instance.getPage(tableID, pageLocation);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return TableScan.copyRecord(page, recordIndex, columnIndexes);
+    }
+
+    @Override
+    void close() {
+        leaf = null;
+        page = null;
+    }
+
+    @Override
+    ResultSet getColumns() {
+        return columns;
+    }
+}
+
+/**
+ * Returns the records of its input that pass a where condition. The condition
+ * is compiled against the input's columns once, when the filter is made.
+ */
+class Filter extends Operator {
+    private final Operator input;
+    private final Predicate<Record> where;
+
+    Filter(Operator input, ConditionTree where) {
+        this(input, where, input.getColumns());
+    }
+
+    /**
+     * @param input        operator whose records are filtered
+     * @param where        condition records have to pass
+     * @param whereColumns columns the condition's attribute names are looked up
+     *                     in, describing the input's records
+     */
+    Filter(Operator input, ConditionTree where, ResultSet whereColumns) {
+        this.input = input;
+        this.where = where.compile(whereColumns);
+    }
+
+    @Override
+    void open() {
+        input.open();
+    }
+
+    @Override
+    Record next() {
+        for (Record record = input.next(); record != null; record = input.next()) {
+            if (where.test(record)) {
+                return record;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    void close() {
+        input.close();
+    }
+
+    @Override
+    ResultSet getColumns() {
+        return input.getColumns();
+    }
+}
+
+/**
+ * Keeps only the given columns of its input's records, in the given order
+ */
+class Project extends Operator {
+    private final Operator input;
+    private final int[] columnIndexes;
+    private final ResultSet columns;
+
+    /**
+     * @param input         operator whose records are projected
+     * @param columnIndexes index in the input's records of each column kept
+     */
+    Project(Operator input, int[] columnIndexes) {
+        this.input = input;
+        this.columnIndexes = columnIndexes;
+        ResultSet inputColumns = input.getColumns();
+        ArrayList<String> columnNames = new ArrayList<>();
+        ArrayList<Integer> columnTypes = new ArrayList<>();
+        ArrayList<String> tableNamesForColumns = new ArrayList<>();
+        for (int idx : columnIndexes) {
+            columnNames.add(inputColumns.getColumnNames().get(idx));
+            columnTypes.add(inputColumns.getColumnTypes().get(idx));
+            tableNamesForColumns.add(inputColumns.getTableNamesForColumns().get(idx));
+        }
+        this.columns = describeColumns(columnNames, columnTypes, tableNamesForColumns);
+    }
+
+    @Override
+    void open() {
+        input.open();
+    }
+
+    @Override
+    Record next() {
+        Record record = input.next();
+        if (record == null) {
+            return null;
+        }
+        ArrayList<Object> projectedContents = new ArrayList<>(columnIndexes.length);
+        for (int idx : columnIndexes) {
+            projectedContents.add(record.getRecordContents().get(idx));
+        }
+        Record projected = new Record();
+        projected.setRecordContents(projectedContents);
+        return projected;
+    }
+
+    @Override
+    void close() {
+        input.close();
+    }
+
+    @Override
+    ResultSet getColumns() {
+        return columns;
+    }
+}
+
+/**
+ * Cartesian product of two inputs: for each record of the left input, the
+ * right input is read again from the start and every one of its records is
+ * returned merged onto the left record.
+ */
+class NestedLoopJoin extends Operator {
+    private final Operator left;
+    private final Operator right;
+    private final ResultSet columns;
+
+    private Record leftRecord;
+
+    NestedLoopJoin(Operator left, Operator right) {
+        this.left = left;
+        this.right = right;
+        ResultSet leftColumns = left.getColumns();
+        ResultSet rightColumns = right.getColumns();
+        ArrayList<String> columnNames = new ArrayList<>(leftColumns.getColumnNames());
+        columnNames.addAll(rightColumns.getColumnNames());
+        ArrayList<Integer> columnTypes = new ArrayList<>(leftColumns.getColumnTypes());
+        columnTypes.addAll(rightColumns.getColumnTypes());
+        ArrayList<String> tableNamesForColumns = new ArrayList<>(leftColumns.getTableNamesForColumns());
+        tableNamesForColumns.addAll(rightColumns.getTableNamesForColumns());
+        this.columns = describeColumns(columnNames, columnTypes, tableNamesForColumns);
+    }
+
+    @Override
+    void open() {
+        left.open();
+        leftRecord = left.next();
+        if (leftRecord != null) {
+            right.open();
+        }
+    }
+
+    @Override
+    Record next() {
+        while (leftRecord != null) {
+            Record rightRecord = right.next();
+            if (rightRecord != null) {
+                return Record.mergeRecords(leftRecord, rightRecord);
+            }
+            right.close();
+            leftRecord = left.next();
+            if (leftRecord != null) {
+                right.open();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    void close() {
+        if (leftRecord != null) {
+            right.close();
+        }
+        leftRecord = null;
+        left.close();
+    }
+
+    @Override
+    ResultSet getColumns() {
+        return columns;
+    }
+}
+
+/**
+ * Returns its input's records ordered on one column, records with equal values
+ * keeping the order they came in. The whole input is read and sorted on open().
+ *
+ * While the input fits in Main.queryMemoryBudget it is sorted in memory. Past
+ * that, each budget's worth of records is sorted and written to a spill file
+ * as a run, and next() merges the runs, reading one record at a time from
+ * each. More than MERGE_FAN_IN runs are first merged in groups into longer
+ * runs, so only that many files are ever open at once.
+ */
+class Sort extends Operator {
+    private static final int MERGE_FAN_IN = 64;
+
+    private final Operator input;
+    private final Comparator<Record> order;
+
+    private ArrayList<Record> sortedRecords;
+    private int position;
+    private ArrayList<SpillFile> runs;
+    private Record[] runHeads;
+    private PriorityQueue<Integer> mergeQueue;
+
+    /**
+     * @param input       operator whose records are sorted
+     * @param columnIndex index in the input's records of the column to order on
+     */
+    Sort(Operator input, int columnIndex) {
+        this.input = input;
+        RecordSort sorter = new RecordSort();
+        this.order = (a, b) -> sorter.compareOnGivenIndex(a, b, columnIndex);
+    }
+
+    @Override
+    void open() {
+        sortedRecords = new ArrayList<>();
+        position = 0;
+        runs = new ArrayList<>();
+        try {
+            long bytesUsed = 0;
+            input.open();
+            for (Record record = input.next(); record != null; record = input.next()) {
+                sortedRecords.add(record);
+                bytesUsed += estimateSize(record);
+                if (bytesUsed > Main.queryMemoryBudget) {
+                    runs.add(writeRun(sortedRecords));
+                    sortedRecords = new ArrayList<>();
+                    bytesUsed = 0;
+                }
+            }
+            input.close();
+            if (runs.isEmpty()) {
+                sortedRecords.sort(order);
+                return;
+            }
+            if (!sortedRecords.isEmpty()) {
+                runs.add(writeRun(sortedRecords));
+            }
+            sortedRecords = null;
+            while (runs.size() > MERGE_FAN_IN) {
+                ArrayList<SpillFile> shorterRuns = runs;
+                ArrayList<SpillFile> longerRuns = new ArrayList<>();
+                for (int start = 0; start < shorterRuns.size(); start += MERGE_FAN_IN) {
+                    int end = Math.min(start + MERGE_FAN_IN, shorterRuns.size());
+                    startMerge(new ArrayList<>(shorterRuns.subList(start, end)));
+                    SpillFile longerRun = new SpillFile(input.getColumns().getColumnTypes());
+                    for (Record record = nextMerged(); record != null; record = nextMerged()) {
+                        longerRun.write(record);
+                    }
+                    deleteRuns();
+                    longerRuns.add(longerRun);
+                }
+                runs = longerRuns;
+            }
+            startMerge(runs);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    Record next() {
+        if (sortedRecords == null) {
+            try {
+                return nextMerged();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        if (position == sortedRecords.size()) {
+            return null;
+        }
+        return sortedRecords.get(position++);
+    }
+
+    @Override
+    void close() {
+        sortedRecords = null;
+        deleteRuns();
+        runHeads = null;
+        mergeQueue = null;
+    }
+
+    @Override
+    ResultSet getColumns() {
+        return input.getColumns();
+    }
+
+    private SpillFile writeRun(ArrayList<Record> records) throws IOException {
+        records.sort(order);
+        SpillFile run = new SpillFile(input.getColumns().getColumnTypes());
+        for (Record record : records) {
+            run.write(record);
+        }
+        return run;
+    }
+
+    /**
+     * Starts merging the given runs, which become the runs next merged
+     */
+    private void startMerge(ArrayList<SpillFile> runsToMerge) throws IOException {
+        runs = runsToMerge;
+        runHeads = new Record[runs.size()];
+        // equal records come from the earlier run first, which keeps the sort stable
+        mergeQueue = new PriorityQueue<>(Math.max(1, runs.size()), (a, b) -> {
+            int comparison = order.compare(runHeads[a], runHeads[b]);
+            return comparison != 0 ? comparison : Integer.compare(a, b);
+        });
+        for (int run = 0; run < runs.size(); run++) {
+            runHeads[run] = runs.get(run).read();
+            if (runHeads[run] != null) {
+                mergeQueue.add(run);
+            }
+        }
+    }
+
+    /**
+     * @return the lowest record at the head of a run, null once every run has been read
+     */
+    private Record nextMerged() throws IOException {
+        Integer run = mergeQueue.poll();
+        if (run == null) {
+            return null;
+        }
+        Record record = runHeads[run];
+        runHeads[run] = runs.get(run).read();
+        if (runHeads[run] != null) {
+            mergeQueue.add(run);
+        }
+        return record;
+    }
+
+    private void deleteRuns() {
+        if (runs != null) {
+            for (SpillFile run : runs) {
+                run.delete();
+            }
+        }
+        runs = null;
+    }
+}
+
+/**
+ * Returns the first count records its input would return ordered on one
+ * column, in that order, with records with equal values keeping the order they
+ * came in, the same as the first count records of a Sort. The input is read
+ * through a heap that holds only the lowest count records seen so far, so the
+ * rest are dropped as they are read instead of being sorted.
+ */
+class TopN extends Operator {
+    private final Operator input;
+    private final Comparator<Record> order;
+    private final int count;
+
+    private ArrayList<Record> topRecords;
+    private int position;
+
+    /**
+     * @param input       operator whose records are ordered
+     * @param columnIndex index in the input's records of the column to order on
+     * @param count       number of records to return
+     */
+    TopN(Operator input, int columnIndex, int count) {
+        this.input = input;
+        RecordSort sorter = new RecordSort();
+        this.order = (a, b) -> sorter.compareOnGivenIndex(a, b, columnIndex);
+        this.count = count;
+    }
+
+    @Override
+    void open() {
+        topRecords = new ArrayList<>();
+        position = 0;
+        if (count == 0) {
+            return;
+        }
+        // records are paired with the order they were read in, which breaks ties,
+        // and the highest pair is at the head of the heap, ready to be dropped
+        Comparator<ReadRecord> stableOrder = (a, b) -> {
+            int comparison = order.compare(a.record, b.record);
+            return comparison != 0 ? comparison : Long.compare(a.readOrder, b.readOrder);
+        };
+        PriorityQueue<ReadRecord> heap = new PriorityQueue<>(stableOrder.reversed());
+        long numRead = 0;
+        input.open();
+        for (Record record = input.next(); record != null; record = input.next()) {
+            ReadRecord read = new ReadRecord(record, numRead++);
+            if (heap.size() < count) {
+                heap.add(read);
+            } else if (stableOrder.compare(read, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(read);
+            }
+        }
+        input.close();
+        while (!heap.isEmpty()) {
+            topRecords.add(heap.poll().record);
+        }
+        Collections.reverse(topRecords);
+    }
+
+    @Override
+    Record next() {
+        if (position == topRecords.size()) {
+            return null;
+        }
+        return topRecords.get(position++);
+    }
+
+    @Override
+    void close() {
+        topRecords = null;
+    }
+
+    @Override
+    ResultSet getColumns() {
+        return input.getColumns();
+    }
+
+    private static class ReadRecord {
+        final Record record;
+        final long readOrder;
+
+        ReadRecord(Record record, long readOrder) {
+            this.record = record;
+            this.readOrder = readOrder;
+        }
+    }
+}
+
+/**
+ * Skips the first offset records of its input and returns at most limit of the
+ * ones after. The input is not read any further once the limit is reached.
+ */
+class Limit extends Operator {
+    private final Operator input;
+    private final int limit;
+    private final int offset;
+
+    private int returned;
+
+    Limit(Operator input, int limit, int offset) {
+        this.input = input;
+        this.limit = limit;
+        this.offset = offset;
+    }
+
+    @Override
+    void open() {
+        input.open();
+        returned = 0;
+        for (int skipped = 0; skipped < offset && input.next() != null; skipped++) {
+            // records before the offset are read and dropped
+        }
+    }
+
+    @Override
+    Record next() {
+        if (returned == limit) {
+            return null;
+        }
+        Record record = input.next();
+        if (record != null) {
+            returned++;
+        }
+        return record;
+    }
+
+    @Override
+    void close() {
+        input.close();
+    }
+
+    @Override
+    ResultSet getColumns() {
+        return input.getColumns();
+    }
+}
+
+/**
+ * Join of two inputs on left key = right key. The right input is read into a
+ * hash table on its key, then each left record is looked up in it as it is
+ * read, so records come out in the same order a nested loop join followed by
+ * a filter on the keys would give. A null key matches nothing.
+ *
+ * If the right input takes more than Main.queryMemoryBudget, the rest of it is
+ * only counted, then both inputs are read again and split by key hash into
+ * partitions written to spill files, as many as it takes for each to fit the
+ * budget (up to MAX_PARTITIONS). The partitions are joined one at a time, and
+ * records then come out grouped by partition. A partition whose right records
+ * still do not fit is split again with a different hash. One that splitting
+ * would not shrink, because all or most of its right records have the same key,
+ * is joined as a block nested loop: its right records are held a budget's
+ * worth at a time and its left records are read again for each block.
+ */
+class HashJoin extends Operator {
+    // partitions written at once, each holds an open file
+    private static final int MAX_PARTITIONS = 64;
+    // splits of a partition before it is joined as a block nested loop whatever its size
+    private static final int MAX_DEPTH = 8;
+
+    private final Operator left;
+    private final Operator right;
+    private final int leftKey;
+    private final int rightKey;
+    private final ResultSet columns;
+
+    private HashMap<Object, ArrayList<Record>> buildTable;
+    private ArrayDeque<Partition> partitions; // null when the right input fit in memory
+    private Partition partition; // being joined, null once every partition is
+    private boolean moreRight; // right records of the partition are left for another block
+    private boolean leftOpen;
+    private Record probeRecord;
+    private ArrayList<Record> matches;
+    private int matchIndex;
+
+    /**
+     * @param left     left input
+     * @param right    right input, the one held in memory
+     * @param leftKey  index of the key column in the left input's records
+     * @param rightKey index of the key column in the right input's records
+     */
+    HashJoin(Operator left, Operator right, int leftKey, int rightKey) {
+        this.left = left;
+        this.right = right;
+        this.leftKey = leftKey;
+        this.rightKey = rightKey;
+        this.columns = new NestedLoopJoin(left, right).getColumns();
+    }
+
+    @Override
+    void open() {
+        buildTable = new HashMap<>();
+        partitions = null;
+        partition = null;
+        matches = null;
+        try {
+            long bytesUsed = 0;
+            right.open();
+            for (Record record = right.next(); record != null; record = right.next()) {
+                Object key = record.getRecordContents().get(rightKey);
+                if (key == null) {
+                    continue;
+                }
+                bytesUsed += estimateSize(record);
+                if (buildTable != null) {
+                    buildTable.computeIfAbsent(key, k -> new ArrayList<>()).add(record);
+                    if (bytesUsed > Main.queryMemoryBudget) {
+                        buildTable = null; // the rest is only counted, to size the partitions
+                    }
+                }
+            }
+            right.close();
+            if (buildTable != null) {
+                left.open();
+                leftOpen = true;
+                return;
+            }
+            partitionInputs(bytesUsed);
+            loadNextPartition();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    Record next() {
+        try {
+            while (true) {
+                if (matches != null && matchIndex < matches.size()) {
+                    return Record.mergeRecords(probeRecord, matches.get(matchIndex++));
+                }
+                if (partitions == null) {
+                    probeRecord = left.next();
+                } else {
+                    probeRecord = partition != null ? partition.left.read() : null;
+                    if (probeRecord == null && partition != null && loadNextBlock()) {
+                        continue;
+                    }
+                }
+                if (probeRecord == null) {
+                    return null;
+                }
+                Object key = probeRecord.getRecordContents().get(leftKey);
+                matches = key == null ? null : buildTable.get(key);
+                matchIndex = 0;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    void close() {
+        if (leftOpen) {
+            left.close();
+            leftOpen = false;
+        }
+        if (partition != null) {
+            partition.delete();
+        }
+        if (partitions != null) {
+            for (Partition waiting : partitions) {
+                waiting.delete();
+            }
+        }
+        partitions = null;
+        partition = null;
+        buildTable = null;
+        matches = null;
+    }
+
+    @Override
+    ResultSet getColumns() {
+        return columns;
+    }
+
+    /**
+     * Reads both inputs again, splitting them into the first partitions
+     *
+     * @param rightBytes size of the right input's records with a key
+     */
+    private void partitionInputs(long rightBytes) throws IOException {
+        int fanOut = fanOutFor(rightBytes);
+        Partition[] split = createPartitions(fanOut, 0, Long.MAX_VALUE);
+        right.open();
+        for (Record record = right.next(); record != null; record = right.next()) {
+            Object key = record.getRecordContents().get(rightKey);
+            if (key != null) {
+                split[partitionOf(key, fanOut, 0)].writeRight(record, key);
+            }
+        }
+        right.close();
+        left.open();
+        leftOpen = true;
+        for (Record record = left.next(); record != null; record = left.next()) {
+            Object key = record.getRecordContents().get(leftKey);
+            if (key != null) {
+                split[partitionOf(key, fanOut, 0)].left.write(record);
+            }
+        }
+        left.close();
+        leftOpen = false;
+        partitions = new ArrayDeque<>();
+        Collections.addAll(partitions, split);
+    }
+
+    /**
+     * Splits a partition whose right records do not fit in the budget into
+     * smaller ones, which are joined before the partitions still waiting
+     */
+    private void splitPartition(Partition tooBig) throws IOException {
+        int depth = tooBig.depth + 1;
+        int fanOut = fanOutFor(tooBig.rightBytes);
+        Partition[] split = createPartitions(fanOut, depth, tooBig.rightBytes);
+        for (Record record = tooBig.right.read(); record != null; record = tooBig.right.read()) {
+            Object key = record.getRecordContents().get(rightKey);
+            split[partitionOf(key, fanOut, depth)].writeRight(record, key);
+        }
+        for (Record record = tooBig.left.read(); record != null; record = tooBig.left.read()) {
+            split[partitionOf(record.getRecordContents().get(leftKey), fanOut, depth)].left.write(record);
+        }
+        tooBig.delete();
+        for (int i = fanOut - 1; i >= 0; i--) {
+            partitions.addFirst(split[i]);
+        }
+    }
+
+    /**
+     * Moves on to the next partition with records on both sides, splitting any
+     * that are too big, and reads the first block of its right records into the
+     * hash table
+     *
+     * @return false if there are no partitions left
+     */
+    private boolean loadNextPartition() throws IOException {
+        while (!partitions.isEmpty()) {
+            partition = partitions.removeFirst();
+            if (partition.right.getNumRecords() == 0 || partition.left.getNumRecords() == 0) {
+                partition.delete();
+                continue;
+            }
+            if (partition.rightBytes > Main.queryMemoryBudget && partition.depth < MAX_DEPTH
+                    && !partition.singleKey && partition.rightBytes < partition.splitFromBytes * 9 / 10) {
+                splitPartition(partition);
+                continue;
+            }
+            loadBlock();
+            return true;
+        }
+        partition = null;
+        buildTable = null;
+        return false;
+    }
+
+    /**
+     * Called once the partition's left records have all been looked up, moves on
+     * to the partition's next block of right records or to the next partition
+     *
+     * @return false if there is nothing left to join
+     */
+    private boolean loadNextBlock() throws IOException {
+        if (moreRight) {
+            partition.left.rewind();
+            loadBlock();
+            return true;
+        }
+        partition.delete();
+        return loadNextPartition();
+    }
+
+    /**
+     * Reads the partition's right records into the hash table, stopping once they
+     * take more than the budget
+     */
+    private void loadBlock() throws IOException {
+        buildTable = new HashMap<>();
+        moreRight = false;
+        long bytesUsed = 0;
+        for (Record record = partition.right.read(); record != null; record = partition.right.read()) {
+            buildTable.computeIfAbsent(record.getRecordContents().get(rightKey), k -> new ArrayList<>())
+                    .add(record);
+            bytesUsed += estimateSize(record);
+            if (bytesUsed > Main.queryMemoryBudget) {
+                moreRight = true;
+                break;
+            }
+        }
+    }
+
+    /**
+     * @param rightBytes size of the right records to split
+     * @return partitions needed for each to fit in the budget
+     */
+    private static int fanOutFor(long rightBytes) {
+        // aimed below the budget, keys never spread quite evenly
+        long target = Math.max(1, Main.queryMemoryBudget * 3 / 4);
+        long needed = (rightBytes + target - 1) / target;
+        return (int) Math.max(2, Math.min(MAX_PARTITIONS, needed));
+    }
+
+    /**
+     * Hashes the key with a different seed at each depth, so records that
+     * shared a partition are spread out when it is split
+     */
+    private static int partitionOf(Object key, int fanOut, int depth) {
+        int h = key.hashCode() ^ (depth * 0x9E3779B9);
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return Math.floorMod(h, fanOut);
+    }
+
+    private Partition[] createPartitions(int fanOut, int depth, long splitFromBytes) throws IOException {
+        Partition[] split = new Partition[fanOut];
+        for (int i = 0; i < fanOut; i++) {
+            split[i] = new Partition(new SpillFile(left.getColumns().getColumnTypes()),
+                    new SpillFile(right.getColumns().getColumnTypes()), depth, splitFromBytes);
+        }
+        return split;
+    }
+
+    /**
+     * Records of both inputs whose keys hash to the same partition
+     */
+    private static class Partition {
+        final SpillFile left;
+        final SpillFile right;
+        final int depth; // times split
+        // right bytes of the partition this was split from, when a split barely
+        // shrinks a partition most of it is one key and splitting again would not help
+        final long splitFromBytes;
+        long rightBytes;
+        boolean singleKey = true; // every right record has the same key
+        private Object firstKey;
+
+        Partition(SpillFile left, SpillFile right, int depth, long splitFromBytes) {
+            this.left = left;
+            this.right = right;
+            this.depth = depth;
+            this.splitFromBytes = splitFromBytes;
+        }
+
+        void writeRight(Record record, Object key) throws IOException {
+            if (firstKey == null) {
+                firstKey = key;
+            } else if (singleKey && !firstKey.equals(key)) {
+                singleKey = false;
+            }
+            right.write(record);
+            rightBytes += estimateSize(record);
+        }
+
+        void delete() {
+            left.delete();
+            right.delete();
+        }
+    }
+}
@@ -10,11 +10,30 @@ import src.*;
 
 /**
  * representative of an individual Page
- * 
+ *
+ * On disk a page is slotted:
+ * - header: number of records, where the record heap starts, and how many
+ * bytes of the heap belong to deleted records
+ * - slot directory: one int per record giving the record's offset in the page,
+ * in primary key order, growing from the front of the page
+ * - record heap: the records themselves, growing from the back of the page
+ *
+ * A page read from disk keeps those bytes and decodes records one at a time
+ * as they are asked for. Inserts and deletes that fit go straight into the
+ * bytes, only moving slot directory entries. The page is turned into an
+ * ArrayList of Records the first time the whole list is asked for (or an insert
+ * no longer fits), and from then on that list is the page's contents.
+ * Records of a page written before its table was last altered are turned into
+ * the table's current schema as they are decoded, see SchemaVersion.
+ *
  * @author Charlie Baker, Kevin Martin
  */
 class Page {
 
+    // record count, heap start, dead heap bytes
+    static final int HEADER_SIZE = Integer.BYTES * 3;
+    static final int SLOT_SIZE = Integer.BYTES;
+
     /*
      * pageNumberOnDisk will be unique to each page, and will be assigned
      * when a page is first ever created/instantiated
@@ -24,18 +43,40 @@ class Page {
 
     // the table a page belongs too
     private int tableNumber;
-    private long lruLongValue;
     private Boolean isModified;
 
+    // bookkeeping owned by the buffer's ReplacementPolicy
+    Page policyPrev = null;
+    Page policyNext = null;
+    int policyQueue = 0;
+    int frameIndex = -1;
+    boolean referenced = false;
+    // set while a modified page is kept out of the replacement policy, it stays in the
+    // buffer until a checkpoint writes it (see StorageManager.checkpoint)
+    boolean held = false;
+    // set while a checkpoint writes the page out, it stays in the buffer (held if the
+    // replacement policy picks it) so it is never read back from disk half written
+    boolean writing = false;
+
+    // slotted page bytes, null once the page has been turned into recordsInPage
+    private ByteBuffer image;
+    // false while image is a view of bytes the page does not own (a mapped table file),
+    // such an image is copied before the page changes it
+    private boolean ownsImage;
+    private ArrayList<Integer> attributeTypes;
+    private int recordFormat;
+    // older schema version the image's records are stored in, null for the table's current
+    // schema (see SchemaVersion); records are turned into the current schema as they are decoded
+    private SchemaVersion storedSchema;
+
     // A Page and the data contained is represented by an ArrayList of
-    // Record Instances.
+    // Record Instances, once materialized
     private ArrayList<Record> recordsInPage;
 
     /**
      * Page Constructor
      */
     public Page() {
-        this.lruLongValue = 0;
         this.isModified = false;
     }
 
@@ -47,16 +88,14 @@ class Page {
         this.tableNumber = value;
     }
 
-    public void setLruLongValue(long value) {
-        this.lruLongValue = value;
-    }
-
     public void setIsModified(Boolean value) {
         this.isModified = value;
     }
 
     public void setRecordsInPage(ArrayList<Record> records) {
         this.recordsInPage = records;
+        this.image = null;
+        this.storedSchema = null;
     }
 
     public int getPageNumberOnDisk() {
@@ -67,38 +106,221 @@ class Page {
         return this.tableNumber;
     }
 
-    public long getLruLongValue() {
-        return this.lruLongValue;
-    }
-
     public boolean getisModified() {
         return this.isModified;
     }
 
+    /**
+     * Decodes every record on the page, if not done already. Changes to the
+     * returned list are changes to the page.
+     *
+     * @return the page's records in primary key order
+     */
     public ArrayList<Record> getRecordsInPage() {
+        if (image != null) {
+            int count = getRecordCount();
+            ArrayList<Record> records = new ArrayList<>(count);
+            for (int slot = 0; slot < count; slot++) {
+                records.add(decodeRecord(slot));
+            }
+            recordsInPage = records;
+            image = null;
+            storedSchema = null;
+        }
         return this.recordsInPage;
     }
 
+    /**
+     * @return the older schema version the page's records are stored in,
+     *         null once they are in the table's current schema
+     */
+    SchemaVersion getStoredSchema() {
+        return storedSchema;
+    }
+
     public int getRecordCount() {
+        if (image != null) {
+            return image.getInt(0);
+        }
         return recordsInPage.size();
     }
 
+    /**
+     * Gets a single record without decoding the rest of the page.
+     * The record is a copy when the page has not been materialized, so changes
+     * to it must go through removeRecord/insertRecord.
+     *
+     * @param index position of the record on the page
+     * @return the record
+     */
+    public Record getRecord(int index) {
+        if (image != null) {
+            return decodeRecord(index);
+        }
+        return recordsInPage.get(index);
+    }
+
+    /**
+     * Gets a single attribute value of a record, only that value is decoded
+     *
+     * @param index  position of the record on the page
+     * @param column index of the attribute in the table
+     * @return the value, null if it is null
+     */
+    public Object getAttribute(int index, int column) {
+        if (image == null) {
+            return recordsInPage.get(index).getRecordContents().get(column);
+        }
+        if (storedSchema != null) {
+            int storedColumn = storedSchema.storedIndexOf(column);
+            if (storedColumn == -1) { // added since the record was stored
+                return Catalog.instance.getTableSchemaById(tableNumber).getAttributes().get(column)
+                        .getDefaultValue();
+            }
+            column = storedColumn;
+        }
+        int valueOffset = Record.attributeOffset(recordFormat, attributeTypes, image, slotOffset(index), column);
+        if (valueOffset < 0) {
+            return null;
+        }
+        return Record.parseAttributeBytes(recordFormat, attributeTypes.get(column), image, valueOffset);
+    }
+
+    /**
+     * Inserts a record at the given position and marks the page modified.
+     * When the record fits in the page's free space only the slot directory
+     * moves, otherwise the page is materialized and may need to be split
+     * (see computeSizeInBytes). A page stored in an older schema version is
+     * always materialized, which brings its records up to the current schema.
+     *
+     * @param index  position the record should take
+     * @param record record to insert
+     */
+    public void insertRecord(int index, Record record) {
+        isModified = true;
+        if (image != null && storedSchema == null) {
+            byte[] recordBytes = record.toBytes(tableNumber);
+            int count = getRecordCount();
+            int slotDirectoryEnd = HEADER_SIZE + (count + 1) * SLOT_SIZE;
+            if (image.getInt(Integer.BYTES) - slotDirectoryEnd < recordBytes.length
+                    && freeBytes() >= recordBytes.length + SLOT_SIZE) {
+                compact(); // enough room, but part of it belongs to deleted records
+            }
+            int heapStart = image.getInt(Integer.BYTES);
+            if (heapStart - slotDirectoryEnd >= recordBytes.length) {
+                ensureOwnImage();
+                heapStart -= recordBytes.length;
+                image.put(heapStart, recordBytes);
+                moveSlots(index, index + 1, count - index);
+                image.putInt(HEADER_SIZE + index * SLOT_SIZE, heapStart);
+                image.putInt(0, count + 1);
+                image.putInt(Integer.BYTES, heapStart);
+                return;
+            }
+        }
+        getRecordsInPage().add(index, record);
+    }
+
+    /**
+     * Removes the record at the given position and marks the page modified.
+     * Only the slot directory changes, the record's bytes are reclaimed when
+     * the page is compacted.
+     *
+     * @param index position of the record on the page
+     */
+    public void removeRecord(int index) {
+        isModified = true;
+        if (image == null) {
+            recordsInPage.remove(index);
+            return;
+        }
+        ensureOwnImage();
+        int count = getRecordCount();
+        int deadBytes = image.getInt(Integer.BYTES * 2)
+                + Record.storedSize(recordFormat, attributeTypes, image, slotOffset(index));
+        moveSlots(index + 1, index, count - index - 1);
+        count--;
+        image.putInt(0, count);
+        if (count == 0) {
+            image.putInt(Integer.BYTES, image.capacity());
+            deadBytes = 0;
+        }
+        image.putInt(Integer.BYTES * 2, deadBytes);
+    }
+
+    private int slotOffset(int index) {
+        return image.getInt(HEADER_SIZE + index * SLOT_SIZE);
+    }
+
+    private void moveSlots(int from, int to, int numSlots) {
+        if (numSlots > 0) {
+            image.put(HEADER_SIZE + to * SLOT_SIZE, image, HEADER_SIZE + from * SLOT_SIZE, numSlots * SLOT_SIZE);
+        }
+    }
+
+    private Record decodeRecord(int index) {
+        ByteBuffer recordBytes = image.duplicate();
+        recordBytes.position(slotOffset(index));
+        return Record.parseRecordBytes(tableNumber, recordFormat, storedSchema, recordBytes);
+    }
+
+    /**
+     * @return bytes between the slot directory and the heap plus bytes of deleted records
+     */
+    private int freeBytes() {
+        int slotDirectoryEnd = HEADER_SIZE + getRecordCount() * SLOT_SIZE;
+        return image.getInt(Integer.BYTES) - slotDirectoryEnd + image.getInt(Integer.BYTES * 2);
+    }
+
+    /**
+     * Rewrites the record heap without the bytes of deleted records
+     */
+    private void compact() {
+        int count = getRecordCount();
+        ByteBuffer compacted = ByteBuffer.allocate(image.capacity());
+        int heapStart = compacted.capacity();
+        for (int slot = 0; slot < count; slot++) {
+            int offset = slotOffset(slot);
+            int size = Record.storedSize(recordFormat, attributeTypes, image, offset);
+            heapStart -= size;
+            compacted.put(heapStart, image, offset, size);
+            compacted.putInt(HEADER_SIZE + slot * SLOT_SIZE, heapStart);
+        }
+        compacted.putInt(0, count);
+        compacted.putInt(Integer.BYTES, heapStart);
+        compacted.putInt(Integer.BYTES * 2, 0);
+        image = compacted;
+        ownsImage = true;
+    }
+
+    private void ensureOwnImage() {
+        if (!ownsImage) {
+            ByteBuffer copy = ByteBuffer.allocate(image.capacity());
+            copy.put(0, image, 0, image.capacity());
+            image = copy;
+            ownsImage = true;
+        }
+    }
+
     /**
      * Method Called by insertRecord method after making insert,
      * or ANY Method that makes actual changes to data of page
-     * Size returned includes the bytes for page size and number of records
-     * at the beginning of page
-     * 
+     * Size returned includes the page header and the slot directory
+     *
      * @return how many bytes does this record consist of
      *         return value used to crosscheck surpassing of max page size,
      *         indicating split needed
      */
     int computeSizeInBytes() {
-        int sizeOfPageInBytes = Integer.BYTES * 2; // beginning of page (fixed at 8 for two ints)
+        if (image != null) {
+            return image.capacity() - freeBytes();
+        }
+        int sizeOfPageInBytes = HEADER_SIZE;
+        int format = Catalog.instance.getTableSchemaById(tableNumber).getRecordFormat();
         // call records compute size for each record that is a part of this page
-        for (Record record : this.getRecordsInPage()) {
-            int bytesInRecord = record.compute_size(true);
-            sizeOfPageInBytes = sizeOfPageInBytes + bytesInRecord;
+        for (Record record : this.recordsInPage) {
+            int bytesInRecord = record.computeStoredSize(format);
+            sizeOfPageInBytes = sizeOfPageInBytes + SLOT_SIZE + bytesInRecord;
         }
         return sizeOfPageInBytes;
     }
@@ -106,55 +328,85 @@ class Page {
     /**
      * Called by Buffer Manager when reading page into buffer
      * Turns long byte array representing page into usable data
-     * 
-     * @param tableNumber the table number corresponding to the given page
-     * @param pageInBytes a page represented by a singular array of bytes
+     *
+     * @param tableNumber  the table number corresponding to the given page
+     * @param storedSchema older schema version the page was written in, null for
+     *                     the table's current schema
+     * @param pageInBytes  a page represented by a singular array of bytes
      * @return a Page object representing the byte array given
      */
-    public static Page parseBytes(int tableNumber, byte[] pageInBytes) {
+    public static Page parseBytes(int tableNumber, SchemaVersion storedSchema, byte[] pageInBytes) {
+        Page page = parseBytes(tableNumber, storedSchema, ByteBuffer.wrap(pageInBytes));
+        page.ownsImage = true;
+        return page;
+    }
+
+    /**
+     * Turns a page worth of bytes into a Page, reading from the buffer's current position.
+     * Used directly on a view of a memory mapped table file, so the page bytes
+     * are never copied into a separate array first; the view is only copied if
+     * the page is changed in place
+     *
+     * @param tableNumber  the table number corresponding to the given page
+     * @param storedSchema older schema version the page was written in, null for
+     *                     the table's current schema
+     * @param byteBuffer   buffer positioned at the start of the page
+     * @return a Page object representing the bytes given
+     */
+    public static Page parseBytes(int tableNumber, SchemaVersion storedSchema, ByteBuffer byteBuffer) {
         Page returnPage = new Page();
-        ByteBuffer byteBuffer = ByteBuffer.wrap(pageInBytes);
-        // Read first portions of page coming before records
-        int numRecords = byteBuffer.getInt(); // read second 4 bytes
-        ArrayList<Integer> typeIntegers = Catalog.instance.getSolelyTableAttributeTypes(tableNumber);
-        ArrayList<Record> records = new ArrayList<>();
-        for (int rcrd = 0; rcrd < numRecords; rcrd++) {
-            char[] nullBytes = new char[typeIntegers.size()];
-            for (int i = 0; i < nullBytes.length; i++) {
-                nullBytes[i] = byteBuffer.getChar();
-            }
-            Record record = Record.parseRecordBytes(tableNumber, nullBytes, byteBuffer);
-            records.add(record);
+        returnPage.tableNumber = tableNumber;
+        returnPage.storedSchema = storedSchema;
+        returnPage.attributeTypes = storedSchema == null
+                ? Catalog.instance.getSolelyTableAttributeTypes(tableNumber)
+                : storedSchema.getTypes();
+        returnPage.recordFormat = Catalog.instance.getTableSchemaById(tableNumber).getRecordFormat();
+        returnPage.image = byteBuffer.slice(byteBuffer.position(), Main.pageSize);
+        returnPage.ownsImage = false;
+        if (returnPage.getRecordCount() == 0) {
+            // nothing to decode lazily, and a page never written out reads as all zeros
+            returnPage.setRecordsInPage(new ArrayList<>());
         }
-        returnPage.setRecordsInPage(records);
         return returnPage;
     }
 
     /**
      * Method that does the exact opposite of parse_bytes,
-     * taking our ArrayList<Record> page representation and converting back into a
+     * taking our page representation and converting back into a
      * single byte array
      * to return to Buffer Managers, writepagetodisk method
-     * 
+     *
      * @param pageToConvert page object to convert
      * @return byte array representation of the page
      *         IMPORTANT to note that byte array returned will have:
-     *         - first 4 bytes: page size int in bytes (compute_page_size method)
-     *         page size inclusive of these ints at front
-     *         - second 4 bytes: number of records
-     *         - all bytes for actual records
+     *         - first 4 bytes: number of records
+     *         - second 4 bytes: offset of the first byte of the record heap
+     *         - third 4 bytes: bytes in the heap not used by any record
+     *         - 4 bytes per record, offset of the record, in record order
+     *         - records, the first record at the end of the page
      */
     public static byte[] parsePage(Page pageToConvert) {
         byte[] byteArray = new byte[Main.pageSize];
         ByteBuffer byteBuffer = ByteBuffer.wrap(byteArray);
-        byteBuffer.putInt((byte) pageToConvert.computeSizeInBytes()); // insert size
-        byteBuffer.putInt((byte) pageToConvert.recordsInPage.size()); // insert num of entries
+        if (pageToConvert.image != null) {
+            // records were only ever changed in place, the bytes are already up-to-date
+            byteBuffer.put(0, pageToConvert.image, 0, Main.pageSize);
+            return byteArray;
+        }
         ArrayList<Record> records = pageToConvert.getRecordsInPage();
+        int heapStart = Main.pageSize;
+        int slot = 0;
         // loop through records and insert them
         for (Record record : records) {
-            byteBuffer.put(record.toBytes(pageToConvert.getTableNumber()));
+            byte[] recordBytes = record.toBytes(pageToConvert.getTableNumber());
+            heapStart -= recordBytes.length;
+            byteBuffer.put(heapStart, recordBytes);
+            byteBuffer.putInt(HEADER_SIZE + slot * SLOT_SIZE, heapStart);
+            slot++;
         }
-
+        byteBuffer.putInt(0, records.size()); // insert num of entries
+        byteBuffer.putInt(Integer.BYTES, heapStart);
+        byteBuffer.putInt(Integer.BYTES * 2, 0);
         return byteArray;
     }
 }
@@ -0,0 +1,166 @@
+package src;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+import src.BPlusTree.BPlusTree;
+
+/**
+ * One time conversion of a database written before pages were slotted.
+ * Called at startup, before the Storage Manager exists, when the catalog's
+ * format version is older than the slotted page format.
+ *
+ * Every table file is copied to a ".slotted" file with each page in the
+ * table's page order rewritten in the slotted format at the same location.
+ * A page whose records no longer fit once they each take a slot spills the
+ * rest into a new page after it in the page order. The catalog is then
+ * written with the new format version, and only after that are the
+ * converted files moved over the originals. If the database stops part way
+ * through, the next start either converts again from the untouched originals
+ * or finishes moving the converted files into place.
+ *
+ * Legacy databases never wrote their B+ trees, so in indexing mode each
+ * table's tree is built from the records as their pages are converted, and
+ * written before the catalog that refers to it.
+ */
+class PageFormatConverter {
+
+    private static final String CONVERTED_SUFFIX = ".slotted";
+
+    /**
+     * Converts the database's table files to the slotted page format if the
+     * catalog says they are in the legacy format
+     *
+     * @param dbLoc database folder
+     * @throws IOException if a table file cannot be read or written
+     */
+    static void convertIfNeeded(String dbLoc) throws IOException {
+        Path tablesPath = Paths.get(dbLoc, "tables");
+        if (Catalog.instance.getFormatVersion() >= Catalog.SLOTTED_PAGE_FORMAT_VERSION) {
+            moveConvertedFiles(tablesPath); // only does anything after an interrupted conversion
+            // later versions only add to the catalog, which now holds everything they need
+            Catalog.instance.setFormatVersion(Catalog.CURRENT_FORMAT_VERSION);
+            return;
+        }
+        System.out.println("Converting table files to the slotted page format...");
+        for (TableSchema table : Catalog.instance.getTableSchemas()) {
+            convertTable(tablesPath, table);
+        }
+        Catalog.instance.setFormatVersion(Catalog.CURRENT_FORMAT_VERSION);
+        Catalog.instance.writeCatalogToFile();
+        moveConvertedFiles(tablesPath);
+        System.out.println("Converted " + Catalog.instance.getNumOfTables() + " table(s)");
+    }
+
+    private static void convertTable(Path tablesPath, TableSchema table) throws IOException {
+        int tableId = table.getTableId();
+        Path tableFile = tablesPath.resolve(String.valueOf(tableId));
+        Path convertedFile = tablesPath.resolve(tableId + CONVERTED_SUFFIX);
+        Files.copy(tableFile, convertedFile, StandardCopyOption.REPLACE_EXISTING);
+        ArrayList<Integer> pageOrder = table.getPageOrder();
+        boolean indexed = Catalog.instance.getIndexing() == 't';
+        int pkIndex = Catalog.instance.getTablePKIndex(tableId);
+        // the records are in primary key order along the page order
+        ArrayList<Object> keys = new ArrayList<>();
+        ArrayList<int[]> locations = new ArrayList<>();
+        // locations past every page in the page order are free
+        int nextFreeLocation = 0;
+        for (int pageNumber : pageOrder) {
+            nextFreeLocation = Math.max(nextFreeLocation, pageNumber + 1);
+        }
+        try (FileChannel original = FileChannel.open(tableFile, StandardOpenOption.READ);
+                FileChannel converted = FileChannel.open(convertedFile, StandardOpenOption.WRITE)) {
+            for (int index = 0; index < pageOrder.size(); index++) {
+                int pageNumber = pageOrder.get(index);
+                ByteBuffer legacyBytes = ByteBuffer.allocate(Main.pageSize);
+                int read = 0;
+                while (legacyBytes.hasRemaining() && read >= 0) { // until the page is full or the file ends
+                    read = original.read(legacyBytes, (long) pageNumber * Main.pageSize + legacyBytes.position());
+                }
+                legacyBytes.flip();
+                // every record now also takes a slot, so a full legacy page can need a second page
+                ArrayList<Record> pageRecords = new ArrayList<>();
+                int pageSizeInBytes = Page.HEADER_SIZE;
+                for (Record record : parseLegacyBytes(tableId, legacyBytes)) {
+                    int recordSize = Page.SLOT_SIZE + record.computeStoredSize(table.getRecordFormat());
+                    if (pageSizeInBytes + recordSize > Main.pageSize && !pageRecords.isEmpty()) {
+                        writePage(converted, tableId, pageNumber, pageRecords);
+                        pageNumber = nextFreeLocation++;
+                        index++;
+                        pageOrder.add(index, pageNumber);
+                        pageRecords = new ArrayList<>();
+                        pageSizeInBytes = Page.HEADER_SIZE;
+                    }
+                    if (indexed) {
+                        keys.add(record.getRecordContents().get(pkIndex));
+                        locations.add(new int[] { pageNumber, pageRecords.size() });
+                    }
+                    pageRecords.add(record);
+                    pageSizeInBytes += recordSize;
+                }
+                writePage(converted, tableId, pageNumber, pageRecords);
+            }
+            converted.force(true);
+        }
+        if (indexed) {
+            // the legacy catalog's root and next node location refer to nodes that were never written
+            table.setBPlusTreeMetaData(-1, 0, Main.pageSize, pkIndex);
+            BPlusTree.buildFile(table, keys, locations);
+        }
+    }
+
+    private static void writePage(FileChannel file, int tableId, int pageNumber, ArrayList<Record> records)
+            throws IOException {
+        Page page = new Page();
+        page.setTableNumber(tableId);
+        page.setRecordsInPage(records);
+        ByteBuffer slottedBytes = ByteBuffer.wrap(Page.parsePage(page));
+        long position = (long) pageNumber * Main.pageSize;
+        while (slottedBytes.hasRemaining()) {
+            file.write(slottedBytes, position + slottedBytes.position());
+        }
+    }
+
+    /**
+     * Decodes a page in the legacy format: a size int, a record count and the
+     * records back to back
+     */
+    private static ArrayList<Record> parseLegacyBytes(int tableId, ByteBuffer byteBuffer) {
+        byteBuffer.getInt(); // skip first 4 bytes, the page size
+        int numRecords = byteBuffer.getInt();
+        int numAttributes = Catalog.instance.getSolelyTableAttributeTypes(tableId).size();
+        ArrayList<Record> records = new ArrayList<>();
+        for (int rcrd = 0; rcrd < numRecords; rcrd++) {
+            char[] nullBytes = new char[numAttributes];
+            for (int i = 0; i < nullBytes.length; i++) {
+                nullBytes[i] = byteBuffer.getChar();
+            }
+            records.add(Record.parseRecordBytes(tableId, nullBytes, byteBuffer));
+        }
+        return records;
+    }
+
+    /**
+     * Moves every converted table file over the table file it was made from
+     */
+    private static void moveConvertedFiles(Path tablesPath) throws IOException {
+        File[] convertedFiles = tablesPath.toFile().listFiles((dir, name) -> name.endsWith(CONVERTED_SUFFIX));
+        if (convertedFiles == null) {
+            return; // no tables folder yet
+        }
+        for (File convertedFile : convertedFiles) {
+            String name = convertedFile.getName();
+            Path tableFile = tablesPath.resolve(name.substring(0, name.length() - CONVERTED_SUFFIX.length()));
+            Files.move(convertedFile.toPath(), tableFile, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package src;
+
+import java.util.ArrayList;
+
+/**
+ * The Buffer Manager's page table.
+ * Maps a (table number, page number on disk) pair to the Page object that is
+ * currently held in the buffer, so GetPage no longer has to walk every page
+ * in the buffer to find a hit.
+ * Both ints are packed into a single primitive long key and stored in an
+ * open-addressing hash table using linear probing, which avoids boxing a key
+ * object on every page access.
+ */
+class PageTable {
+
+    private static final int MIN_CAPACITY = 16;
+
+    // parallel arrays, slot i is in use when values[i] != null
+    private long[] keys;
+    private Page[] values;
+    private int size;
+    private int mask;
+
+    /**
+     * PageTable Constructor
+     *
+     * @param expectedPages how many pages the table should hold without
+     *                      resizing, normally the buffer size limit
+     */
+    public PageTable(int expectedPages) {
+        // keep the load factor at or below 0.5 so probe chains stay short
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedPages * 2) {
+            capacity <<= 1;
+        }
+        this.keys = new long[capacity];
+        this.values = new Page[capacity];
+        this.mask = capacity - 1;
+        this.size = 0;
+    }
+
+    /**
+     * Packs a table number and a page number into a single long key,
+     * table number in the high 32 bits and page number in the low 32 bits
+     *
+     * @param tableNumber table the page belongs to
+     * @param pageNumber  location of the page on disk
+     * @return key for the page
+     */
+    static long key(int tableNumber, int pageNumber) {
+        return ((long) tableNumber << 32) | (pageNumber & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Spreads the bits of a key so sequential page numbers of the same table
+     * do not all land in neighbouring slots
+     */
+    private int slotFor(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param tableNumber table the page belongs to
+     * @param pageNumber  location of the page on disk
+     * @return the buffered page, or null if the page is not in the buffer
+     */
+    public Page get(int tableNumber, int pageNumber) {
+        long key = key(tableNumber, pageNumber);
+        int slot = slotFor(key);
+        while (values[slot] != null) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Adds the page to the table, keyed by its own table number and page number,
+     * replacing any page already stored under that key
+     *
+     * @param page page that has just been placed in the buffer
+     */
+    public void put(Page page) {
+        if ((size + 1) * 2 > values.length) {
+            resize(values.length * 2);
+        }
+        long key = key(page.getTableNumber(), page.getPageNumberOnDisk());
+        int slot = slotFor(key);
+        while (values[slot] != null) {
+            if (keys[slot] == key) {
+                values[slot] = page;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = page;
+        size++;
+    }
+
+    /**
+     * Removes the page stored for the given table number and page number.
+     * Uses backward shift deletion so no tombstones are left behind and
+     * lookups never slow down as pages are evicted over time.
+     *
+     * @param tableNumber table the page belongs to
+     * @param pageNumber  location of the page on disk
+     * @return the page that was removed, or null if it was not in the table
+     */
+    public Page remove(int tableNumber, int pageNumber) {
+        long key = key(tableNumber, pageNumber);
+        int slot = slotFor(key);
+        while (values[slot] != null) {
+            if (keys[slot] == key) {
+                Page removed = values[slot];
+                shiftBack(slot);
+                size--;
+                return removed;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Closes the gap at the given slot by moving later entries of the probe
+     * chain back into it, when doing so keeps them reachable from their home slot
+     */
+    private void shiftBack(int gap) {
+        int slot = gap;
+        while (true) {
+            slot = (slot + 1) & mask;
+            if (values[slot] == null) {
+                break;
+            }
+            int home = slotFor(keys[slot]);
+            // distance from home to the gap must be shorter than from home to slot
+            if (((gap - home) & mask) < ((slot - home) & mask)) {
+                keys[gap] = keys[slot];
+                values[gap] = values[slot];
+                gap = slot;
+            }
+        }
+        values[gap] = null;
+    }
+
+    private void resize(int newCapacity) {
+        long[] oldKeys = keys;
+        Page[] oldValues = values;
+        keys = new long[newCapacity];
+        values = new Page[newCapacity];
+        mask = newCapacity - 1;
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                int slot = slotFor(oldKeys[i]);
+                while (values[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * @return every page currently in the table, in no particular order.
+     *         A copy, so the table can be changed while iterating over it
+     */
+    public ArrayList<Page> getPages() {
+        ArrayList<Page> pages = new ArrayList<>(size);
+        for (Page page : values) {
+            if (page != null) {
+                pages.add(page);
+            }
+        }
+        return pages;
+    }
+
+    /**
+     * Removes every entry from the table
+     */
+    public void clear() {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = null;
+        }
+        size = 0;
+    }
+}
@@ -17,6 +17,16 @@ public abstract class Query {
 
     public abstract void execute();
 
+    /**
+     * Reports that the command succeeded. Its changes are committed to the log
+     * first, and forced to disk when commits are not grouped, so a command is
+     * never reported done before it would survive the process dying.
+     */
+    static void printSuccess() {
+        StorageManager.instance.commit();
+        System.out.println("SUCCESS\n");
+    }
+
 }
 
 class UpdateQuery extends Query{
@@ -42,17 +52,18 @@ class UpdateQuery extends Query{
 
     @Override
     public void execute() {
-        ResultSet resultSet = StorageManager.instance.generateFromResultSet(tableColumnDictionary);
+        // only the records the where condition matches are read, so nothing is left to check them against
+        ResultSet resultSet = StorageManager.instance.generateFromResultSet(tableColumnDictionary, where);
         int tableId = Catalog.instance.getTableIdByName(this.table);
         TableSchema tableSch = Catalog.instance.getTableSchemaById(tableId);
         int[] attemptToInsert;
 
         if (Catalog.instance.getIndexing() == 't') {
             BPlusTree bpt = Catalog.instance.getBPlusTreeByTableID(tableId);
-            attemptToInsert = StorageManager.instance.updateTable(resultSet, tableId, this.colName, this.data, where, true, bpt);
+            attemptToInsert = StorageManager.instance.updateTable(resultSet, tableId, this.colName, this.data, null, true, bpt);
         }
         else {
-            attemptToInsert = StorageManager.instance.updateTable(resultSet, tableId, this.colName, this.data, where, false, null);
+            attemptToInsert = StorageManager.instance.updateTable(resultSet, tableId, this.colName, this.data, null, false, null);
         }
 
         if (attemptToInsert.length > 1) {
@@ -68,7 +79,7 @@ class UpdateQuery extends Query{
             System.out.println("ERROR\n");
             return;
         }
-        System.out.println("SUCCESS\n");
+        printSuccess();
         return;
     }
 
@@ -90,23 +101,19 @@ class DeleteQuery extends Query{
 
     @Override
     public void execute() {
-        ResultSet resultSet = StorageManager.instance.generateFromResultSet(tableColumnDictionary);
         int tableId = Catalog.instance.getTableIdByName(this.table);
-
+        BPlusTree bpt = null;
         if (Catalog.instance.getIndexing() == 't') {
-            BPlusTree bpt = Catalog.instance.getBPlusTreeByTableID(tableId);
-            int[] wasSuccess = StorageManager.instance.deleteFrom(resultSet, tableId, where, true, bpt);
-            if (wasSuccess[0] == 1) {
-                System.out.println("ERROR\n");
-                return;
-            }
+            bpt = Catalog.instance.getBPlusTreeByTableID(tableId);
         }
-        else {
-            StorageManager.instance.deleteFrom(resultSet, tableId, where, false, null);
+        // the table is gone through once, checking the where condition page by page
+        int[] wasSuccess = StorageManager.instance.deleteFrom(tableId, where, bpt);
+        if (wasSuccess[0] == 1) {
+            System.out.println("ERROR\n");
+            return;
         }
 
-
-        System.out.println("SUCCESS\n");
+        printSuccess();
     }
 
 }
@@ -116,14 +123,18 @@ class SelectQuery extends Query {
     ConditionTree where;
     ArrayList<String> orderBy;
     Boolean starFlag;
+    int limit; // -1 if there is no limit
+    int offset;
     int numberOfColumns;
     int numberOfTables;
 
-    public SelectQuery( LinkedHashMap<String, ArrayList<String>> tableColumnDict, ConditionTree where, ArrayList<String> orderBy, Boolean starFlag ) {
+    public SelectQuery( LinkedHashMap<String, ArrayList<String>> tableColumnDict, ConditionTree where, ArrayList<String> orderBy, Boolean starFlag, int limit, int offset ) {
         this.tableColumnDictionary = tableColumnDict;
         this.where = where;
         this.orderBy = orderBy;
         this.starFlag = starFlag;
+        this.limit = limit;
+        this.offset = offset;
 
         int Ccounter = 0;
         for(String t : this.getTableNames()){
@@ -137,6 +148,19 @@ class SelectQuery extends Query {
         return this.tableColumnDictionary.keySet();
     }
 
+    /**
+     * A single table is scanned in primary key order, so ordering it on its primary key needs no sort
+     * @return true if the query orders a single table on its primary key
+     */
+    private boolean isOrderedByScan() {
+        if (numberOfTables != 1) {
+            return false;
+        }
+        int tableId = Catalog.instance.getTableIdByName(orderBy.get(0));
+        return Catalog.instance.getAttributeNames(orderBy.get(0)).indexOf(orderBy.get(1))
+                == Catalog.instance.getTablePKIndex(tableId);
+    }
+
     @Override
     public void execute() {
         // ask the storage manager for this data. It will in turn ask the buffer first,
@@ -145,56 +169,18 @@ class SelectQuery extends Query {
         // NOTE: checking for valid names of tables and attributes should be done in the parse method upstream.
 
 
-        ResultSet resultSet = StorageManager.instance.generateFromResultSet(tableColumnDictionary);
+        ResultSet resultSet = QueryPlanner.describeColumns(tableColumnDictionary);
 
+        // the columns to display are worked out from the column names alone, then
+        // only they and the column ordered on are read into the plan's records
+        ArrayList<String> columnNames = new ArrayList<>(resultSet.getColumnNames());
         ArrayList<String> displayedColNames = new ArrayList<>(resultSet.getColumnNames());
-
-        // !!!!  do the filtering here  !!!!!
-        // relevant objects: finalRecordOutput, tableNamesForColumns, typesForColumns, maybe displayedColNames?
-
-        ArrayList<Record> finalRecordOutput = new ArrayList<>();
-
-        if (where != null) {
-            for (Record record: resultSet.getRecords()) {
-                if (where.validateTree(record, resultSet)) {
-                    finalRecordOutput.add(record);
-                }
-            }
-        } else {
-            finalRecordOutput.addAll(resultSet.getRecords());
+        // index in resultSet of each column still displayed
+        ArrayList<Integer> columnIndexes = new ArrayList<>();
+        for (int colIdx = 0; colIdx < columnNames.size(); colIdx++) {
+            columnIndexes.add(colIdx);
         }
 
-        // Orderby
-        if (!orderBy.isEmpty()) {
-            RecordSort sorter = new RecordSort();
-            int index = resultSet.getIndexOfColumn(orderBy.get(0), orderBy.get(1));
-            ArrayList<Record> tempRecordOutput = finalRecordOutput;
-            finalRecordOutput = new ArrayList<>();
-            for (int i  = 0; i < tempRecordOutput.size(); i++) {
-                if (finalRecordOutput.isEmpty()) {
-                    finalRecordOutput.add(tempRecordOutput.get(i));
-                } else {
-                    for (int j = 0; j < finalRecordOutput.size(); j++) {
-                        int comparison = sorter.compareOnGivenIndex(tempRecordOutput.get(i),
-                                finalRecordOutput.get(j), index);
-                        if (comparison < 0) {
-                            finalRecordOutput.add(j, tempRecordOutput.get(i));
-                            break;
-                        } else if  (comparison == 0) {
-                            finalRecordOutput.add(j+1, tempRecordOutput.get(i));
-                            break;
-                        } else {
-                            if (j == finalRecordOutput.size() - 1) {
-                                finalRecordOutput.add(tempRecordOutput.get(i));
-                                break;
-                            }
-                        }
-                    }
-                }
-            }
-        }
-
-
         // remove duplicate column, leaving only the column for the desired table for that column
         // ex. select t1.a from t1, t2; deletes only the 'a' column that corresponds to t2 from the cartesian product
 
@@ -257,23 +243,18 @@ class SelectQuery extends Query {
 
         // remove unwanted duplicate data
         for (int idx : colIdxsToRemove) {
-            resultSet.getColumnNames().remove(idx);
+            columnNames.remove(idx);
             displayedColNames.remove(idx);
-            resultSet.getColumnTypes().remove(idx);
-
-            for (Record record : finalRecordOutput) {
-                record.getRecordContents().remove(idx);
-            }
-
+            columnIndexes.remove(idx);
         }
 
 
         // find and remove indexes of columns that were never requested to be projected
         ArrayList<Integer> projectionRemovals = new ArrayList<>();
 
-        for (int colIdx = 0; colIdx < resultSet.getColumnNames().size(); colIdx++) {
+        for (int colIdx = 0; colIdx < columnNames.size(); colIdx++) {
 
-            String currentColName = resultSet.getColumnNames().get(colIdx);
+            String currentColName = columnNames.get(colIdx);
 
             boolean found = false;
 
@@ -291,13 +272,9 @@ class SelectQuery extends Query {
         }
 
         for (int idx = projectionRemovals.size() - 1; idx > -1; idx--){
-            resultSet.getColumnNames().remove( (int) projectionRemovals.get( idx ) );
-            resultSet.getColumnTypes().remove( (int) projectionRemovals.get( idx ) );
+            columnNames.remove( (int) projectionRemovals.get( idx ) );
             displayedColNames.remove( (int) projectionRemovals.get( idx ) );
-
-            for (Record record : finalRecordOutput) {
-                record.getRecordContents().remove( (int) projectionRemovals.get( idx ) );
-            }
+            columnIndexes.remove( (int) projectionRemovals.get( idx ) );
         }
 
 
@@ -320,8 +297,8 @@ class SelectQuery extends Query {
                 String innerColName = displayedColNames.get(innerColIdx);
                 if (currentColName.equals(innerColName)) {
 
-                    displayedColNames.set(colIdx, resultSet.getTableNamesForColumns().get(colIdx) + "." + resultSet.getColumnNames().get(colIdx));
-                    displayedColNames.set(innerColIdx, resultSet.getTableNamesForColumns().get(innerColIdx) + "." + resultSet.getColumnNames().get(innerColIdx));
+                    displayedColNames.set(colIdx, resultSet.getTableNamesForColumns().get(colIdx) + "." + columnNames.get(colIdx));
+                    displayedColNames.set(innerColIdx, resultSet.getTableNamesForColumns().get(innerColIdx) + "." + columnNames.get(innerColIdx));
                 }
             }
         }
@@ -331,6 +308,30 @@ class SelectQuery extends Query {
 
 
 
+        TreeSet<Integer> neededColumns = new TreeSet<>(columnIndexes);
+        int orderByIndex = -1;
+        if (!orderBy.isEmpty()) {
+            orderByIndex = resultSet.getIndexOfColumn(orderBy.get(0), orderBy.get(1));
+            neededColumns.add(orderByIndex);
+        }
+        Operator plan = QueryPlanner.plan(tableColumnDictionary, where, neededColumns);
+        // index in allColumns of each column of the plan's records
+        ArrayList<Integer> planColumns = new ArrayList<>(neededColumns);
+
+        if (!orderBy.isEmpty() && !isOrderedByScan()) {
+            if (limit == -1) {
+                plan = new Sort(plan, planColumns.indexOf(orderByIndex));
+            } else {
+                // only the rows up to the end of the limit have to be kept in order
+                plan = new TopN(plan, planColumns.indexOf(orderByIndex),
+                        (int) Math.min((long) offset + limit, Integer.MAX_VALUE));
+            }
+        }
+        if (limit != -1) {
+            // the plan is pulled from, so nothing past the limit is read
+            plan = new Limit(plan, limit, offset);
+        }
+
             // everything after this is printing logic
         int max = 6;
 
@@ -371,11 +372,19 @@ class SelectQuery extends Query {
         System.out.println(columns + "|");
         System.out.println( spacer );
 
-        for (Record record : finalRecordOutput) {
+        int[] projection = new int[columnIndexes.size()];
+        for (int i = 0; i < projection.length; i++) {
+            projection[i] = planColumns.indexOf(columnIndexes.get(i));
+        }
+        plan = new Project(plan, projection);
+        plan.open();
+        for (Record record = plan.next(); record != null; record = plan.next()) {
             System.out.println(record.displayRecords(max));
         }
+        plan.close();
         System.out.println(spacer);
-        System.out.println("\nSUCCESS\n");
+        System.out.println();
+        printSuccess();
 
     }
 }
@@ -402,14 +411,18 @@ class InsertQuery extends Query {
         int tableID = Catalog.instance.getTableIdByName(this.table);
         TableSchema tableSchema = Catalog.instance.getTableSchemaById(tableID);
 
+        if (values.size() > 1) {
+            executeBulk(tableID, tableSchema);
+            return;
+        }
+
+        int row = 0;
         for (Record r : values) {
-            for (int i = 0; i < r.getRecordContents().size(); i++) {
-                AttributeSchema attribute = tableSchema.getAttributes().get(i);
-                if (r.getRecordContents().get(i) == null && (attribute.getConstraints() == 2 ||
-                        attribute.getConstraints() == 3)) {
-                    System.out.println("Cannot insert a null value into column("+ attribute.getName() +")");
-                    return;
-                }
+            row++; // position of the row in the statement, reported on a duplicate
+            AttributeSchema nullAttribute = findNullInNotNullColumn(r, tableSchema);
+            if (nullAttribute != null) {
+                System.out.println("Cannot insert a null value into column("+ nullAttribute.getName() +")");
+                return;
             }
 
             int[] attemptToInsert;
@@ -423,19 +436,61 @@ class InsertQuery extends Query {
 
 
             if (attemptToInsert.length > 1) {
-                int row = attemptToInsert[0];
-                if (r.getPkIndex() != attemptToInsert[1]) {
-                    System.out.println("row (" + row + "): Duplicate unique key for row (" + row +
-                            ") at column("+tableSchema.getAttributes().get(attemptToInsert[1])+")");
-                } else {
-                    System.out.println("row (" + row + "): Duplicate primary key for row (" + row + ")");
-                }
-                System.out.println("ERROR\n");
+                printDuplicate(tableSchema, row, r.getPkIndex(), attemptToInsert[1]);
                 return;
             }
+            StorageManager.instance.checkpointIfBufferFull();
+        }
+        printSuccess();
+    }
+
+    /**
+     * Inserts every row in one bulk insert. The rows before the first one that
+     * would fail are inserted and the same error is printed as when inserting
+     * them one at a time.
+     */
+    private void executeBulk(int tableID, TableSchema tableSchema) {
+        int numRows = 0;
+        AttributeSchema nullAttribute = null;
+        while (numRows < values.size() && nullAttribute == null) {
+            nullAttribute = findNullInNotNullColumn(values.get(numRows), tableSchema);
+            if (nullAttribute == null) {
+                numRows++;
+            }
+        }
+        int[] attemptToInsert = StorageManager.instance.bulkInsertRecords(tableID,
+                new ArrayList<>(values.subList(0, numRows)));
+        if (attemptToInsert.length > 1) {
+            int row = attemptToInsert[0];
+            printDuplicate(tableSchema, row, values.get(row - 1).getPkIndex(), attemptToInsert[1]);
+            return;
+        }
+        if (nullAttribute != null) {
+            System.out.println("Cannot insert a null value into column("+ nullAttribute.getName() +")");
+            return;
+        }
+        printSuccess();
+    }
 
+    private static AttributeSchema findNullInNotNullColumn(Record r, TableSchema tableSchema) {
+        for (int i = 0; i < r.getRecordContents().size(); i++) {
+            AttributeSchema attribute = tableSchema.getAttributes().get(i);
+            if (r.getRecordContents().get(i) == null && (attribute.getConstraints() == 2 ||
+                    attribute.getConstraints() == 3)) {
+                return attribute;
+            }
         }
-        System.out.println("SUCCESS\n");
+        return null;
+    }
+
+    private static void printDuplicate(TableSchema tableSchema, int row, int pkIndex, int column) {
+        if (pkIndex != column) {
+            System.out.println("row (" + row + "): Duplicate unique key for row (" + row +
+                    ") at column("+tableSchema.getAttributes().get(column)+")");
+        } else {
+            System.out.println("row (" + row + "): Duplicate primary key for row (" + row + ")");
+        }
+        System.out.println("ERROR\n");
     }
 }
 
@@ -496,11 +551,7 @@ class CreateQuery extends Query {
         StorageManager.instance.createTable(availableId, tableName, columnNames, dataTypes);
         Catalog.instance.addTableSchema(availableId, tableName, attributeInfo);
 
-        if(Catalog.instance.getIndexing() == 't') {
-            BPlusTree.createBPlusTreeFile(availableId);
-        }
-
-        System.out.println("SUCCESS\n");
+        printSuccess();
     }
 }
 
@@ -544,86 +595,56 @@ class AlterQuery extends Query{
     }
 
 
+    /**
+     * Alters the table in place: only the catalog changes, the table's pages
+     * are brought up to the new schema as they are rewritten (see SchemaVersion)
+     */
     public void execute(){
-        int oldTableId = Catalog.instance.getTableIdByName(tableName);
-        if (oldTableId == -1) {
+        int tableId = Catalog.instance.getTableIdByName(tableName);
+        if (tableId == -1) {
             System.out.println("There is no such table "+ tableName);
             System.out.println("ERROR\n");
             return;
         }
-        TableSchema temp;
         ArrayList<Object> attrInfo;
-        ArrayList<String> oldTableAttributeNames = Catalog.instance.getAttributeNames(tableName);
-        String pkName = oldTableAttributeNames.get(Catalog.instance.getTablePKIndex(oldTableId));
-        switch (this.alterType){
-            case 0:
-                //Drop column
-                if (pkName.equals(columnName)) {
-                    System.out.println("Primary key of table cannot be dropped.");
-                    System.out.println("ERROR\n");
-                    return;
-                }
-                temp = Catalog.instance.updateTableDropColumn(oldTableId, columnName);
-                try {
-                    StorageManager.instance.alterTable(temp.getTableId(),
-                            oldTableId, "");
-                    StorageManager.instance.dropTable(oldTableId);
-                    temp.setTableName(tableName);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-                System.out.println("SUCCESS\n");
-                break;
-            case 1:
-                //No default value new col
-                if (oldTableAttributeNames.contains(columnName)) {
-                    System.out.println("Duplicate attribute name \"" + columnName + "\"");
-                    System.out.println("ERROR\n");
-                    return;
-                }
-                attrInfo = new ArrayList<>(Arrays.asList(columnName, columnType, columnSize,
-                        false, 0));
-                temp = Catalog.instance.updateTableAddColumn(oldTableId, attrInfo);
-                try {
-                    StorageManager.instance.alterTable(temp.getTableId(),
-                            oldTableId, "");
-                    StorageManager.instance.dropTable(oldTableId);
-                    temp.setTableName(tableName);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-                System.out.println("SUCCESS\n");
-                break;
-            case 2:
-                //Default value new col
-                if (oldTableAttributeNames.contains(columnName)) {
-                    System.out.println("Duplicate attribute name \"" + columnName + "\"");
-                    System.out.println("ERROR\n");
-                    return;
-                }
-                attrInfo = new ArrayList<>(Arrays.asList(columnName, columnType, columnSize,
-                        false, 0));
-                temp = Catalog.instance.updateTableAddColumn(oldTableId, attrInfo);
-                try {
-                    StorageManager.instance.alterTable(temp.getTableId(),
-                            oldTableId, defaultValue);
-                    StorageManager.instance.dropTable(oldTableId);
-                    temp.setTableName(tableName);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-                System.out.println("SUCCESS\n");
-                break;
-            default:
-                System.out.println("There was an error in parsing. Abort");
-        }
-        //create new table , this table can have temporary name of originalname + "Altered" or something
-        //call alter method with provided value adding, use empty string "" for no default val specifie
-        //                                                                   meaning i will add nulls
-        //                                              use value if specified,
-        //                                              use NULL if it is a drop command
-        //run drop table on old table given all records have successfully copied over
-        //rename new table from orginalname + "Altered" back to just original name
+        ArrayList<String> tableAttributeNames = Catalog.instance.getAttributeNames(tableName);
+        String pkName = tableAttributeNames.get(Catalog.instance.getTablePKIndex(tableId));
+        try {
+            switch (this.alterType){
+                case 0:
+                    //Drop column
+                    if (pkName.equals(columnName)) {
+                        System.out.println("Primary key of table cannot be dropped.");
+                        System.out.println("ERROR\n");
+                        return;
+                    }
+                    if (!tableAttributeNames.contains(columnName)) {
+                        System.out.println("There is no attribute \"" + columnName + "\" in " + tableName);
+                        System.out.println("ERROR\n");
+                        return;
+                    }
+                    StorageManager.instance.dropColumn(tableId, columnName);
+                    printSuccess();
+                    break;
+                case 1:
+                case 2:
+                    //New col, with a default value for case 2
+                    if (tableAttributeNames.contains(columnName)) {
+                        System.out.println("Duplicate attribute name \"" + columnName + "\"");
+                        System.out.println("ERROR\n");
+                        return;
+                    }
+                    attrInfo = new ArrayList<>(Arrays.asList(columnName, columnType, columnSize,
+                            false, 0));
+                    StorageManager.instance.addColumn(tableId, attrInfo, defaultValue);
+                    printSuccess();
+                    break;
+                default:
+                    System.out.println("There was an error in parsing. Abort");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
 }
@@ -651,7 +672,7 @@ class DropQuery extends Query {
             System.out.println("Failed to drop table "+ tableName+".");
             return;
         }
-        System.out.println("SUCCESS\n");
+        printSuccess();
 
     }
 }
@@ -673,11 +694,13 @@ class DisplayQuery extends Query {
 
         if (table == null) {
             System.out.println(Catalog.instance.getDisplayString());
-            System.out.printf( "Buffer Size: %d\n%n", Main.bufferSizeLimit);
+            System.out.printf( "Buffer Size: %d%n", Main.bufferSizeLimit);
+            System.out.printf( "Evictions: %d dirty (written), %d clean (dropped)\n%n",
+                    StorageManager.instance.getDirtyEvictionCount(), StorageManager.instance.getCleanEvictionCount());
 
             if (StorageManager.instance.getNumberOfTables() == 0) {
                 System.out.println("No tables to display");
-                System.out.println("SUCCESS\n");
+                printSuccess();
                 return;
             } else {
                 ArrayList<TableSchema> allTableSchemas = Catalog.instance.getTableSchemas();
@@ -686,7 +709,7 @@ class DisplayQuery extends Query {
                     displayTableSchema(schema.getTableId());
                 }
             }
-            System.out.println("SUCCESS\n");
+            printSuccess();
             return;
 
         }
@@ -700,7 +723,7 @@ class DisplayQuery extends Query {
         }
 
         displayTableSchema(tableID);
-        System.out.println("SUCCESS\n");
+        printSuccess();
 
     }
 
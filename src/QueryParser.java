@@ -7,12 +7,18 @@ package src;
 
 import src.ConditionalTreeNodes.*;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 @SuppressWarnings("rawtypes")
 class QueryParser {
 
-    public ArrayList<String> keywordArray =  new ArrayList<>(Arrays.asList( "select", "update", "alter", "delete", "display", "drop", "from", "where", "orderby", "insert", "set", "create", "table", "integer", "double", "boolean", "char", "varchar", "add", "default" ));
+    public ArrayList<String> keywordArray =  new ArrayList<>(Arrays.asList( "select", "update", "alter", "delete", "display", "drop", "from", "where", "orderby", "limit", "offset", "insert", "import", "set", "create", "table", "integer", "double", "boolean", "char", "varchar", "add", "default" ));
 
     public QueryParser() {
     }
@@ -470,6 +476,7 @@ class QueryParser {
 
     /**
      * This function parses a Select command into a SelectQuery Object
+     * A select can end with LIMIT <n> [OFFSET <m>] to return at most n rows after skipping m
      * 
      * @param input The Select command being parsed
      * @return A SelectQuery object representing the command that was passed or null
@@ -482,6 +489,24 @@ class QueryParser {
             System.out.println( "Missing FROM keyword." );
             return null;
         }
+        int limit = -1;
+        int offset = 0;
+        Matcher limitMatcher = Pattern.compile( "(?i)\\s+limit\\s+(\\S+)(\\s+offset\\s+(\\S+))?\\s*$" ).matcher( input );
+        if ( limitMatcher.find() ) {
+            try {
+                limit = Integer.parseInt( limitMatcher.group( 1 ) );
+                if ( limitMatcher.group( 3 ) != null ) {
+                    offset = Integer.parseInt( limitMatcher.group( 3 ) );
+                }
+            } catch ( NumberFormatException e ) {
+                limit = -1;
+            }
+            if ( limit < 0 || offset < 0 ) {
+                System.out.println( "LIMIT and OFFSET must be non-negative integers." );
+                return null;
+            }
+            input = input.substring( 0, limitMatcher.start() );
+        }
         if(input.toLowerCase().contains( "where" )){
             whereFlag = true;
         }
@@ -717,7 +742,7 @@ class QueryParser {
             }
         }
 
-        return new SelectQuery( tableColumnDict, where, orderByInfo, starFlag );
+        return new SelectQuery( tableColumnDict, where, orderByInfo, starFlag, limit, offset );
     }
 
     // INSERT INTO <table> values <tuple>;
@@ -759,10 +784,79 @@ class QueryParser {
             return null;
         }
 
+        return parseTuples(tableName, separate[1].split(","));
+    }
+
+    // IMPORT INTO <table> FROM <file>;
+    // the file is the rest of the command, and may be quoted: "my data/rows.txt"
+    // the file holds one tuple per line, written the same as in an insert:
+    // (1 "foo bar" true 2.1)
+    // (3 "baz" true 4.14)
+
+    /**
+     * This function parses an import command, which inserts every tuple in a
+     * file, into an InsertQuery object
+     *
+     * @param input The command to be parsed
+     * @return An InsertQuery object for the tuples in the file, or null if there
+     *         is an error
+     */
+    public InsertQuery ParseImport(String input) {
+        // the path is everything after from, so it can hold spaces
+        String[] keywords = input.split(" ", 5);
+        if (keywords.length != 5 || !keywords[1].equalsIgnoreCase("into") || !keywords[3].equalsIgnoreCase("from")) {
+            System.out.println("Error in formatting: " + input + ". Expected import into <table> from <file>");
+            return null;
+        }
+
+        String tableName = keywords[2];
+        String fileName = keywords[4].strip();
+        if (fileName.length() >= 2 && fileName.startsWith("\"") && fileName.endsWith("\"")) {
+            fileName = fileName.substring(1, fileName.length() - 1);
+        }
+
+        if (Catalog.instance.getTableSchemaByName(tableName) == null) {
+            System.out.println("No such table " + tableName);
+            return null;
+        }
+
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(Paths.get(fileName));
+        } catch (IOException | InvalidPathException e) {
+            System.out.println("Could not read file " + fileName);
+            return null;
+        }
+        ArrayList<String> tuples = new ArrayList<>();
+        for (String line : lines) {
+            line = line.strip();
+            if (line.endsWith(",")) {
+                line = line.substring(0, line.length() - 1);
+            }
+            if (!line.isEmpty()) {
+                tuples.add(line);
+            }
+        }
+        if (tuples.isEmpty()) {
+            System.out.println("No tuples in file " + fileName);
+            return null;
+        }
+        return parseTuples(tableName, tuples.toArray(new String[0]));
+    }
+
+    /**
+     * Parses the tuples of an insert or import into an InsertQuery, stopping at the
+     * first tuple that does not match the table's attributes
+     *
+     * @param tableName table the tuples are inserted into
+     * @param tuples    each tuple's values, with or without the surrounding parentheses
+     * @return An InsertQuery for the tuples before the first mismatch, or null if
+     *         the first tuple does not match
+     */
+    private InsertQuery parseTuples(String tableName, String[] tuples) {
         ArrayList<Integer> tableAttrList = Catalog.instance.getTableAttributeTypesByName(tableName);
         ArrayList<ArrayList<Object>> formattedTuples = new ArrayList<>();
 
-        String[] tuples = separate[1].split(",");
         for (String s : tuples) {
             s = s.replaceAll("[();]", "");
             ArrayList<Object> values = new ArrayList<>();
@@ -1182,6 +1276,8 @@ class QueryParser {
                 return ParseSelect(input);
             case "insert":
                 return ParseInsert(input);
+            case "import":
+                return ParseImport(input);
             case "create":
                 return ParseCreate(input);
             case "display":
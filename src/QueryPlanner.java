@@ -0,0 +1,418 @@
+package src;
+
+import src.BPlusTree.BPlusTree;
+import src.ConditionalTreeNodes.AndNode;
+import src.ConditionalTreeNodes.AttributeNode;
+import src.ConditionalTreeNodes.ConditionTree;
+import src.ConditionalTreeNodes.ConstantNode;
+import src.ConditionalTreeNodes.OperationNode;
+import src.ConditionalTreeNodes.OrNode;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.TreeSet;
+
+/**
+ * Builds the plan of operators that reads the tables of a query and applies
+ * its where condition. Tables are joined left to right, in the order given.
+ *
+ * The where condition is split into its conjuncts, the parts joined by "and"
+ * at the top of the tree. A conjunct that only uses the columns of one table
+ * is checked as that table is scanned, so records that fail it never reach a
+ * join. A conjunct of the form t1.a = t2.b, comparing a
+ * column of the tables joined so far to a column of the same type in the next
+ * table, is run as a hash join of the two. Tables with no such conjunct are
+ * joined by a nested loop join, and the conjuncts left over are checked by a
+ * filter over the joined records.
+ *
+ * Each scan reads only the columns that something above it needs, so columns
+ * no one asked for are never copied into the joined records.
+ *
+ * With indexing on, a table whose conjuncts compare its primary key to a
+ * constant (=, <, <=, >, >=) is read by an index scan of the key range they
+ * allow rather than a scan of every page. The conjuncts are still checked by
+ * the scan's filter, so the range only has to hold every matching record.
+ */
+class QueryPlanner {
+
+    /**
+     * @param tableColumnDict table names, in order, with the columns asked for
+     *                        from each
+     * @return the columns of every table, in the order of the tables, which the
+     *         column indexes given to plan refer to
+     */
+    static ResultSet describeColumns(LinkedHashMap<String, ArrayList<String>> tableColumnDict) {
+        return StorageManager.instance.scanTables(tableColumnDict).getColumns();
+    }
+
+    /**
+     * @param tableColumnDict table names, in order, with the columns asked for
+     *                        from each
+     * @param where           where condition, null if there is none
+     * @return the plan, not yet opened. Its records have every column of every
+     *         table, in the order of the tables
+     */
+    static Operator plan(LinkedHashMap<String, ArrayList<String>> tableColumnDict, ConditionTree where) {
+        return plan(tableColumnDict, where, null);
+    }
+
+    /**
+     * Plans the query, carrying only the columns needed. A column is read from
+     * its table only if it is needed by the caller, by a conjunct checked as the
+     * table is scanned or by a conjunct checked after a join, and it is dropped
+     * as soon as nothing left in the plan needs it.
+     *
+     * @param tableColumnDict table names, in order, with the columns asked for
+     *                        from each
+     * @param where           where condition, null if there is none
+     * @param neededColumns   indexes, in describeColumns, of the columns the
+     *                        caller needs, null for every column. The columns
+     *                        the plan's records end up with are added to it
+     * @return the plan, not yet opened. Its records have the columns in
+     *         neededColumns once it returns, in the same order
+     */
+    static Operator plan(LinkedHashMap<String, ArrayList<String>> tableColumnDict, ConditionTree where,
+            TreeSet<Integer> neededColumns) {
+        // the columns of the joined records, which attribute names in the condition refer to
+        ResultSet allColumns = describeColumns(tableColumnDict);
+        ArrayList<ConditionTree> conjuncts = new ArrayList<>();
+        if (where != null) {
+            splitConjuncts(where, conjuncts);
+        }
+
+        // index in allColumns of the first column of each table, then of the end
+        ArrayList<Integer> tableStarts = new ArrayList<>();
+        tableStarts.add(0);
+        for (String tableName : tableColumnDict.keySet()) {
+            int tableEnd = tableStarts.get(tableStarts.size() - 1) + Catalog.instance.getAttributeNames(tableName).size();
+            tableStarts.add(tableEnd);
+        }
+        ArrayList<ArrayList<ConditionTree>> scanConjuncts = new ArrayList<>();
+        for (int i = 0; i < tableColumnDict.size(); i++) {
+            scanConjuncts.add(new ArrayList<>());
+        }
+        for (int i = conjuncts.size() - 1; i >= 0; i--) {
+            int table = findOnlyTable(conjuncts.get(i), allColumns, tableStarts);
+            if (table != -1) {
+                scanConjuncts.get(table).add(0, conjuncts.remove(i));
+            }
+        }
+
+        // the conjuncts checked over joined records, including the join keys, need their columns carried to them
+        TreeSet<Integer> keptColumns = neededColumns != null ? neededColumns : new TreeSet<>();
+        if (neededColumns == null) {
+            for (int i = 0; i < allColumns.getColumnNames().size(); i++) {
+                keptColumns.add(i);
+            }
+        }
+        for (ConditionTree conjunct : conjuncts) {
+            keptColumns.addAll(findColumns(conjunct, allColumns));
+        }
+
+        Operator plan = null;
+        ArrayList<Integer> joinedColumns = new ArrayList<>();
+        int tableIndex = 0;
+        for (String tableName : tableColumnDict.keySet()) {
+            int tableStart = tableStarts.get(tableIndex);
+            ArrayList<Integer> tableColumns = new ArrayList<>(
+                    keptColumns.subSet(tableStart, tableStarts.get(tableIndex + 1)));
+            ConditionTree scanCondition = combineConjuncts(scanConjuncts.get(tableIndex++));
+            Operator scan = scanTable(tableName, tableStart, tableColumns, scanCondition, allColumns);
+            if (plan == null) {
+                plan = scan;
+            } else {
+                Operator join = null;
+                for (ConditionTree conjunct : conjuncts) {
+                    int[] keys = findJoinKeys(conjunct, allColumns, tableStart,
+                            tableStart + Catalog.instance.getAttributeNames(tableName).size());
+                    if (keys != null) {
+                        join = new HashJoin(plan, scan, joinedColumns.indexOf(keys[0]), tableColumns.indexOf(keys[1]));
+                        conjuncts.remove(conjunct);
+                        break;
+                    }
+                }
+                plan = join != null ? join : new NestedLoopJoin(plan, scan);
+            }
+            joinedColumns.addAll(tableColumns);
+        }
+
+        ConditionTree remaining = combineConjuncts(conjuncts);
+        if (remaining != null) {
+            plan = new Filter(plan, remaining, allColumns.selectColumns(joinedColumns));
+        }
+        return plan;
+    }
+
+    /**
+     * Builds the scan of one table, checking the conjuncts that only use its
+     * columns before dropping the columns the rest of the plan does not need
+     *
+     * @param tableName     table to scan
+     * @param tableStart    index in allColumns of the table's first column
+     * @param tableColumns  indexes in allColumns of the columns to return
+     * @param scanCondition conjuncts that only use the table's columns, null if none
+     * @param allColumns    columns of every table in the query
+     * @return the scan, returning the columns in tableColumns
+     */
+    private static Operator scanTable(String tableName, int tableStart, ArrayList<Integer> tableColumns,
+            ConditionTree scanCondition, ResultSet allColumns) {
+        TreeSet<Integer> scanColumns = new TreeSet<>(tableColumns);
+        if (scanCondition != null) {
+            scanColumns.addAll(findColumns(scanCondition, allColumns));
+        }
+        int[] scanIndexes = new int[scanColumns.size()];
+        int i = 0;
+        for (int column : scanColumns) {
+            scanIndexes[i++] = column - tableStart;
+        }
+        int tableId = Catalog.instance.getTableIdByName(tableName);
+        KeyRange range = scanCondition != null && Catalog.instance.getIndexing() == 't'
+                && Catalog.instance.getBPlusTreeByTableID(tableId) != null
+                ? findKeyRange(scanCondition, tableId, tableStart, allColumns) : null;
+        Operator scan = range != null
+                ? new IndexScan(tableId, scanIndexes, range.low, range.lowInclusive, range.high, range.highInclusive)
+                : new TableScan(tableId, scanIndexes);
+        if (scanCondition != null) {
+            scan = new Filter(scan, scanCondition, allColumns.selectColumns(scanColumns));
+        }
+        if (scanColumns.size() != tableColumns.size()) {
+            // columns only the scan's conjuncts used
+            ArrayList<Integer> scanColumnList = new ArrayList<>(scanColumns);
+            int[] projection = new int[tableColumns.size()];
+            for (int j = 0; j < projection.length; j++) {
+                projection[j] = scanColumnList.indexOf(tableColumns.get(j));
+            }
+            scan = new Project(scan, projection);
+        }
+        return scan;
+    }
+
+    /**
+     * Range of primary keys a scan has to read, an end is null if it is open
+     */
+    static class KeyRange {
+        Object low;
+        boolean lowInclusive;
+        Object high;
+        boolean highInclusive;
+    }
+
+    /**
+     * Works out the range of primary keys that the conjuncts comparing the
+     * table's primary key to a constant allow
+     *
+     * @param scanCondition conjuncts that only use the table's columns
+     * @param tableId       the table
+     * @param tableStart    index in allColumns of the table's first column
+     * @param allColumns    columns of every table in the query
+     * @return the range, null if no conjunct limits the primary key
+     */
+    static KeyRange findKeyRange(ConditionTree scanCondition, int tableId, int tableStart, ResultSet allColumns) {
+        int pkColumn = tableStart + Catalog.instance.getTablePKIndex(tableId);
+        ArrayList<ConditionTree> conjuncts = new ArrayList<>();
+        splitConjuncts(scanCondition, conjuncts);
+        KeyRange range = null;
+        for (ConditionTree conjunct : conjuncts) {
+            if (!(conjunct instanceof OperationNode)) {
+                continue;
+            }
+            OperationNode comparison = (OperationNode) conjunct;
+            String operator = comparison.getToken();
+            ConditionTree constant;
+            if (comparison.getLeftChild() instanceof AttributeNode
+                    && resolveColumn(comparison.getLeftChild().getToken(), allColumns) == pkColumn) {
+                constant = comparison.getRightChild();
+            } else if (comparison.getRightChild() instanceof AttributeNode
+                    && resolveColumn(comparison.getRightChild().getToken(), allColumns) == pkColumn) {
+                constant = comparison.getLeftChild();
+                // flipped, so the key is on the left: 5 < id is id > 5
+                operator = switch (operator) {
+                    case "<" -> ">";
+                    case ">" -> "<";
+                    case "<=" -> ">=";
+                    case ">=" -> "<=";
+                    default -> operator;
+                };
+            } else {
+                continue;
+            }
+            if (!(constant instanceof ConstantNode) || operator.equals("!=")) {
+                continue;
+            }
+            Object value = ((ConstantNode) constant).getValue(null, allColumns);
+            if (!isKeyOfType(value, allColumns.getColumnTypes().get(pkColumn))) {
+                continue; // comparing different types is an error the filter reports
+            }
+            if (range == null) {
+                range = new KeyRange();
+            }
+            switch (operator) {
+                case "=" -> {
+                    raiseLow(range, value, true);
+                    lowerHigh(range, value, true);
+                }
+                case ">" -> raiseLow(range, value, false);
+                case ">=" -> raiseLow(range, value, true);
+                case "<" -> lowerHigh(range, value, false);
+                default -> lowerHigh(range, value, true); // <=
+            }
+        }
+        return range;
+    }
+
+    private static boolean isKeyOfType(Object value, int type) {
+        return switch (type) {
+            case 1 -> value instanceof Integer;
+            case 2 -> value instanceof Double;
+            case 3 -> value instanceof Boolean;
+            default -> value instanceof String;
+        };
+    }
+
+    private static void raiseLow(KeyRange range, Object low, boolean inclusive) {
+        int comparison = range.low == null ? 1 : BPlusTree.compare(low, range.low);
+        if (comparison > 0 || comparison == 0 && !inclusive) {
+            range.low = low;
+            range.lowInclusive = inclusive;
+        }
+    }
+
+    private static void lowerHigh(KeyRange range, Object high, boolean inclusive) {
+        int comparison = range.high == null ? -1 : BPlusTree.compare(high, range.high);
+        if (comparison < 0 || comparison == 0 && !inclusive) {
+            range.high = high;
+            range.highInclusive = inclusive;
+        }
+    }
+
+    /**
+     * @return indexes in allColumns of the columns the condition uses, leaving
+     *         out names that are not columns
+     */
+    private static TreeSet<Integer> findColumns(ConditionTree condition, ResultSet allColumns) {
+        ArrayList<String> attributeNames = new ArrayList<>();
+        collectAttributeNames(condition, attributeNames);
+        TreeSet<Integer> columns = new TreeSet<>();
+        for (String attributeName : attributeNames) {
+            int column = resolveColumn(attributeName, allColumns);
+            if (column != -1) {
+                columns.add(column);
+            }
+        }
+        return columns;
+    }
+
+    private static ConditionTree combineConjuncts(ArrayList<ConditionTree> conjuncts) {
+        ConditionTree combined = null;
+        for (ConditionTree conjunct : conjuncts) {
+            combined = combined == null ? conjunct : new AndNode(combined, "and", conjunct);
+        }
+        return combined;
+    }
+
+    /**
+     * @param condition   part of the where condition
+     * @param allColumns  columns of every table in the query
+     * @param tableStarts index of the first column of each table, then of the end
+     * @return index of the table whose columns are the only ones the condition
+     *         uses, -1 if it uses none, uses more than one table's or uses a name
+     *         that is not a column
+     */
+    private static int findOnlyTable(ConditionTree condition, ResultSet allColumns, ArrayList<Integer> tableStarts) {
+        ArrayList<String> attributeNames = new ArrayList<>();
+        collectAttributeNames(condition, attributeNames);
+        int onlyTable = -1;
+        for (String attributeName : attributeNames) {
+            int column = resolveColumn(attributeName, allColumns);
+            if (column == -1) {
+                return -1;
+            }
+            int table = 0;
+            while (tableStarts.get(table + 1) <= column) {
+                table++;
+            }
+            if (onlyTable != -1 && table != onlyTable) {
+                return -1;
+            }
+            onlyTable = table;
+        }
+        return onlyTable;
+    }
+
+    private static void collectAttributeNames(ConditionTree condition, ArrayList<String> attributeNames) {
+        if (condition instanceof AndNode) {
+            collectAttributeNames(((AndNode) condition).getLeftChild(), attributeNames);
+            collectAttributeNames(((AndNode) condition).getRightChild(), attributeNames);
+        } else if (condition instanceof OrNode) {
+            collectAttributeNames(((OrNode) condition).getLeftChild(), attributeNames);
+            collectAttributeNames(((OrNode) condition).getRightChild(), attributeNames);
+        } else if (condition instanceof OperationNode) {
+            collectAttributeNames(((OperationNode) condition).getLeftChild(), attributeNames);
+            collectAttributeNames(((OperationNode) condition).getRightChild(), attributeNames);
+        } else if (condition instanceof AttributeNode) {
+            attributeNames.add(condition.getToken());
+        }
+    }
+
+    private static void splitConjuncts(ConditionTree condition, ArrayList<ConditionTree> conjuncts) {
+        if (condition instanceof AndNode) {
+            splitConjuncts(((AndNode) condition).getLeftChild(), conjuncts);
+            splitConjuncts(((AndNode) condition).getRightChild(), conjuncts);
+        } else {
+            conjuncts.add(condition);
+        }
+    }
+
+    /**
+     * Finds the column an attribute name refers to, the same way AttributeNode
+     * does when a condition is checked
+     *
+     * @param token   attribute name, with or without its table name
+     * @param columns columns of the records the condition is checked against
+     * @return index of the column, -1 if no column has that name
+     */
+    static int resolveColumn(String token, ResultSet columns) {
+        for (int i = 0; i < columns.getColumnNames().size(); ++i) {
+            if (columns.getColumnNames().get(i).equals(token)
+                    || columns.getQualifiedColumnNames().get(i).equals(token)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks if a conjunct is an equality between a column of the tables joined
+     * so far and a column of the same type in the next table
+     *
+     * @param conjunct         part of the where condition
+     * @param allColumns       columns of every table in the query
+     * @param firstTableColumn index of the first column of the next table
+     * @param endTableColumn   index after the last column of the next table
+     * @return the index in allColumns of the joined tables' column, then of the
+     *         next table's, or null if the conjunct is not such an equality
+     */
+    private static int[] findJoinKeys(ConditionTree conjunct, ResultSet allColumns, int firstTableColumn,
+            int endTableColumn) {
+        if (!(conjunct instanceof OperationNode) || !conjunct.getToken().equals("=")) {
+            return null;
+        }
+        OperationNode equality = (OperationNode) conjunct;
+        if (!(equality.getLeftChild() instanceof AttributeNode) || !(equality.getRightChild() instanceof AttributeNode)) {
+            return null;
+        }
+        int leftColumn = resolveColumn(equality.getLeftChild().getToken(), allColumns);
+        int rightColumn = resolveColumn(equality.getRightChild().getToken(), allColumns);
+        if (leftColumn == -1 || rightColumn == -1
+                || !allColumns.getColumnTypes().get(leftColumn).equals(allColumns.getColumnTypes().get(rightColumn))) {
+            return null; // comparing different types is an error the filter reports
+        }
+        if (leftColumn < firstTableColumn && rightColumn >= firstTableColumn && rightColumn < endTableColumn) {
+            return new int[] { leftColumn, rightColumn };
+        }
+        if (rightColumn < firstTableColumn && leftColumn >= firstTableColumn && leftColumn < endTableColumn) {
+            return new int[] { rightColumn, leftColumn };
+        }
+        return null;
+    }
+}
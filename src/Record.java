@@ -1,6 +1,7 @@
 package src;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Comparator;
 
@@ -13,6 +14,11 @@ import src.*;
  */
 public class Record implements Cloneable {
 
+    // null flags as 't'/'f' chars, booleans as chars, strings as an int length and UTF-16 chars
+    public static final int LEGACY_RECORD_FORMAT = 1;
+    // null bitmap, one byte booleans, strings as a varint length and UTF-8
+    public static final int COMPACT_RECORD_FORMAT = 2;
+
     /**
      * important to note that attribute values for a record must be stored
      * in order they are given, no moving primary key to front, strings to end etc.
@@ -112,6 +118,17 @@ public class Record implements Cloneable {
     // public static Record parseRecordBytes(int tableNumber, ByteBuffer nullBytes,
     // ByteBuffer recordInBytes) {
     public static Record parseRecordBytes(int tableId, char[] nullBytes, ByteBuffer recordInBytes) {
+        return parseRecordBytes(tableId, Catalog.instance.getSolelyTableAttributeTypes(tableId), nullBytes,
+                recordInBytes);
+    }
+
+    /**
+     * Parses a record stored in the legacy record format, see parseRecordBytes
+     *
+     * @param typeIntegers  types of the attributes the record was stored with
+     */
+    private static Record parseRecordBytes(int tableId, ArrayList<Integer> typeIntegers, char[] nullBytes,
+            ByteBuffer recordInBytes) {
         // Iterate through Bytes, getting varying data types and appending to
         // returnRecord
         Record returnRecord = new Record();
@@ -120,7 +137,6 @@ public class Record implements Cloneable {
         // refrains appending int(s) telling the amount of chars in varchar or char
         // Loop in the order of data types expected - stored in Catalog ONLY for a given
         // page
-        ArrayList<Integer> typeIntegers = Catalog.instance.getSolelyTableAttributeTypes(tableId);
         int counter = 0;
         for (int typeInt : typeIntegers) {
             char isNull = nullBytes[counter];
@@ -163,6 +179,279 @@ public class Record implements Cloneable {
         return returnRecord;
     }
 
+    /**
+     * Parses a record stored in the given record format, starting at the
+     * buffer's position and leaving the position just past the record
+     *
+     * @param tableId       the table id corresponding to the record
+     * @param recordFormat  LEGACY_RECORD_FORMAT or COMPACT_RECORD_FORMAT
+     * @param storedSchema  older schema version the record was stored in, null
+     *                      for the table's current schema
+     * @param recordInBytes the Page's ByteBuffer with the pointer at the beginning
+     *                      of this record
+     * @return a complete Record object, in the table's current schema
+     */
+    static Record parseRecordBytes(int tableId, int recordFormat, SchemaVersion storedSchema,
+            ByteBuffer recordInBytes) {
+        ArrayList<Integer> typeIntegers = storedSchema == null
+                ? Catalog.instance.getSolelyTableAttributeTypes(tableId)
+                : storedSchema.getTypes();
+        Record returnRecord;
+        if (recordFormat == LEGACY_RECORD_FORMAT) {
+            char[] nullBytes = new char[typeIntegers.size()];
+            for (int i = 0; i < nullBytes.length; i++) {
+                nullBytes[i] = recordInBytes.getChar();
+            }
+            returnRecord = parseRecordBytes(tableId, typeIntegers, nullBytes, recordInBytes);
+        } else {
+            returnRecord = parseCompactRecordBytes(tableId, typeIntegers, recordInBytes);
+        }
+        if (storedSchema != null) {
+            returnRecord.recordContents = storedSchema.toCurrent(returnRecord.recordContents,
+                    Catalog.instance.getTableSchemaById(tableId).getAttributes());
+        }
+        return returnRecord;
+    }
+
+    private static Record parseCompactRecordBytes(int tableId, ArrayList<Integer> typeIntegers,
+            ByteBuffer recordInBytes) {
+        Record returnRecord = new Record();
+        returnRecord.tableNumber = tableId;
+        returnRecord.setPkIndex(Catalog.instance.getTablePKIndex(tableId));
+        int recordOffset = recordInBytes.position();
+        int offset = recordOffset + nullBitmapSize(typeIntegers.size());
+        for (int i = 0; i < typeIntegers.size(); i++) {
+            if (isNullInBitmap(recordInBytes, recordOffset, i)) {
+                returnRecord.recordContents.add(null);
+                continue;
+            }
+            int type = typeIntegers.get(i);
+            returnRecord.recordContents.add(parseAttributeBytes(COMPACT_RECORD_FORMAT, type, recordInBytes, offset));
+            offset += compactValueSize(type, recordInBytes, offset);
+        }
+        recordInBytes.position(offset);
+        return returnRecord;
+    }
+
+    /**
+     * Finds where a single attribute's value lies in a record stored on a page,
+     * stepping over the values before it without decoding them
+     *
+     * @param recordFormat record format of the record's table
+     * @param types        attribute types of the record's table
+     * @param page         the page's bytes
+     * @param recordOffset where the record starts on the page
+     * @param column       index of the attribute wanted
+     * @return offset of the attribute's value on the page, -1 if the value is null
+     */
+    static int attributeOffset(int recordFormat, ArrayList<Integer> types, ByteBuffer page, int recordOffset,
+            int column) {
+        if (isNull(recordFormat, page, recordOffset, column)) {
+            return -1;
+        }
+        return valueOffset(recordFormat, types, page, recordOffset, column);
+    }
+
+    /**
+     * @param recordFormat record format of the record's table
+     * @param types        attribute types of the record's table
+     * @param page         the page's bytes
+     * @param recordOffset where the record starts on the page
+     * @return how many bytes the stored record takes up, null flags included
+     */
+    static int storedSize(int recordFormat, ArrayList<Integer> types, ByteBuffer page, int recordOffset) {
+        return valueOffset(recordFormat, types, page, recordOffset, types.size()) - recordOffset;
+    }
+
+    private static boolean isNull(int recordFormat, ByteBuffer page, int recordOffset, int column) {
+        if (recordFormat == LEGACY_RECORD_FORMAT) {
+            return page.getChar(recordOffset + column * Character.BYTES) == 'f';
+        }
+        return isNullInBitmap(page, recordOffset, column);
+    }
+
+    /**
+     * Offset just past the values of the first `column` attributes, the values
+     * follow the null flags and null values take up no space
+     */
+    private static int valueOffset(int recordFormat, ArrayList<Integer> types, ByteBuffer page, int recordOffset,
+            int column) {
+        boolean legacy = recordFormat == LEGACY_RECORD_FORMAT;
+        int offset = recordOffset + (legacy ? types.size() * Character.BYTES : nullBitmapSize(types.size()));
+        for (int i = 0; i < column; i++) {
+            if (isNull(recordFormat, page, recordOffset, i)) {
+                continue;
+            }
+            if (!legacy) {
+                offset += compactValueSize(types.get(i), page, offset);
+                continue;
+            }
+            offset += switch (types.get(i)) {
+                case 1 -> Integer.BYTES;
+                case 2 -> Double.BYTES;
+                case 3 -> Character.BYTES;
+                default -> Integer.BYTES + page.getInt(offset) * Character.BYTES; // char(x), varchar(x)
+            };
+        }
+        return offset;
+    }
+
+    /**
+     * Decodes a single attribute value stored on a page
+     *
+     * @param recordFormat record format of the record's table
+     * @param type         attribute type, as in the Catalog
+     * @param page         the page's bytes
+     * @param valueOffset  offset of the value, see attributeOffset
+     * @return the value as the same Object type a parsed Record would hold
+     */
+    static Object parseAttributeBytes(int recordFormat, int type, ByteBuffer page, int valueOffset) {
+        if (recordFormat == COMPACT_RECORD_FORMAT) {
+            return switch (type) {
+                case 1 -> page.getInt(valueOffset);
+                case 2 -> page.getDouble(valueOffset);
+                case 3 -> page.get(valueOffset) != 0;
+                default -> { // char(x) and varchar(x)
+                    long lengthAndSize = getVarInt(page, valueOffset);
+                    int numBytes = (int) lengthAndSize;
+                    int start = valueOffset + (int) (lengthAndSize >>> 32);
+                    if (page.hasArray()) {
+                        yield new String(page.array(), page.arrayOffset() + start, numBytes, StandardCharsets.UTF_8);
+                    }
+                    byte[] utf8 = new byte[numBytes];
+                    page.get(start, utf8);
+                    yield new String(utf8, StandardCharsets.UTF_8);
+                }
+            };
+        }
+        return switch (type) {
+            case 1 -> page.getInt(valueOffset);
+            case 2 -> page.getDouble(valueOffset);
+            case 3 -> page.getChar(valueOffset) == 't';
+            default -> { // char(x) and varchar(x)
+                int numChars = page.getInt(valueOffset);
+                char[] chars = new char[numChars];
+                for (int ch = 0; ch < numChars; ch++) {
+                    chars[ch] = page.getChar(valueOffset + Integer.BYTES + ch * Character.BYTES);
+                }
+                yield new String(chars);
+            }
+        };
+    }
+
+    /*
+     * Compact record format: a null bitmap with one bit per attribute (set when
+     * the value is null), then the non-null values. Integers and doubles as in
+     * the legacy format, booleans as a single byte, char(x) and varchar(x) as a
+     * varint byte count followed by UTF-8.
+     */
+
+    private static int nullBitmapSize(int numAttributes) {
+        return (numAttributes + 7) / 8;
+    }
+
+    private static boolean isNullInBitmap(ByteBuffer page, int recordOffset, int column) {
+        return (page.get(recordOffset + column / 8) & (1 << (column % 8))) != 0;
+    }
+
+    private static int compactValueSize(int type, ByteBuffer page, int valueOffset) {
+        return switch (type) {
+            case 1 -> Integer.BYTES;
+            case 2 -> Double.BYTES;
+            case 3 -> 1;
+            default -> { // varint length, then the string's bytes
+                long lengthAndSize = getVarInt(page, valueOffset);
+                yield (int) (lengthAndSize >>> 32) + (int) lengthAndSize;
+            }
+        };
+    }
+
+    /**
+     * Reads an unsigned varint, 7 bits per byte, low bits first
+     *
+     * @return the value in the low 32 bits, how many bytes it took in the high 32 bits
+     */
+    private static long getVarInt(ByteBuffer page, int offset) {
+        int value = 0;
+        int shift = 0;
+        int numBytes = 0;
+        byte b;
+        do {
+            b = page.get(offset + numBytes);
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+            numBytes++;
+        } while ((b & 0x80) != 0);
+        return ((long) numBytes << 32) | (value & 0xFFFFFFFFL);
+    }
+
+    private static void putVarInt(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static int varIntSize(int value) {
+        int numBytes = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            numBytes++;
+        }
+        return numBytes;
+    }
+
+    /**
+     * @return how many bytes the string takes up as UTF-8, without encoding it
+     */
+    private static int utf8Length(String string) {
+        int length = string.length();
+        int numBytes = length;
+        for (int i = 0; i < length; i++) {
+            char ch = string.charAt(i);
+            if (ch >= 0x80) { // ASCII is one byte per char, anything else takes more
+                if (ch < 0x800) {
+                    numBytes += 1;
+                } else if (Character.isHighSurrogate(ch) && i + 1 < length
+                        && Character.isLowSurrogate(string.charAt(i + 1))) {
+                    numBytes += 2; // the pair takes 4 bytes
+                    i++;
+                } else {
+                    numBytes += 2;
+                }
+            }
+        }
+        return numBytes;
+    }
+
+    /**
+     * @param recordFormat record format of the table the record is stored in
+     * @return how many bytes the record takes up on a page in that format,
+     *         null flags included
+     */
+    int computeStoredSize(int recordFormat) {
+        if (recordFormat == LEGACY_RECORD_FORMAT) {
+            return compute_size(true);
+        }
+        int sizeOfRecordInBytes = nullBitmapSize(this.recordContents.size());
+        for (Object obj : this.recordContents) {
+            if (obj == null)
+                continue; // do nothing, null does not add to size
+            else if (obj instanceof Integer) {
+                sizeOfRecordInBytes += Integer.BYTES;
+            } else if (obj instanceof Double) {
+                sizeOfRecordInBytes += Double.BYTES;
+            } else if (obj instanceof Boolean) {
+                sizeOfRecordInBytes += 1;
+            } else if (obj instanceof String) {
+                int numBytes = utf8Length((String) obj);
+                sizeOfRecordInBytes += varIntSize(numBytes) + numBytes;
+            }
+        }
+        return sizeOfRecordInBytes;
+    }
+
     /**
      * Converts the object representation of a record into the byte representation
      * to be stored on disk
@@ -171,6 +460,10 @@ public class Record implements Cloneable {
      * @return a byte array containing all the record's data in byte form
      */
     public byte[] toBytes(int tableNum) {
+        TableSchema table = Catalog.instance.getTableSchemaById(tableNum);
+        if (table.getRecordFormat() == COMPACT_RECORD_FORMAT) {
+            return toCompactBytes(table);
+        }
         byte[] bytes = new byte[this.compute_size(true)];
         ByteBuffer bytesBuffer = ByteBuffer.wrap(bytes);
         byte[] attrBytes = new byte[this.compute_size(false)];
@@ -217,6 +510,37 @@ public class Record implements Cloneable {
         return bytes;
     }
 
+    /**
+     * Converts the record into the compact record format, see computeStoredSize
+     *
+     * @param table schema of the table the record is stored in
+     * @return a byte array containing all the record's data in byte form
+     */
+    private byte[] toCompactBytes(TableSchema table) {
+        byte[] bytes = new byte[computeStoredSize(COMPACT_RECORD_FORMAT)];
+        ByteBuffer bytesBuffer = ByteBuffer.wrap(bytes);
+        ArrayList<AttributeSchema> attributes = table.getAttributes();
+        bytesBuffer.position(nullBitmapSize(attributes.size()));
+        for (int i = 0; i < attributes.size(); i++) {
+            Object value = this.recordContents.get(i);
+            if (value == null) {
+                bytes[i / 8] |= (byte) (1 << (i % 8));
+                continue;
+            }
+            switch (attributes.get(i).getType()) {
+                case 1 -> bytesBuffer.putInt((Integer) value);
+                case 2 -> bytesBuffer.putDouble((Double) value);
+                case 3 -> bytesBuffer.put((byte) ((boolean) value ? 1 : 0));
+                case 4, 5 -> {
+                    byte[] utf8 = ((String) value).getBytes(StandardCharsets.UTF_8);
+                    putVarInt(bytesBuffer, utf8.length);
+                    bytesBuffer.put(utf8);
+                }
+            }
+        }
+        return bytes;
+    }
+
     public boolean equals(Object obj) {
         if (obj instanceof Record) {
             return false;
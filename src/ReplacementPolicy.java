@@ -0,0 +1,340 @@
+package src;
+/*
+ * This file holds the page replacement policies the Buffer Manager can use
+ * to pick which page to evict when the buffer is full.
+ */
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+
+/**
+ * A page replacement policy for the buffer.
+ * The Buffer Manager tells the policy about every page that enters the buffer,
+ * every buffer hit, and every page that leaves the buffer for other reasons,
+ * and asks it for a victim when the buffer is full.
+ * Every operation is O(1).
+ */
+interface ReplacementPolicy {
+
+    /**
+     * Called when a page is placed in the buffer, either read from disk or newly created
+     *
+     * @param page page now in the buffer
+     */
+    void admit(Page page);
+
+    /**
+     * Called on a buffer hit
+     *
+     * @param page page that was requested and is already in the buffer
+     */
+    void access(Page page);
+
+    /**
+     * Picks the page to evict and stops tracking it.
+     * The caller is responsible for writing the page out and removing it from the buffer.
+     *
+     * @return page to evict, null if the policy is tracking no pages
+     */
+    Page evict();
+
+    /**
+     * Called when a page leaves the buffer without being chosen as a victim
+     * (empty page removed, table dropped)
+     *
+     * @param page page being removed from the buffer
+     */
+    void remove(Page page);
+
+    /**
+     * Called when a table is dropped, after each of its pages was passed to remove,
+     * so the policy forgets any history it keeps for pages no longer in the buffer.
+     * The table number may be reused by a later table whose pages are unrelated.
+     *
+     * @param tableNumber number of the dropped table or of its tree file
+     */
+    default void removeTable(int tableNumber) {
+    }
+
+    /**
+     * @return name of the policy as given on the command line
+     */
+    String getName();
+
+    /**
+     * Creates the policy named on the command line
+     *
+     * @param name       lru, clock or 2q
+     * @param bufferSize page capacity of the buffer
+     * @return the policy, or null if the name is not recognized
+     */
+    static ReplacementPolicy forName(String name, int bufferSize) {
+        return switch (name.toLowerCase(Locale.ROOT)) {
+            case "lru" -> new LRUPolicy();
+            case "clock" -> new ClockPolicy(bufferSize);
+            case "2q" -> new TwoQueuePolicy(bufferSize);
+            default -> null;
+        };
+    }
+}
+
+/**
+ * Intrusive doubly linked list of pages, the links are stored on the Page itself
+ * so moving a page within or between lists never allocates.
+ * Head is the most recently inserted page, tail the oldest.
+ */
+class PageList {
+    private Page head = null;
+    private Page tail = null;
+    private int size = 0;
+    // identifies this list in Page.policyQueue, so a page knows which list it is on
+    private final int listId;
+
+    PageList(int listId) {
+        this.listId = listId;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean contains(Page page) {
+        return page.policyQueue == listId;
+    }
+
+    void addFirst(Page page) {
+        page.policyPrev = null;
+        page.policyNext = head;
+        if (head != null) {
+            head.policyPrev = page;
+        } else {
+            tail = page;
+        }
+        head = page;
+        page.policyQueue = listId;
+        size++;
+    }
+
+    void remove(Page page) {
+        if (page.policyPrev != null) {
+            page.policyPrev.policyNext = page.policyNext;
+        } else {
+            head = page.policyNext;
+        }
+        if (page.policyNext != null) {
+            page.policyNext.policyPrev = page.policyPrev;
+        } else {
+            tail = page.policyPrev;
+        }
+        page.policyPrev = null;
+        page.policyNext = null;
+        page.policyQueue = 0;
+        size--;
+    }
+
+    void moveToFirst(Page page) {
+        if (head != page) {
+            remove(page);
+            addFirst(page);
+        }
+    }
+
+    Page removeLast() {
+        Page last = tail;
+        if (last != null) {
+            remove(last);
+        }
+        return last;
+    }
+}
+
+/**
+ * Least recently used, the page untouched for the longest time is evicted
+ */
+class LRUPolicy implements ReplacementPolicy {
+    private final PageList pages = new PageList(1);
+
+    public void admit(Page page) {
+        pages.addFirst(page);
+    }
+
+    public void access(Page page) {
+        pages.moveToFirst(page);
+    }
+
+    public Page evict() {
+        return pages.removeLast();
+    }
+
+    public void remove(Page page) {
+        if (pages.contains(page)) {
+            pages.remove(page);
+        }
+    }
+
+    public String getName() {
+        return "lru";
+    }
+}
+
+/**
+ * CLOCK (second chance), pages sit in a ring of frames with a reference bit.
+ * The hand sweeps the ring clearing reference bits, and evicts the first
+ * page whose bit is already clear.
+ * The ring has a frame per page of the buffer, and doubles when a page is
+ * admitted with every frame taken: with a log, modified pages are held in
+ * the buffer until the next checkpoint, and one change can take the buffer
+ * past its size (see StorageManager.BufferManager.MakeRoom). The held pages
+ * are all admitted again at the checkpoint.
+ */
+class ClockPolicy implements ReplacementPolicy {
+    private Page[] frames;
+    // stack of frame indexes that hold no page
+    private int[] freeFrames;
+    private int freeCount;
+    private int hand = 0;
+    private int size = 0;
+
+    ClockPolicy(int bufferSize) {
+        this.frames = new Page[Math.max(bufferSize, 1)];
+        this.freeFrames = new int[frames.length];
+        for (int i = 0; i < frames.length; i++) {
+            freeFrames[i] = frames.length - 1 - i;
+        }
+        this.freeCount = frames.length;
+    }
+
+    public void admit(Page page) {
+        if (freeCount == 0) {
+            grow();
+        }
+        int frame = freeFrames[--freeCount];
+        frames[frame] = page;
+        page.frameIndex = frame;
+        page.referenced = true;
+        size++;
+    }
+
+    public void access(Page page) {
+        page.referenced = true;
+    }
+
+    public Page evict() {
+        if (size == 0) {
+            return null;
+        }
+        while (true) {
+            Page candidate = frames[hand];
+            if (candidate != null) {
+                if (!candidate.referenced) {
+                    remove(candidate);
+                    hand = (hand + 1) % frames.length;
+                    return candidate;
+                }
+                candidate.referenced = false;
+            }
+            hand = (hand + 1) % frames.length;
+        }
+    }
+
+    public void remove(Page page) {
+        int frame = page.frameIndex;
+        if (frame < 0 || frames[frame] != page) {
+            return;
+        }
+        frames[frame] = null;
+        freeFrames[freeCount++] = frame;
+        page.frameIndex = -1;
+        size--;
+    }
+
+    /**
+     * Doubles the ring, the new frames are free
+     */
+    private void grow() {
+        int oldLength = frames.length;
+        frames = Arrays.copyOf(frames, oldLength * 2);
+        freeFrames = new int[frames.length];
+        for (int i = 0; i < oldLength; i++) {
+            freeFrames[i] = frames.length - 1 - i;
+        }
+        freeCount = oldLength;
+    }
+
+    public String getName() {
+        return "clock";
+    }
+}
+
+/**
+ * 2Q replacement (Johnson and Shasha).
+ * Pages enter a FIFO queue, A1in, the first time they are read. Only a page that
+ * is requested again after falling out of A1in (its number is remembered in the
+ * A1out ghost queue) is promoted to the main LRU queue, Am.
+ * A full table scan touches each page once, so it cycles through A1in without
+ * flushing the hot pages held in Am.
+ */
+class TwoQueuePolicy implements ReplacementPolicy {
+    private final PageList a1in = new PageList(1);
+    private final PageList am = new PageList(2);
+    // keys (see PageTable.key) of pages recently evicted from a1in, oldest first
+    private final LinkedHashSet<Long> a1out = new LinkedHashSet<>();
+    private final int kIn;
+    private final int kOut;
+
+    TwoQueuePolicy(int bufferSize) {
+        // sizes suggested by the 2Q paper, 25% of the buffer for A1in, ghosts for 50%
+        this.kIn = Math.max(1, bufferSize / 4);
+        this.kOut = Math.max(1, bufferSize / 2);
+    }
+
+    public void admit(Page page) {
+        if (a1out.remove(PageTable.key(page.getTableNumber(), page.getPageNumberOnDisk()))) {
+            am.addFirst(page); // seen recently, this page is part of the working set
+        } else {
+            a1in.addFirst(page);
+        }
+    }
+
+    public void access(Page page) {
+        // hits while a page is still in A1in are treated as correlated references
+        if (am.contains(page)) {
+            am.moveToFirst(page);
+        }
+    }
+
+    public Page evict() {
+        if (a1in.size() > kIn || am.size() == 0) {
+            Page victim = a1in.removeLast();
+            if (victim != null) {
+                a1out.add(PageTable.key(victim.getTableNumber(), victim.getPageNumberOnDisk()));
+                if (a1out.size() > kOut) {
+                    Iterator<Long> oldest = a1out.iterator();
+                    oldest.next();
+                    oldest.remove();
+                }
+                return victim;
+            }
+        }
+        return am.removeLast();
+    }
+
+    public void remove(Page page) {
+        if (a1in.contains(page)) {
+            a1in.remove(page);
+        } else if (am.contains(page)) {
+            am.remove(page);
+        }
+    }
+
+    public void removeTable(int tableNumber) {
+        // a ghost left behind would send a page of a new table reusing the number straight into Am
+        a1out.removeIf(key -> (int) (key >>> 32) == tableNumber);
+    }
+
+    public String getName() {
+        return "2q";
+    }
+}
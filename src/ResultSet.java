@@ -1,6 +1,7 @@
 package src;
 
 import java.util.ArrayList;
+import java.util.Collection;
 
 public class ResultSet {
 
@@ -51,6 +52,28 @@ public class ResultSet {
 
     }
 
+    /**
+     * Gets some of the columns, with no records. The columns keep the qualified names they have here, so an
+     * attribute name in a where condition finds the same column in the selection as it does here.
+     * @param columnIndexes - index of each column to keep, in the order kept.
+     * @return a resultSet with just those columns.
+     */
+    public ResultSet selectColumns(Collection<Integer> columnIndexes) {
+        ArrayList<String> selectedNames = new ArrayList<>();
+        ArrayList<Integer> selectedTypes = new ArrayList<>();
+        ArrayList<String> selectedTables = new ArrayList<>();
+        ArrayList<String> selectedQualifiedNames = new ArrayList<>();
+        for (int idx : columnIndexes) {
+            selectedNames.add(columnNames.get(idx));
+            selectedTypes.add(columnTypes.get(idx));
+            selectedTables.add(tableNamesForColumns.get(idx));
+            selectedQualifiedNames.add(qualifiedColumnNames.get(idx));
+        }
+        ResultSet selection = new ResultSet(new ArrayList<>(), selectedNames, selectedTypes, selectedTables);
+        selection.qualifiedColumnNames = selectedQualifiedNames;
+        return selection;
+    }
+
     public ArrayList<String> getColumnNames() {
         return columnNames;
     }
@@ -0,0 +1,117 @@
+package src;
+
+import java.util.ArrayList;
+
+/**
+ * The attributes a table's records were stored with under an older version of
+ * the table's schema. Alter table only changes the catalog: pages written
+ * before an alter keep their records as they were, and each such page is
+ * marked in its TableSchema with the version it was written in. Records read
+ * from those pages are turned into the current schema as they are decoded,
+ * dropped attributes are left out and attributes added since take their
+ * default value. A page is written in the current schema the next time it is
+ * rewritten as a whole.
+ */
+class SchemaVersion {
+
+    private final int version;
+    // types of the attributes as stored, in stored order
+    private final ArrayList<Integer> types;
+    // index of each stored attribute in the current schema, -1 once it has been dropped
+    private final int[] columns;
+
+    /**
+     * SchemaVersion Constructor, for a version whose attributes are all still
+     * in the schema, in the same order
+     *
+     * @param version version number of the schema
+     * @param types   attribute types of the schema
+     */
+    SchemaVersion(int version, ArrayList<Integer> types) {
+        this.version = version;
+        this.types = types;
+        this.columns = new int[types.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = i;
+        }
+    }
+
+    /**
+     * SchemaVersion Constructor, used when reading the catalog
+     *
+     * @param version version number of the schema
+     * @param types   attribute types of the schema
+     * @param columns index of each attribute in the current schema, -1 if dropped
+     */
+    SchemaVersion(int version, ArrayList<Integer> types, int[] columns) {
+        this.version = version;
+        this.types = types;
+        this.columns = columns;
+    }
+
+    int getVersion() {
+        return version;
+    }
+
+    ArrayList<Integer> getTypes() {
+        return types;
+    }
+
+    /**
+     * @param storedIndex index of the attribute as stored
+     * @return index of the attribute in the current schema, -1 if it was dropped
+     */
+    int getColumn(int storedIndex) {
+        return columns[storedIndex];
+    }
+
+    /**
+     * @param column index of an attribute in the current schema
+     * @return index of the attribute as stored, -1 if it was added after this version
+     */
+    int storedIndexOf(int column) {
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i] == column) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Called when an attribute is dropped from the current schema, the
+     * attributes after it move down one
+     *
+     * @param column index of the dropped attribute in the current schema
+     */
+    void dropColumn(int column) {
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i] == column) {
+                columns[i] = -1;
+            } else if (columns[i] > column) {
+                columns[i]--;
+            }
+        }
+    }
+
+    /**
+     * Turns the values of a record stored in this version into the values of
+     * the record in the current schema
+     *
+     * @param storedValues values as stored, one per attribute of this version
+     * @param attributes   attributes of the current schema
+     * @return the record's values in the current schema
+     */
+    ArrayList<Object> toCurrent(ArrayList<Object> storedValues, ArrayList<AttributeSchema> attributes) {
+        ArrayList<Object> values = new ArrayList<>(attributes.size());
+        for (AttributeSchema attribute : attributes) {
+            values.add(attribute.getDefaultValue());
+        }
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i] != -1) {
+                values.set(columns[i], storedValues.get(i));
+            }
+        }
+        return values;
+    }
+}
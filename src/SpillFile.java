@@ -0,0 +1,148 @@
+package src;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+
+/**
+ * Records an operator could not keep in memory, written to a temporary file in
+ * the database's temp folder. Every record in a file has the same column
+ * types, which are given up front, so only the values are written.
+ * A file is written to the end, then read back from the start, again from the
+ * start each time it is rewound.
+ */
+class SpillFile {
+
+    private final Path path;
+    private final ArrayList<Integer> columnTypes;
+    private DataOutputStream output;
+    private DataInputStream input;
+    private int numRecords;
+    private int numRead;
+
+    /**
+     * SpillFile Constructor, creates the file
+     *
+     * @param columnTypes type of each column of the records written
+     * @throws IOException if the file cannot be created
+     */
+    SpillFile(ArrayList<Integer> columnTypes) throws IOException {
+        this.columnTypes = columnTypes;
+        File folder = new File(Main.db_loc, "temp");
+        if (!folder.exists() || !folder.isDirectory()) {
+            folder.mkdir();
+        }
+        this.path = Files.createTempFile(Paths.get(folder.getPath()), "spill", ".tmp");
+        this.output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)));
+    }
+
+    /**
+     * Deletes the files left in the database's temp folder by a query that was
+     * cut short, for example by the process being killed while it spilled.
+     * Called once at startup, before any query can spill
+     *
+     * @param dbLoc the database's folder
+     */
+    static void clearTempFolder(String dbLoc) {
+        File[] files = new File(dbLoc, "temp").listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (!file.delete()) {
+                System.out.println("Could not delete temporary file " + file.getPath());
+            }
+        }
+    }
+
+    int getNumRecords() {
+        return numRecords;
+    }
+
+    void write(Record record) throws IOException {
+        ArrayList<Object> values = record.getRecordContents();
+        for (int i = 0; i < columnTypes.size(); i++) {
+            Object value = values.get(i);
+            output.writeBoolean(value == null);
+            if (value == null) {
+                continue;
+            }
+            switch (columnTypes.get(i)) {
+                case 1 -> output.writeInt((Integer) value);
+                case 2 -> output.writeDouble((Double) value);
+                case 3 -> output.writeBoolean((Boolean) value);
+                default -> output.writeUTF((String) value);
+            }
+        }
+        numRecords++;
+    }
+
+    /**
+     * Reads the next record, the first call ends writing
+     *
+     * @return the next record in the order written, null when all have been read
+     */
+    Record read() throws IOException {
+        if (input == null) {
+            output.close();
+            output = null;
+            input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)));
+        }
+        if (numRead == numRecords) {
+            return null;
+        }
+        numRead++;
+        ArrayList<Object> values = new ArrayList<>(columnTypes.size());
+        for (int type : columnTypes) {
+            if (input.readBoolean()) {
+                values.add(null);
+                continue;
+            }
+            switch (type) {
+                case 1 -> values.add(input.readInt());
+                case 2 -> values.add(input.readDouble());
+                case 3 -> values.add(input.readBoolean());
+                default -> values.add(input.readUTF());
+            }
+        }
+        Record record = new Record();
+        record.setRecordContents(values);
+        return record;
+    }
+
+    /**
+     * Goes back to the first record, so the next read returns it again
+     */
+    void rewind() throws IOException {
+        if (input == null) {
+            return; // not read yet
+        }
+        input.close();
+        input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)));
+        numRead = 0;
+    }
+
+    /**
+     * Closes and deletes the file
+     */
+    void delete() {
+        try {
+            if (output != null) {
+                output.close();
+            }
+            if (input != null) {
+                input.close();
+            }
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -10,8 +10,12 @@ import src.BPlusTree.BPlusTree;
 import src.ConditionalTreeNodes.ConditionTree;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.function.Predicate;
 
 /**
  * Storage Manager class responsible for all communication and
@@ -22,15 +26,47 @@ public class StorageManager {
     private String rootPath;
     private String tablesRootPath;
     private BufferManager buffer;
+    // open table and B+ tree files, shared by every page read and write
+    private FileChannelPool fileChannels;
+    // table files mapped into memory, only used when Main.ioMode is mmap
+    private MappedTableFiles mappedTables;
+    private String indexesRootPath;
+    // unique column indexes of the tables used so far, by table id
+    private HashMap<Integer, ArrayList<UniqueIndex>> uniqueIndexes = new HashMap<>();
+    // log of the changes made since the last checkpoint, null when the database runs without
+    // one (the B+ tree tester), in which case modified pages are written when they are evicted
+    private WriteAheadLog log = null;
+    // true while the log's changes are redone at startup, they are already in it
+    private boolean redoing = false;
+    // true once the catalog changed in a way the log does not record, the command ends with a checkpoint
+    private boolean catalogChanged = false;
+    // pages in each file the catalog on disk refers to, by file number (see indexFileNumber),
+    // a checkpoint logs an image of any page it writes over below that
+    private HashMap<Integer, Integer> checkpointedPages = new HashMap<>();
+    // checkpoints every Main.checkpointMillis while the database has a log, see startCheckpointer
+    private Thread checkpointThread = null;
+    private boolean stoppingCheckpoints = false;
+    private final Object checkpointSignal = new Object();
+    // true while the checkpointer writes a checkpoint without holding the lock
+    private boolean checkpointWriting = false;
 
     public static StorageManager instance = null;
 
     public StorageManager(String rootPath) {
         this.rootPath = rootPath;
         this.tablesRootPath = Paths.get(rootPath, "tables").toString();
+        this.indexesRootPath = Paths.get(rootPath, "indexes").toString();
+        this.fileChannels = new FileChannelPool(FileChannelPool.DEFAULT_MAX_OPEN_FILES);
+        if (Main.ioMode.equals("mmap")) {
+            this.mappedTables = new MappedTableFiles(Main.pageSize);
+        }
         this.buffer = new BufferManager();
     }
 
+    public FileChannelPool getFileChannels() {
+        return fileChannels;
+    }
+
     /**
      * Called by the SQL parser to create a new table file on disk.
      * The SQL parser should have already verified that the table doesn't already
@@ -75,7 +111,7 @@ public class StorageManager {
                 System.err.println(e.getMessage());
             }
         }
-
+        catalogChanged = true;
     }
 
     /**
@@ -91,8 +127,22 @@ public class StorageManager {
         } catch (IOException e) {
             return false;
         }
-        File file = new File(Paths.get(tablesRootPath, String.valueOf(ID)).toString());
+        String tableFilePath = Paths.get(tablesRootPath, String.valueOf(ID)).toString();
+        fileChannels.close(tableFilePath); // the file can't be deleted while its channel is open
+        if (mappedTables != null) {
+            mappedTables.close(tableFilePath);
+        }
+        discardUniqueIndexes(ID);
+        boolean hasBPlusTree = Catalog.instance.getBPlusTreeByTableID(ID) != null;
         Catalog.instance.dropTableSchema(ID);
+        // the catalog on disk has to stop referring to the table before its files go
+        checkpoint();
+        if (hasBPlusTree) {
+            String bPlusTreePath = BPlusTree.getFilePath(ID);
+            fileChannels.close(bPlusTreePath);
+            new File(bPlusTreePath).delete();
+        }
+        File file = new File(tableFilePath);
         return file.delete();
     }
 
@@ -112,10 +162,9 @@ public class StorageManager {
             try {
                 Page page = buffer.GetPage(tableID, locationOnDisk); // the buffer will read from disk if it doesn't
                 // have the page
-                ArrayList<Record> records = page.getRecordsInPage();
 
                 if (colNames.size() == 1 && colNames.get(0).equals("*")) {
-                    results.addAll(records);
+                    results.addAll(page.getRecordsInPage());
                     continue;
                 }
 
@@ -142,13 +191,13 @@ public class StorageManager {
 
                 int pkIndex = Catalog.instance.getTablePKIndex(tableID);
 
-                for (Record record : records) {
-
-                    ArrayList<Object> originalRecordData = record.getRecordContents();
+                // only the requested columns are decoded, straight from the page
+                int numRecordsInPage = page.getRecordCount();
+                for (int slot = 0; slot < numRecordsInPage; slot++) {
 
                     ArrayList<Object> filteredRecordData = new ArrayList<>();
                     for (int idx : colIdxs) {
-                        filteredRecordData.add(originalRecordData.get(idx));
+                        filteredRecordData.add(page.getAttribute(slot, idx));
                     }
 
                     Record newRecord = new Record();
@@ -157,8 +206,6 @@ public class StorageManager {
                     results.add(newRecord);
                 }
 
-                return results;
-
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
@@ -169,28 +216,15 @@ public class StorageManager {
     }
 
     /**
-     * Compares value in the given index in the record contents of two given
-     * records.
+     * Compares two attribute values of the same type, null sorting after any value.
      * 
-     * @param a     : Given record
-     * @param b     : Given record
-     * @param index : given index
-     * @return -1 if record contents of record A at index is greater than record
-     *         contents of record B at index.
-     *         1 if record contents of record B at index is greater than record
-     *         contents of record A at index.
-     *         0 record contents of record A at index is equal to record contents of
-     *         record B at index.
+     * @param objA : Given value
+     * @param objB : Given value
+     * @return -1 if objA is less than objB.
+     *         1 if objA is greater than objB.
+     *         0 if the values are equal, or both null.
      */
-    private int compareOnIndex(Object a, Object b, int index) {
-        if (a.equals(b)) {
-            return 0;
-        }
-
-        Object objA = ((Record) a).getRecordContents().get(index);
-
-        Object objB = ((Record) b).getRecordContents().get(index);
-
+    private int compareValues(Object objA, Object objB) {
         if (objA == null && objB != null) {
             return 1;
         }
@@ -212,149 +246,98 @@ public class StorageManager {
     }
 
     /**
-     * Method: This method is called with each record we intend to insert, given at
-     * the command line.
-     * First, we obtain the searchKey from this recordToInsert.
-     * Second, call a method of bPlusTree, which will return a
-     * pageNumber-recordIndex pair
-     * indicating directly where recordToInsert should be inserted in data
-     * Third, insert record into data, will also return boolean to left or right
-     * this space being pointed to
-     * Fourth, iterate through our records, whose search keys need updated pointer
-     * in our bPlusTree,
-     * by calling bPlusTree's update pointer method.
-     * CURRENTLY, VERY REDUNDANT IN UPDATING POINTERS
+     * Inserts a record into a table with indexing turned on. The table's B+
+     * tree says whether the primary key is taken and where the record goes: in
+     * front of the record with the next greater key, or after the last record.
+     * Other unique columns are checked against the table's unique column
+     * indexes, as in insertRecord.
+     * Every record the insert moves (the ones after it on its page, and the
+     * ones a page split moves to the new page) has its location updated in the
+     * tree.
      *
      * @param bPlusTree      the B+Tree we are dealing with. Contains tableID for
      *                       which record belongs
      * @param recordToInsert the Record to insert
      *
-     * @return int[]: int[0] ...
+     * @return int[1] on success, int[3] on failure, as returned by insertRecord
      */
     public int[] indexedInsertRecord(BPlusTree bPlusTree, Record recordToInsert) {
         int tableID = bPlusTree.getTableId();
         TableSchema table = Catalog.instance.getTableSchemaById(tableID);
-        // OBTAIN SEARCH KEY
-        ArrayList<AttributeSchema> tableAttributes = table.getAttributes();
-        int indexOfPrimaryKeyColumn = Catalog.instance.getTablePKIndex(tableID);
-        int typeOfSearchKey = tableAttributes.get(indexOfPrimaryKeyColumn).getType();
-        Object searchKeyValue = recordToInsert.getRecordContents().get(indexOfPrimaryKeyColumn);
-        // CALL B+TREE METHOD TO RETURN pageNumber & recordIndex & boolean of coming
-        // before or after that opening
-        // some throw if search key already existed in b+tree cant have duplicate
-        // primary key
-        ArrayList<Object> pageAndRecordIndices = bPlusTree.searchForOpening(typeOfSearchKey, searchKeyValue);
-
-        int pageNumber = 0;
-        int recordIndex = 0;
-        if (pageAndRecordIndices == null) {
-            bPlusTree.addKey(typeOfSearchKey, searchKeyValue, pageNumber, recordIndex);
-        } else {
-            pageNumber = (int) pageAndRecordIndices.get(0);
-            recordIndex = (int) pageAndRecordIndices.get(1);
-            // boolean returned is true if greaterThan, or false if less
-            boolean greaterThan = (boolean) pageAndRecordIndices.get(2);
-            if (greaterThan) {
-                recordIndex = recordIndex + 1; // todo ensure this is working how intended in testing
-            }
-            // insert search key into b+tree
-            // (ok that happens before insert into record data, because updates to all
-            // pointers on page will happen regardless )
-            bPlusTree.addKey(typeOfSearchKey, searchKeyValue, pageNumber, recordIndex);
+        int pkIndex = Catalog.instance.getTablePKIndex(tableID);
+        Object insertKey = recordToInsert.getRecordContents().get(pkIndex);
+        if (bPlusTree.find(insertKey) != null) {
+            return new int[] { 0, pkIndex, 0 };
         }
-
-        // INSERT RECORD INTO DATA
-        ArrayList<Integer> pageOrder = table.getPageOrder();
-        // If no pages exists for this table - case of very first insert into
-        // table/b+tree
-        if (0 == pageOrder.size()) {
-            try {
-                Page emptyPageInbuffer = buffer.CreateNewPage(tableID, 0);
-                // insert the record, no comparator needed here, because this is the
-                // first record of the table
-                emptyPageInbuffer.getRecordsInPage().add(recordToInsert);
-                // update the pointer, haven't thought through if this needs to occur
-                Record curRecord = emptyPageInbuffer.getRecordsInPage().get(0);
-                Object searchKeyVal = curRecord.getRecordContents().get(indexOfPrimaryKeyColumn);
-                bPlusTree.updatePointer(typeOfSearchKey, searchKeyVal, pageNumber, 0);
-                return new int[] { 0 };
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+        try {
+            for (UniqueIndex index : getUniqueIndexes(table)) {
+                if (index.contains(recordToInsert.getRecordContents().get(index.getColumn()))) {
+                    return new int[] { 0, index.getColumn(), 0 };
+                }
             }
-        } else {
-            try {
-                // get the page for which we intend for record to belong
-                Page pageReference = buffer.GetPage(tableID, pageNumber);
-                int numRecordsInPage = pageReference.getRecordCount();
-                // if the page has zero records
-                if (numRecordsInPage == 0) {
-                    pageReference.getRecordsInPage().add(0, recordToInsert);
-                    pageReference.setIsModified(true);
-                    if (pageReference.computeSizeInBytes() > Main.pageSize) {
-                        int pageNumOfNewlyCreatedPage = buffer.PageSplit(pageReference, tableID);
-                        // PAGE SPLIT: UPDATE POINTERS FOR THE BOTH TABLES, new table here, original
-                        // table outside if
-                        Page newPageRef = buffer.GetPage(tableID, pageNumOfNewlyCreatedPage);
-                        int numRecordsNewPage = newPageRef.getRecordCount();
-                        for (int i = 0; i < numRecordsNewPage; i++) {
-                            Record curRec = newPageRef.getRecordsInPage().get(i);
-                            Object searchKeyVal = curRec.getRecordContents().get(indexOfPrimaryKeyColumn);
-                            bPlusTree.updatePointer(typeOfSearchKey, searchKeyVal, pageNumOfNewlyCreatedPage, i);
-                        }
-                    }
-                    // UPDATE POINTERS AFTER INSERT and return
-                    int numRecordsInPageAfterInsert = pageReference.getRecordCount();
-                    for (int idx = 0; idx < numRecordsInPageAfterInsert; idx++) {
-                        Record curRecord = pageReference.getRecordsInPage().get(idx);
-                        Object searchKeyVal = curRecord.getRecordContents().get(indexOfPrimaryKeyColumn);
-                        bPlusTree.updatePointer(typeOfSearchKey, searchKeyVal, pageNumber, idx);
-                    }
-                    return new int[] { 0 };
-                } else { // insert the record at its intended location
-                    pageReference.getRecordsInPage().add(recordIndex, recordToInsert);
-                    pageReference.setIsModified(true);
-                    if (pageReference.computeSizeInBytes() > Main.pageSize) {
-                        int pageNumOfNewlyCreatedPage = buffer.PageSplit(pageReference, tableID);
-                        // PAGE SPLIT: UPDATE POINTERS FOR THE BOTH TABLES, new table here, original
-                        // table outside if
-                        Page newPageRef = buffer.GetPage(tableID, pageNumOfNewlyCreatedPage);
-                        int numRecordsNewPage = newPageRef.getRecordCount();
-                        for (int i = 0; i < numRecordsNewPage; i++) {
-                            Record curRec = newPageRef.getRecordsInPage().get(i);
-                            Object searchKeyVal = curRec.getRecordContents().get(indexOfPrimaryKeyColumn);
-                            bPlusTree.updatePointer(typeOfSearchKey, searchKeyVal, pageNumOfNewlyCreatedPage, i);
-                        }
-                    }
-                    // UPDATE POINTERS AFTER INSERT and return
-                    int numRecordsInPageAfterInsert = pageReference.getRecordCount();
-                    for (int idx = 0; idx < numRecordsInPageAfterInsert; idx++) {
-                        Record curRecord = pageReference.getRecordsInPage().get(idx);
-                        Object searchKeyVal = curRecord.getRecordContents().get(indexOfPrimaryKeyColumn);
-                        bPlusTree.updatePointer(typeOfSearchKey, searchKeyVal, pageNumber, idx);
-                    }
-                    return new int[] { 0 };
+            int[] opening = bPlusTree.searchForOpening(insertKey);
+            Page page;
+            int slot;
+            if (opening == null) { // very first record of the table
+                page = buffer.CreateNewPage(tableID, 0);
+                slot = 0;
+            } else {
+                page = buffer.GetPage(tableID, opening[0]);
+                slot = opening[1];
+            }
+            page.insertRecord(slot, recordToInsert);
+            addToUniqueIndexes(table, recordToInsert);
+            ArrayList<Integer> newPageNumbers = new ArrayList<>();
+            if (page.computeSizeInBytes() > Main.pageSize) {
+                newPageNumbers = buffer.PageSplit(page, tableID); // sets the fences of every page
+            } else {
+                updatePageFences(table, page);
+            }
+            // the keys are read before the tree is changed, its nodes share the buffer with the pages
+            ArrayList<Object> movedKeys = new ArrayList<>();
+            ArrayList<int[]> newLocations = new ArrayList<>();
+            for (int index = slot; index < page.getRecordCount(); index++) {
+                movedKeys.add(page.getAttribute(index, pkIndex));
+                newLocations.add(new int[] { page.getPageNumberOnDisk(), index });
+            }
+            for (int newPageNumber : newPageNumbers) {
+                Page newPage = buffer.GetPage(tableID, newPageNumber);
+                for (int index = 0; index < newPage.getRecordCount(); index++) {
+                    movedKeys.add(newPage.getAttribute(index, pkIndex));
+                    newLocations.add(new int[] { newPageNumber, index });
+                }
+            }
+            for (int i = 0; i < movedKeys.size(); i++) {
+                Object key = movedKeys.get(i);
+                int[] location = newLocations.get(i);
+                if (key.equals(insertKey)) {
+                    bPlusTree.addKey(key, location[0], location[1]);
+                } else {
+                    bPlusTree.updatePointer(key, location[0], location[1]);
                 }
-
-            } catch (IOException e) {
-                throw new RuntimeException(e);
             }
+            logChange(WriteAheadLog.INSERT, tableID, List.of(recordToInsert));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
+        return new int[] { 1 };
     }
 
     /**
      * Inserts the given record into the given table. Returns a length one int array
      * to show if it succeeded, int array[1],
-     * or a length two int array with the row the insert failed on and the column
-     * that holds the value it failed on.
+     * or a length three int array with the column that holds the value it failed on.
+     * The page the record belongs on is found through the table's page fences and
+     * searched with a binary search, so only that page is read for the primary key.
+     * Other unique columns are checked against the table's unique column indexes.
      * 
      * @param tableID        the table for which we want to insert a record into its
      *                       pages
      * @param recordToInsert the record to insert
      *
-     * @return int[1] or int[2]. len 1 on succeed, len 2 with row insert failed on
-     *         and column^
-     *         of int[3] on failure as well with a placeholder value at last index,
-     *         2
+     * @return int[1] on success, int[3] on failure: index 0 unused (callers report
+     *         their own row), index 1 the column whose value already exists, index 2
+     *         a placeholder passed up for use in update
      */
     public int[] insertRecord(int tableID, Record recordToInsert) {
         TableSchema table = Catalog.instance.getTableSchemaById(tableID);
@@ -366,522 +349,1159 @@ public class StorageManager {
                 // insert the record, no comparator needed here, because this is the
                 // first record of the table
                 emptyPageInbuffer.getRecordsInPage().add(recordToInsert);
+                emptyPageInbuffer.setIsModified(true);
+                updatePageFences(table, emptyPageInbuffer);
+                addToUniqueIndexes(table, recordToInsert);
+                logChange(WriteAheadLog.INSERT, tableID, List.of(recordToInsert));
                 return new int[] { 1 };
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
-        } else {
-            int totalRecords = 1;
-            int numPagesInTable = pageOrder.size();
-            int indexToInsertAt = -1;
-            Page pageToInsertAt = null;
-            for (int index = 0; index < numPagesInTable; index++) {
-                try {
-                    Page pageReference = buffer.GetPage(tableID, pageOrder.get(index));
-                    int numRecordsInPage = pageReference.getRecordCount();
-                    if (numRecordsInPage == 0) {
-                        pageReference.getRecordsInPage().add(0, recordToInsert);
-                        pageReference.setIsModified(true);
-                        if (pageReference.computeSizeInBytes() > Main.pageSize) {
-                            buffer.PageSplit(pageReference, tableID);
-                        }
-                        break;
-                    }
-                    RecordSort sorter = new RecordSort();
-                    for (int idx = 0; idx < numRecordsInPage; idx++) {
-                        Record curRecord = pageReference.getRecordsInPage().get(idx);
-                        int comparison = sorter.compare(recordToInsert, curRecord);
-                        if (comparison == 0) {
-                            // if primary keys are equal, this insert should not occur
-                            return new int[] { totalRecords, curRecord.getPkIndex(), 0 }; // third value is placeholder,
-                        } // passed up for use in update
-                        for (int i = 0; i < table.getAttributes().size(); i++) {
-                            AttributeSchema attribute = table.getAttributes().get(i);
-                            if ((attribute.getConstraints() == 1 || attribute.getConstraints() == 3)
-                                    && i != Catalog.instance.getTablePKIndex(tableID)) {
-                                if (compareOnIndex(recordToInsert, curRecord, i) == 0) {
-                                    return new int[] { totalRecords, i, 0 };
-                                }
-                            }
-                        }
-                        if (comparison < 0 && indexToInsertAt == -1) {
-                            indexToInsertAt = idx;
-                            pageToInsertAt = pageReference;
-                        }
-                        if (index == numPagesInTable - 1 && idx == numRecordsInPage - 1 && indexToInsertAt == -1) {
-                            indexToInsertAt = idx + 1;
-                            pageToInsertAt = pageReference;
-                        }
-                        totalRecords++;
-                    }
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
+        }
+        int pkIndex = Catalog.instance.getTablePKIndex(tableID);
+        Object insertKey = recordToInsert.getRecordContents().get(pkIndex);
+        try {
+            ensurePageFences(table);
+            int pageIndex = findPageIndex(table, insertKey);
+            Page pageToInsertAt = buffer.GetPage(tableID, pageOrder.get(pageIndex));
+            int slot = searchPage(pageToInsertAt, pkIndex, insertKey);
+            if (slot >= 0) {
+                // if primary keys are equal, this insert should not occur
+                return new int[] { 0, pkIndex, 0 };
             }
-            try {
-                pageToInsertAt.getRecordsInPage().add(indexToInsertAt, recordToInsert);
-                pageToInsertAt.setIsModified(true);
-                if (pageToInsertAt.computeSizeInBytes() > Main.pageSize) {
-                    buffer.PageSplit(pageToInsertAt, tableID);
+            ArrayList<UniqueIndex> indexes = getUniqueIndexes(table);
+            for (UniqueIndex index : indexes) {
+                if (index.contains(recordToInsert.getRecordContents().get(index.getColumn()))) {
+                    return new int[] { 0, index.getColumn(), 0 };
                 }
-            } catch (Exception e) {
-                throw new RuntimeException(e);
             }
-
-            return new int[] { 1 };
+            // building the indexes may have scanned the table and evicted the target page
+            // (it was clean then, so nothing was lost), fetch it again so the insert lands
+            // on the buffered copy
+            pageToInsertAt = buffer.GetPage(tableID, pageOrder.get(pageIndex));
+            pageToInsertAt.insertRecord(-(slot + 1), recordToInsert);
+            addToUniqueIndexes(table, recordToInsert);
+            if (pageToInsertAt.computeSizeInBytes() > Main.pageSize) {
+                buffer.PageSplit(pageToInsertAt, tableID); // sets the fences of every page
+            } else {
+                updatePageFences(table, pageToInsertAt);
+            }
+            logChange(WriteAheadLog.INSERT, tableID, List.of(recordToInsert));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
+        return new int[] { 1 };
     }
 
     /**
-     * Method: This method deletes the record with a given search key value in the
-     * B+Tree.
-     * REQUIRES updates to record pointers in B+Tree.
-     *
-     * @param bPlusTree      the B+Tree we are dealing with. Contains tableID
-     * @param recordToDelete the Record with search key from B+Tree
+     * Inserts a batch of records, for inserts of more than one row and imports.
+     * The batch is checked for duplicates in the order given, then sorted on the
+     * primary key and merged with the table in one pass over its pages: each page
+     * the batch touches is read once, and a page that overflows is repacked to
+     * Main.bulkFillFactor, with the pages after the first added to the buffer as
+     * new pages, which the next checkpoint writes to the table file in order.
+     * The records are merged and logged a chunk at a time (see mergeIntoTable).
+     * In an indexed database the table's B+ tree is kept up to date as each
+     * chunk is merged.
      *
-     * @return int[]: int[0] contains: 1 if record failed to be deleted from b+tree
-     *         for some reason
+     * @param tableID table to insert into
+     * @param records records to insert, in the order they were given
+     * @return int[1] on success, int[3] on failure: index 0 the position (from 1)
+     *         of the first record whose key is already in the table or earlier in
+     *         the batch, index 1 the column holding that key, index 2 unused. The
+     *         records before it are inserted, the rest are not
      */
-    public int[] indexedDeleteRecord(BPlusTree bPlusTree, Record recordToDelete) {
-        int tableID = bPlusTree.getTableId();
+    public int[] bulkInsertRecords(int tableID, ArrayList<Record> records) {
         TableSchema table = Catalog.instance.getTableSchemaById(tableID);
-        // OBTAIN SEARCH KEY
-        ArrayList<AttributeSchema> tableAttributes = table.getAttributes();
-        int indexOfPrimaryKeyColumn = Catalog.instance.getTablePKIndex(tableID);
-        int typeOfSearchKey = tableAttributes.get(indexOfPrimaryKeyColumn).getType();
-        Object searchKeyValue = recordToDelete.getRecordContents().get(indexOfPrimaryKeyColumn);
-        // CALL B+TREE METHODS TO DELETE KEY AND RETURN pageNumber & recordIndex
-        BPlusNode nodeToDelete = bPlusTree.findNode(typeOfSearchKey, searchKeyValue);
-        boolean deleted = bPlusTree.deleteNode(typeOfSearchKey, searchKeyValue);
-        if (!deleted) {
-            // if we fail to delete from tree, return and don't delete from data
-            return new int[1];
-        }
-        int pageNumber = nodeToDelete.getPageIndex();
-        int recordIndex = nodeToDelete.getRecordIndex();
-        // DELETE THE RECORD
+        int pkIndex = Catalog.instance.getTablePKIndex(tableID);
+        int[] returnVal = new int[] { 1 };
         try {
-            Page pageReference = buffer.GetPage(tableID, pageNumber);
-            pageReference.getRecordsInPage().remove(recordIndex); // delete the record
-            pageReference.setIsModified(true);
-            if (pageReference.getRecordCount() == 0) { // if page is empty as a result of delete
-                // label this page as EMPTY (reusable) even though this is not reflected on the
-                // disk
-                table.removePageFromPageOrdering(pageNumber);
-                // remove the page from the buffer, our data will remain populated and outdated
-                // at that
-                // location on disk until a new page re-uses that page location and is wrote to
-                // disk
-                buffer.removeEmptyPageFromBuffer(tableID, pageNumber);
-                return new int[0];
+            ensurePageFences(table);
+            int numToInsert = records.size();
+            boolean[] keyInTable = findKeysInTable(table, records);
+            HashSet<Object> batchKeys = new HashSet<>();
+            ArrayList<UniqueIndex> indexes = getUniqueIndexes(table);
+            ArrayList<HashSet<Object>> batchValues = new ArrayList<>();
+            for (int i = 0; i < indexes.size(); i++) {
+                batchValues.add(new HashSet<>());
             }
-            // UPDATE POINTERS AFTER DELETE
-            int numRecordsInPageAfterDelete = pageReference.getRecordCount();
-            for (int idx = 0; idx < numRecordsInPageAfterDelete; idx++) {
-                Record curRecord = pageReference.getRecordsInPage().get(idx);
-                Object searchKeyVal = curRecord.getRecordContents().get(indexOfPrimaryKeyColumn);
-                bPlusTree.updatePointer(typeOfSearchKey, searchKeyVal, pageNumber, idx);
+            for (int row = 0; row < records.size() && numToInsert == records.size(); row++) {
+                ArrayList<Object> values = records.get(row).getRecordContents();
+                if (keyInTable[row] || !batchKeys.add(values.get(pkIndex))) {
+                    numToInsert = row;
+                    returnVal = new int[] { row + 1, pkIndex, 0 };
+                    break;
+                }
+                for (int i = 0; i < indexes.size(); i++) {
+                    Object value = values.get(indexes.get(i).getColumn());
+                    if (indexes.get(i).contains(value) || !batchValues.get(i).add(value)) {
+                        numToInsert = row;
+                        returnVal = new int[] { row + 1, indexes.get(i).getColumn(), 0 };
+                        break;
+                    }
+                }
             }
+            ArrayList<Record> sortedRecords = new ArrayList<>(records.subList(0, numToInsert));
+            sortedRecords.sort((a, b) -> compareValues(a.getRecordContents().get(pkIndex),
+                    b.getRecordContents().get(pkIndex)));
+            mergeIntoTable(table, sortedRecords);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-
-        return new int[0];
+        return returnVal;
     }
 
     /**
-     * Called by deleteFrom() and updateRecord() methods
-     * Deletes a single provided record from the table it belongs too. This method
-     * is used in both the 'delete from' statement and the 'update' statement
-     * should re-use portions of code from insertRecord
+     * Looks up every record's primary key in the table, in key order so each page
+     * is read at most once
      *
-     * @param tableID        table for which we want to delete the record
-     * @param recordToDelete record to be deleted/removed from table
-     * @return .
+     * @return for each record, whether its primary key is already in the table
      */
-    public int[] deleteRecord(int tableID, Record recordToDelete) {
-        TableSchema table = Catalog.instance.getTableSchemaById(tableID);
+    private boolean[] findKeysInTable(TableSchema table, ArrayList<Record> records) throws IOException {
+        boolean[] keyInTable = new boolean[records.size()];
         ArrayList<Integer> pageOrder = table.getPageOrder();
-        int numPagesInTable = pageOrder.size();
-        boolean recordWasDeleted = false;
-        for (int index = 0; index < numPagesInTable; index++) { // for each page in table
-            if (recordWasDeleted) {
-                break;
-            }
-            try {
-                int pageNumber = pageOrder.get(index);
-                Page pageReference = buffer.GetPage(tableID, pageNumber);
-                int numRecordsInPage = pageReference.getRecordCount();
-                if (numRecordsInPage == 0) {
-                    // throw error, try to delete table with no records?
-                }
-                RecordSort sorter = new RecordSort();
-                for (int idx = 0; idx < numRecordsInPage; idx++) {
-                    Record curRecord = pageReference.getRecordsInPage().get(idx);
-                    int comparison = sorter.compare(recordToDelete, curRecord);
-                    // if records are equal (if curRecord's pk equals recordToDelete's pk)
-                    if (comparison == 0) {
-                        pageReference.getRecordsInPage().remove(idx); // delete the record
-                        pageReference.setIsModified(true);
-                        // "move all other records up to cover empty space" should be handled auto
-                        if (pageReference.getRecordCount() == 0) { // if page is empty as a result of delete
-                            // label this page as EMPTY (reusable) even though this is not reflected on the
-                            // disk
-                            table.removePageFromPageOrdering(pageNumber);
-                            // remove the page from the buffer, our data will remain populated and outdated
-                            // at that
-                            // location on disk until a new page re-uses that page location and is wrote to
-                            // disk
-                            buffer.removeEmptyPageFromBuffer(tableID, pageNumber);
-                        }
-                        recordWasDeleted = true;
-                        break;
-                    }
-                    // if curRecord's pk > recordToDelete's pk
-                    if (comparison < 0) {
-                        // record to delete does not exist, stop our search
-                        return new int[] { 1 };
-                    }
-                }
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+        if (pageOrder.isEmpty()) {
+            return keyInTable;
+        }
+        int pkIndex = Catalog.instance.getTablePKIndex(table.getTableId());
+        Integer[] byKey = new Integer[records.size()];
+        for (int i = 0; i < byKey.length; i++) {
+            byKey[i] = i;
+        }
+        Arrays.sort(byKey, (a, b) -> compareValues(records.get(a).getRecordContents().get(pkIndex),
+                records.get(b).getRecordContents().get(pkIndex)));
+        int pageIndex = -1;
+        Page page = null;
+        for (int i : byKey) {
+            Object key = records.get(i).getRecordContents().get(pkIndex);
+            int keyPageIndex = findPageIndex(table, key);
+            if (keyPageIndex != pageIndex) {
+                pageIndex = keyPageIndex;
+                page = buffer.GetPage(table.getTableId(), pageOrder.get(pageIndex));
             }
+            keyInTable[i] = searchPage(page, pkIndex, key) >= 0;
         }
-        return new int[] { 1 };
+        return keyInTable;
     }
 
     /**
-     * Generates a resultSet from the given tables. If tableColumnDict includes more
-     * than one table
-     * the cartesian product of the tables is created and put into the resultSet.
-     * 
-     * @param tableColumnDict - linked hashmap containing the table name as key and
-     *                        the names of its columns as
-     *                        its value.
-     * @return a resultSet including the records, array of column names, array of
-     *         column names that distinguishes
-     *         duplicate column names, array of types for the columns, and array of
-     *         the table each column belongs to.
+     * Merges records sorted on the primary key into the table, visiting the pages
+     * they belong on in page order. The records are merged in chunks that fill an
+     * eighth of the buffer at most, each added to the unique column indexes and
+     * logged once it is in the table, so a checkpoint can be made between chunks
+     * (see checkpointIfBufferFull). In an indexed database each chunk's records
+     * are also added to the table's B+ tree, see updateTreeAfterMerge.
+     *
+     * @param table         table to insert into
+     * @param sortedRecords records whose keys are not in the table, sorted on the
+     *                      primary key
      */
-    public ResultSet generateFromResultSet(LinkedHashMap<String, ArrayList<String>> tableColumnDict) {
-        // ask the storage manager for this data. It will in turn ask the buffer first,
-        // but that's abstracted away from this point in the code
-
-        // NOTE: checking for valid names of tables and attributes should be done in the
-        // parse method upstream.
-
-        // Load all the tables into memory (with unneeded column names already filtered
-        // out)
-        ArrayList<Table> tables = new ArrayList<>();
-
-        ArrayList<String> displayedColNames = new ArrayList<>();
-
-        int numberOfTables = tableColumnDict.size();
-
-        for (String tableName : tableColumnDict.keySet()) {
-
-            int tableNum = Catalog.instance.getTableIdByName(tableName); // guaranteed to exist
-            ArrayList<String> columnNames = Catalog.instance.getAttributeNames(tableName);
-            ArrayList<String> star = new ArrayList<>();
-            star.add("*");
-            ArrayList<Record> records = StorageManager.instance.selectData(tableNum, star);
-            tables.add(new Table(tableName, columnNames, records));
-        }
-
-        // Build the final record output by performing a cross-product on all the loaded
-        // tables
-        ArrayList<Record> finalRecordOutput = new ArrayList<>();
-
-        ArrayList<String> tableNamesForColumns = new ArrayList<>();
-
-        ArrayList<Integer> typesForColumns = new ArrayList<>();
-
-        int tableCount = tables.size();
-
-        if (numberOfTables == 1) {
-            finalRecordOutput = tables.get(0).getRecords();
-            // displayedColNames = tables.get(0).getColNames();
-        } else {
-
-            for (int tableIndex = 0; tableIndex < tableCount - 1; tableIndex++) {
-                // tableIndex = 0 means merge tables 0 and 1
-                // tableIndex = 1 means merge that result with table 2
-                // ....
-
-                if (tableIndex == 0) {
-                    int leftTableIndex = 0;
-                    int rightTableIndex = 1;
-
-                    for (Record leftRecord : tables.get(leftTableIndex).getRecords()) {
-                        for (Record rightRecord : tables.get(rightTableIndex).getRecords()) {
-                            finalRecordOutput.add(Record.mergeRecords(leftRecord, rightRecord));
-                        }
-                    }
+    private void mergeIntoTable(TableSchema table, ArrayList<Record> sortedRecords) throws IOException {
+        ArrayList<Integer> pageOrder = table.getPageOrder();
+        int pkIndex = Catalog.instance.getTablePKIndex(table.getTableId());
+        BPlusTree bPlusTree = Catalog.instance.getBPlusTreeByTableID(table.getTableId());
+        int start = 0;
+        while (start < sortedRecords.size()) {
+            int end;
+            // records of each page the chunk was merged into, and the page's location
+            ArrayList<ArrayList<Record>> mergedPages;
+            ArrayList<Integer> mergedLocations = new ArrayList<>();
+            if (pageOrder.isEmpty()) {
+                end = chunkEnd(table, sortedRecords, start, sortedRecords.size());
+                mergedPages = packRecords(table, new ArrayList<>(sortedRecords.subList(start, end)));
+                writeNewPages(table, 0, mergedPages);
+                mergedLocations.addAll(pageOrder.subList(0, mergedPages.size()));
+            } else {
+                int pageIndex = findPageIndex(table, sortedRecords.get(start).getRecordContents().get(pkIndex));
+                int pageLocation = pageOrder.get(pageIndex);
+                // the page takes every key up to its largest, the last page takes the rest
+                end = start + 1;
+                if (pageIndex == pageOrder.size() - 1) {
+                    end = sortedRecords.size();
                 } else {
-                    int rightTableIndex = tableIndex + 1;
-
-                    ArrayList<Record> tempFinalRecordsOutput = new ArrayList<>();
-
-                    for (Record leftRecord : finalRecordOutput) {
-                        for (Record rightRecord : tables.get(rightTableIndex).getRecords()) {
-                            tempFinalRecordsOutput.add(Record.mergeRecords(leftRecord, rightRecord));
-                        }
+                    Object maxKey = table.getPageMaxKey(pageLocation);
+                    while (end < sortedRecords.size()
+                            && compareValues(sortedRecords.get(end).getRecordContents().get(pkIndex), maxKey) <= 0) {
+                        end++;
                     }
-
-                    finalRecordOutput = tempFinalRecordsOutput;
                 }
+                end = chunkEnd(table, sortedRecords, start, end);
+                Page page = buffer.GetPage(table.getTableId(), pageLocation);
+                ArrayList<Record> pageRecords = page.getRecordsInPage();
+                ArrayList<Record> merged = new ArrayList<>(pageRecords.size() + end - start);
+                int pageIdx = 0;
+                int batchIdx = start;
+                while (pageIdx < pageRecords.size() || batchIdx < end) {
+                    if (batchIdx == end || (pageIdx < pageRecords.size()
+                            && compareValues(pageRecords.get(pageIdx).getRecordContents().get(pkIndex),
+                                    sortedRecords.get(batchIdx).getRecordContents().get(pkIndex)) < 0)) {
+                        merged.add(pageRecords.get(pageIdx++));
+                    } else {
+                        merged.add(sortedRecords.get(batchIdx++));
+                    }
+                }
+                page.setIsModified(true);
+                if (computePageSize(table, merged) <= Main.pageSize) {
+                    mergedPages = new ArrayList<>(List.of(merged));
+                    page.setRecordsInPage(merged);
+                } else {
+                    mergedPages = packRecords(table, merged);
+                    page.setRecordsInPage(mergedPages.get(0));
+                    writeNewPages(table, pageIndex + 1, new ArrayList<>(mergedPages.subList(1, mergedPages.size())));
+                }
+                mergedLocations.addAll(pageOrder.subList(pageIndex, pageIndex + mergedPages.size()));
+                updatePageFences(table, page);
             }
-
-            // build the columnNames arraylist for the cartesian product
-        }
-        for (Table table : tables) {
-            ArrayList<String> colNames = table.getColNames();
-            for (int i = 0; i < colNames.size(); i++) {
-                tableNamesForColumns.add(table.getName());
-                displayedColNames.add(colNames.get(i));
+            List<Record> chunk = sortedRecords.subList(start, end);
+            if (bPlusTree != null) {
+                updateTreeAfterMerge(bPlusTree, pkIndex, chunk, mergedPages, mergedLocations);
             }
-            int tableSchemaId = Catalog.instance.getTableIdByName(table.getName());
-            typesForColumns.addAll(Catalog.instance.getSolelyTableAttributeTypes(tableSchemaId));
-        }
-
-        ArrayList<Record> cloneRecordOutput = new ArrayList<>();
-        for (Record record : finalRecordOutput) {
-            Record r = new Record();
-            ArrayList<Object> onew = new ArrayList<>();
-            for (Object o : record.recordContents) {
-                onew.add(o);
+            for (Record record : chunk) {
+                addToUniqueIndexes(table, record);
             }
-            r.setRecordContents(onew);
-            cloneRecordOutput.add(r);
+            logChange(WriteAheadLog.INSERT, table.getTableId(), chunk);
+            checkpointIfBufferFull();
+            start = end;
         }
-
-        return new ResultSet(cloneRecordOutput, displayedColNames, typesForColumns, tableNamesForColumns);
     }
 
     /**
-     * should take in table we are working with as well as the tokens for where
-     * condition
-     * 
-     * @param resultSet      contains ALL Records for table in question,
-     * @param tableID        table intended to delete records from
-     * @param whereCondition ConditionTree, 'null' if no where clause exists
+     * Adds the records of a merged chunk to the table's B+ tree, and updates the
+     * location of every other record the merge moved: those after the first
+     * inserted record on the page merged into, and all of those repacked onto
+     * the new pages after it. The locations are taken from the merged records,
+     * not the pages, which the tree's nodes can evict from the buffer.
      *
-     * @return int[]. should contain 1 at index 0 if delete failed
+     * @param bPlusTree       the table's B+ tree
+     * @param pkIndex         index of the primary key column
+     * @param chunk           the records inserted
+     * @param mergedPages     records of each page the chunk was merged into
+     * @param mergedLocations location of each of those pages
      */
-    public int[] deleteFrom(ResultSet resultSet, int tableID, ConditionTree whereCondition, boolean fromIndexed,
-            BPlusTree bPlusTree) {
-        ArrayList<Record> allRecordsFromTable = resultSet.getRecords();
-        for (Record curRecord : allRecordsFromTable) {
-            boolean deleteRecord = true; // deleting all Records by default
-            if (whereCondition != null) {
-                // call method(s) to evaluate a single tuple for meeting where condition
-                deleteRecord = whereCondition.validateTree(curRecord, resultSet);
-            }
-            if (deleteRecord) { // call deleteRecord on record if condition was met
-                if (fromIndexed) {
-                    int[] wasSuccess = indexedDeleteRecord(bPlusTree, curRecord);
-                    if (wasSuccess[0] == 1) {
-                        // RETURN we failed to delete a record, stop our iteration
-                        return wasSuccess;
-                    }
-                } else {
-                    deleteRecord(tableID, curRecord);
+    private void updateTreeAfterMerge(BPlusTree bPlusTree, int pkIndex, List<Record> chunk,
+            ArrayList<ArrayList<Record>> mergedPages, ArrayList<Integer> mergedLocations) {
+        HashSet<Object> chunkKeys = new HashSet<>();
+        for (Record record : chunk) {
+            chunkKeys.add(record.getRecordContents().get(pkIndex));
+        }
+        boolean moved = false; // records up to the first inserted one kept their slots
+        for (int i = 0; i < mergedPages.size(); i++) {
+            moved |= i > 0;
+            ArrayList<Record> pageRecords = mergedPages.get(i);
+            for (int slot = 0; slot < pageRecords.size(); slot++) {
+                Object key = pageRecords.get(slot).getRecordContents().get(pkIndex);
+                if (chunkKeys.contains(key)) {
+                    bPlusTree.addKey(key, mergedLocations.get(i), slot);
+                    moved = true;
+                } else if (moved) {
+                    bPlusTree.updatePointer(key, mergedLocations.get(i), slot);
                 }
             }
         }
-        return new int[0];
     }
 
     /**
-     * This Method updates a record, by first deleting the existing record, and then
-     * inserting the updated version of that record. The insertRecord method
-     * handled recomputation of page size when the updated record is added,
-     * indicating
-     * if a page split is needed- additionally the insertRecord method also handled
-     * sorting the updated record to its proper place among the records in the case
-     * where the primarykey has been changed
-     *
-     * @param tableID        the table record in question belongs to
-     * @param recordToUpdate the record to update
-     * @param columnName     column
-     * @param data           contains value we want to update column with
-     * @param bPlusTree      Null if indexing turned off, tree if indexing on
-     * @return receive return from insert and pass that up
+     * @return the end of the chunk of sorted records merged from start, at most
+     *         end, whose records fill no more than an eighth of the buffer's pages
      */
-    public int[] updateRecord(int tableID, Record recordToUpdate, String columnName, List<Object> data,
-            BPlusTree bPlusTree) {
-        Record copyOfRecordToUpdate = null; // make a copy of the record
-        try {
-            copyOfRecordToUpdate = (Record) recordToUpdate.clone();
-
-        } catch (CloneNotSupportedException e) {
-            throw new RuntimeException(e);
-        }
-        ArrayList<Object> copyOfRecordContents = new ArrayList<>(copyOfRecordToUpdate.getRecordContents());
-        if (bPlusTree == null) {
-            deleteRecord(tableID, recordToUpdate);
-        } else {
-            indexedDeleteRecord(bPlusTree, recordToUpdate);
+    private int chunkEnd(TableSchema table, ArrayList<Record> sortedRecords, int start, int end) {
+        long chunkBytes = (long) Main.pageSize * Math.max(1, Main.bufferSizeLimit / 8);
+        long bytes = 0;
+        for (int i = start; i < end; i++) {
+            bytes += Page.SLOT_SIZE + sortedRecords.get(i).computeStoredSize(table.getRecordFormat());
+            if (bytes > chunkBytes && i > start) {
+                return i;
+            }
         }
+        return end;
+    }
 
-        // find index of column to update
-        int indexOfColumnToUpdate = 0;
-        TableSchema table = Catalog.instance.getTableSchemaById(tableID);
-        ArrayList<AttributeSchema> tableColumns = table.getAttributes();
-        for (AttributeSchema attribute : tableColumns) {
-            if (Objects.equals(attribute.getName(), columnName)) {
-                break;
+    /**
+     * Splits records into runs that each fill a page to Main.bulkFillFactor, a
+     * record too big for that goes on a page of its own
+     */
+    private ArrayList<ArrayList<Record>> packRecords(TableSchema table, ArrayList<Record> records) {
+        int fillLimit = (int) (Main.pageSize * Main.bulkFillFactor);
+        ArrayList<ArrayList<Record>> pages = new ArrayList<>();
+        ArrayList<Record> pageRecords = new ArrayList<>();
+        int pageSizeInBytes = Page.HEADER_SIZE;
+        for (Record record : records) {
+            int recordSize = Page.SLOT_SIZE + record.computeStoredSize(table.getRecordFormat());
+            if (pageSizeInBytes + recordSize > fillLimit && !pageRecords.isEmpty()) {
+                pages.add(pageRecords);
+                pageRecords = new ArrayList<>();
+                pageSizeInBytes = Page.HEADER_SIZE;
             }
-            indexOfColumnToUpdate++;
+            pageRecords.add(record);
+            pageSizeInBytes += recordSize;
         }
+        pages.add(pageRecords);
+        return pages;
+    }
 
-        Object valueToSet = data.get(1); // value to update in column
-        // make change updating our copy of original record
-        copyOfRecordContents.set(indexOfColumnToUpdate, valueToSet);
-        copyOfRecordToUpdate.setRecordContents(copyOfRecordContents); // set content change
-        int[] insertReturn;
-        if (bPlusTree == null) {
-            insertReturn = insertRecord(tableID, copyOfRecordToUpdate); // update
-        } else {
-            insertReturn = indexedInsertRecord(bPlusTree, copyOfRecordToUpdate); // update
-        }
-        if (insertReturn.length > 1) { // our record failed to insert
-            if (bPlusTree == null) {
-                insertRecord(tableID, recordToUpdate); // add original, unchanged record back in
-            } else {
-                indexedInsertRecord(bPlusTree, recordToUpdate); // update
-            }
+    private int computePageSize(TableSchema table, ArrayList<Record> records) {
+        int pageSizeInBytes = Page.HEADER_SIZE;
+        for (Record record : records) {
+            pageSizeInBytes += Page.SLOT_SIZE + record.computeStoredSize(table.getRecordFormat());
         }
-        return insertReturn;
+        return pageSizeInBytes;
     }
 
     /**
-     * Called by UpdateQuery's execute.
-     * 
-     * This Method iterates through all records for a given table, calling
-     * updateRecord on the records that meet the condition specified in the
-     * 'where' clause of the update statement
+     * Adds new pages of records to the buffer and to the page order. Locations
+     * past the end of the file are taken in increasing order, so the checkpoint
+     * that writes the pages out writes them sequentially.
      *
-     * @param resultSet      contains ALL Records for table in question, ...
-     * @param tableID        table in question
-     * @param columnName     column to update
-     * @param data           includes value to update in column, "" empty string if
-     *                       null
-     * @param whereCondition ConditionTree, 'null' if no where clause exists
+     * @param table     table the pages belong to
+     * @param pageIndex index in the page order the first page goes at
+     * @param pages     records of each page, in key order
      */
-    public int[] updateTable(ResultSet resultSet, int tableID, String columnName, List<Object> data,
-            ConditionTree whereCondition, boolean fromIndexed, BPlusTree bPlusTree) {
-        ArrayList<Record> allRecordsFromTable = resultSet.getRecords();
-        for (Record curRecord : allRecordsFromTable) {
-            boolean updateRecord = true; // default to updating ALL COLUMNS
-            if (whereCondition != null) { // if where condition exists
-                updateRecord = whereCondition.validateTree(curRecord, resultSet);
-            }
-            if (updateRecord) {
-                int[] returnVal;
-                if (fromIndexed) {
-                    returnVal = updateRecord(tableID, curRecord, columnName, data, bPlusTree);
-                } else {
-                    returnVal = updateRecord(tableID, curRecord, columnName, data, null);
-                }
-                // if our insert failed, we want to stop our iteration of updates, and push
-                // error upwards,
-                // all changes prior to error remain valid
-                if (returnVal.length > 1) {
-                    int pkIndex = curRecord.getPkIndex();
-                    returnVal[2] = pkIndex;
-                    return returnVal;
-                }
-            }
+    private void writeNewPages(TableSchema table, int pageIndex, ArrayList<ArrayList<Record>> pages)
+            throws IOException {
+        ArrayList<Integer> pageOrder = table.getPageOrder();
+        for (ArrayList<Record> pageRecords : pages) {
+            Page page = buffer.AddToBufferLogic(table.getTableId(), table.allocatePageLocation(), true);
+            page.setRecordsInPage(pageRecords);
+            pageOrder.add(pageIndex++, page.getPageNumberOnDisk());
+            updatePageFences(table, page);
         }
-        return new int[] { 1 }; // not sure if this needs to be specified some other way
     }
 
     /**
-     * This method handles all alter table commands (adding and removing columns)
-     * Pre: In alter table query's execute, we have created the new table for which
-     * we are
-     * copying records over toos here (now including/discluding value to be added,
-     * dropped),
-     * which actual adding/removing of value is done in this method.
-     * 
-     * @param newTableID id of new table we want to copy records over too
-     * @param tableID    id of table 'alter' requested on
-     * @param defaultVal null if not specified or dropping, value if default
-     *                   provided or
-     *                   empty string "" on no default provided for added column
-     * @return some integer indicating success
+     * Returns the table's unique column indexes, loading them from the table's
+     * index file the first time they are needed, or rebuilding them from the
+     * table's pages if the file is missing or out of date. The file is marked
+     * dirty until writeOutBuffer writes the indexes back.
+     *
+     * @param table table whose indexes are wanted
+     * @return an index for each unique column other than the primary key
      */
-    public int alterTable(int newTableID, int tableID, String defaultVal) throws IOException {
-        TableSchema oldTable = Catalog.instance.getTableSchemaById(tableID);
-        TableSchema newTable = Catalog.instance.getTableSchemaById(newTableID);
-        // at this point, newTable has NO PAGES
-        ArrayList<Integer> oldTablePageOrder = oldTable.getPageOrder();
-        ArrayList<AttributeSchema> newTableAttributes = newTable.getAttributes();
-        ArrayList<AttributeSchema> oldTableAttributes = oldTable.getAttributes();
-        int indexOfColumnToDrop = -1; // if this value remains -1 then we are adding a column since not dropping
-        // if we are dropping column, find out which column
-        if (newTableAttributes.size() < oldTableAttributes.size()) {
-            for (int attrIndex = 0; attrIndex < newTableAttributes.size(); attrIndex++) {
-                // if the attribute name is different for this attribute then we dropped column
-                // at that index
-                if (!Objects.equals(newTableAttributes.get(attrIndex).getName(),
-                        oldTableAttributes.get(attrIndex).getName())) {
-                    indexOfColumnToDrop = attrIndex;
-                }
-            } // if this checks out, we are dropping last column in old table
-            if (indexOfColumnToDrop == -1) {
-                indexOfColumnToDrop = newTableAttributes.size();
-            }
-        }
-        ArrayList<String> all = new ArrayList<>();
-        all.add("*");
-        ArrayList<Record> allRecordInOldTable = selectData(tableID, all);
-        for (Record recordToCopyOver : allRecordInOldTable) {
-            Record newRecord = new Record();
-            ArrayList<Object> oldRecordContents = recordToCopyOver.getRecordContents();
-            if (indexOfColumnToDrop != -1) { // if we are dropping a column
-                // remove the attribute value for column we are dropping
-                oldRecordContents.remove(indexOfColumnToDrop);
-                newRecord.setRecordContents(oldRecordContents);
-                newRecord.setPkIndex(Catalog.instance.getTablePKIndex(newTableID));
-                insertRecord(newTableID, newRecord);
-            } else { // we are adding a column
-                // add the default value being null or some value
-                if (defaultVal == "") {
-                    oldRecordContents.add(null);
-                    newRecord.setRecordContents(oldRecordContents);
-                } else {
-                    // determining type of default value
-                    int indexOfLastColumn = newTableAttributes.size() - 1;
-                    int typeInt = newTableAttributes.get(indexOfLastColumn).getType();
-                    switch (typeInt) {
-                        case 1 -> {
-                            Integer intValue = Integer.valueOf(defaultVal);
-                            oldRecordContents.add(intValue);
-                        }
-                        case 2 -> {
-                            Double doubleValue = Double.valueOf(defaultVal);
-                            oldRecordContents.add(doubleValue);
-                        }
-                        case 3 -> {
-                            Boolean boolValue = Boolean.valueOf(defaultVal);
-                            oldRecordContents.add(boolValue);
-                        }
-                        case 4, 5 -> {
-                            String charValue = defaultVal.toString();
-                            oldRecordContents.add(charValue);
-                        }
-                    }
-                    newRecord.setRecordContents(oldRecordContents);
+    private ArrayList<UniqueIndex> getUniqueIndexes(TableSchema table) throws IOException {
+        int tableID = table.getTableId();
+        ArrayList<UniqueIndex> indexes = uniqueIndexes.get(tableID);
+        if (indexes != null) {
+            return indexes;
+        }
+        indexes = UniqueIndex.forTable(table);
+        uniqueIndexes.put(tableID, indexes);
+        if (indexes.isEmpty()) {
+            return indexes;
+        }
+        File folder = new File(indexesRootPath);
+        if (!folder.exists() || !folder.isDirectory()) {
+            folder.mkdir();
+        }
+        int pkIndex = Catalog.instance.getTablePKIndex(tableID);
+        int pkType = table.getAttributes().get(pkIndex).getType();
+        File indexFile = Paths.get(indexesRootPath, String.valueOf(tableID)).toFile();
+        if (UniqueIndex.read(indexFile, indexes, pkType)) {
+            UniqueIndex.markDirty(indexFile);
+            return indexes;
+        }
+        indexes = UniqueIndex.forTable(table); // drop anything read before the file was found stale
+        uniqueIndexes.put(tableID, indexes);
+        for (int pageLocation : table.getPageOrder()) {
+            Page page = buffer.GetPage(tableID, pageLocation);
+            int numRecordsInPage = page.getRecordCount();
+            // values are read in place on the page, records are never decoded whole
+            for (int idx = 0; idx < numRecordsInPage; idx++) {
+                Object primaryKey = page.getAttribute(idx, pkIndex);
+                for (UniqueIndex index : indexes) {
+                    index.put(page.getAttribute(idx, index.getColumn()), primaryKey);
                 }
-                newRecord.setPkIndex(Catalog.instance.getTablePKIndex(newTableID));
-                insertRecord(newTableID, newRecord);
             }
         }
-        // WE HAVE SUCCESS! so purge all pages for the tableID still in buffer
-        return 1;
+        UniqueIndex.write(indexFile, indexes, pkType, false);
+        return indexes;
+    }
+
+    private void addToUniqueIndexes(TableSchema table, Record record) throws IOException {
+        ArrayList<Object> values = record.getRecordContents();
+        Object primaryKey = values.get(Catalog.instance.getTablePKIndex(table.getTableId()));
+        for (UniqueIndex index : getUniqueIndexes(table)) {
+            index.put(values.get(index.getColumn()), primaryKey);
+        }
+    }
+
+    /**
+     * Forgets the table's unique column indexes and deletes their file, so they
+     * are rebuilt from the table the next time they are needed
+     *
+     * @param tableID table whose indexes are discarded
+     */
+    private void discardUniqueIndexes(int tableID) {
+        uniqueIndexes.remove(tableID);
+        Paths.get(indexesRootPath, String.valueOf(tableID)).toFile().delete();
+    }
+
+    /**
+     * Logs records of a table that were inserted, or updated in place, called
+     * once they are in the table
+     *
+     * @param type    WriteAheadLog.INSERT or WriteAheadLog.UPDATE
+     * @param tableID table changed
+     * @param records the records as they now are in the table
+     */
+    private void logChange(byte type, int tableID, List<Record> records) {
+        if (log == null || redoing || records.isEmpty()) {
+            return;
+        }
+        ArrayList<byte[]> recordBytes = new ArrayList<>(records.size());
+        for (Record record : records) {
+            recordBytes.add(record.toBytes(tableID));
+        }
+        log.logChange(type, tableID, recordBytes);
+    }
+
+    /**
+     * Logs the primary keys of records deleted from a table, each as a record
+     * that is null apart from its key
+     *
+     * @param tableID table changed
+     * @param keys    primary keys of the deleted records
+     */
+    private void logDeletes(int tableID, List<Object> keys) {
+        if (log == null || redoing || keys.isEmpty()) {
+            return;
+        }
+        int pkIndex = Catalog.instance.getTablePKIndex(tableID);
+        int numAttributes = Catalog.instance.getTableSchemaById(tableID).getAttributes().size();
+        ArrayList<byte[]> recordBytes = new ArrayList<>(keys.size());
+        for (Object key : keys) {
+            ArrayList<Object> values = new ArrayList<>(Collections.nCopies(numAttributes, null));
+            values.set(pkIndex, key);
+            Record keyRecord = new Record();
+            keyRecord.setRecordContents(values);
+            keyRecord.setPkIndex(pkIndex);
+            recordBytes.add(keyRecord.toBytes(tableID));
+        }
+        log.logChange(WriteAheadLog.DELETE, tableID, recordBytes);
+    }
+
+    /**
+     * Binary search over the table's page fences
+     *
+     * @param table table with fences for every page in its page order
+     * @param key   primary key value
+     * @return index in the page order of the first page whose largest key is not
+     *         smaller than key, or the last page if key is larger than every key
+     */
+    private int findPageIndex(TableSchema table, Object key) {
+        ArrayList<Integer> pageOrder = table.getPageOrder();
+        int low = 0;
+        int high = pageOrder.size() - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareValues(table.getPageMaxKey(pageOrder.get(mid)), key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Binary search for a primary key among a page's records, which are kept in
+     * primary key order
+     *
+     * @param page    page to search
+     * @param pkIndex index of the primary key column
+     * @param key     primary key value
+     * @return index of the record with the key, or (-(insertion point) - 1) if
+     *         no record has it
+     */
+    private int searchPage(Page page, int pkIndex, Object key) {
+        int low = 0;
+        int high = page.getRecordCount() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int comparison = compareValues(page.getAttribute(mid, pkIndex), key);
+            if (comparison < 0) {
+                low = mid + 1;
+            } else if (comparison > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Sets a page's fences from its first and last record, called after any
+     * change to the page's records
+     *
+     * @param table table the page belongs to
+     * @param page  page that changed
+     */
+    private void updatePageFences(TableSchema table, Page page) {
+        int numRecordsInPage = page.getRecordCount();
+        if (numRecordsInPage == 0) {
+            table.removePageFences(page.getPageNumberOnDisk());
+            return;
+        }
+        int pkIndex = Catalog.instance.getTablePKIndex(table.getTableId());
+        table.setPageFences(page.getPageNumberOnDisk(), page.getAttribute(0, pkIndex),
+                page.getAttribute(numRecordsInPage - 1, pkIndex));
+    }
+
+    /**
+     * Reads the pages whose fences are not known, which only happens for tables
+     * from a catalog written before pages had fences
+     *
+     * @param table table about to be searched through its fences
+     */
+    private void ensurePageFences(TableSchema table) throws IOException {
+        ArrayList<Integer> pageOrder = table.getPageOrder();
+        if (table.getPageFenceCount() == pageOrder.size()) {
+            return;
+        }
+        for (int pageLocation : pageOrder) {
+            if (table.getPageMinKey(pageLocation) == null) {
+                updatePageFences(table, buffer.GetPage(table.getTableId(), pageLocation));
+            }
+        }
+    }
+
+    /**
+     * Deletes the record with the given record's primary key from a table with
+     * indexing turned on. The table's B+ tree says where the record is, and the
+     * records after it on its page have their locations updated in the tree.
+     *
+     * @param bPlusTree      the B+Tree we are dealing with. Contains tableID
+     * @param recordToDelete the Record with search key from B+Tree
+     *
+     * @return int[]: int[0] contains: 1 if the record was not in the table, 0 if
+     *         it was deleted
+     */
+    public int[] indexedDeleteRecord(BPlusTree bPlusTree, Record recordToDelete) {
+        int tableID = bPlusTree.getTableId();
+        TableSchema table = Catalog.instance.getTableSchemaById(tableID);
+        int pkIndex = Catalog.instance.getTablePKIndex(tableID);
+        Object deleteKey = recordToDelete.getRecordContents().get(pkIndex);
+        int[] location = bPlusTree.find(deleteKey);
+        if (location == null) {
+            return new int[] { 1 };
+        }
+        int pageNumber = location[0];
+        int slot = location[1];
+        try {
+            ArrayList<UniqueIndex> indexes = getUniqueIndexes(table);
+            Page pageReference = buffer.GetPage(tableID, pageNumber);
+            for (UniqueIndex index : indexes) {
+                index.remove(pageReference.getAttribute(slot, index.getColumn()));
+            }
+            pageReference.removeRecord(slot); // delete the record, only its slot is touched
+            ArrayList<Object> movedKeys = new ArrayList<>();
+            for (int index = slot; index < pageReference.getRecordCount(); index++) {
+                movedKeys.add(pageReference.getAttribute(index, pkIndex));
+            }
+            if (pageReference.getRecordCount() == 0) { // if page is empty as a result of delete
+                // label this page as EMPTY (reusable) even though this is not reflected on the
+                // disk
+                table.removePageFromPageOrdering(pageNumber);
+                buffer.removeEmptyPageFromBuffer(tableID, pageNumber);
+            } else {
+                updatePageFences(table, pageReference);
+            }
+            bPlusTree.deleteNode(deleteKey);
+            for (int i = 0; i < movedKeys.size(); i++) {
+                bPlusTree.updatePointer(movedKeys.get(i), pageNumber, slot + i);
+            }
+            logDeletes(tableID, List.of(deleteKey));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return new int[] { 0 };
+    }
+
+    /**
+     * Called by deleteFrom() and updateRecord() methods
+     * Deletes a single provided record from the table it belongs too. This method
+     * is used in both the 'delete from' statement and the 'update' statement.
+     * Only the page the table's fences say holds the record's primary key is read.
+     *
+     * @param tableID        table for which we want to delete the record
+     * @param recordToDelete record to be deleted/removed from table
+     * @return .
+     */
+    public int[] deleteRecord(int tableID, Record recordToDelete) {
+        TableSchema table = Catalog.instance.getTableSchemaById(tableID);
+        ArrayList<Integer> pageOrder = table.getPageOrder();
+        if (pageOrder.isEmpty()) {
+            return new int[] { 1 };
+        }
+        int pkIndex = Catalog.instance.getTablePKIndex(tableID);
+        Object deleteKey = recordToDelete.getRecordContents().get(pkIndex);
+        try {
+            ensurePageFences(table);
+            int pageNumber = pageOrder.get(findPageIndex(table, deleteKey));
+            // built before the page is fetched, building them may scan the table and evict it
+            ArrayList<UniqueIndex> indexes = getUniqueIndexes(table);
+            Page pageReference = buffer.GetPage(tableID, pageNumber);
+            int slot = searchPage(pageReference, pkIndex, deleteKey);
+            if (slot < 0) {
+                // record to delete does not exist
+                return new int[] { 1 };
+            }
+            for (UniqueIndex index : indexes) {
+                index.remove(pageReference.getAttribute(slot, index.getColumn()));
+            }
+            pageReference.removeRecord(slot); // delete the record, only its slot is touched
+            if (pageReference.getRecordCount() == 0) { // if page is empty as a result of delete
+                // label this page as EMPTY (reusable) even though this is not reflected on the
+                // disk
+                table.removePageFromPageOrdering(pageNumber);
+                // remove the page from the buffer, our data will remain populated and outdated
+                // at that
+                // location on disk until a new page re-uses that page location and is wrote to
+                // disk
+                buffer.removeEmptyPageFromBuffer(tableID, pageNumber);
+            } else {
+                updatePageFences(table, pageReference);
+            }
+            logDeletes(tableID, List.of(deleteKey));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return new int[] { 1 };
+    }
+
+    /**
+     * Generates a resultSet from the given tables. If tableColumnDict includes more
+     * than one table
+     * the cartesian product of the tables is created and put into the resultSet.
+     * Only the records that pass the where condition are kept.
+     * Used by update and delete, which change the table while going through the
+     * records, so every record is read before any is changed.
+     * 
+     * @param tableColumnDict - linked hashmap containing the table name as key and
+     *                        the names of its columns as
+     *                        its value.
+     * @param where           where condition, null if there is none
+     * @return a resultSet including the records, array of column names, array of
+     *         column names that distinguishes
+     *         duplicate column names, array of types for the columns, and array of
+     *         the table each column belongs to.
+     */
+    public ResultSet generateFromResultSet(LinkedHashMap<String, ArrayList<String>> tableColumnDict,
+            ConditionTree where) {
+        Operator plan = QueryPlanner.plan(tableColumnDict, where);
+        ResultSet columns = plan.getColumns();
+        return new ResultSet(plan.drain(), columns.getColumnNames(), columns.getColumnTypes(),
+                columns.getTableNamesForColumns());
+    }
+
+    /**
+     * Builds the plan that reads the given tables: a scan of each table, joined in
+     * the order given into their cartesian product
+     *
+     * @param tableColumnDict table names, in order, with the columns asked for
+     *                        from each
+     * @return the plan, not yet opened
+     */
+    Operator scanTables(LinkedHashMap<String, ArrayList<String>> tableColumnDict) {
+        Operator plan = null;
+        for (String tableName : tableColumnDict.keySet()) {
+            Operator scan = new TableScan(Catalog.instance.getTableIdByName(tableName));
+            plan = plan == null ? scan : new NestedLoopJoin(plan, scan);
+        }
+        return plan;
+    }
+
+    /**
+     * Gets a page of a table through the buffer, for operators reading the table
+     *
+     * @param tableID      table the page belongs to
+     * @param pageLocation location of the page in the table file
+     * @return the page
+     */
+    Page getPage(int tableID, int pageLocation) throws IOException {
+        return buffer.GetPage(tableID, pageLocation);
+    }
+
+    /**
+     * Table number the nodes of a table's B+ tree are filed under in the
+     * buffer. Table ids are never negative, so it never matches a table.
+     *
+     * @param tableID table the tree belongs to
+     * @return the number
+     */
+    static int indexFileNumber(int tableID) {
+        return -tableID - 1;
+    }
+
+    /**
+     * Gets a node of a B+ tree through the buffer
+     *
+     * @param bPlusTree the tree
+     * @param nodeIndex location of the node in the tree's file
+     * @return the node
+     */
+    public BPlusNode getIndexNode(BPlusTree bPlusTree, int nodeIndex) {
+        try {
+            return buffer.GetIndexNode(bPlusTree, nodeIndex);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Hands a new or changed node of a B+ tree to the buffer, which writes it
+     * to the tree's file when the node is evicted or the buffer is written out
+     *
+     * @param bPlusTree the tree
+     * @param node      the node
+     */
+    public void writeIndexNode(BPlusTree bPlusTree, BPlusNode node) {
+        try {
+            buffer.PutIndexNode(bPlusTree, node);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Called by DeleteQuery's execute.
+     *
+     * Deletes every record of a table that meets the where condition in one pass
+     * over the table's pages: each page is read once, its matching records are
+     * all removed at once, and a page left less than half full is merged into
+     * the page before it when both fit in one page. When the where condition
+     * limits the primary key to a range, only the pages whose fences overlap the
+     * range are read. The locations of pages emptied or merged away are handed
+     * back to the table for reuse together at the end, or before a checkpoint
+     * made between pages (see checkpointIfBufferFull).
+     *
+     * @param tableID        table intended to delete records from
+     * @param whereCondition ConditionTree, 'null' if no where clause exists
+     * @param bPlusTree      Null if indexing turned off, the table's tree if on
+     *
+     * @return int[]. should contain 1 at index 0 if delete failed
+     */
+    public int[] deleteFrom(int tableID, ConditionTree whereCondition, BPlusTree bPlusTree) {
+        TableSchema table = Catalog.instance.getTableSchemaById(tableID);
+        ArrayList<Integer> pageOrder = table.getPageOrder();
+        int pkIndex = Catalog.instance.getTablePKIndex(tableID);
+        ResultSet columns = TableScan.describeTable(tableID, null);
+        Predicate<Record> where = whereCondition == null ? null : whereCondition.compile(columns);
+        QueryPlanner.KeyRange range = whereCondition == null ? null
+                : QueryPlanner.findKeyRange(whereCondition, tableID, 0, columns);
+        HashSet<Integer> freedPages = new HashSet<>();
+        try {
+            ensurePageFences(table);
+            ArrayList<UniqueIndex> indexes = getUniqueIndexes(table);
+            int pageIndex = range != null && range.low != null && !pageOrder.isEmpty()
+                    ? findPageIndex(table, range.low) : 0;
+            int previousLocation = pageIndex > 0 ? pageOrder.get(pageIndex - 1) : -1;
+            for (; pageIndex < pageOrder.size(); pageIndex++) {
+                int pageLocation = pageOrder.get(pageIndex);
+                if (range != null && range.high != null) {
+                    int comparison = compareValues(table.getPageMinKey(pageLocation), range.high);
+                    if (comparison > 0 || comparison == 0 && !range.highInclusive) {
+                        break;
+                    }
+                }
+                Page page = buffer.GetPage(tableID, pageLocation);
+                int numRecordsInPage = page.getRecordCount();
+                ArrayList<Record> keptRecords = new ArrayList<>(numRecordsInPage);
+                ArrayList<Object> deletedKeys = new ArrayList<>();
+                ArrayList<Integer> deletedSlots = new ArrayList<>();
+                int firstDeleted = -1;
+                for (int slot = 0; slot < numRecordsInPage; slot++) {
+                    Record record = page.getRecord(slot);
+                    if (where != null && !where.test(record)) {
+                        keptRecords.add(record);
+                        continue;
+                    }
+                    if (firstDeleted == -1) {
+                        firstDeleted = slot;
+                    }
+                    deletedSlots.add(slot);
+                    for (UniqueIndex index : indexes) {
+                        index.remove(record.getRecordContents().get(index.getColumn()));
+                    }
+                    deletedKeys.add(record.getRecordContents().get(pkIndex));
+                }
+                if (deletedKeys.isEmpty()) {
+                    previousLocation = pageLocation;
+                    continue;
+                }
+
+                // the kept records go back on the page, or onto the page before it. Records
+                // decoded from a page in an older schema version can be bigger than they were
+                // on it (see SchemaVersion), so such pages only have the deleted records taken
+                // off, and are never merged into
+                int newLocation = pageLocation;
+                int firstMoved = firstDeleted; // position in keptRecords of the first record whose slot changed
+                int firstSlot = firstDeleted; // and the slot it now has
+                if (keptRecords.isEmpty()) {
+                    freedPages.add(pageLocation);
+                } else if (page.getStoredSchema() != null) {
+                    for (int i = deletedSlots.size() - 1; i >= 0; i--) {
+                        page.removeRecord(deletedSlots.get(i));
+                    }
+                    updatePageFences(table, page);
+                    previousLocation = pageLocation;
+                } else if (computePageSize(table, keptRecords) < Main.pageSize / 2 && previousLocation != -1
+                        && buffer.GetPage(tableID, previousLocation).getStoredSchema() == null
+                        && buffer.GetPage(tableID, previousLocation).computeSizeInBytes()
+                                + computePageSize(table, keptRecords) - Page.HEADER_SIZE <= Main.pageSize) {
+                    Page previousPage = buffer.GetPage(tableID, previousLocation);
+                    firstMoved = 0;
+                    firstSlot = previousPage.getRecordCount();
+                    previousPage.getRecordsInPage().addAll(keptRecords);
+                    previousPage.setIsModified(true);
+                    updatePageFences(table, previousPage);
+                    newLocation = previousLocation;
+                    freedPages.add(pageLocation);
+                } else {
+                    // fetched again, looking at the page before it may have evicted it
+                    page = buffer.GetPage(tableID, pageLocation);
+                    page.setRecordsInPage(keptRecords);
+                    page.setIsModified(true);
+                    updatePageFences(table, page);
+                    previousLocation = pageLocation;
+                }
+                if (freedPages.contains(pageLocation)) {
+                    table.removePageFences(pageLocation);
+                    buffer.removeEmptyPageFromBuffer(tableID, pageLocation);
+                }
+
+                if (bPlusTree != null) {
+                    for (Object key : deletedKeys) {
+                        bPlusTree.deleteNode(key);
+                    }
+                    for (int i = firstMoved; i < keptRecords.size(); i++) {
+                        Object key = keptRecords.get(i).getRecordContents().get(pkIndex);
+                        bPlusTree.updatePointer(key, newLocation, firstSlot + i - firstMoved);
+                    }
+                }
+                logDeletes(tableID, deletedKeys);
+                if (checkpointNeeded()) {
+                    // the catalog the checkpoint writes must not refer to the freed pages,
+                    // their copies on disk still hold the deleted records
+                    pageIndex -= freedPages.size(); // each one was at or before this page
+                    table.removePagesFromPageOrdering(freedPages);
+                    freedPages.clear();
+                    checkpointIfBufferFull();
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        table.removePagesFromPageOrdering(freedPages);
+        return new int[] { 0 };
+    }
+
+    /**
+     * This Method updates a record, by first deleting the existing record, and then
+     * inserting the updated version of that record. The insertRecord method
+     * handled recomputation of page size when the updated record is added,
+     * indicating
+     * if a page split is needed- additionally the insertRecord method also handled
+     * sorting the updated record to its proper place among the records in the case
+     * where the primarykey has been changed
+     *
+     * @param tableID        the table record in question belongs to
+     * @param recordToUpdate the record to update
+     * @param columnName     column
+     * @param data           contains value we want to update column with
+     * @param bPlusTree      Null if indexing turned off, tree if indexing on
+     * @return receive return from insert and pass that up
+     */
+    public int[] updateRecord(int tableID, Record recordToUpdate, String columnName, List<Object> data,
+            BPlusTree bPlusTree) {
+        Record copyOfRecordToUpdate = null; // make a copy of the record
+        try {
+            copyOfRecordToUpdate = (Record) recordToUpdate.clone();
+
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+        ArrayList<Object> copyOfRecordContents = new ArrayList<>(copyOfRecordToUpdate.getRecordContents());
+        if (bPlusTree == null) {
+            deleteRecord(tableID, recordToUpdate);
+        } else {
+            indexedDeleteRecord(bPlusTree, recordToUpdate);
+        }
+
+        // find index of column to update
+        int indexOfColumnToUpdate = findColumnIndex(Catalog.instance.getTableSchemaById(tableID), columnName);
+
+        Object valueToSet = data.get(1); // value to update in column
+        // make change updating our copy of original record
+        copyOfRecordContents.set(indexOfColumnToUpdate, valueToSet);
+        copyOfRecordToUpdate.setRecordContents(copyOfRecordContents); // set content change
+        int[] insertReturn;
+        if (bPlusTree == null) {
+            insertReturn = insertRecord(tableID, copyOfRecordToUpdate); // update
+        } else {
+            insertReturn = indexedInsertRecord(bPlusTree, copyOfRecordToUpdate); // update
+        }
+        if (insertReturn.length > 1) { // our record failed to insert
+            if (bPlusTree == null) {
+                insertRecord(tableID, recordToUpdate); // add original, unchanged record back in
+            } else {
+                indexedInsertRecord(bPlusTree, recordToUpdate); // update
+            }
+        }
+        return insertReturn;
+    }
+
+    /**
+     * Called by UpdateQuery's execute.
+     * 
+     * Updates the records that meet the condition specified in the 'where' clause
+     * of the update statement, as if each were updated in turn in primary key
+     * order: when one fails, the records before it stay updated and the rest are
+     * left as they were.
+     *
+     * When the column is not the primary key, the records stay where they are:
+     * each is rewritten in its slot on its page, going through the pages in page
+     * order, and a page is only split when a rewritten record no longer fits. A
+     * unique column is checked for every record before any page is touched.
+     * When the column is the primary key, every record would be given the same
+     * key, so only the first can take it and it is moved with updateRecord.
+     *
+     * @param resultSet      contains ALL Records for table in question, ...
+     * @param tableID        table in question
+     * @param columnName     column to update
+     * @param data           includes value to update in column, "" empty string if
+     *                       null
+     * @param whereCondition ConditionTree, 'null' if no where clause exists
+     * @return int[1] on success, int[3] on failure: index 0 the row (from 1) that
+     *         failed, index 1 the column whose value already exists, index 2 the
+     *         failed record's pkIndex
+     */
+    public int[] updateTable(ResultSet resultSet, int tableID, String columnName, List<Object> data,
+            ConditionTree whereCondition, boolean fromIndexed, BPlusTree bPlusTree) {
+        ArrayList<Record> recordsToUpdate = new ArrayList<>();
+        for (Record curRecord : resultSet.getRecords()) {
+            if (whereCondition == null || whereCondition.validateTree(curRecord, resultSet)) {
+                recordsToUpdate.add(curRecord);
+            }
+        }
+        if (!fromIndexed) {
+            bPlusTree = null;
+        }
+        TableSchema table = Catalog.instance.getTableSchemaById(tableID);
+        int pkIndex = Catalog.instance.getTablePKIndex(tableID);
+        int columnIndex = findColumnIndex(table, columnName);
+        Object valueToSet = data.get(1);
+
+        if (columnIndex == pkIndex) {
+            if (recordsToUpdate.isEmpty()) {
+                return new int[] { 1 };
+            }
+            Record firstRecord = recordsToUpdate.get(0);
+            int[] returnVal = updateRecord(tableID, firstRecord, columnName, data, bPlusTree);
+            if (returnVal.length > 1) {
+                returnVal[0] = 1;
+                returnVal[2] = firstRecord.getPkIndex();
+                return returnVal;
+            }
+            if (recordsToUpdate.size() > 1) {
+                // the first record now holds the key
+                return new int[] { 2, pkIndex, recordsToUpdate.get(1).getPkIndex() };
+            }
+            return new int[] { 1 };
+        }
+
+        int[] returnVal = new int[] { 1 };
+        int numToUpdate = recordsToUpdate.size();
+        try {
+            for (UniqueIndex index : getUniqueIndexes(table)) {
+                if (index.getColumn() != columnIndex) {
+                    continue;
+                }
+                for (int row = 0; row < numToUpdate; row++) {
+                    ArrayList<Object> values = recordsToUpdate.get(row).getRecordContents();
+                    Object oldValue = values.get(columnIndex);
+                    if (Objects.equals(oldValue, valueToSet)) {
+                        continue;
+                    }
+                    if (index.contains(valueToSet)) {
+                        returnVal = new int[] { row + 1, columnIndex, recordsToUpdate.get(row).getPkIndex() };
+                        numToUpdate = row;
+                        break;
+                    }
+                    index.remove(oldValue);
+                    index.put(valueToSet, values.get(pkIndex));
+                }
+            }
+
+            ensurePageFences(table);
+            ArrayList<Integer> pageOrder = table.getPageOrder();
+            Page page = null;
+            ArrayList<Record> updatedRecords = new ArrayList<>(numToUpdate);
+            for (int row = 0; row < numToUpdate; row++) {
+                ArrayList<Object> values = new ArrayList<>(recordsToUpdate.get(row).getRecordContents());
+                values.set(columnIndex, valueToSet);
+                Object key = values.get(pkIndex);
+                int pageLocation = pageOrder.get(findPageIndex(table, key));
+                if (page == null || page.getPageNumberOnDisk() != pageLocation) {
+                    page = buffer.GetPage(tableID, pageLocation);
+                }
+                int slot = searchPage(page, pkIndex, key);
+                if (slot < 0) {
+                    continue;
+                }
+                Record updatedRecord = new Record();
+                updatedRecord.setRecordContents(values);
+                updatedRecord.setPkIndex(pkIndex);
+                page.removeRecord(slot);
+                page.insertRecord(slot, updatedRecord);
+                updatedRecords.add(updatedRecord);
+                if (page.computeSizeInBytes() > Main.pageSize) {
+                    ArrayList<Integer> newPageNumbers = buffer.PageSplit(page, tableID);
+                    if (bPlusTree != null) {
+                        // only the records moved to the new pages change location
+                        ArrayList<Object> movedKeys = new ArrayList<>();
+                        ArrayList<int[]> newLocations = new ArrayList<>();
+                        for (int newPageNumber : newPageNumbers) {
+                            Page newPage = buffer.GetPage(tableID, newPageNumber);
+                            for (int index = 0; index < newPage.getRecordCount(); index++) {
+                                movedKeys.add(newPage.getAttribute(index, pkIndex));
+                                newLocations.add(new int[] { newPageNumber, index });
+                            }
+                        }
+                        for (int i = 0; i < movedKeys.size(); i++) {
+                            bPlusTree.updatePointer(movedKeys.get(i), newLocations.get(i)[0], newLocations.get(i)[1]);
+                        }
+                    }
+                    page = null; // the next record may be on either half
+                }
+                if (checkpointNeeded()) {
+                    logChange(WriteAheadLog.UPDATE, tableID, updatedRecords);
+                    updatedRecords.clear();
+                    checkpointIfBufferFull();
+                }
+            }
+            logChange(WriteAheadLog.UPDATE, tableID, updatedRecords);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return returnVal;
+    }
+
+    /**
+     * @return index of the column with the given name in the table
+     */
+    private int findColumnIndex(TableSchema table, String columnName) {
+        int indexOfColumn = 0;
+        for (AttributeSchema attribute : table.getAttributes()) {
+            if (Objects.equals(attribute.getName(), columnName)) {
+                break;
+            }
+            indexOfColumn++;
+        }
+        return indexOfColumn;
+    }
+
+    /**
+     * Adds a column to a table. Only the catalog changes, the table's pages are
+     * not rewritten: records already in the table read the new column as its
+     * default value until their page is next rewritten (see SchemaVersion).
+     *
+     * @param tableID    id of table 'alter' requested on
+     * @param attrInfo   name, type, size, primary key flag and constraints of
+     *                   the new column
+     * @param defaultVal value of the new column for the records already in the
+     *                   table, null if no default was given (they read as null)
+     */
+    public void addColumn(int tableID, ArrayList<Object> attrInfo, String defaultVal) throws IOException {
+        Object defaultValue = null;
+        if (defaultVal != null) {
+            // determining type of default value
+            defaultValue = switch ((int) attrInfo.get(1)) {
+                case 1 -> Integer.valueOf(defaultVal);
+                case 2 -> Double.valueOf(defaultVal);
+                case 3 -> Boolean.valueOf(defaultVal);
+                default -> defaultVal; // char(x) and varchar(x)
+            };
+        }
+        // pages in the buffer are written out in the schema they were read in
+        checkpoint();
+        buffer.FlushTableFromBuffer(tableID);
+        Catalog.instance.updateTableAddColumn(tableID, attrInfo, defaultValue);
+        catalogChanged = true;
+    }
+
+    /**
+     * Drops a column from a table. Only the catalog changes, the column's values
+     * stay on the table's pages until each page is next rewritten (see
+     * SchemaVersion).
+     *
+     * @param tableID    id of table 'alter' requested on
+     * @param columnName column to drop, not the primary key
+     */
+    public void dropColumn(int tableID, String columnName) throws IOException {
+        TableSchema table = Catalog.instance.getTableSchemaById(tableID);
+        int column = findColumnIndex(table, columnName);
+        // unique columns from the dropped one on are indexed under a column index that changes
+        boolean movesUniqueColumn = false;
+        for (UniqueIndex index : UniqueIndex.forTable(table)) {
+            movesUniqueColumn |= index.getColumn() >= column;
+        }
+        // pages in the buffer are written out in the schema they were read in
+        checkpoint();
+        buffer.FlushTableFromBuffer(tableID);
+        Catalog.instance.updateTableDropColumn(tableID, columnName);
+        catalogChanged = true;
+        if (movesUniqueColumn) {
+            discardUniqueIndexes(tableID);
+        }
+    }
+
+    /**
+     * Rewrites pages stored in an older schema version of their table in the
+     * table's current schema, so the older versions can be forgotten. Called
+     * after every command with a small number of pages, which spreads the
+     * rewriting of an altered table over the commands that follow the alter.
+     *
+     * @param maxPages most pages to rewrite
+     */
+    public void compactSchemaVersions(int maxPages) {
+        try {
+            for (TableSchema table : Catalog.instance.getTableSchemas()) {
+                int tableID = table.getTableId();
+                int pkIndex = Catalog.instance.getTablePKIndex(tableID);
+                BPlusTree bPlusTree = Catalog.instance.getBPlusTreeByTableID(tableID);
+                for (int pageLocation : table.getOldSchemaPages()) {
+                    if (maxPages-- <= 0) {
+                        return;
+                    }
+                    Page page = buffer.GetPage(tableID, pageLocation);
+                    page.getRecordsInPage(); // decodes the records into the current schema
+                    page.setIsModified(true);
+                    // records can grow by the columns added since, slots only change for those split off
+                    ArrayList<Integer> newPageNumbers = new ArrayList<>();
+                    if (page.computeSizeInBytes() > Main.pageSize) {
+                        newPageNumbers = buffer.PageSplit(page, tableID);
+                    }
+                    // written in the current schema from now on
+                    table.setStoredSchema(pageLocation, null);
+                    if (bPlusTree != null) {
+                        ArrayList<Object> movedKeys = new ArrayList<>();
+                        ArrayList<int[]> newLocations = new ArrayList<>();
+                        for (int newPageNumber : newPageNumbers) {
+                            Page newPage = buffer.GetPage(tableID, newPageNumber);
+                            for (int index = 0; index < newPage.getRecordCount(); index++) {
+                                movedKeys.add(newPage.getAttribute(index, pkIndex));
+                                newLocations.add(new int[] { newPageNumber, index });
+                            }
+                        }
+                        for (int i = 0; i < movedKeys.size(); i++) {
+                            bPlusTree.updatePointer(movedKeys.get(i), newLocations.get(i)[0], newLocations.get(i)[1]);
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     /**
@@ -891,41 +1511,341 @@ public class StorageManager {
      * @param tableID identifier for table
      * @return number of pages in a table
      */
-    public int getPageCountForTable(int tableID) {
-        return Catalog.instance.getTableSchemaById(tableID).getPageOrder().size();
+    public int getPageCountForTable(int tableID) {
+        return Catalog.instance.getTableSchemaById(tableID).getPageOrder().size();
+    }
+
+    /**
+     * Returns the record count of table with given table id.
+     * 
+     * @param tableID : Given table id.
+     * @return integer - number of records in table.
+     */
+    public int getRecordCountForTable(int tableID) {
+        ArrayList<Integer> arrayOfPageLocationsOnDisk = Catalog.instance.getTableSchemaById(tableID).getPageOrder();
+        int sum = 0;
+        for (Integer integer : arrayOfPageLocationsOnDisk) {
+            try {
+                int locationOnDisk = integer;
+                sum += buffer.GetPage(tableID, locationOnDisk).getRecordCount();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return sum;
+    }
+
+    public int getCurrentBufferSize() {
+        return buffer.pageTable.size();
+    }
+
+    /**
+     * @return number of evicted pages that were modified and written to disk
+     */
+    public long getDirtyEvictionCount() {
+        return buffer.dirtyEvictions;
+    }
+
+    /**
+     * @return number of evicted pages that were unmodified and dropped without a write
+     */
+    public long getCleanEvictionCount() {
+        return buffer.cleanEvictions;
+    }
+
+    /**
+     * Returns the number of tableschemas.
+     * 
+     * @return integer - number of tableschemas.
+     */
+    public int getNumberOfTables() {
+        return Catalog.instance.getTableSchemas().size();
+    }
+
+    /**
+     * Called once at startup, before any command runs. The changes logged
+     * since the last checkpoint are made again, through the same inserts and
+     * deletes the commands made them with (an update is redone as a delete and
+     * an insert), then a checkpoint leaves the log empty. From then on every
+     * change is logged. Redoing makes no checkpoint of its own part way: the
+     * changes since the last checkpoint modified no more than about a buffer's
+     * worth of pages when they were made, and modify the same pages again.
+     *
+     * @param log the database's log, as opened before the catalog was read
+     */
+    public void recover(WriteAheadLog log) {
+        this.log = log;
+        checkpointedPages = countCheckpointedPages();
+        ArrayList<WriteAheadLog.LogRecord> redoRecords = log.takeRedoRecords();
+        if (!redoRecords.isEmpty()) {
+            System.out.println("Redoing " + redoRecords.size() + " changes logged after checkpoint LSN "
+                    + Catalog.instance.getCheckpointLsn() + "...");
+        }
+        redoing = true;
+        for (WriteAheadLog.LogRecord logRecord : redoRecords) {
+            redo(logRecord);
+        }
+        redoing = false;
+        checkpoint();
+        log.startGroupCommit();
+        startCheckpointer();
+    }
+
+    private void redo(WriteAheadLog.LogRecord logRecord) {
+        int tableID = logRecord.tableId;
+        TableSchema table = Catalog.instance.getTableSchemaById(tableID);
+        BPlusTree bPlusTree = Catalog.instance.getBPlusTreeByTableID(tableID);
+        ArrayList<Record> records = new ArrayList<>(logRecord.records.size());
+        for (byte[] recordBytes : logRecord.records) {
+            records.add(Record.parseRecordBytes(tableID, table.getRecordFormat(), null, ByteBuffer.wrap(recordBytes)));
+        }
+        if (logRecord.type == WriteAheadLog.DELETE || logRecord.type == WriteAheadLog.UPDATE) {
+            for (Record record : records) {
+                if (bPlusTree != null) {
+                    indexedDeleteRecord(bPlusTree, record);
+                } else {
+                    deleteRecord(tableID, record);
+                }
+            }
+        }
+        if (logRecord.type == WriteAheadLog.INSERT || logRecord.type == WriteAheadLog.UPDATE) {
+            if (records.size() > 1) {
+                bulkInsertRecords(tableID, records);
+                return;
+            }
+            for (Record record : records) {
+                if (bPlusTree != null) {
+                    indexedInsertRecord(bPlusTree, record);
+                } else {
+                    insertRecord(tableID, record);
+                }
+            }
+        }
+    }
+
+    /**
+     * Called before a command reports SUCCESS (see Query.printSuccess), and by
+     * the main driving program at the end of every command. The command's
+     * changes are written to the log, then a checkpoint is made if
+     * the command changed the catalog, if modified pages held for a checkpoint
+     * fill most of the buffer (see checkpointIfBufferFull), or if the log has
+     * grown large.
+     */
+    public synchronized void commit() {
+        if (log == null) {
+            return;
+        }
+        try {
+            log.commit();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if (catalogChanged || buffer.pageTable.size() > Main.bufferSizeLimit || buffer.NeedsCheckpoint()
+                || log.size() >= WriteAheadLog.CHECKPOINT_LOG_SIZE) {
+            checkpoint();
+        }
     }
 
     /**
-     * Returns the record count of table with given table id.
-     * 
-     * @param tableID : Given table id.
-     * @return integer - number of records in table.
+     * Called between the changes a command makes, where every change made so
+     * far is logged and the pages agree with the catalog. Makes a checkpoint once
+     * the modified pages held in the buffer (see BufferManager.MakeRoom) fill
+     * most of it, so a command that changes many pages, like an import or an
+     * update of a whole table, keeps the buffer to its size. The pages written
+     * stay in the buffer, and are evicted as usual by the pages read next.
+     * A command cut short after such a checkpoint keeps the changes it made
+     * before it, as it would without a log.
      */
-    public int getRecordCountForTable(int tableID) {
-        ArrayList<Integer> arrayOfPageLocationsOnDisk = Catalog.instance.getTableSchemaById(tableID).getPageOrder();
-        int sum = 0;
-        for (Integer integer : arrayOfPageLocationsOnDisk) {
+    public void checkpointIfBufferFull() {
+        if (checkpointNeeded()) {
+            checkpoint(false);
+        }
+    }
+
+    private boolean checkpointNeeded() {
+        return log != null && !redoing && buffer.NeedsCheckpoint();
+    }
+
+    /**
+     * Writes every modified page, B+ tree node and the catalog to disk, which
+     * is the only time they are written when the database has a log. Only
+     * started between commands, inside a command that changes the catalog
+     * (which logs nothing), or between two logged changes of a command (see
+     * checkpointIfBufferFull), so what it writes is always every logged change
+     * and none that is not.
+     *
+     * Pages past the end of what the catalog on disk refers to are written
+     * first, nothing on disk leads to them yet. The pages written over, and
+     * the catalog, are logged before they are written, so a checkpoint cut
+     * short is finished from the log when the database next starts (see
+     * WriteAheadLog). The log is then emptied, unless commands logged changes
+     * while the background thread wrote the checkpoint, and the pages kept
+     * in the buffer for the checkpoint can be evicted again. A checkpoint the
+     * background thread is writing is waited for first.
+     *
+     * Besides the checkpoints commands make, a background thread makes one
+     * every Main.checkpointMillis if anything changed (see startCheckpointer).
+     */
+    public synchronized void checkpoint() {
+        checkpoint(true);
+    }
+
+    /**
+     * @param makeRoom true to evict pages until the buffer is back to its size,
+     *                 false when a command that may hold pages is running
+     */
+    private synchronized void checkpoint(boolean makeRoom) {
+        while (checkpointWriting) {
             try {
-                int locationOnDisk = integer;
-                sum += buffer.GetPage(tableID, locationOnDisk).getRecordCount();
-            } catch (IOException e) {
-                e.printStackTrace();
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
             }
         }
-        return sum;
+        CheckpointImages images = startCheckpoint();
+        boolean written = false;
+        try {
+            buffer.WriteCheckpoint(images);
+            written = true;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            endCheckpoint(images, written, makeRoom);
+        }
     }
 
-    public int getCurrentBufferSize() {
-        return buffer.PageBuffer.size();
+    /**
+     * Starts a checkpoint, holding the lock: commits what the command logged
+     * and copies what the checkpoint writes (see BufferManager.StartCheckpoint)
+     */
+    private CheckpointImages startCheckpoint() {
+        try {
+            if (log != null) {
+                log.commit();
+            }
+            catalogChanged = false;
+            return buffer.StartCheckpoint();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     /**
-     * Returns the number of tableschemas.
-     * 
-     * @return integer - number of tableschemas.
+     * Ends a checkpoint, holding the lock. If it could not be written, its
+     * pages and the catalog are left to the next one.
      */
-    public int getNumberOfTables() {
-        return Catalog.instance.getTableSchemas().size();
+    private void endCheckpoint(CheckpointImages images, boolean written, boolean makeRoom) {
+        buffer.EndCheckpoint(images, written, makeRoom);
+        if (written) {
+            checkpointedPages = images.checkpointedPages;
+        } else {
+            catalogChanged = true;
+        }
+    }
+
+    /**
+     * Starts the thread that checkpoints every Main.checkpointMillis, unless
+     * that is 0. A checkpoint only starts between commands: the driving
+     * program holds the Storage Manager's lock while a command runs, and the
+     * thread takes it to copy the modified pages and the catalog. The copies
+     * are written and forced without the lock, so commands carry on meanwhile,
+     * then the thread takes it again to end the checkpoint. Keeping the log
+     * short keeps the work redone at startup short, and the pages are written
+     * a few at a time instead of all at shutdown. A checkpoint that fails to
+     * be written is reported and tried again on the next interval.
+     */
+    private void startCheckpointer() {
+        if (Main.checkpointMillis == 0) {
+            return;
+        }
+        checkpointThread = new Thread(() -> {
+            while (waitForCheckpoint()) {
+                CheckpointImages images;
+                synchronized (this) {
+                    if (log.size() == 0 && !catalogChanged && !buffer.HasModifiedPages()) {
+                        continue;
+                    }
+                    images = startCheckpoint();
+                    checkpointWriting = true;
+                }
+                boolean written = false;
+                try {
+                    buffer.WriteCheckpoint(images);
+                    written = true;
+                } catch (IOException e) {
+                    // the pages are marked modified again, the next checkpoint retries them
+                    e.printStackTrace();
+                } finally {
+                    synchronized (this) {
+                        endCheckpoint(images, written, false);
+                        checkpointWriting = false;
+                        notifyAll();
+                    }
+                }
+            }
+        }, "checkpointer");
+        checkpointThread.setDaemon(true);
+        checkpointThread.start();
+    }
+
+    /**
+     * Waits Main.checkpointMillis, or until the checkpointer is stopped. The
+     * thread is never interrupted instead, that would close the files under a
+     * checkpoint.
+     *
+     * @return false once the checkpointer is stopping
+     */
+    private boolean waitForCheckpoint() {
+        synchronized (checkpointSignal) {
+            if (!stoppingCheckpoints) {
+                try {
+                    checkpointSignal.wait(Main.checkpointMillis);
+                } catch (InterruptedException e) {
+                    return false;
+                }
+            }
+            return !stoppingCheckpoints;
+        }
+    }
+
+    /**
+     * Stops the checkpointer thread, waiting for a checkpoint it is making to finish
+     */
+    private void stopCheckpointer() {
+        if (checkpointThread == null) {
+            return;
+        }
+        synchronized (checkpointSignal) {
+            stoppingCheckpoints = true;
+            checkpointSignal.notifyAll();
+        }
+        try {
+            checkpointThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        checkpointThread = null;
+    }
+
+    /**
+     * @return how many pages of each table file and B+ tree file the catalog
+     *         refers to, by file number, counted once it was read or before a
+     *         checkpoint writes it
+     */
+    private HashMap<Integer, Integer> countCheckpointedPages() {
+        HashMap<Integer, Integer> pages = new HashMap<>();
+        for (TableSchema table : Catalog.instance.getTableSchemas()) {
+            int numPages = 0;
+            for (int pageLocation : table.getPageOrder()) {
+                numPages = Math.max(numPages, pageLocation + 1);
+            }
+            pages.put(table.getTableId(), numPages);
+            if (Catalog.instance.getIndexing() == 't') {
+                pages.put(indexFileNumber(table.getTableId()), table.getNextAvailableNodeIndex());
+            }
+        }
+        return pages;
     }
 
     /**
@@ -933,10 +1853,36 @@ public class StorageManager {
      * to initiate purging buffer contents
      */
     public void writeOutBuffer() {
+        stopCheckpointer();
         try {
             buffer.PurgeBuffer();
+            // written after the pages, so a clean index file never describes pages
+            // that did not make it to disk
+            for (Map.Entry<Integer, ArrayList<UniqueIndex>> entry : uniqueIndexes.entrySet()) {
+                TableSchema table = Catalog.instance.getTableSchemaById(entry.getKey());
+                if (table == null || entry.getValue().isEmpty()) {
+                    continue;
+                }
+                int pkIndex = Catalog.instance.getTablePKIndex(table.getTableId());
+                int pkType = table.getAttributes().get(pkIndex).getType();
+                UniqueIndex.write(Paths.get(indexesRootPath, String.valueOf(table.getTableId())).toFile(),
+                        entry.getValue(), pkType, true);
+            }
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            if (mappedTables != null) {
+                mappedTables.closeAll(); // forces the pages written out by the purge
+            }
+            fileChannels.closeAll();
+            if (log != null) {
+                try {
+                    log.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                log = null;
+            }
         }
     }
 
@@ -945,14 +1891,40 @@ public class StorageManager {
      * Has Four Public Methods, GetPage(), createNewPage(), pageSplit(),
      * and PurgeBuffer().
      * The Buffer is in place to ideally reduce read/writes to file system
+     * Which page is evicted when the buffer is full is decided by the
+     * ReplacementPolicy chosen on the command line.
      * 
      * author: Charlie Baker
      */
+    /**
+     * What a checkpoint writes, copied when it starts so it can be written
+     * while commands change the buffer and the catalog
+     */
+    private static class CheckpointImages {
+        // the modified pages, and for each the bytes written, where, and whether it is written over
+        final ArrayList<Page> pages = new ArrayList<>();
+        final ArrayList<byte[]> pageBytes = new ArrayList<>();
+        final ArrayList<String> filePaths = new ArrayList<>();
+        final ArrayList<Integer> fileNumbers = new ArrayList<>();
+        final ArrayList<Integer> locations = new ArrayList<>();
+        final ArrayList<Boolean> writtenOver = new ArrayList<>();
+        byte[] catalogBytes;
+        long checkpointLsn = -1;
+        // pages in each file the catalog written refers to, see checkpointedPages
+        HashMap<Integer, Integer> checkpointedPages;
+    }
+
     private class BufferManager {
-        // will be THE NEXT value to assign when page is accessed
-        private long counterForLRU = 0;
-        // The Program Wide Buffer Itself
-        ArrayList<Page> PageBuffer = new ArrayList<>();
+        // The Program Wide Buffer Itself, finds a buffered page by table and page number
+        PageTable pageTable = new PageTable(Main.bufferSizeLimit);
+        // decides which buffered page to evict
+        ReplacementPolicy replacementPolicy = ReplacementPolicy.forName(Main.replacementPolicy,
+                Main.bufferSizeLimit);
+        // modified pages the replacement policy picked, kept until the next checkpoint
+        int heldPages = 0;
+        // evictions that had to write the page out, and ones that just dropped it
+        long dirtyEvictions = 0;
+        long cleanEvictions = 0;
 
         /**
          * Request A page by table number id and page number
@@ -972,15 +1944,14 @@ public class StorageManager {
          * @return Page Object from buffer or disk
          */
         public Page GetPage(int tableNumber, int pageNumber) throws IOException {
-            // if block is present in pageBuffer ArrayList already then return that page
-            for (Page inBufferPage : PageBuffer) {
-                if ((inBufferPage.getTableNumber() == tableNumber) &&
-                        (inBufferPage.getPageNumberOnDisk() == pageNumber)) {
-                    inBufferPage.setLruLongValue(counterForLRU); // update count
-                    counterForLRU++; // and increment counterForLRU
-                    // hand page off, we do not need to read from disk since already in buffer
-                    return inBufferPage;
+            // if block is present in the buffer already then return that page
+            Page inBufferPage = pageTable.get(tableNumber, pageNumber);
+            if (inBufferPage != null) {
+                if (!inBufferPage.held) {
+                    replacementPolicy.access(inBufferPage);
                 }
+                // hand page off, we do not need to read from disk since already in buffer
+                return inBufferPage;
             }
             // page is not in the buffer so call the buffer logic
             return AddToBufferLogic(tableNumber, pageNumber, false);
@@ -997,60 +1968,124 @@ public class StorageManager {
          * @throws IOException exception
          */
         private Page AddToBufferLogic(int aTableNumber, int aPageNumber, boolean createNew) throws IOException {
-            int maxBufferSize = Main.bufferSizeLimit;
-            // At beginning of program buffer will not be at capacity,
-            // so we call read immediately
-            if (PageBuffer.size() < maxBufferSize) {
-                if (createNew) { // Method has a bit of redundancy that can be cleaned up
-                    Page newPage = new Page();
-                    ArrayList<Record> records = new ArrayList<>();
-                    newPage.setRecordsInPage(records);
-                    newPage.setTableNumber(aTableNumber);
-                    newPage.setIsModified(true);
-                    newPage.setPageNumberOnDisk(aPageNumber);
-                    newPage.setLruLongValue(counterForLRU);
-                    counterForLRU++;
-                    PageBuffer.add(newPage);
-                    return newPage;
-                } // else the page exists on disk (is not a brand-new page)
-                Page newlyReadPage = ReadPageFromDisk(aTableNumber, aPageNumber);
-                newlyReadPage.setLruLongValue(counterForLRU);
-                counterForLRU++;
-                PageBuffer.add(newlyReadPage);
-                return newlyReadPage;
+            MakeRoom();
+            // there is now room in the buffer
+            Page page;
+            if (createNew) {
+                page = new Page();
+                ArrayList<Record> records = new ArrayList<>();
+                page.setRecordsInPage(records);
+                page.setTableNumber(aTableNumber);
+                page.setIsModified(true);
+                page.setPageNumberOnDisk(aPageNumber);
+            } else { // the page exists on disk (is not a brand-new page)
+                page = ReadPageFromDisk(aTableNumber, aPageNumber);
+            }
+            pageTable.put(page);
+            replacementPolicy.admit(page);
+            return page;
+        }
+
+        /**
+         * At beginning of program buffer will not be at capacity,
+         * otherwise make room by evicting the page the replacement policy picks.
+         * With a log, a modified page the policy picks is not written out: it is
+         * held in the buffer until the next checkpoint and the policy picks
+         * again, as is a page the background checkpointer is writing. Once held pages fill most of the buffer the command makes a
+         * checkpoint between its next two changes (see checkpointIfBufferFull),
+         * until then the buffer only grows past its size if every page is held.
+         */
+        private void MakeRoom() throws IOException {
+            while (pageTable.size() >= Main.bufferSizeLimit) {
+                Page evictedPage = replacementPolicy.evict();
+                if (evictedPage == null) {
+                    return;
+                }
+                if ((evictedPage.getisModified() || evictedPage.writing) && log != null) {
+                    evictedPage.held = true;
+                    heldPages++;
+                    continue;
+                }
+                // write the evicted page to hardware/disk, only if the copy on disk is outdated
+                if (evictedPage.getisModified()) {
+                    WritePageToDisk(evictedPage);
+                    dirtyEvictions++;
+                } else {
+                    cleanEvictions++;
+                }
+                pageTable.remove(evictedPage.getTableNumber(), evictedPage.getPageNumberOnDisk());
+            }
+        }
+
+        /**
+         * Stops tracking a page that leaves the buffer without being evicted
+         */
+        private void Untrack(Page page) {
+            if (page.held) {
+                page.held = false;
+                heldPages--;
             } else {
-                int indexOfLRU = 0;
-                long tempLRUCountVal = Long.MAX_VALUE;
-                // find the LRU page
-                for (int curPageIndex = 0; curPageIndex < maxBufferSize; curPageIndex++) {
-                    long lruCountVal = PageBuffer.get(curPageIndex).getLruLongValue();
-                    if (lruCountVal < tempLRUCountVal) {
-                        tempLRUCountVal = lruCountVal;
-                        indexOfLRU = curPageIndex;
-                    }
+                replacementPolicy.remove(page);
+            }
+        }
+
+        /**
+         * @return true once held pages take three quarters of the buffer, which
+         *         leaves the rest for the pages the change being made needs
+         */
+        private boolean NeedsCheckpoint() {
+            return heldPages > 0 && heldPages >= Main.bufferSizeLimit - Main.bufferSizeLimit / 4;
+        }
+
+        /**
+         * Request a node of a table's B+ tree by its location in the tree's file.
+         * Nodes are held in the buffer like pages, and evicted by the same
+         * replacement policy.
+         *
+         * @param tree      the B+ tree
+         * @param nodeIndex location of the node in the tree's file, in pages
+         * @return the node from buffer or disk
+         */
+        public BPlusNode GetIndexNode(BPlusTree tree, int nodeIndex) throws IOException {
+            Page inBufferPage = pageTable.get(indexFileNumber(tree.getTableId()), nodeIndex);
+            if (inBufferPage != null) {
+                if (!inBufferPage.held) {
+                    replacementPolicy.access(inBufferPage);
                 }
-                // write the LRU page to hardware/disk. Dont need to write out here if no change
-                // to update on disk
-                WritePageToDisk(PageBuffer.get(indexOfLRU));
-                // there is now room in the buffer
-                if (createNew) {
-                    Page newPage = new Page();
-                    ArrayList<Record> records = new ArrayList<>();
-                    newPage.setRecordsInPage(records);
-                    newPage.setTableNumber(aTableNumber);
-                    newPage.setIsModified(true);
-                    newPage.setPageNumberOnDisk(aPageNumber);
-                    newPage.setLruLongValue(counterForLRU);
-                    counterForLRU++;
-                    PageBuffer.set(indexOfLRU, newPage);
-                    return newPage;
-                } // else the page exists on disk (is not a brand-new page)
-                Page newlyReadPage = ReadPageFromDisk(aTableNumber, aPageNumber);
-                newlyReadPage.setLruLongValue(counterForLRU);
-                counterForLRU++;
-                PageBuffer.set(indexOfLRU, newlyReadPage); // place page in buffer at location
-                return newlyReadPage; // we wrote out the page
+                return ((IndexPage) inBufferPage).node;
+            }
+            MakeRoom();
+            IndexPage page = ReadIndexPageFromDisk(tree, nodeIndex);
+            pageTable.put(page);
+            replacementPolicy.admit(page);
+            return page.node;
+        }
+
+        /**
+         * Marks a node of a B+ tree as modified, so its copy on disk is written
+         * when it is evicted. A node that is not in the buffer (a new node, or one
+         * evicted since it was read) is added to it.
+         *
+         * @param tree the B+ tree
+         * @param node the changed node
+         */
+        public void PutIndexNode(BPlusTree tree, BPlusNode node) throws IOException {
+            int fileNumber = indexFileNumber(tree.getTableId());
+            Page inBufferPage = pageTable.get(fileNumber, node.getNodeIndex());
+            if (inBufferPage != null && ((IndexPage) inBufferPage).node == node) {
+                inBufferPage.setIsModified(true);
+                return;
+            }
+            if (inBufferPage != null) { // an older copy of the node, replaced by this one
+                pageTable.remove(fileNumber, node.getNodeIndex());
+                Untrack(inBufferPage);
+            } else {
+                MakeRoom();
             }
+            IndexPage page = new IndexPage(tree, node);
+            page.setIsModified(true);
+            pageTable.put(page);
+            replacementPolicy.admit(page);
         }
 
         /**
@@ -1078,18 +2113,21 @@ public class StorageManager {
         /**
          * Method is called only by the insert record method for the time being
          * 
+         * The page's records are split in half between it and a new page after it.
+         * When the records are too big for either half to fit in a page, they are
+         * instead put on as many pages as it takes, each filled in turn.
+         *
          * @param overFullPage page that had a record insert causing it to be too large
          * @param tableNumber  table number needed to get table schema
          *                     No Return needed, because insertRecord method has
          *                     successfully handled insert
          *                     upon end of this method
-         * @return pageNumber of new page that was created as result of split
+         * @return pageNumbers of the new pages that were created as result of split,
+         *         in page order
          */
-        public int PageSplit(Page overFullPage, int tableNumber) throws IOException {
+        public ArrayList<Integer> PageSplit(Page overFullPage, int tableNumber) throws IOException {
             overFullPage.setIsModified(true);
-            // create new page handles adding new page to buffer
-            Page newEmptyPage = CreateNewPage(tableNumber, overFullPage.getPageNumberOnDisk());
-            // newEmptyPage is in the buffer, now copy the records over
+            TableSchema table = Catalog.instance.getTableSchemaById(tableNumber);
             ArrayList<Record> firstPageRecords = new ArrayList<>();
             ArrayList<Record> secondPageRecords = new ArrayList<>();
             ArrayList<Record> overFullPageRecords = overFullPage.getRecordsInPage();
@@ -1102,13 +2140,45 @@ public class StorageManager {
             for (int rec = 0; rec < numRecordsToCopy; rec++) {
                 firstPageRecords.add(overFullPageRecords.get(rec));
             }
-            overFullPage.setRecordsInPage(firstPageRecords);
             for (int r = numRecordsToCopy; r < numberOfRecordsInPage; r++) {
                 secondPageRecords.add(overFullPageRecords.get(r));
             }
-            newEmptyPage.setRecordsInPage(secondPageRecords);
+            ArrayList<ArrayList<Record>> splitPages = new ArrayList<>();
+            if (computePageSize(table, firstPageRecords) <= Main.pageSize
+                    && computePageSize(table, secondPageRecords) <= Main.pageSize) {
+                splitPages.add(firstPageRecords);
+                splitPages.add(secondPageRecords);
+            } else {
+                ArrayList<Record> pageRecords = new ArrayList<>();
+                int pageSizeInBytes = Page.HEADER_SIZE;
+                for (Record record : overFullPageRecords) {
+                    int recordSize = Page.SLOT_SIZE + record.computeStoredSize(table.getRecordFormat());
+                    if (pageSizeInBytes + recordSize > Main.pageSize && !pageRecords.isEmpty()) {
+                        splitPages.add(pageRecords);
+                        pageRecords = new ArrayList<>();
+                        pageSizeInBytes = Page.HEADER_SIZE;
+                    }
+                    pageRecords.add(record);
+                    pageSizeInBytes += recordSize;
+                }
+                splitPages.add(pageRecords);
+            }
+            overFullPage.setRecordsInPage(splitPages.get(0));
+            updatePageFences(table, overFullPage);
+            // create new page handles adding new page to buffer. Done after shrinking
+            // overFullPage, so if making room evicts it, what gets written out fits on disk
+            ArrayList<Integer> newPageNumbers = new ArrayList<>();
+            int priorPageNumber = overFullPage.getPageNumberOnDisk();
+            for (int i = 1; i < splitPages.size(); i++) {
+                Page newEmptyPage = CreateNewPage(tableNumber, priorPageNumber);
+                newEmptyPage.setRecordsInPage(splitPages.get(i));
+                newEmptyPage.setIsModified(true);
+                updatePageFences(table, newEmptyPage);
+                priorPageNumber = newEmptyPage.getPageNumberOnDisk();
+                newPageNumbers.add(priorPageNumber);
+            }
             // page has been split appropriately
-            return newEmptyPage.getPageNumberOnDisk();
+            return newPageNumbers;
         }
 
         /**
@@ -1125,13 +2195,17 @@ public class StorageManager {
          */
         private Page ReadPageFromDisk(int tableNum, int pageNum) throws IOException {
             String tableFilePath = Paths.get(tablesRootPath, String.valueOf(tableNum)).toString();
-            RandomAccessFile file = new RandomAccessFile(tableFilePath, "r");
-            // seek through table file to memory you want and read in page size
-            file.seek((long) pageNum * Main.pageSize);
-            byte[] pageByteArray = new byte[Main.pageSize];
-            file.read(pageByteArray, 0, Main.pageSize);
-            file.close();
-            Page readPage = Page.parseBytes(tableNum, pageByteArray);
+            SchemaVersion storedSchema = Catalog.instance.getTableSchemaById(tableNum).getStoredSchema(pageNum);
+            Page readPage;
+            if (mappedTables != null) {
+                // decode straight from the mapped file
+                readPage = Page.parseBytes(tableNum, storedSchema, mappedTables.readPage(tableFilePath, pageNum));
+            } else {
+                byte[] pageByteArray = new byte[Main.pageSize];
+                // read page size worth of bytes from where the page lies in the table file
+                fileChannels.read(tableFilePath, (long) pageNum * Main.pageSize, ByteBuffer.wrap(pageByteArray));
+                readPage = Page.parseBytes(tableNum, storedSchema, pageByteArray);
+            }
             readPage.setTableNumber(tableNum);
             readPage.setPageNumberOnDisk(pageNum);
             return readPage;
@@ -1148,14 +2222,238 @@ public class StorageManager {
          *                    byte[]
          */
         private void WritePageToDisk(Page pageToWrite) throws IOException {
-            int tableNumber = pageToWrite.getTableNumber();
-            int pageNumber = pageToWrite.getPageNumberOnDisk();
-            String tableFilePath = Paths.get(tablesRootPath, String.valueOf(tableNumber)).toString();
-            RandomAccessFile file = new RandomAccessFile(tableFilePath, "rw");
-            // seek through table file to memory you want and write out page size
-            file.seek((long) pageNumber * Main.pageSize);
-            file.write(Page.parsePage(pageToWrite)); // still need to write out page size worth of bytes
-            file.close();
+            WritePageBytes(pageToWrite, PageBytes(pageToWrite));
+            pageToWrite.setIsModified(false); // disk copy is now up-to-date
+        }
+
+        /**
+         * @return the bytes a page (or B+ tree node) is written to disk as, the
+         *         page's table records the schema version they are in
+         */
+        private byte[] PageBytes(Page page) {
+            if (page instanceof IndexPage) {
+                IndexPage indexPage = (IndexPage) page;
+                return indexPage.node.parseNode(Main.pageSize, indexPage.tree.getKeySize());
+            }
+            // a page changed only in place is still in the schema version it was read in
+            Catalog.instance.getTableSchemaById(page.getTableNumber()).setStoredSchema(page.getPageNumberOnDisk(),
+                    page.getStoredSchema());
+            return Page.parsePage(page);
+        }
+
+        /**
+         * Writes out page size worth of bytes where the page lies in its table
+         * file, or where the node lies in its B+ tree file
+         */
+        private void WritePageBytes(Page page, byte[] pageBytes) throws IOException {
+            int pageNumber = page.getPageNumberOnDisk();
+            String tableFilePath = FilePath(page);
+            if (mappedTables != null && !(page instanceof IndexPage)) {
+                mappedTables.writePage(tableFilePath, pageNumber, pageBytes);
+            } else {
+                fileChannels.write(tableFilePath, (long) pageNumber * Main.pageSize, ByteBuffer.wrap(pageBytes));
+            }
+        }
+
+        /**
+         * @return the table file of a page, or the B+ tree file of a node
+         */
+        private String FilePath(Page page) {
+            if (page instanceof IndexPage) {
+                return BPlusTree.getFilePath(((IndexPage) page).tree.getTableId());
+            }
+            return Paths.get(tablesRootPath, String.valueOf(page.getTableNumber())).toString();
+        }
+
+        /**
+         * @return true if a page in the buffer was modified since it was read or last written
+         */
+        private boolean HasModifiedPages() {
+            for (Page page : pageTable.getPages()) {
+                if (page.getisModified()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Forces the pages written since the last force to disk
+         */
+        private void ForceWrittenPages() throws IOException {
+            fileChannels.force();
+            if (mappedTables != null) {
+                mappedTables.flush();
+            }
+        }
+
+        /**
+         * The buffer's part of starting a checkpoint, holding the Storage
+         * Manager's lock: copies the bytes of every modified page, in table and
+         * location order so each file is written front to back, and of the
+         * catalog. The pages are marked unmodified, but stay in the buffer
+         * until EndCheckpoint. Held pages go back to the replacement policy.
+         */
+        private CheckpointImages StartCheckpoint() throws IOException {
+            if (log == null) {
+                // pages evicted since the last checkpoint were written out without being forced
+                ForceWrittenPages();
+            }
+            ArrayList<Page> modifiedPages = new ArrayList<>();
+            for (Page page : pageTable.getPages()) {
+                if (page.getisModified()) {
+                    modifiedPages.add(page);
+                }
+            }
+            modifiedPages.sort(Comparator.comparingInt(Page::getTableNumber)
+                    .thenComparingInt(Page::getPageNumberOnDisk));
+            CheckpointImages images = new CheckpointImages();
+            for (Page page : modifiedPages) {
+                images.pages.add(page);
+                images.pageBytes.add(PageBytes(page));
+                images.filePaths.add(FilePath(page));
+                images.fileNumbers.add(page.getTableNumber());
+                images.locations.add(page.getPageNumberOnDisk());
+                // a page below what the catalog on disk refers to is logged before it is written over
+                images.writtenOver.add(log != null && page.getPageNumberOnDisk()
+                        < checkpointedPages.getOrDefault(page.getTableNumber(), 0));
+                page.setIsModified(false);
+                page.writing = true;
+            }
+            if (log != null) {
+                // every change logged before this is in the checkpoint
+                images.checkpointLsn = log.endLsn();
+                Catalog.instance.setCheckpointLsn(images.checkpointLsn);
+            }
+            images.catalogBytes = Catalog.instance.toBytes();
+            images.checkpointedPages = countCheckpointedPages();
+
+            for (Page page : pageTable.getPages()) {
+                if (page.held) {
+                    page.held = false;
+                    replacementPolicy.admit(page);
+                }
+            }
+            heldPages = 0;
+            return images;
+        }
+
+        /**
+         * Writes a checkpoint's copies out. Touches nothing the Storage
+         * Manager's lock guards, so the background checkpointer does it while
+         * commands run. The pages not written over go first, then the images
+         * of the others and of the catalog are logged, then those pages and
+         * last the catalog are written. Each file is opened for the checkpoint
+         * alone, the shared file channels and mapped files are only used by
+         * commands.
+         */
+        private void WriteCheckpoint(CheckpointImages images) throws IOException {
+            HashMap<String, FileChannel> files = new HashMap<>();
+            try {
+                WriteCheckpointPages(images, false, files);
+                if (log != null) {
+                    ArrayList<Integer> fileNumbers = new ArrayList<>();
+                    ArrayList<Integer> locations = new ArrayList<>();
+                    ArrayList<byte[]> pageBytes = new ArrayList<>();
+                    for (int i = 0; i < images.pages.size(); i++) {
+                        if (images.writtenOver.get(i)) {
+                            fileNumbers.add(images.fileNumbers.get(i));
+                            locations.add(images.locations.get(i));
+                            pageBytes.add(images.pageBytes.get(i));
+                        }
+                    }
+                    log.logCheckpoint(fileNumbers, locations, pageBytes, images.catalogBytes,
+                            images.checkpointLsn);
+                }
+                WriteCheckpointPages(images, true, files);
+            } finally {
+                for (FileChannel file : files.values()) {
+                    file.close();
+                }
+            }
+            Catalog.writeCatalogBytes(rootPath, images.catalogBytes);
+            if (log != null) {
+                log.reset();
+            }
+        }
+
+        /**
+         * Writes the checkpoint's pages that are, or are not, written over,
+         * then forces them to disk
+         */
+        private void WriteCheckpointPages(CheckpointImages images, boolean writtenOver,
+                HashMap<String, FileChannel> files) throws IOException {
+            ArrayList<FileChannel> written = new ArrayList<>();
+            for (int i = 0; i < images.pages.size(); i++) {
+                if (images.writtenOver.get(i) != writtenOver) {
+                    continue;
+                }
+                String filePath = images.filePaths.get(i);
+                FileChannel file = files.get(filePath);
+                if (file == null) {
+                    file = FileChannel.open(Paths.get(filePath), StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+                    files.put(filePath, file);
+                }
+                if (!written.contains(file)) {
+                    written.add(file);
+                }
+                ByteBuffer bytes = ByteBuffer.wrap(images.pageBytes.get(i));
+                long position = (long) images.locations.get(i) * Main.pageSize;
+                while (bytes.hasRemaining()) {
+                    position += file.write(bytes, position);
+                }
+            }
+            for (FileChannel file : written) {
+                file.force(false);
+            }
+        }
+
+        /**
+         * The buffer's part of ending a checkpoint, holding the Storage
+         * Manager's lock: its pages can be evicted again, and pages held while
+         * it was written go back to the replacement policy. Pages of a
+         * checkpoint that could not be written are marked modified again.
+         *
+         * @param makeRoom true to bring the buffer back to its size by evicting
+         *                 pages, now all unmodified. Ignored when the checkpoint
+         *                 was not written, its pages stay for the next one
+         */
+        private void EndCheckpoint(CheckpointImages images, boolean written, boolean makeRoom) {
+            for (Page page : images.pages) {
+                page.writing = false;
+                if (!written) {
+                    page.setIsModified(true);
+                }
+            }
+            for (Page page : pageTable.getPages()) {
+                if (page.held) {
+                    page.held = false;
+                    replacementPolicy.admit(page);
+                }
+            }
+            heldPages = 0;
+            while (written && makeRoom && pageTable.size() > Main.bufferSizeLimit) {
+                Page evictedPage = replacementPolicy.evict();
+                cleanEvictions++;
+                pageTable.remove(evictedPage.getTableNumber(), evictedPage.getPageNumberOnDisk());
+            }
+        }
+
+        /**
+         * Reads a node of a B+ tree from the page it takes in the tree's file.
+         * Every node not in the buffer has been written out whole, so a node
+         * past the end of the file is never decoded from zeros.
+         */
+        private IndexPage ReadIndexPageFromDisk(BPlusTree tree, int nodeIndex) throws IOException {
+            byte[] nodeBytes = new byte[Main.pageSize];
+            int read = fileChannels.read(BPlusTree.getFilePath(tree.getTableId()), (long) nodeIndex * Main.pageSize,
+                    ByteBuffer.wrap(nodeBytes));
+            if (read < Main.pageSize) {
+                throw new IOException("B+ tree node " + nodeIndex + " of table " + tree.getTableId()
+                        + " is past the end of its file");
+            }
+            return new IndexPage(tree, BPlusNode.parseBytes(nodeIndex, ByteBuffer.wrap(nodeBytes),
+                    tree.getKeyType(), tree.getKeySize(), tree.getLimit()));
         }
 
         /**
@@ -1168,42 +2466,50 @@ public class StorageManager {
          * @throws IOException
          */
         private void removeEmptyPageFromBuffer(int tableId, int pageNumber) throws IOException {
-            int numPagesInBuffer = PageBuffer.size();
-            for (int pageIndex = 0; pageIndex < numPagesInBuffer; pageIndex++) {
-                Page pageref = PageBuffer.get(pageIndex);
-                if (tableId == pageref.getTableNumber()) {
-                    if (pageNumber == pageref.getPageNumberOnDisk()) {
-                        PageBuffer.remove(pageIndex);
-                        break;
-                    }
-                }
+            Page removedPage = pageTable.remove(tableId, pageNumber);
+            if (removedPage != null) {
+                Untrack(removedPage);
             }
         }
 
         /**
          * We DO NOT want to write the records for this table that are
-         * present to disk, because our records are different now
+         * present to disk, because our records are different now.
+         * The nodes of the table's B+ tree are dropped too.
          * 
          * @param tableId the table to remove all corresponding pages
          *                from the buffer
          * @throws IOException
          */
         public void PurgeTableFromBuffer(int tableId) throws IOException {
-            // an arraylist of all the buffer indexes where a page needs to be removed from
-            ArrayList<Integer> indexesofpagestoremove = new ArrayList<>();
-            int numPagesInBuffer = PageBuffer.size();
-            for (int pageIndex = 0; pageIndex < numPagesInBuffer; pageIndex++) {
-                Page pageref = PageBuffer.get(pageIndex);
-                if (tableId == pageref.getTableNumber()) {
-                    indexesofpagestoremove.add(pageIndex);
+            for (Page pageref : pageTable.getPages()) {
+                if (tableId == pageref.getTableNumber() || indexFileNumber(tableId) == pageref.getTableNumber()) {
+                    pageTable.remove(pageref.getTableNumber(), pageref.getPageNumberOnDisk());
+                    Untrack(pageref);
                 }
             }
-            int numpagestoremove = indexesofpagestoremove.size();
-            for (int i = numpagestoremove - 1; i >= 0; i--) {
-                int value = indexesofpagestoremove.get(i);
-                PageBuffer.remove(value);
-                if (PageBuffer.isEmpty()) {
-                    return;
+            replacementPolicy.removeTable(tableId);
+            replacementPolicy.removeTable(indexFileNumber(tableId));
+        }
+
+        /**
+         * Writes out the table's modified pages and removes all of its pages
+         * from the buffer, called before the table's schema changes so no page
+         * in the buffer holds records of the schema being replaced.
+         * The nodes of the table's B+ tree stay.
+         *
+         * @param tableId the table to remove all corresponding pages
+         *                from the buffer
+         * @throws IOException
+         */
+        public void FlushTableFromBuffer(int tableId) throws IOException {
+            for (Page pageref : pageTable.getPages()) {
+                if (tableId == pageref.getTableNumber()) {
+                    if (pageref.getisModified()) {
+                        WritePageToDisk(pageref);
+                    }
+                    pageTable.remove(pageref.getTableNumber(), pageref.getPageNumberOnDisk());
+                    Untrack(pageref);
                 }
             }
         }
@@ -1216,12 +2522,31 @@ public class StorageManager {
          * This method is invoked when quit is typed at command line
          */
         public void PurgeBuffer() throws IOException {
-            for (Page page : PageBuffer) {
-                // if (page.getisModified()) {
-                WritePageToDisk(page);
-                // }
+            for (Page page : pageTable.getPages()) {
+                if (page.getisModified()) {
+                    WritePageToDisk(page);
+                }
             }
         }
     }
 
 }
+
+/**
+ * A node of a table's B+ tree while it is in the buffer.
+ * It is filed in the page table under its table's index file number (see
+ * StorageManager.indexFileNumber) and its location in the tree's file, so it
+ * never takes the place of a page of the table itself.
+ */
+class IndexPage extends Page {
+
+    final BPlusTree tree;
+    final BPlusNode node;
+
+    IndexPage(BPlusTree tree, BPlusNode node) {
+        this.tree = tree;
+        this.node = node;
+        setTableNumber(StorageManager.indexFileNumber(tree.getTableId()));
+        setPageNumberOnDisk(node.getNodeIndex());
+    }
+}
@@ -3,7 +3,12 @@
  */
 package src;
 
+import src.BPlusTree.BPlusNode;
+
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
 
 public class TableSchema {
 
@@ -50,6 +55,28 @@ public class TableSchema {
 
      private int nextAvailableNodeIndex;
 
+    // How this table's records are encoded on its pages, see Record
+    private int recordFormat;
+
+    /*
+     * Page fences, the smallest and largest primary key on each page in the
+     * page order, keyed by the page's location on disk. Pages are kept in
+     * primary key order, so these are enough to find the one page a key
+     * belongs on without reading any other page.
+     */
+    private HashMap<Integer, Object> pageMinKeys;
+    private HashMap<Integer, Object> pageMaxKeys;
+
+    /*
+     * Schema versions, see SchemaVersion. Every alter starts a new version.
+     * Pages still stored in an older version are kept in pageSchemaVersions,
+     * keyed by the page's location on disk; a page that is not in it is
+     * stored in the current version.
+     */
+    private int schemaVersion;
+    private HashMap<Integer, SchemaVersion> oldSchemaVersions;
+    private HashMap<Integer, Integer> pageSchemaVersions;
+
     /**
      * Creates an instance of the Table object.
      * 
@@ -68,30 +95,206 @@ public class TableSchema {
         this.rootOffset = -1;
         this.nextAvailableNodeIndex = -1;
         this.N = -1;
+        this.recordFormat = Record.COMPACT_RECORD_FORMAT;
+        this.pageMinKeys = new HashMap<>();
+        this.pageMaxKeys = new HashMap<>();
+        this.schemaVersion = 0;
+        this.oldSchemaVersions = new HashMap<>();
+        this.pageSchemaVersions = new HashMap<>();
+    }
+
+    /**
+     * Returns the smallest primary key on the page at the given location.
+     *
+     * @param pageLocation : location of the page on disk
+     * @return the key, or null if the page's fences are not known
+     */
+    public Object getPageMinKey(int pageLocation) {
+        return pageMinKeys.get(pageLocation);
+    }
+
+    /**
+     * Returns the largest primary key on the page at the given location.
+     *
+     * @param pageLocation : location of the page on disk
+     * @return the key, or null if the page's fences are not known
+     */
+    public Object getPageMaxKey(int pageLocation) {
+        return pageMaxKeys.get(pageLocation);
+    }
+
+    /**
+     * Records the smallest and largest primary key on a page.
+     *
+     * @param pageLocation : location of the page on disk
+     * @param minKey       : primary key of the page's first record
+     * @param maxKey       : primary key of the page's last record
+     */
+    public void setPageFences(int pageLocation, Object minKey, Object maxKey) {
+        pageMinKeys.put(pageLocation, minKey);
+        pageMaxKeys.put(pageLocation, maxKey);
+    }
+
+    /**
+     * Forgets the fences of a page, called when the page leaves the page order.
+     *
+     * @param pageLocation : location of the page on disk
+     */
+    public void removePageFences(int pageLocation) {
+        pageMinKeys.remove(pageLocation);
+        pageMaxKeys.remove(pageLocation);
     }
 
     /**
-     * Offset index for root, -1 indicates there is no root set yet
-     * Integer Data Type
-     * Size of Data Type
-     * Next available free index
-     * The N of the bPlusTree
+     * Returns the number of pages whose fences are known. Equal to the number
+     * of pages in the page order once every page's fences are known.
      *
+     * @return number of fenced pages.
+     */
+    public int getPageFenceCount() {
+        return pageMinKeys.size();
+    }
+
+    /**
+     * Returns the version of the table's current schema, 0 until the table is
+     * first altered.
+     *
+     * @return schema version number.
+     */
+    public int getSchemaVersion() {
+        return schemaVersion;
+    }
+
+    /**
+     * Sets the version of the table's current schema, only changed when
+     * reading the catalog.
+     *
+     * @param schemaVersion : schema version number
+     */
+    public void setSchemaVersion(int schemaVersion) {
+        this.schemaVersion = schemaVersion;
+    }
+
+    /**
+     * Returns the older schema version the page at the given location is
+     * stored in.
+     *
+     * @param pageLocation : location of the page on disk
+     * @return the schema version, or null if the page is in the current one
+     */
+    SchemaVersion getStoredSchema(int pageLocation) {
+        Integer version = pageSchemaVersions.get(pageLocation);
+        return version == null ? null : oldSchemaVersions.get(version);
+    }
+
+    /**
+     * Records which schema version a page was written in, called whenever a
+     * page of the table is written out.
+     *
+     * @param pageLocation : location of the page on disk
+     * @param storedSchema : older schema version of the page, null for the current one
+     */
+    void setStoredSchema(int pageLocation, SchemaVersion storedSchema) {
+        if (storedSchema == null) {
+            pageSchemaVersions.remove(pageLocation);
+        } else {
+            pageSchemaVersions.put(pageLocation, storedSchema.getVersion());
+        }
+    }
+
+    /**
+     * Returns the locations of pages stored in an older schema version.
+     *
+     * @return page locations, in no particular order.
+     */
+    public ArrayList<Integer> getOldSchemaPages() {
+        return new ArrayList<>(pageSchemaVersions.keySet());
+    }
+
+    /**
+     * Returns the older schema versions some page is still stored in, see
+     * pruneSchemaVersions.
+     *
+     * @return schema versions by version number.
+     */
+    HashMap<Integer, SchemaVersion> getOldSchemaVersions() {
+        return oldSchemaVersions;
+    }
+
+    /**
+     * Starts a new schema version, called by alter before the attributes
+     * change. The current attributes are kept as an older version, and every
+     * page not already stored in an older version is marked as stored in it.
+     */
+    public void archiveSchemaVersion() {
+        ArrayList<Integer> types = new ArrayList<>();
+        for (AttributeSchema attribute : attributes) {
+            types.add(attribute.getType());
+        }
+        oldSchemaVersions.put(schemaVersion, new SchemaVersion(schemaVersion, types));
+        for (int pageLocation : pageOrder) {
+            pageSchemaVersions.putIfAbsent(pageLocation, schemaVersion);
+        }
+        schemaVersion++;
+        pruneSchemaVersions();
+    }
+
+    /**
+     * Forgets the older schema versions no page is stored in anymore.
+     */
+    public void pruneSchemaVersions() {
+        oldSchemaVersions.keySet().retainAll(new HashSet<>(pageSchemaVersions.values()));
+    }
+
+    /**
+     * Drops an attribute from the table's schema. Older schema versions that
+     * still hold the attribute skip it from now on.
+     *
+     * @param column : index of the attribute
+     */
+    public void dropAttribute(int column) {
+        attributes.remove(column);
+        for (SchemaVersion storedSchema : oldSchemaVersions.values()) {
+            storedSchema.dropColumn(column);
+        }
+    }
+
+    /**
+     * Returns the format this table's records are stored in.
+     *
+     * @return Record.LEGACY_RECORD_FORMAT or Record.COMPACT_RECORD_FORMAT
+     */
+    public int getRecordFormat() {
+        return recordFormat;
+    }
+
+    /**
+     * Sets the format this table's records are stored in, only changed when
+     * reading the catalog.
+     *
+     * @param recordFormat : Record.LEGACY_RECORD_FORMAT or Record.COMPACT_RECORD_FORMAT
+     */
+    public void setRecordFormat(int recordFormat) {
+        this.recordFormat = recordFormat;
+    }
+
+    /**
+     * Sets up the table's B+ tree: where its root is (-1 while the tree is
+     * empty), the next unused node location in its file, the type and size in
+     * bytes of its keys, and N, the most keys a node holds.
+     * A node is one page: a header, then its keys, then either a page location
+     * and record index per key (a leaf) or one more child location than keys
+     * (an inner node), so N is the most keys that fit in a page with a pair of
+     * ints each and one int to spare.
      */
     public void setBPlusTreeMetaData(int rootOffset, int nextAvailableNodeIndex, double pageSize, int tablePkIndex) {
         ArrayList<AttributeSchema> tableAttributes = this.getAttributes();
         int indexOfSearchKeyColumn = tablePkIndex;
         this.pkDataType = tableAttributes.get(indexOfSearchKeyColumn).getType();
-        if (this.pkDataType == 1 || this.pkDataType == 2) {
-            //getSize returns 32 bits for an integeer, pkDataTypeSize should always be in bytes here TODO check double assume same as int
-            this.pkDataTypeSize = tableAttributes.get(indexOfSearchKeyColumn).getSize() / 8; //gets size of attribute
-        } else if (this.pkDataType == 4 || this.pkDataType == 5) { //for chars varchars getSize returns num chars so multiply by 2 for bytes
-            this.pkDataTypeSize = tableAttributes.get(indexOfSearchKeyColumn).getSize() * 2; //gets size of attribute
-        } else { //boolean case but boolean should never be primarykey!
-            this.pkDataTypeSize = tableAttributes.get(indexOfSearchKeyColumn).getSize();
-        }
-        double searchKeyPagePointerPairSize = pkDataTypeSize + 4; // +4 for page pointer size being int
-        this.N = ( (int) Math.floor((pageSize / searchKeyPagePointerPairSize)) ) - 1;
+        // for chars and varchars getSize is the number of chars, it is not used for the other types
+        this.pkDataTypeSize = BPlusNode.keySize(pkDataType, tableAttributes.get(indexOfSearchKeyColumn).getSize());
+        double searchKeyPagePointerPairSize = pkDataTypeSize + 2 * Integer.BYTES; // key, page location and record index
+        this.N = (int) Math.floor((pageSize - BPlusNode.HEADER_SIZE - Integer.BYTES) / searchKeyPagePointerPairSize);
         this.rootOffset = rootOffset;
         this.nextAvailableNodeIndex = nextAvailableNodeIndex;
     }
@@ -125,6 +328,15 @@ public class TableSchema {
      * @return
      */
     public int getNextAvailableNodeIndex() {
+        return nextAvailableNodeIndex;
+    }
+
+    /**
+     * Takes the next unused node location in the table's B+ tree file
+     *
+     * @return the location
+     */
+    public int allocateNodeIndex() {
         int temp = nextAvailableNodeIndex;
         nextAvailableNodeIndex += 1;
         return temp;
@@ -204,43 +416,34 @@ public class TableSchema {
      *         into table file
      */
     public int changePageOrder(int whereInitialPageOnDisk) {
+        int locationOnDisk = allocatePageLocation();
         if (pageOrder.isEmpty()) { // same as if whereInitialPageOnDisk is 0
-            if (pageDiskLocationsForReuse.isEmpty()) {
-                pageOrder.add(0); // value for first page in P.O is also 0th page sequentially
-                return 0; // written on disk
-            } else {
-                //else might be redundant, but this works, say we had deleted the last record in last page, we go to
-                //add again and use 'pageDiskLocationsForReuse'
-                int pageLocationForResuse = pageDiskLocationsForReuse.remove(0);
-                pageOrder.add(pageLocationForResuse);
-                return pageLocationForResuse;
-            }
+            pageOrder.add(locationOnDisk);
         } else {
-            // indexNewPage will always be set accurately, only time this should be zero is in if^
-            int indexNewPage = 0; // need to initialize to prevent error
-            int sizeBeforeAdd = pageOrder.size();
-            for (int index = 0; index < sizeBeforeAdd; index++) {
-                if (pageOrder.get(index) == whereInitialPageOnDisk) {
-                    //normal addition of new page in the page ordering
-                    indexNewPage = index + 1;
-                    if (pageDiskLocationsForReuse.isEmpty()) {
-                        // how many pages deep out new page is written on disk will ALWAYS be the
-                        // size of P.O. bc if adding a page, page in data comes after all pages
-                        // that already exist (all pages already in the P.O.)
-                        int curPageOrderSize = pageOrder.size();
-                        // adding into arraylist at specific index will automatically shift all
-                        // following indexes and their corresponding values
-                        pageOrder.add(indexNewPage, curPageOrderSize);
-                    }
-                    else { //we can reuse a prior page location on disk
-                        int pageLocationForResuse = pageDiskLocationsForReuse.remove(0);
-                        pageOrder.add(indexNewPage, pageLocationForResuse);
-                    }
-                    break; // if will never be true again, no need to run rest of loop though
-                }
-            }
-            return pageOrder.get(indexNewPage); // same as returning curPageOrderSize
+            // adding into arraylist at specific index will automatically shift all
+            // following indexes and their corresponding values
+            pageOrder.add(pageOrder.indexOf(whereInitialPageOnDisk) + 1, locationOnDisk);
         }
+        return locationOnDisk;
+    }
+
+    /**
+     * Picks the disk location for a new page, without adding it to the P.O.
+     * A location left by an emptied page is reused when there is one, otherwise the
+     * page goes after every page in the P.O. Emptied locations are only known until
+     * the db is shut down, so after a restart the P.O. size may be a location still in use.
+     *
+     * @return how many pages into the table file the new page is written
+     */
+    public int allocatePageLocation() {
+        if (!pageDiskLocationsForReuse.isEmpty()) {
+            return pageDiskLocationsForReuse.remove(0);
+        }
+        int locationOnDisk = 0;
+        for (int pageLocation : pageOrder) {
+            locationOnDisk = Math.max(locationOnDisk, pageLocation + 1);
+        }
+        return locationOnDisk;
     }
 
     /**
@@ -252,6 +455,8 @@ public class TableSchema {
      */
     public void removePageFromPageOrdering(int pageNumber) {
         addReuseablePageLocation(pageNumber);
+        removePageFences(pageNumber);
+        pageSchemaVersions.remove(pageNumber);
         int sizeBeforeAdd = pageOrder.size();
         for (int index = 0; index < sizeBeforeAdd; index++) {
             if (pageOrder.get(index) == pageNumber) {
@@ -262,6 +467,20 @@ public class TableSchema {
         }
     }
 
+    /**
+     * Removes many pages from our page ordering at once, see
+     * removePageFromPageOrdering. The page order is only gone through once.
+     * @param pageNumbers - pages that have no records
+     */
+    public void removePagesFromPageOrdering(Set<Integer> pageNumbers) {
+        for (int pageNumber : pageNumbers) {
+            addReuseablePageLocation(pageNumber);
+            removePageFences(pageNumber);
+            pageSchemaVersions.remove(pageNumber);
+        }
+        pageOrder.removeIf(pageNumbers::contains);
+    }
+
     /**
      * Returns the table name.
      * 
@@ -0,0 +1,137 @@
+package src;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A database running in a JVM of its own, driven through its command line as
+ * a user would drive it. Used by the testers that need a real process: one
+ * they can kill, or one whose output they check as it is printed.
+ */
+class TestDatabase {
+
+    private static final String PROMPT = "JottQL $ ";
+
+    private final Process process;
+    private final Reader output;
+    private final Writer input;
+
+    /**
+     * Starts the database and waits for its first prompt
+     *
+     * @param args the arguments of src.Main, database folder first
+     * @throws IOException if the JVM cannot be started
+     */
+    TestDatabase(String... args) throws IOException {
+        ArrayList<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("src.Main");
+        command.addAll(Arrays.asList(args));
+        process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        output = new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8);
+        input = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8);
+        String startup = readToPrompt();
+        if (!startup.endsWith(PROMPT)) {
+            throw new IllegalStateException("database did not start:\n" + startup);
+        }
+    }
+
+    /**
+     * Runs one command
+     *
+     * @param command a command ending in ;
+     * @return what the command printed, up to the next prompt
+     */
+    String run(String command) throws IOException {
+        input.write(command + "\n");
+        input.flush();
+        String printed = readToPrompt();
+        if (!printed.endsWith(PROMPT)) {
+            throw new IllegalStateException("database stopped running " + command + ":\n" + printed);
+        }
+        return printed.substring(0, printed.length() - PROMPT.length());
+    }
+
+    /**
+     * Sends one command and reads only until it has printed the given text,
+     * so the caller can act, for example kill the database, the moment it does
+     *
+     * @param command a command ending in ;
+     * @param until the text to wait for
+     * @return what the command printed, up to and including the text
+     */
+    String runUntil(String command, String until) throws IOException {
+        input.write(command + "\n");
+        input.flush();
+        StringBuilder printed = new StringBuilder();
+        int c;
+        while ((c = output.read()) >= 0) {
+            printed.append((char) c);
+            if (printed.length() >= until.length()
+                    && printed.lastIndexOf(until) == printed.length() - until.length()) {
+                return printed.toString();
+            }
+        }
+        throw new IllegalStateException("database stopped running " + command + ":\n" + printed);
+    }
+
+    /**
+     * Shuts the database down with quit
+     *
+     * @return what it printed while shutting down
+     */
+    String quit() throws IOException, InterruptedException {
+        input.write("<quit>\n");
+        input.flush();
+        String printed = readToPrompt();
+        process.waitFor();
+        return printed;
+    }
+
+    /**
+     * Kills the database as kill -9 would, nothing it has not written yet is kept
+     */
+    void kill() throws InterruptedException {
+        process.destroyForcibly();
+        process.waitFor();
+    }
+
+    /**
+     * @return everything printed until the prompt, or until the output ends
+     */
+    private String readToPrompt() throws IOException {
+        StringBuilder printed = new StringBuilder();
+        int c;
+        while ((c = output.read()) >= 0) {
+            printed.append((char) c);
+            if (c == ' ' && printed.length() >= PROMPT.length()
+                    && printed.lastIndexOf(PROMPT) == printed.length() - PROMPT.length()) {
+                break;
+            }
+        }
+        return printed.toString();
+    }
+
+    /**
+     * Deletes a test database's folder and everything in it
+     */
+    static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
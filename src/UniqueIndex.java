@@ -0,0 +1,182 @@
+package src;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hash index over one unique column of a table (other than the primary key),
+ * mapping each value in the column to the primary key of the record that holds
+ * it, so an insert checks a value in constant time instead of scanning every
+ * page of the table.
+ *
+ * All of a table's unique indexes are kept in one file in the database's
+ * indexes folder. The file starts with a state char: it is set to dirty as soon
+ * as the indexes are loaded for use and only set back to clean when they are
+ * written out at shutdown. Indexes found dirty (the database stopped without
+ * writing them) or missing are rebuilt from the table.
+ *
+ * Nulls are indexed like any other value, so a second null in a unique column
+ * is reported as a duplicate.
+ */
+class UniqueIndex {
+
+    private static final char CLEAN = 'c';
+    private static final char DIRTY = 'd';
+
+    private final int column;
+    private final int type;
+    private final HashMap<Object, Object> primaryKeysByValue = new HashMap<>();
+
+    /**
+     * UniqueIndex Constructor
+     *
+     * @param column index of the column in the table
+     * @param type   type of the column
+     */
+    UniqueIndex(int column, int type) {
+        this.column = column;
+        this.type = type;
+    }
+
+    int getColumn() {
+        return column;
+    }
+
+    boolean contains(Object value) {
+        return primaryKeysByValue.containsKey(value);
+    }
+
+    void put(Object value, Object primaryKey) {
+        primaryKeysByValue.put(value, primaryKey);
+    }
+
+    void remove(Object value) {
+        primaryKeysByValue.remove(value);
+    }
+
+    /**
+     * Makes an empty index for every unique column of the table other than the
+     * primary key
+     *
+     * @param table table to index
+     * @return the indexes, empty if the table has no such column
+     */
+    static ArrayList<UniqueIndex> forTable(TableSchema table) {
+        ArrayList<UniqueIndex> indexes = new ArrayList<>();
+        ArrayList<AttributeSchema> attributes = table.getAttributes();
+        for (int i = 0; i < attributes.size(); i++) {
+            int constraints = attributes.get(i).getConstraints();
+            if ((constraints == 1 || constraints == 3) && !attributes.get(i).isPrimaryKey()) {
+                indexes.add(new UniqueIndex(i, attributes.get(i).getType()));
+            }
+        }
+        return indexes;
+    }
+
+    /**
+     * Reads a table's indexes from its index file
+     *
+     * @param file    index file of the table
+     * @param indexes empty indexes for the table's unique columns, filled in place
+     * @param pkType  type of the table's primary key
+     * @return false if the file is missing, was not written out cleanly, is cut
+     *         short (the database stopped while writing it) or does not match
+     *         the table's unique columns, in which case the indexes have to be
+     *         rebuilt
+     */
+    static boolean read(File file, ArrayList<UniqueIndex> indexes, int pkType) throws IOException {
+        if (!file.exists()) {
+            return false;
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (input.readChar() != CLEAN || input.readInt() != indexes.size()) {
+                return false;
+            }
+            for (UniqueIndex index : indexes) {
+                if (input.readInt() != index.column || input.readInt() != index.type) {
+                    return false;
+                }
+                int numEntries = input.readInt();
+                for (int i = 0; i < numEntries; i++) {
+                    Object value = readValue(input, index.type);
+                    index.primaryKeysByValue.put(value, readValue(input, pkType));
+                }
+            }
+        } catch (EOFException e) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Writes a table's indexes to its index file
+     *
+     * @param file    index file of the table
+     * @param indexes the table's indexes
+     * @param pkType  type of the table's primary key
+     * @param clean   whether the file should read as up to date when next loaded
+     */
+    static void write(File file, ArrayList<UniqueIndex> indexes, int pkType, boolean clean) throws IOException {
+        try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))) {
+            output.writeChar(clean ? CLEAN : DIRTY);
+            output.writeInt(indexes.size());
+            for (UniqueIndex index : indexes) {
+                output.writeInt(index.column);
+                output.writeInt(index.type);
+                output.writeInt(index.primaryKeysByValue.size());
+                for (Map.Entry<Object, Object> entry : index.primaryKeysByValue.entrySet()) {
+                    writeValue(output, index.type, entry.getKey());
+                    writeValue(output, pkType, entry.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks an index file as out of date, without rewriting its entries
+     *
+     * @param file index file of the table
+     */
+    static void markDirty(File file) throws IOException {
+        try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+            output.writeChar(DIRTY);
+        }
+    }
+
+    private static void writeValue(DataOutputStream output, int type, Object value) throws IOException {
+        output.writeBoolean(value == null);
+        if (value == null) {
+            return;
+        }
+        switch (type) {
+            case 1 -> output.writeInt((Integer) value);
+            case 2 -> output.writeDouble((Double) value);
+            case 3 -> output.writeBoolean((Boolean) value);
+            case 4, 5 -> output.writeUTF((String) value);
+        }
+    }
+
+    private static Object readValue(DataInputStream input, int type) throws IOException {
+        if (input.readBoolean()) {
+            return null;
+        }
+        return switch (type) {
+            case 1 -> input.readInt();
+            case 2 -> input.readDouble();
+            case 3 -> input.readBoolean();
+            default -> input.readUTF();
+        };
+    }
+}
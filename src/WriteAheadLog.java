@@ -0,0 +1,493 @@
+package src;
+
+import src.BPlusTree.BPlusTree;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+/**
+ * The database's write-ahead log, kept in db-wal.log in the database folder.
+ *
+ * Table pages, B+ tree nodes and the catalog only reach disk at a checkpoint
+ * (see StorageManager.checkpoint), so between checkpoints the log is what
+ * makes changes durable: every record inserted, deleted or updated is logged,
+ * and when the database starts the changes logged since the last checkpoint
+ * are redone on the tables as that checkpoint left them.
+ *
+ * A command's changes are collected in memory and written to the log file
+ * when the command ends (commit). Forcing the file to disk is batched across
+ * commands (group commit): a background thread forces whatever has been
+ * written every groupCommitMillis, so a command survives the process dying
+ * as soon as it ends, and the machine going down at most groupCommitMillis
+ * after. With groupCommitMillis 0 each commit forces the file itself.
+ *
+ * A checkpoint logs an image of each page it is about to write over, and of
+ * the catalog, then a checkpoint end record, before writing any of them in
+ * place. Opening the log writes the images of the last checkpoint end found
+ * in it again, unless the catalog on disk was written by that checkpoint, so
+ * a checkpoint cut short is finished before the catalog is read. Once a
+ * checkpoint is on disk the log is emptied, unless commands logged changes
+ * while it was being written (the background checkpointer writes outside
+ * the Storage Manager's lock): those come before its records in the file,
+ * and are kept until the next checkpoint.
+ *
+ * Every byte ever logged has a log sequence number (LSN), its position in
+ * the log counting from the database's first record, so LSNs keep growing
+ * when the log is emptied. The file starts with the LSN of its first record.
+ * A checkpoint's LSN is where the log ended when it started: every change
+ * before it is in the pages it writes, and none after it. It is stored in
+ * its checkpoint end record and in the catalog it writes.
+ *
+ * Each log record is its length, a CRC32 of its type and contents, its type
+ * and its contents. Reading stops at the first record that is cut short or
+ * fails its check, which is where writing carries on.
+ */
+class WriteAheadLog {
+
+    static final String FILE_NAME = "db-wal.log";
+
+    // the log is checkpointed once it grows past this, which bounds the work redone at startup
+    static final long CHECKPOINT_LOG_SIZE = 16L * 1024 * 1024;
+
+    // changes to a table: the table id, then the records changed
+    static final byte INSERT = 'I';
+    static final byte DELETE = 'D'; // the records hold only their primary key
+    static final byte UPDATE = 'U'; // the records hold their new values, under the same primary key
+    // a page a checkpoint writes over: file number (see StorageManager.indexFileNumber), location, bytes
+    static final byte PAGE_IMAGE = 'P';
+    static final byte CATALOG_IMAGE = 'C';
+    static final byte CHECKPOINT_END = 'E'; // the checkpoint's LSN
+
+    // LSN of the first record, at the start of the file
+    private static final int FILE_HEADER_SIZE = Long.BYTES;
+    // length and CRC32 written before each record
+    private static final int RECORD_HEADER_SIZE = Integer.BYTES * 2;
+
+    private final String dbLoc;
+    private final FileChannel channel;
+    private final long groupCommitMillis;
+    // records logged since the last commit, not yet written to the file
+    private ByteBuffer pending = ByteBuffer.allocate(64 * 1024);
+    // where the next record is written in the file, and the LSN of the record at
+    // FILE_HEADER_SIZE, both only changed holding the log's lock
+    private long fileSize;
+    private long startLsn;
+    // end of the last checkpoint's records in the file, if nothing else was written since its LSN, -1 otherwise
+    private long checkpointEnd = -1;
+    // bytes written to the file since it was opened, and how many of those are known to be on disk
+    private volatile long writtenBytes = 0;
+    private volatile long forcedBytes = 0;
+    // changes logged after the last checkpoint end, found when the log was opened
+    private ArrayList<LogRecord> redoRecords = new ArrayList<>();
+    private Thread groupCommitThread = null;
+    private boolean closing = false;
+
+    /**
+     * A change to a table read back from the log
+     */
+    static class LogRecord {
+        final long lsn;
+        final byte type;
+        final int tableId;
+        // each record as produced by Record.toBytes
+        final ArrayList<byte[]> records;
+
+        LogRecord(long lsn, byte type, int tableId, ArrayList<byte[]> records) {
+            this.lsn = lsn;
+            this.type = type;
+            this.tableId = tableId;
+            this.records = records;
+        }
+    }
+
+    /**
+     * Opens the database's log, creating it if there is none. The last
+     * checkpoint found in it is written out again if its catalog is not the
+     * one on disk, and the changes after it are kept for takeRedoRecords.
+     *
+     * @param dbLoc             database folder
+     * @param groupCommitMillis how often the group commit thread forces the
+     *                          log, 0 to force it on every commit
+     * @throws IOException if the log cannot be read or the checkpoint written
+     */
+    WriteAheadLog(String dbLoc, long groupCommitMillis) throws IOException {
+        this.dbLoc = dbLoc;
+        this.groupCommitMillis = groupCommitMillis;
+        this.channel = FileChannel.open(Paths.get(dbLoc, FILE_NAME), StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        ByteBuffer log = ByteBuffer.allocate((int) channel.size());
+        while (log.hasRemaining()) {
+            if (channel.read(log, log.position()) < 0) {
+                break;
+            }
+        }
+        log.flip();
+        if (log.remaining() < FILE_HEADER_SIZE) {
+            // a new log, nothing was ever logged so LSNs start at 0
+            startLsn = 0;
+            log = ByteBuffer.allocate(FILE_HEADER_SIZE).putLong(0, startLsn);
+            channel.write(log.duplicate(), 0);
+            log.position(FILE_HEADER_SIZE);
+        } else {
+            startLsn = log.getLong();
+        }
+
+        ArrayList<ByteBuffer> checkpointImages = null;
+        long checkpointLsn = -1;
+        ArrayList<ByteBuffer> images = new ArrayList<>();
+        CRC32 crc = new CRC32();
+        while (log.remaining() >= RECORD_HEADER_SIZE) {
+            int length = log.getInt(log.position());
+            int checksum = log.getInt(log.position() + Integer.BYTES);
+            if (length <= 0 || length > log.remaining() - RECORD_HEADER_SIZE) {
+                break; // cut short
+            }
+            long lsn = startLsn + log.position() - FILE_HEADER_SIZE;
+            ByteBuffer record = log.slice(log.position() + RECORD_HEADER_SIZE, length);
+            crc.reset();
+            crc.update(record.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            log.position(log.position() + RECORD_HEADER_SIZE + length);
+            byte type = record.get();
+            switch (type) {
+                case INSERT, DELETE, UPDATE -> {
+                    int tableId = record.getInt();
+                    int count = record.getInt();
+                    ArrayList<byte[]> records = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        byte[] bytes = new byte[record.getInt()];
+                        record.get(bytes);
+                        records.add(bytes);
+                    }
+                    redoRecords.add(new LogRecord(lsn, type, tableId, records));
+                }
+                case PAGE_IMAGE, CATALOG_IMAGE -> images.add(record.position(0));
+                case CHECKPOINT_END -> {
+                    // the changes before its LSN are all in the checkpoint, ones logged
+                    // while it was written come before it but are not
+                    checkpointLsn = record.getLong();
+                    checkpointImages = images;
+                    images = new ArrayList<>();
+                    long inCheckpoint = checkpointLsn;
+                    redoRecords.removeIf(change -> change.lsn < inCheckpoint);
+                }
+            }
+        }
+        // the catalog is written last, once it holds the checkpoint's LSN the checkpoint is all on disk
+        if (checkpointImages != null && readCatalogLsn() != checkpointLsn) {
+            restore(checkpointImages);
+        }
+        // anything after the last whole record is dropped, new records go in its place
+        fileSize = log.position();
+        channel.truncate(fileSize);
+        channel.force(true);
+    }
+
+    /**
+     * @return the LSN of the checkpoint that wrote the catalog file, -1 if
+     *         there is no catalog or it was not written by a checkpoint
+     */
+    private long readCatalogLsn() {
+        File catalogFile = new File(dbLoc, "db-catalog.catalog");
+        if (!catalogFile.isFile() || catalogFile.length() == 0) {
+            return -1;
+        }
+        Catalog catalog = Catalog.readCatalogFromFile(dbLoc);
+        return catalog == null ? -1 : catalog.getCheckpointLsn();
+    }
+
+    /**
+     * Writes a checkpoint's page and catalog images where they belong, the
+     * catalog after the pages are on disk
+     */
+    private void restore(ArrayList<ByteBuffer> images) throws IOException {
+        HashMap<String, FileChannel> files = new HashMap<>();
+        byte[] catalogBytes = null;
+        try {
+            for (ByteBuffer image : images) {
+                if (image.get() == CATALOG_IMAGE) {
+                    catalogBytes = new byte[image.remaining()];
+                    image.get(catalogBytes);
+                    continue;
+                }
+                int fileNumber = image.getInt();
+                int location = image.getInt();
+                String filePath = fileNumber >= 0 ? Paths.get(dbLoc, "tables", String.valueOf(fileNumber)).toString()
+                        : BPlusTree.getFilePath(-fileNumber - 1);
+                FileChannel file = files.get(filePath);
+                if (file == null) {
+                    file = FileChannel.open(Paths.get(filePath), StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+                    files.put(filePath, file);
+                }
+                long position = (long) location * image.remaining();
+                while (image.hasRemaining()) {
+                    position += file.write(image, position);
+                }
+            }
+            for (FileChannel file : files.values()) {
+                file.force(false);
+            }
+        } finally {
+            for (FileChannel file : files.values()) {
+                file.close();
+            }
+        }
+        // last, as in the checkpoint, so its LSN is only on disk once the pages are
+        if (catalogBytes != null) {
+            Catalog.writeCatalogBytes(dbLoc, catalogBytes);
+        }
+    }
+
+    /**
+     * @return the changes logged since the last checkpoint when the log was
+     *         opened, in the order they were made. Only given out once.
+     */
+    ArrayList<LogRecord> takeRedoRecords() {
+        ArrayList<LogRecord> records = redoRecords;
+        redoRecords = new ArrayList<>();
+        return records;
+    }
+
+    /**
+     * Logs a change to records of a table, written to the file at the next commit
+     *
+     * @param type    INSERT, DELETE or UPDATE
+     * @param tableId table changed
+     * @param records the records, each as produced by Record.toBytes
+     */
+    void logChange(byte type, int tableId, ArrayList<byte[]> records) {
+        int length = 1 + Integer.BYTES * 2;
+        for (byte[] bytes : records) {
+            length += Integer.BYTES + bytes.length;
+        }
+        int recordStart = pending.position();
+        pending = startRecord(pending, type, length);
+        pending.putInt(tableId);
+        pending.putInt(records.size());
+        for (byte[] bytes : records) {
+            pending.putInt(bytes.length);
+            pending.put(bytes);
+        }
+        endRecord(pending, recordStart);
+    }
+
+    /**
+     * Writes a checkpoint's records to the file and forces them: the bytes it
+     * is about to write over each page with, the bytes it is about to write
+     * the catalog file with, then its end record, once its images are all
+     * logged and the pages and catalog can be written in place. They do not
+     * wait for a commit, and can be logged while a command runs: they are
+     * written in one go after whatever was written before them.
+     *
+     * @param fileNumbers   for each page, its table id, or StorageManager.indexFileNumber
+     *                      of a table for its B+ tree
+     * @param locations     for each page, its location in the file, in pages
+     * @param pageBytes     for each page, its bytes, one page long
+     * @param catalogBytes  the catalog's bytes
+     * @param checkpointLsn the checkpoint's LSN, as written in its catalog
+     */
+    synchronized void logCheckpoint(ArrayList<Integer> fileNumbers, ArrayList<Integer> locations,
+            ArrayList<byte[]> pageBytes, byte[] catalogBytes, long checkpointLsn) throws IOException {
+        ByteBuffer records = ByteBuffer.allocate(64 * 1024);
+        for (int i = 0; i < pageBytes.size(); i++) {
+            int recordStart = records.position();
+            records = startRecord(records, PAGE_IMAGE, 1 + Integer.BYTES * 2 + pageBytes.get(i).length);
+            records.putInt(fileNumbers.get(i));
+            records.putInt(locations.get(i));
+            records.put(pageBytes.get(i));
+            endRecord(records, recordStart);
+        }
+        int recordStart = records.position();
+        records = startRecord(records, CATALOG_IMAGE, 1 + catalogBytes.length);
+        records.put(catalogBytes);
+        endRecord(records, recordStart);
+        recordStart = records.position();
+        records = startRecord(records, CHECKPOINT_END, 1 + Long.BYTES);
+        records.putLong(checkpointLsn);
+        endRecord(records, recordStart);
+
+        boolean alone = startLsn + fileSize - FILE_HEADER_SIZE == checkpointLsn;
+        writeRecords(records.flip());
+        forceWritten();
+        checkpointEnd = alone ? fileSize : -1;
+    }
+
+    /**
+     * Makes room for a record at the end of the buffer, growing it if need be,
+     * and writes its type. The header is filled in by endRecord.
+     *
+     * @return the buffer, or the larger one it was copied into
+     */
+    private static ByteBuffer startRecord(ByteBuffer buffer, byte type, int length) {
+        if (buffer.remaining() < RECORD_HEADER_SIZE + length) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2,
+                    buffer.position() + RECORD_HEADER_SIZE + length));
+            larger.put(buffer.flip());
+            buffer = larger;
+        }
+        buffer.putInt(length);
+        buffer.putInt(0); // CRC32, once the record is written
+        buffer.put(type);
+        return buffer;
+    }
+
+    private static void endRecord(ByteBuffer buffer, int recordStart) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), recordStart + RECORD_HEADER_SIZE, buffer.getInt(recordStart));
+        buffer.putInt(recordStart + Integer.BYTES, (int) crc.getValue());
+    }
+
+    /**
+     * Ends a command: writes the records logged since the last commit to the
+     * file. They are forced to disk right away when groupCommitMillis is 0,
+     * otherwise by the group commit thread.
+     */
+    void commit() throws IOException {
+        write();
+        if (groupCommitMillis == 0) {
+            forceWritten();
+        }
+    }
+
+    /**
+     * Writes the records logged so far to the file and waits until they are on disk
+     */
+    void force() throws IOException {
+        write();
+        forceWritten();
+    }
+
+    private void write() throws IOException {
+        if (pending.position() == 0) {
+            return;
+        }
+        writeRecords(pending.flip());
+        pending.clear();
+    }
+
+    /**
+     * Writes whole records at the end of the file
+     */
+    private synchronized void writeRecords(ByteBuffer records) throws IOException {
+        int length = records.remaining();
+        while (records.hasRemaining()) {
+            fileSize += channel.write(records, fileSize);
+        }
+        writtenBytes += length;
+    }
+
+    /**
+     * Forces the bytes written so far to disk, unless another force already has
+     */
+    private void forceWritten() throws IOException {
+        long target = writtenBytes;
+        if (target <= forcedBytes) {
+            return;
+        }
+        channel.force(false);
+        synchronized (this) {
+            forcedBytes = Math.max(forcedBytes, target);
+        }
+    }
+
+    /**
+     * Empties the log, called once a checkpoint is on disk. Nothing is
+     * emptied if anything but the checkpoint's records was written to the
+     * file since its LSN, the changes are not in the checkpoint. The new
+     * length is forced before anything else is written, so records of the
+     * old log can never be read back after records of the new one. Changes
+     * logged but not yet committed keep their LSNs.
+     */
+    synchronized void reset() throws IOException {
+        if (checkpointEnd != fileSize) {
+            return;
+        }
+        long lsn = startLsn + fileSize - FILE_HEADER_SIZE;
+        channel.write(ByteBuffer.allocate(FILE_HEADER_SIZE).putLong(0, lsn), 0);
+        channel.truncate(FILE_HEADER_SIZE);
+        channel.force(true);
+        fileSize = FILE_HEADER_SIZE;
+        startLsn = lsn;
+        checkpointEnd = -1;
+    }
+
+    /**
+     * @return bytes logged since the log was last emptied
+     */
+    synchronized long size() {
+        return fileSize - FILE_HEADER_SIZE + pending.position();
+    }
+
+    /**
+     * @return the LSN the next record logged will have
+     */
+    synchronized long endLsn() {
+        return startLsn + size();
+    }
+
+    /**
+     * Starts the thread that forces the log every groupCommitMillis, if commits
+     * do not force it themselves
+     */
+    void startGroupCommit() {
+        if (groupCommitMillis == 0) {
+            return;
+        }
+        groupCommitThread = new Thread(() -> {
+            try {
+                while (waitForGroupCommit()) {
+                    forceWritten();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, "group-commit");
+        groupCommitThread.setDaemon(true);
+        groupCommitThread.start();
+    }
+
+    /**
+     * Waits groupCommitMillis, or until the log is closed. The thread is never
+     * interrupted instead, that would close the channel under a force.
+     *
+     * @return false once the log is closing
+     */
+    private synchronized boolean waitForGroupCommit() {
+        if (!closing) {
+            try {
+                wait(groupCommitMillis);
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+        return !closing;
+    }
+
+    /**
+     * Forces anything left and closes the log, called when the database shuts down
+     */
+    void close() throws IOException {
+        if (groupCommitThread != null) {
+            synchronized (this) {
+                closing = true;
+                notifyAll();
+            }
+            try {
+                groupCommitThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        force();
+        channel.close();
+    }
+}